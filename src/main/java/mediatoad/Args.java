@@ -28,6 +28,12 @@ public class Args {
 	@Option(name = "--db", usage = "Path for metadata DB.") private String db;
 	@Option(name = "--thumbs", usage = "Path for caching image thumbnails.") private String thumbsDir;
 	@Option(name = "--dropdir", usage = "Path for droping metadata import files into.") private String dropDir;
+	@Option(name = "--dir-snapshot", usage = "Remember dir contents in the DB and do not list unmodified dirs on start up.") private boolean dirSnapshot;
+	@Option(name = "--scan-threads", usage = "Number of threads for listing directories during initial scan, default 1.") private int scanThreads = 1;
+	@Option(name = "--hash-threads", usage = "Number of threads to use for hashing files, default 1.") private int hashThreads = 1;
+	@Option(name = "--hash-threads-per-device", usage = "Max number of files to hash at once on each disk, default 1.  Increase for SSDs.") private int hashThreadsPerDevice = 1;
+	@Option(name = "--probe-threads", usage = "Number of ffprobe processes to run at once when reading media info such as duration, default 2.") private int probeThreads = 2;
+	@Option(name = "--db-read-connections", usage = "Number of connections to use for reading from the DB, default 4.") private int dbReadConnections = 4;
 	@Argument(multiValued = true, metaVar = "DIR") private List<String> dirPaths;
 
 	// HTTP
@@ -54,6 +60,7 @@ public class Args {
 	// RPC
 	@Option(name = "--rpcauth", usage = "Path for RPC auth file.") private String rpcAuthFile;
 	@Option(name = "--remote", usage = "HTTP(S) address of remote instance.", metaVar = "https://example.com/") private List<String> remotes;
+	@Option(name = "--remote-cache-mb", usage = "Memory to use for caching recently streamed parts of remote files, default 0 (disabled).") private int remoteCacheMb = 0;
 	@Option(name = "--tagdeterminer", usage = "HTTP(S) address of remote a TagDeterminer and query for which items it should be offered.", metaVar = "https://example.com/|f~mydir/path") private List<String> tagDeterminers;
 
 	// DEV
@@ -208,6 +215,36 @@ public class Args {
 		return checkIsDirOrNull(this.dropDir);
 	}
 
+	public boolean isDirSnapshot() throws ArgsException {
+		if (this.dirSnapshot && this.db == null) throw new ArgsException("--dir-snapshot requires --db to be set.");
+		return this.dirSnapshot;
+	}
+
+	public int getScanThreads() throws ArgsException {
+		if (this.scanThreads < 1) throw new ArgsException("--scan-threads must be at least 1.");
+		return this.scanThreads;
+	}
+
+	public int getHashThreads() throws ArgsException {
+		if (this.hashThreads < 1) throw new ArgsException("--hash-threads must be at least 1.");
+		return this.hashThreads;
+	}
+
+	public int getHashThreadsPerDevice() throws ArgsException {
+		if (this.hashThreadsPerDevice < 1) throw new ArgsException("--hash-threads-per-device must be at least 1.");
+		return this.hashThreadsPerDevice;
+	}
+
+	public int getProbeThreads() throws ArgsException {
+		if (this.probeThreads < 1) throw new ArgsException("--probe-threads must be at least 1.");
+		return this.probeThreads;
+	}
+
+	public int getDbReadConnections() throws ArgsException {
+		if (this.dbReadConnections < 1) throw new ArgsException("--db-read-connections must be at least 1.");
+		return this.dbReadConnections;
+	}
+
 	public File getRpcAuthFile() {
 		return this.rpcAuthFile != null ? new File(this.rpcAuthFile) : null;
 	}
@@ -217,6 +254,11 @@ public class Args {
 		return this.remotes;
 	}
 
+	public long getRemoteCacheBytes() throws ArgsException {
+		if (this.remoteCacheMb < 0) throw new ArgsException("--remote-cache-mb must not be negative.");
+		return this.remoteCacheMb * 1024L * 1024L;
+	}
+
 	public List<String> getTagDeterminers() {
 		if (this.tagDeterminers == null) return Collections.emptyList();
 		return this.tagDeterminers;
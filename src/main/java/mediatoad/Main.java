@@ -26,6 +26,7 @@ import mediatoad.auth.Users;
 import mediatoad.auth.UsersCli;
 import mediatoad.db.DbCache;
 import mediatoad.db.DbCleaner;
+import mediatoad.db.DbDirSnapshot;
 import mediatoad.db.MediaDb;
 import mediatoad.db.MediaMetadataStore;
 import mediatoad.db.TagAutocompleter;
@@ -45,9 +46,11 @@ import mediatoad.media.MediaInfo;
 import mediatoad.media.ThumbnailGenerator;
 import mediatoad.rpc.client.RpcClient;
 import mediatoad.tagdeterminer.TagDeterminerController;
+import mediatoad.util.DirSnapshot;
 import mediatoad.util.ExecutorHelper;
 import mediatoad.util.LogHelper;
 import mediatoad.util.NetHelper;
+import mediatoad.util.PerDeviceExecutor;
 import mediatoad.util.ProgressLogFileListener;
 import mediatoad.util.Watcher;
 
@@ -117,7 +120,8 @@ public final class Main {
 		final ScheduledExecutorService dbEx = ExecutorHelper.newScheduledExecutor(1, "db");
 
 		// Only for hashing files.
-		final ExecutorService fsEx = ExecutorHelper.newExecutor(1, "fs");
+		final PerDeviceExecutor fsEx = new PerDeviceExecutor(args.getHashThreads(), args.getHashThreadsPerDevice(), "fs");
+		fsEx.registerMetrics(PrometheusRegistry.defaultRegistry);
 
 		final File thumbsDir = args.getThumbsDir();
 		final ThumbnailGenerator thumbnailGenerator =
@@ -132,7 +136,7 @@ public final class Main {
 		final TagAutocompleter tagAutocompleter;
 		if (dbFile != null) {
 			LOG.info("DB: {}", dbFile.getAbsolutePath());
-			mediaDb = new MediaDb(dbFile);
+			mediaDb = new MediaDb(dbFile, args.getDbReadConnections());
 			dbCache = new DbCache(mediaDb, dbEx, args.isVerboseLog());
 			mediaMetadataStore = new MediaMetadataStore(mediaDb, dbEx, fsEx, args.isVerboseLog());
 			mediaMetadataStore.registerMetrics(PrometheusRegistry.defaultRegistry);
@@ -146,13 +150,16 @@ public final class Main {
 		}
 
 		final MediaId mediaId = new MediaId(mediaMetadataStore);
-		final MediaInfo mediaInfo = new MediaInfo(mediaMetadataStore, thumbnailGenerator, ExecutorHelper.newExecutor(1, "mi"));
+		final MediaInfo mediaInfo = new MediaInfo(mediaMetadataStore, thumbnailGenerator, ExecutorHelper.newExecutor(args.getProbeThreads(), "mi"));
+		mediaInfo.registerMetrics(PrometheusRegistry.defaultRegistry);
+		mediaInfo.preloadStoredInfo();
 		final ContentTree contentTree = new ContentTree();
 		contentTree.registerMetrics(PrometheusRegistry.defaultRegistry);
 
 		final File dropDir = args.getDropDir();
 		final TagDeterminerController tagDeterminerController = new TagDeterminerController(args, contentTree, mediaDb);
 		final Runnable afterInitialScanIdsAllFiles = () -> {
+			mediaInfo.dropPreloadedInfo();
 			if (mediaDb != null) {
 				new DbCleaner(contentTree, mediaDb, args.isVerboseLog()).start(dbEx);
 				if (dropDir != null) {
@@ -195,7 +202,7 @@ public final class Main {
 
 		final MediaIndex index = new MediaIndex(contentTree, hierarchyMode, mediaId, mediaInfo, authoriser, args.isVerboseLog());
 
-		final Thread watcherThread = new Thread(new RunWatcher(args, index, afterInitialScanFindsAllDirs));
+		final Thread watcherThread = new Thread(new RunWatcher(args, index, mediaDb, dbEx, afterInitialScanFindsAllDirs));
 		watcherThread.setName("watcher");
 		watcherThread.setDaemon(true);
 		watcherThread.start();
@@ -225,21 +232,30 @@ public final class Main {
 
 		private final List<File> roots;
 		private final boolean verboseLog;
+		private final int scanThreads;
+		private final boolean dirSnapshot;
 		private final MediaIndex index;
+		private final MediaDb mediaDb;
+		private final ExecutorService dbEx;
 		private final Runnable prescanCompleteListener;
 
-		public RunWatcher (final Args args, final MediaIndex index, final Runnable prescanCompleteListener) throws ArgsException, IOException {
+		public RunWatcher (final Args args, final MediaIndex index, final MediaDb mediaDb, final ExecutorService dbEx, final Runnable prescanCompleteListener) throws ArgsException, IOException {
 			this.roots = args.getDirs();  // Trigger validation in main thread.
 			this.verboseLog = args.isVerboseLog();
+			this.scanThreads = args.getScanThreads();
+			this.dirSnapshot = args.isDirSnapshot();
 			this.index = index;
+			this.mediaDb = mediaDb;
+			this.dbEx = dbEx;
 			this.prescanCompleteListener = prescanCompleteListener;
 		}
 
 		@Override
 		public void run () {
 			try {
+				final DirSnapshot snapshot = this.dirSnapshot ? new DbDirSnapshot(this.mediaDb, this.dbEx) : null;
 				final Watcher w = new Watcher(this.roots, MediaFormat.MediaFileFilter.INSTANCE,
-						new ProgressLogFileListener(this.index, this.verboseLog));
+						new ProgressLogFileListener(this.index, this.verboseLog), this.scanThreads, snapshot);
 				w.addPrescanCompleteListener(this.prescanCompleteListener);
 				w.run();
 				LOG.error("Watcher thread exited.");
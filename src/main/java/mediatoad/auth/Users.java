@@ -3,22 +3,64 @@ package mediatoad.auth;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 import org.mindrot.jbcrypt.BCrypt;
 
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.metrics.Counter;
+
 public class Users {
 
+	private static final int MAX_VERIFIED_CREDENTIALS = 1000;
+	private static final long VERIFIED_CREDENTIALS_TTL_MINUTES = 5;
+
+	private static final Counter PASSWORD_CHECKS_METRIC = Counter.builder()
+			.name("password_checks")
+			.labelNames("result")
+			.help("count of password checks, grouped by whether they were answered from recently verified credentials or needed a BCrypt check.")
+			.register();
+	private static final CounterDataPoint CACHED = PASSWORD_CHECKS_METRIC.labelValues("cached");
+	private static final CounterDataPoint BCRYPT_VALID = PASSWORD_CHECKS_METRIC.labelValues("bcrypt_valid");
+	private static final CounterDataPoint BCRYPT_INVALID = PASSWORD_CHECKS_METRIC.labelValues("bcrypt_invalid");
+
 	private final Map<String, User> users;
+	// Keyed by a keyed hash of username and password so plain text is never kept, and the value is the stored hash
+	// it was checked against so a changed password never matches.  Only successful checks are kept.
+	private final HashFunction credentialHash;
+	private final Cache<HashCode, String> verifiedCredentials;
 
 	public Users(final File userfile) throws IOException {
+		this(userfile, Ticker.systemTicker());
+	}
+
+	Users(final File userfile, final Ticker ticker) throws IOException {
 		this.users = Collections.unmodifiableMap(parseUsersFile(userfile));
+
+		final byte[] key = new byte[32];
+		new SecureRandom().nextBytes(key);
+		this.credentialHash = Hashing.hmacSha256(key);
+		this.verifiedCredentials = CacheBuilder.newBuilder()
+				.maximumSize(MAX_VERIFIED_CREDENTIALS)
+				.expireAfterWrite(VERIFIED_CREDENTIALS_TTL_MINUTES, TimeUnit.MINUTES)
+				.ticker(ticker)
+				.build();
 	}
 
 	public Set<String> allUsernames() {
@@ -29,11 +71,32 @@ public class Users {
 		return this.users.get(username);
 	}
 
+	/**
+	 * Clients using basic auth send the same credentials with every request, so successful checks are
+	 * remembered for a few minutes rather than running BCrypt every time.
+	 */
 	public User validUser(final String username, final String pass) {
 		final User u = this.users.get(username);
 		if (u == null) return null;
-		if (u.validPass(pass)) return u;
-		return null;
+
+		final HashCode key = this.credentialHash.newHasher()
+				.putString(username, StandardCharsets.UTF_8)
+				.putByte((byte) 0)
+				.putString(pass, StandardCharsets.UTF_8)
+				.hash();
+		if (u.encPass.equals(this.verifiedCredentials.getIfPresent(key))) {
+			CACHED.inc();
+			return u;
+		}
+
+		if (!u.validPass(pass)) return null;
+		this.verifiedCredentials.put(key, u.encPass);
+		return u;
+	}
+
+	long verifiedCredentialsCount() {
+		this.verifiedCredentials.cleanUp();
+		return this.verifiedCredentials.size();
 	}
 
 	private static Map<String, User> parseUsersFile(final File userfile) throws IOException {
@@ -95,7 +158,9 @@ public class Users {
 
 		public boolean validPass(final String pass) {
 			if (this.encPass.length() < 10) return false;
-			return BCrypt.checkpw(pass, this.encPass);
+			final boolean valid = BCrypt.checkpw(pass, this.encPass);
+			(valid ? BCRYPT_VALID : BCRYPT_INVALID).inc();
+			return valid;
 		}
 
 		public boolean hasPermission(final Permission permission) {
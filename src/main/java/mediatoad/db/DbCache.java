@@ -21,13 +21,34 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.metrics.Counter;
+import mediatoad.db.WriteLog.Table;
 import mediatoad.db.search.DbSearchParser;
 
+/**
+ * Values are reloaded in the background once they are older than refreshAfterWrite and
+ * the DB WriteLog shows a write to something the value was read from.
+ */
 public class DbCache {
 
 	private static final int TOP_TAG_COUNT = 200; // TODO make cache param? sublist cache entries?
 	private static final Logger LOG = LoggerFactory.getLogger(DbCache.class);
 
+	private static final Counter REQUESTS_METRIC = Counter.builder()
+			.name("db_cache_requests")
+			.labelNames("cache", "result")
+			.help("count of reads from DB caches, grouped by cache and whether a value was already cached.")
+			.register();
+	private static final Counter RELOADS_METRIC = Counter.builder()
+			.name("db_cache_reloads")
+			.labelNames("cache", "result")
+			.help("count of cached values checked for changes in the DB, grouped by cache and whether they needed reloading.")
+			.register();
+	private static final CacheMetrics DIR_TOP_TAGS_METRICS = new CacheMetrics("dir_top_tags");
+	private static final CacheMetrics SEARCH_TOP_TAGS_METRICS = new CacheMetrics("search_top_tags");
+	private static final CacheMetrics NODE_PREFS_METRICS = new CacheMetrics("node_prefs");
+
 	private final MediaDb db;
 	private final Executor executor;
 	private final boolean verboseLog;
@@ -58,31 +79,47 @@ public class DbCache {
 				.build(new SearchTopTagLoader());
 		this.nodePrefs = CacheBuilder.newBuilder()
 				.maximumSize(1000L)
-				.refreshAfterWrite(1, TimeUnit.NANOSECONDS)  // always check DB version.
+				.refreshAfterWrite(1, TimeUnit.NANOSECONDS)  // always check WriteLog, which is cheap.
 				.ticker(ticker)
 				.build(new NodePrefLoader());
 	}
 
 	/**
-	 * null means loading in progress.
+	 * always returns tags, never defers loading since dir_tags makes this an index lookup.
 	 */
 	public List<TagFrequency> dirTopTags(final Set<BigInteger> authIds, final String pathPrefix) throws SQLException {
-		return readCacheWithTimeout(this.dirTopTags, new CacheKey(authIds, pathPrefix));
+		return readCache(this.dirTopTags, new CacheKey(authIds, pathPrefix), DIR_TOP_TAGS_METRICS);
 	}
 
 	/**
 	 * null means loading in progress.
 	 */
 	public List<TagFrequency> searchTopTags(final Set<BigInteger> authIds, final String query) throws SQLException {
-		return readCacheWithTimeout(this.searchTopTags, new CacheKey(authIds, query));
+		return readCacheWithTimeout(this.searchTopTags, new CacheKey(authIds, query), SEARCH_TOP_TAGS_METRICS);
 	}
 
 	/**
 	 * always returns prefs, never defers loading.
 	 */
 	public Map<String, String> nodePrefs(final String nodeId) throws SQLException {
+		return readCache(this.nodePrefs, new CacheKey(null, nodeId), NODE_PREFS_METRICS);
+	}
+
+	public void invalidateNodePrefs(final String nodeId) {
+		this.nodePrefs.invalidate(new CacheKey(null, nodeId));
+	}
+
+	private static <T> T readCache(final LoadingCache<CacheKey, ValueAndVersion<T>> cache, final CacheKey key, final CacheMetrics metrics) throws SQLException {
+		// Also schedules a reload if due.
+		final ValueAndVersion<T> cached = cache.getIfPresent(key);
+		if (cached != null) {
+			metrics.hit.inc();
+			return cached.value;
+		}
+		metrics.miss.inc();
+
 		try {
-			return this.nodePrefs.get(new CacheKey(null, nodeId)).value;
+			return cache.get(key).value;
 		}
 		catch (final ExecutionException e) {
 			if (e.getCause() instanceof SQLException) {
@@ -92,11 +129,15 @@ public class DbCache {
 		}
 	}
 
-	public void invalidateNodePrefs(final String nodeId) {
-		this.nodePrefs.invalidate(new CacheKey(null, nodeId));
-	}
+	private <T> T readCacheWithTimeout(final LoadingCache<CacheKey, ValueAndVersion<T>> cache, final CacheKey key, final CacheMetrics metrics) throws SQLException {
+		// Also schedules a reload if due.
+		final ValueAndVersion<T> cached = cache.getIfPresent(key);
+		if (cached != null) {
+			metrics.hit.inc();
+			return cached.value;
+		}
+		metrics.miss.inc();
 
-	private <T> T readCacheWithTimeout(final LoadingCache<CacheKey, ValueAndVersion<T>> cache, final CacheKey key) throws SQLException {
 		final ListenableFuture<ValueAndVersion<T>> f = Futures.submit(() -> cache.get(key), this.executor);
 		try {
 			return f.get(200, TimeUnit.MILLISECONDS).value;
@@ -113,41 +154,100 @@ public class DbCache {
 	}
 
 	private class DirTopTagLoader extends DbLoader<List<TagFrequency>> {
+		DirTopTagLoader() {
+			super(DIR_TOP_TAGS_METRICS);
+		}
+
 		@Override
 		public ValueAndVersion<List<TagFrequency>> load(final CacheKey key) throws Exception {
 			final long ver = DbCache.this.db.getWriteCount();
 			final List<TagFrequency> tags = DbCache.this.db.getTopTags(key.authIds, key.query, TOP_TAG_COUNT);
 			return new ValueAndVersion<>(tags, ver);
 		}
+
+		@Override
+		protected boolean changedSince(final CacheKey key, final long version) {
+			return DbCache.this.db.getWriteLog().changedSince(version, key.query, Table.FILES, Table.TAGS);
+		}
 	}
 
 	private class SearchTopTagLoader extends DbLoader<List<TagFrequency>> {
+		SearchTopTagLoader() {
+			super(SEARCH_TOP_TAGS_METRICS);
+		}
+
 		@Override
 		public ValueAndVersion<List<TagFrequency>> load(final CacheKey key) throws Exception {
 			final long ver = DbCache.this.db.getWriteCount();
 			final List<TagFrequency> tags = DbSearchParser.parseSearchForTags(key.query, key.authIds).execute(DbCache.this.db, TOP_TAG_COUNT, 0);
 			return new ValueAndVersion<>(tags, ver);
 		}
+
+		/**
+		 * Search terms can match file paths, so any file could be included.
+		 */
+		@Override
+		protected boolean changedSince(final CacheKey key, final long version) {
+			return DbCache.this.db.getWriteLog().changedSince(version, Table.FILES, Table.HASHES, Table.TAGS, Table.INFOS);
+		}
 	}
 
 	private class NodePrefLoader extends DbLoader<Map<String, String>> {
+		NodePrefLoader() {
+			super(NODE_PREFS_METRICS);
+		}
+
 		@Override
 		public ValueAndVersion<Map<String, String>> load(final CacheKey key) throws Exception {
 			final long ver = DbCache.this.db.getWriteCount();
 			final Map<String, String> prefs = DbCache.this.db.getNodePrefs(key.query);
 			return new ValueAndVersion<>(prefs, ver);
 		}
+
+		@Override
+		protected boolean changedSince(final CacheKey key, final long version) {
+			return DbCache.this.db.getWriteLog().changedSince(version, Table.NODEPREFS);
+		}
 	}
 
 	private abstract class DbLoader<T> extends CacheLoader<CacheKey, ValueAndVersion<T>> {
+		private final CacheMetrics metrics;
+
+		DbLoader(final CacheMetrics metrics) {
+			this.metrics = metrics;
+		}
+
+		/**
+		 * If anything the value for key was read from has been written to since version.
+		 */
+		protected abstract boolean changedSince(CacheKey key, long version);
+
 		@Override
 		public ListenableFuture<ValueAndVersion<T>> reload(final CacheKey key, final ValueAndVersion<T> oldValue) throws Exception {
-			if (oldValue.version == DbCache.this.db.getWriteCount()) return Futures.immediateFuture(oldValue);
+			if (!changedSince(key, oldValue.version)) {
+				this.metrics.unchanged.inc();
+				return Futures.immediateFuture(oldValue);
+			}
+			this.metrics.reloaded.inc();
 			if (DbCache.this.verboseLog) LOG.info("Scheduled background cache refresh for: {}", key);
 			return Futures.submit(() -> load(key), DbCache.this.executor);
 		}
 	}
 
+	private static class CacheMetrics {
+		final CounterDataPoint hit;
+		final CounterDataPoint miss;
+		final CounterDataPoint unchanged;
+		final CounterDataPoint reloaded;
+
+		CacheMetrics(final String cache) {
+			this.hit = REQUESTS_METRIC.labelValues(cache, "hit");
+			this.miss = REQUESTS_METRIC.labelValues(cache, "miss");
+			this.unchanged = RELOADS_METRIC.labelValues(cache, "unchanged");
+			this.reloaded = RELOADS_METRIC.labelValues(cache, "reloaded");
+		}
+	}
+
 	private static class CacheKey {
 		final Set<BigInteger> authIds;
 		final String query;
@@ -0,0 +1,101 @@
+package mediatoad.db;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import mediatoad.util.DirSnapshot;
+
+/**
+ * Loads all dir contents from the DB on construction and holds them in memory
+ * until the initial scan is complete, then writes back any changes in a single transaction.
+ */
+public class DbDirSnapshot implements DirSnapshot {
+
+	// Dirs modified this recently might be modified again without their modified time changing.
+	private static final long RECENTLY_MODIFIED_MILLIS = TimeUnit.SECONDS.toMillis(5);
+	private static final Logger LOG = LoggerFactory.getLogger(DbDirSnapshot.class);
+
+	private final MediaDb mediaDb;
+	private final ExecutorService dbEx;
+	private final Map<String, DirContents> stored;
+	private final Set<String> unchanged = ConcurrentHashMap.newKeySet();
+	private final Map<String, DirContents> changed = new ConcurrentHashMap<>();
+
+	public DbDirSnapshot(final MediaDb mediaDb, final ExecutorService dbEx) throws SQLException {
+		this.mediaDb = mediaDb;
+		this.dbEx = dbEx;
+		this.stored = mediaDb.getAllDirContents();
+		LOG.info("Loaded contents of {} dirs.", this.stored.size());
+	}
+
+	@Override
+	public Listing get(final File dir, final long modifiedMillis) {
+		final String path = dir.getAbsolutePath();
+		final DirContents contents = this.stored.get(path);
+		if (contents == null || contents.getModified() != modifiedMillis) return null;
+
+		this.unchanged.add(path);
+		return new Listing(toFiles(dir, contents.getSubDirNames()), toFiles(dir, contents.getFileNames()));
+	}
+
+	@Override
+	public void put(final File dir, final long modifiedMillis, final List<File> subDirs, final List<File> files) {
+		if (System.currentTimeMillis() - modifiedMillis < RECENTLY_MODIFIED_MILLIS) return;
+		this.changed.put(dir.getAbsolutePath(), new DirContents(modifiedMillis, toNames(subDirs), toNames(files)));
+	}
+
+	@Override
+	public void scanComplete() {
+		final Map<String, DirContents> toStore = new HashMap<>(this.changed);
+		final Collection<String> toRemove = new ArrayList<>();
+		for (final String dir : this.stored.keySet()) {
+			if (!this.unchanged.contains(dir) && !toStore.containsKey(dir)) toRemove.add(dir);
+		}
+		LOG.info("Dir contents: {} unchanged, {} changed, {} removed.", this.unchanged.size(), toStore.size(), toRemove.size());
+
+		// No longer needed.
+		this.stored.clear();
+		this.unchanged.clear();
+		this.changed.clear();
+
+		if (toStore.size() < 1 && toRemove.size() < 1) return;
+		this.dbEx.execute(() -> {
+			try (final WritableMediaDb w = this.mediaDb.getWritable()) {
+				w.storeDirContents(toStore);
+				w.removeDirContents(toRemove);
+			}
+			catch (final Exception e) {
+				LOG.warn("Failed to store dir contents.", e);
+			}
+		});
+	}
+
+	private static List<File> toFiles(final File dir, final List<String> names) {
+		final List<File> ret = new ArrayList<>(names.size());
+		for (final String name : names) {
+			ret.add(new File(dir, name));
+		}
+		return ret;
+	}
+
+	private static List<String> toNames(final List<File> files) {
+		final List<String> ret = new ArrayList<>(files.size());
+		for (final File file : files) {
+			ret.add(file.getName());
+		}
+		return ret;
+	}
+
+}
@@ -0,0 +1,45 @@
+package mediatoad.db;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class DirContents {
+
+	// Can not appear in a file name.
+	private static final String NAME_SEP = "/";
+
+	private final long modified;
+	private final List<String> subDirNames;
+	private final List<String> fileNames;
+
+	public DirContents(final long modified, final List<String> subDirNames, final List<String> fileNames) {
+		if (subDirNames == null) throw new IllegalArgumentException("subDirNames can not be null.");
+		if (fileNames == null) throw new IllegalArgumentException("fileNames can not be null.");
+		this.modified = modified;
+		this.subDirNames = subDirNames;
+		this.fileNames = fileNames;
+	}
+
+	public long getModified() {
+		return this.modified;
+	}
+
+	public List<String> getSubDirNames() {
+		return this.subDirNames;
+	}
+
+	public List<String> getFileNames() {
+		return this.fileNames;
+	}
+
+	static String joinNames(final List<String> names) {
+		return String.join(NAME_SEP, names);
+	}
+
+	static List<String> splitNames(final String names) {
+		if (names == null || names.isEmpty()) return Collections.emptyList();
+		return Arrays.asList(names.split(NAME_SEP));
+	}
+
+}
@@ -1,6 +1,7 @@
 package mediatoad.db;
 
 import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -16,35 +17,75 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.sqlite.SQLiteConfig;
 import org.sqlite.SQLiteConfig.Encoding;
+import org.sqlite.SQLiteConfig.JournalMode;
+import org.sqlite.SQLiteConfig.Pragma;
 import org.sqlite.SQLiteConfig.TransactionMode;
 
+import com.google.gson.Gson;
+
+import mediatoad.db.ReadConnectionPool.ReadConnection;
+
 public class MediaDb {
 
 	public static final String COL_FILE = "file";
 	public static final String COL_TAG = "tag";
 
+	public static final int DEFAULT_READ_CONNECTIONS = 4;
+	// dir_tags row that counts every file.
+	static final String DIR_TAGS_ALL_FILES = "";
+
+	private static final Logger LOG = LoggerFactory.getLogger(MediaDb.class);
+	private static final Gson GSON = new Gson();
+
 	private final String dbPath;
-	private final Connection dbConn;
-	protected final AtomicLong writeCounter = new AtomicLong(0L);
+	private final ReadConnectionPool readPool;
+	private final WriteLog writeLog = new WriteLog();
+	private final Collection<TagChangeListener> tagChangeListeners = new CopyOnWriteArrayList<>();
 
 	public MediaDb (final File dbFile) throws SQLException {
-		this("jdbc:sqlite:" + dbFile.getAbsolutePath());
+		this(dbFile, DEFAULT_READ_CONNECTIONS);
+	}
+
+	public MediaDb (final File dbFile, final int readConnections) throws SQLException {
+		this("jdbc:sqlite:" + dbFile.getAbsolutePath(), readConnections);
 	}
 
 	protected MediaDb(final String dbPath) throws SQLException {
+		this(dbPath, DEFAULT_READ_CONNECTIONS);
+	}
+
+	protected MediaDb(final String dbPath, final int readConnections) throws SQLException {
 		this.dbPath = dbPath;
-		this.dbConn = makeDbConnection(dbPath);
-		makeSchema();
-		executeSql("PRAGMA optimize;");  // https://sqlite.org/lang_analyze.html
+		final boolean populateDirTags;
+		// Schema connection is only closed once the read connections are open so in-memory DBs are kept alive.
+		try (final Connection conn = makeDbConnection(dbPath)) {
+			populateDirTags = !Sqlite.tableExists(conn, "dir_tags");
+			makeSchema(conn);
+			executeSql(conn, "PRAGMA optimize;");  // https://sqlite.org/lang_analyze.html
+			this.readPool = new ReadConnectionPool(() -> makeReadDbConnection(dbPath), readConnections);
+		}
+
+		if (populateDirTags) {
+			final long startNanos = System.nanoTime();
+			try (final WritableMediaDb w = getWritable()) {
+				w.rebuildDirTags();
+			}
+			catch (final IOException e) {
+				throw new SQLException("Failed to populate dir_tags.", e);
+			}
+			LOG.info("Populated dir_tags in {}ms.", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+		}
 	}
 
-	private void makeSchema () throws SQLException {
-		executeSql("CREATE TABLE IF NOT EXISTS files ("
+	private static void makeSchema (final Connection conn) throws SQLException {
+		executeSql(conn, "CREATE TABLE IF NOT EXISTS files ("
 				+ COL_FILE + " STRING NOT NULL PRIMARY KEY, "
 				+ "size INT NOT NULL, "
 				+ "modified INT NOT NULL, "
@@ -55,14 +96,14 @@ public class MediaDb {
 				+ "md5 STRING, "
 				+ "mimetype STRING"
 				+ ");");
-		Sqlite.addColumnIfMissing(this.dbConn, "files", "auth", "STRING NOT NULL DEFAULT '0'");
-		Sqlite.addColumnIfMissing(this.dbConn, "files", "missing", "INT(1) NOT NULL DEFAULT 0");
-		Sqlite.addColumnIfMissing(this.dbConn, "files", "md5", "STRING");
-		Sqlite.addColumnIfMissing(this.dbConn, "files", "mimetype", "STRING");
-		executeSql("CREATE INDEX IF NOT EXISTS files_id_auth_mimetype_missing_idx ON files (id,auth,mimetype,missing);");
-		executeSql("CREATE INDEX IF NOT EXISTS files_hash_idx ON files (hash);");
-
-		executeSql("CREATE TABLE IF NOT EXISTS tags ("
+		Sqlite.addColumnIfMissing(conn, "files", "auth", "STRING NOT NULL DEFAULT '0'");
+		Sqlite.addColumnIfMissing(conn, "files", "missing", "INT(1) NOT NULL DEFAULT 0");
+		Sqlite.addColumnIfMissing(conn, "files", "md5", "STRING");
+		Sqlite.addColumnIfMissing(conn, "files", "mimetype", "STRING");
+		executeSql(conn, "CREATE INDEX IF NOT EXISTS files_id_auth_mimetype_missing_idx ON files (id,auth,mimetype,missing);");
+		executeSql(conn, "CREATE INDEX IF NOT EXISTS files_hash_idx ON files (hash);");
+
+		executeSql(conn, "CREATE TABLE IF NOT EXISTS tags ("
 				+ "file_id STRING NOT NULL, "
 				+ COL_TAG + " STRING NOT NULL COLLATE NOCASE, "
 				+ "cls STRING NOT NULL COLLATE NOCASE DEFAULT '', "
@@ -70,60 +111,83 @@ public class MediaDb {
 				+ "deleted INT(1) NOT NULL DEFAULT 0, "
 				+ "UNIQUE(file_id, " + COL_TAG + ", cls)"  // TODO auto backfill adding cls here?
 				+ ");");
-		Sqlite.addColumnIfMissing(this.dbConn, "tags", "cls", "STRING NOT NULL COLLATE NOCASE DEFAULT ''");
-		executeSql("CREATE INDEX IF NOT EXISTS tags_id_tag_deleted_cls_idx ON tags (file_id,tag COLLATE NOCASE,deleted,cls);");
+		Sqlite.addColumnIfMissing(conn, "tags", "cls", "STRING NOT NULL COLLATE NOCASE DEFAULT ''");
+		executeSql(conn, "CREATE INDEX IF NOT EXISTS tags_id_tag_deleted_cls_idx ON tags (file_id,tag COLLATE NOCASE,deleted,cls);");
 
-		executeSql("CREATE TABLE IF NOT EXISTS hashes ("
+		executeSql(conn, "CREATE TABLE IF NOT EXISTS hashes ("
 				+ "hash STRING NOT NULL PRIMARY KEY, "
 				+ "id STRING NOT NULL"
 				+ ");");
-		executeSql("CREATE INDEX IF NOT EXISTS hashes_idx ON hashes (id);");
+		executeSql(conn, "CREATE INDEX IF NOT EXISTS hashes_idx ON hashes (id);");
 
-		executeSql("CREATE TABLE IF NOT EXISTS infos ("
+		executeSql(conn, "CREATE TABLE IF NOT EXISTS infos ("
 				+ "file_id STRING NOT NULL PRIMARY KEY, "
 				+ "size INT NOT NULL, "
 				+ "duration INT, "
 				+ "width INT, "
 				+ "height INT"
 				+ ");");
-		executeSql("CREATE INDEX IF NOT EXISTS infos_width_idx ON infos (width);");
-		executeSql("CREATE INDEX IF NOT EXISTS infos_height_idx ON infos (height);");
+		executeSql(conn, "CREATE INDEX IF NOT EXISTS infos_width_idx ON infos (width);");
+		executeSql(conn, "CREATE INDEX IF NOT EXISTS infos_height_idx ON infos (height);");
 
-		executeSql("CREATE TABLE IF NOT EXISTS playback ("
+		executeSql(conn, "CREATE TABLE IF NOT EXISTS playback ("
 				+ "file_id STRING NOT NULL PRIMARY KEY, "
 				+ "last_played INT NOT NULL DEFAULT 0, "
 				+ "start_count INT NOT NULL DEFAULT 0, "
 				+ "complete_count INT NOT NULL DEFAULT 0, "
 				+ "excluded INT(1) NOT NULL DEFAULT 0"
 				+ ");");
-		Sqlite.addColumnIfMissing(this.dbConn, "playback", "excluded", "INT(1) NOT NULL DEFAULT 0");
+		Sqlite.addColumnIfMissing(conn, "playback", "excluded", "INT(1) NOT NULL DEFAULT 0");
 
-		executeSql("CREATE TABLE IF NOT EXISTS nodeprefs ("
+		executeSql(conn, "CREATE TABLE IF NOT EXISTS nodeprefs ("
 				+ "id STRING NOT NULL, "
 				+ "key STRING NOT NULL, "
 				+ "value STRING NOT NULL, "
 				+ "UNIQUE(id, key)"
 				+ ");");
+
+		// Maintained by WritableMediaDb so that getTopTags() is a lookup rather than aggregating every file under the dir.
+		// count is the number of not missing files under dir with the tag not deleted and not hidden.
+		executeSql(conn, "CREATE TABLE IF NOT EXISTS dir_tags ("
+				+ "dir STRING NOT NULL, "
+				+ COL_TAG + " STRING NOT NULL COLLATE NOCASE, "
+				+ "auth STRING NOT NULL, "
+				+ "count INT NOT NULL, "
+				+ "UNIQUE(dir, " + COL_TAG + ", auth)"
+				+ ");");
+
+		executeSql(conn, "CREATE TABLE IF NOT EXISTS dirs ("
+				+ "dir STRING NOT NULL PRIMARY KEY, "
+				+ "modified INT NOT NULL, "
+				+ "subdirs STRING NOT NULL, "
+				+ "files STRING NOT NULL"
+				+ ");");
 	}
 
 	@SuppressWarnings("resource")
 	public WritableMediaDb getWritable() throws SQLException {
 		final Connection c = makeDbConnection(this.dbPath);
 		c.setAutoCommit(false);
-		return new WritableMediaDb(c, this.writeCounter);
+		return new WritableMediaDb(c, this.writeLog, this.tagChangeListeners);
 	}
 
-	public PreparedStatement prepare(final String sql) throws SQLException {
-		try {
-			return this.dbConn.prepareStatement(sql);
-		}
-		catch (final SQLException e) {
-			throw new SQLException("Failed to compile query (sql='" + sql + "').", e);
-		}
+	/**
+	 * Must be closed to return it to the pool.
+	 */
+	public ReadConnection borrowReadConnection() throws SQLException {
+		return this.readPool.borrow();
+	}
+
+	public void addTagChangeListener(final TagChangeListener listener) {
+		this.tagChangeListeners.add(listener);
 	}
 
 	public long getWriteCount() {
-		return this.writeCounter.get();
+		return this.writeLog.getVersion();
+	}
+
+	public WriteLog getWriteLog() {
+		return this.writeLog;
 	}
 
 //	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
@@ -134,7 +198,8 @@ public class MediaDb {
 	 */
 	// TODO replace with readFileData() ?
 	BigInteger readFileAuth(final File file) throws SQLException {
-		try (final PreparedStatement st = this.dbConn.prepareStatement("SELECT auth FROM files WHERE file=?;")) {
+		try (final ReadConnection c = this.readPool.borrow()) {
+			final PreparedStatement st = c.prepare("SELECT auth FROM files WHERE file=?;");
 			st.setString(1, file.getAbsolutePath());
 			st.setMaxRows(2);
 			try (final ResultSet rs = st.executeQuery()) {
@@ -147,7 +212,8 @@ public class MediaDb {
 	}
 
 	public String getFilePathForId(final String id) throws SQLException {
-		try (final PreparedStatement st = this.dbConn.prepareStatement("SELECT file FROM files WHERE id=?;")) {
+		try (final ReadConnection c = this.readPool.borrow()) {
+			final PreparedStatement st = c.prepare("SELECT file FROM files WHERE id=?;");
 			st.setString(1, id);
 			st.setMaxRows(2);
 			try (final ResultSet rs = st.executeQuery()) {
@@ -160,32 +226,52 @@ public class MediaDb {
 	}
 
 	public FileData getFileData(final File file) throws SQLException {
-		return readFileDataFromConn(this.dbConn, file);
+		try (final ReadConnection c = this.readPool.borrow()) {
+			return readFileDataWithStatement(c.prepare(SELECT_FILE_DATA_SQL), file);
+		}
 	}
 
+	static final String FILE_DATA_COLUMNS = "size, modified, hash, md5, mimetype, id, auth, missing";
+	static final String SELECT_FILE_DATA_SQL = "SELECT " + FILE_DATA_COLUMNS + " FROM files WHERE file=?;";
+
 	protected static FileData readFileDataFromConn(final Connection conn, final File file) throws SQLException {
-		try (final PreparedStatement st = conn.prepareStatement("SELECT size, modified, hash, md5, mimetype, id, auth, missing FROM files WHERE file=?;")) {
-			st.setString(1, file.getAbsolutePath());
-			st.setMaxRows(2);
-			try (final ResultSet rs = st.executeQuery()) {
-				if (!rs.next()) return null;
-				final FileData fileData = new FileData(
-						rs.getLong(1),
-						rs.getLong(2),
-						rs.getString(3),
-						rs.getString(4),
-						rs.getString(5),
-						rs.getString(6),
-						new BigInteger(rs.getString(7), 16),
-						rs.getInt(8) != 0);
-				if (rs.next()) throw new SQLException("Query for file '" + file.getAbsolutePath() + "' retured more than one result.");
-				return fileData;
-			}
+		try (final PreparedStatement st = conn.prepareStatement(SELECT_FILE_DATA_SQL)) {
+			return readFileDataWithStatement(st, file);
 		}
 	}
 
+	/**
+	 * st must have been prepared from SELECT_FILE_DATA_SQL.
+	 */
+	protected static FileData readFileDataWithStatement(final PreparedStatement st, final File file) throws SQLException {
+		st.setString(1, file.getAbsolutePath());
+		st.setMaxRows(2);
+		try (final ResultSet rs = st.executeQuery()) {
+			if (!rs.next()) return null;
+			final FileData fileData = fileDataFromRow(rs, 1);
+			if (rs.next()) throw new SQLException("Query for file '" + file.getAbsolutePath() + "' retured more than one result.");
+			return fileData;
+		}
+	}
+
+	/**
+	 * Reads FILE_DATA_COLUMNS starting at firstColumn.
+	 */
+	protected static FileData fileDataFromRow(final ResultSet rs, final int firstColumn) throws SQLException {
+		return new FileData(
+				rs.getLong(firstColumn),
+				rs.getLong(firstColumn + 1),
+				rs.getString(firstColumn + 2),
+				rs.getString(firstColumn + 3),
+				rs.getString(firstColumn + 4),
+				rs.getString(firstColumn + 5),
+				new BigInteger(rs.getString(firstColumn + 6), 16),
+				rs.getInt(firstColumn + 7) != 0);
+	}
+
 	public Collection<String> getAllFilesThatAreNotMarkedAsMissing() throws SQLException {
-		try (final PreparedStatement st = this.dbConn.prepareStatement("SELECT file FROM files WHERE missing=0;")) {
+		try (final ReadConnection c = this.readPool.borrow()) {
+			final PreparedStatement st = c.prepare("SELECT file FROM files WHERE missing=0;");
 			try (final ResultSet rs = st.executeQuery()) {
 				final Collection<String> ret = new ArrayList<>();
 				while (rs.next()) {
@@ -198,7 +284,8 @@ public class MediaDb {
 
 	public Collection<String> getFilesWithHash(final Set<BigInteger> authIds, final String hash) throws SQLException {
 		final String sql = "SELECT file FROM files WHERE missing=0 AND hash=? AND " + SqlFragments.makeWhereAuth(authIds) + " ORDER BY file ASC;";
-		try (final PreparedStatement st = this.dbConn.prepareStatement(sql)) {
+		try (final ReadConnection c = this.readPool.borrow()) {
+			final PreparedStatement st = c.prepare(sql);
 			st.setString(1, hash);
 			try (final ResultSet rs = st.executeQuery()) {
 				final Collection<String> ret = new ArrayList<>();
@@ -214,9 +301,8 @@ public class MediaDb {
 	// File Info; duration, width, height.
 
 	protected FileInfo readInfoCheckingFileSize (final String fileId, final long expectedSize) throws SQLException {
-		final PreparedStatement st = this.dbConn.prepareStatement(
-				"SELECT size, duration, width, height FROM infos WHERE file_id=?;");
-		try {
+		try (final ReadConnection c = this.readPool.borrow()) {
+			final PreparedStatement st = c.prepare("SELECT size, duration, width, height FROM infos WHERE file_id=?;");
 			st.setString(1, fileId);
 			st.setMaxRows(2);
 			final ResultSet rs = st.executeQuery();
@@ -237,8 +323,22 @@ public class MediaDb {
 				rs.close();
 			}
 		}
-		finally {
-			st.close();
+	}
+
+	protected PreloadedFileInfos readAllInfos () throws SQLException {
+		final PreloadedFileInfos ret = new PreloadedFileInfos();
+		try (final ReadConnection c = this.readPool.borrow()) {
+			final PreparedStatement st = c.prepare("SELECT file_id, size, duration, width, height FROM infos;");
+			final ResultSet rs = st.executeQuery();
+			try {
+				while (rs.next()) {
+					ret.put(rs.getString(1), rs.getLong(2), new FileInfo(rs.getLong(3), rs.getInt(4), rs.getInt(5)));
+				}
+				return ret;
+			}
+			finally {
+				rs.close();
+			}
 		}
 	}
 
@@ -246,31 +346,33 @@ public class MediaDb {
 	// Hashes.
 
 	public String canonicalIdForHash (final String hash) throws SQLException {
-		return MediaDb.canonicalIdForHashFromConn(this.dbConn, hash);
+		try (final ReadConnection c = this.readPool.borrow()) {
+			return canonicalIdForHashWithStatement(c.prepare(SELECT_CANONICAL_ID_SQL), hash);
+		}
 	}
 
+	static final String SELECT_CANONICAL_ID_SQL = "SELECT id FROM hashes WHERE hash=?;";
+
 	/**
 	 * hash is lower case hex, from BigInteger.toString(16).
 	 */
 	protected static String canonicalIdForHashFromConn (final Connection conn, final String hash) throws SQLException {
-		final PreparedStatement st = conn.prepareStatement(
-				"SELECT id FROM hashes WHERE hash=?;");
-		try {
-			st.setString(1, hash);
-			st.setMaxRows(2);
-			final ResultSet rs = st.executeQuery();
-			try {
-				if (!rs.next()) return null;
-				final String id = rs.getString(1);
-				if (rs.next()) throw new SQLException("Query for hash '" + hash + "' retured more than one result.");
-				return id;
-			}
-			finally {
-				rs.close();
-			}
+		try (final PreparedStatement st = conn.prepareStatement(SELECT_CANONICAL_ID_SQL)) {
+			return canonicalIdForHashWithStatement(st, hash);
 		}
-		finally {
-			st.close();
+	}
+
+	/**
+	 * st must have been prepared from SELECT_CANONICAL_ID_SQL.
+	 */
+	protected static String canonicalIdForHashWithStatement (final PreparedStatement st, final String hash) throws SQLException {
+		st.setString(1, hash);
+		st.setMaxRows(2);
+		try (final ResultSet rs = st.executeQuery()) {
+			if (!rs.next()) return null;
+			final String id = rs.getString(1);
+			if (rs.next()) throw new SQLException("Query for hash '" + hash + "' retured more than one result.");
+			return id;
 		}
 	}
 
@@ -278,7 +380,34 @@ public class MediaDb {
 	// Tags.
 
 	public Collection<Tag> getTags(final String fileId, final boolean inclideHidden, final boolean includeDeleted) throws SQLException {
-		return getTagsFromConn(this.dbConn, fileId, inclideHidden, includeDeleted);
+		try (final ReadConnection c = this.readPool.borrow()) {
+			final PreparedStatement st = c.prepare(selectTagsSql(inclideHidden, includeDeleted));
+			st.setString(1, fileId);
+			return readTagsResultSet(st);
+		}
+	}
+
+	/**
+	 * One query however many IDs.  Every ID gets an entry, empty if it has no tags.
+	 */
+	public Map<String, Collection<Tag>> getTags(final Collection<String> fileIds, final boolean inclideHidden, final boolean includeDeleted) throws SQLException {
+		final Map<String, Collection<Tag>> ret = new LinkedHashMap<>();
+		for (final String id : fileIds) {
+			ret.put(id, new ArrayList<>());
+		}
+		if (ret.isEmpty()) return ret;
+
+		try (final ReadConnection c = this.readPool.borrow()) {
+			final PreparedStatement st = c.prepare(selectTagsForIdsSql(inclideHidden, includeDeleted));
+			st.setString(1, jsonArray(ret.keySet()));
+			try (final ResultSet rs = st.executeQuery()) {
+				while (rs.next()) {
+					final Collection<Tag> tags = ret.get(rs.getString(1));
+					if (tags != null) tags.add(new Tag(rs.getString(2), rs.getString(3), rs.getLong(4), rs.getInt(5) != 0));
+				}
+			}
+		}
+		return ret;
 	}
 
 	protected static Collection<Tag> getTagFromConn(final Connection conn, final String fileId, final String tag, final String cls) throws SQLException {
@@ -291,11 +420,7 @@ public class MediaDb {
 	}
 
 	protected static Collection<Tag> getTagsFromConn(final Connection conn, final String fileId, final boolean inclideHidden, final boolean includeDeleted) throws SQLException {
-		String query = SELECT_FROM_TAGS + "file_id=?";
-		if (!inclideHidden) query += " AND cls NOT LIKE '.%'";
-		if (!includeDeleted) query += " AND deleted=0";
-		query += " ORDER BY tag ASC, cls ASC";
-		try (final PreparedStatement st = conn.prepareStatement(query)) {
+		try (final PreparedStatement st = conn.prepareStatement(selectTagsSql(inclideHidden, includeDeleted))) {
 			st.setString(1, fileId);
 			return readTagsResultSet(st);
 		}
@@ -303,6 +428,29 @@ public class MediaDb {
 
 	private static final String SELECT_FROM_TAGS = "SELECT tag,cls,modified,deleted FROM tags WHERE ";
 
+	private static String selectTagsSql(final boolean inclideHidden, final boolean includeDeleted) {
+		String query = SELECT_FROM_TAGS + "file_id=?";
+		if (!inclideHidden) query += " AND cls NOT LIKE '.%'";
+		if (!includeDeleted) query += " AND deleted=0";
+		query += " ORDER BY tag ASC, cls ASC";
+		return query;
+	}
+
+	private static String selectTagsForIdsSql(final boolean inclideHidden, final boolean includeDeleted) {
+		String query = "SELECT file_id,tag,cls,modified,deleted FROM tags WHERE file_id IN (SELECT value FROM json_each(?))";
+		if (!inclideHidden) query += " AND cls NOT LIKE '.%'";
+		if (!includeDeleted) query += " AND deleted=0";
+		query += " ORDER BY file_id ASC, tag ASC, cls ASC";
+		return query;
+	}
+
+	/**
+	 * For use with json_each(), so a list of any length can be bound to a single parameter of a cached statement.
+	 */
+	private static String jsonArray(final Collection<String> values) {
+		return GSON.toJson(values);
+	}
+
 	private static Collection<Tag> readTagsResultSet(final PreparedStatement st) throws SQLException {
 		try (final ResultSet rs = st.executeQuery()) {
 			final Collection<Tag> ret = new ArrayList<>();
@@ -315,39 +463,36 @@ public class MediaDb {
 
 	public List<TagFrequency> getTopTags(final Set<BigInteger> authIds, final String pathPrefix, final int countLimit) throws SQLException {
 		final StringBuilder sql = new StringBuilder();
-		sql.append("SELECT DISTINCT tag, COUNT(DISTINCT file_id) AS freq FROM files, tags WHERE id=file_id AND deleted=0 AND cls NOT LIKE '.%' AND missing=0 AND");
-		if (pathPrefix != null) {
-			sql.append(" file LIKE ? ESCAPE ? AND");
-		}
+		sql.append("SELECT tag, SUM(count) AS freq FROM dir_tags WHERE dir=? AND");
 		SqlFragments.appendWhereAuth(sql, authIds);
 		sql.append(" GROUP BY tag ORDER BY freq DESC, tag ASC LIMIT ?;");
-		try (final PreparedStatement st = this.dbConn.prepareStatement(sql.toString())) {
-			int param = 1;
-			if (pathPrefix != null) {
-				String pathLike = pathPrefix;
-				// TODO what about file systems that use \ ?
-				if (!pathLike.endsWith("/")) pathLike += "/";
-				st.setString(param++, Sqlite.escapeSearch(pathLike) + "%");
-				st.setString(param++, Sqlite.SEARCH_ESC);
-			}
-			st.setInt(param++, countLimit);
+		try (final ReadConnection c = this.readPool.borrow()) {
+			final PreparedStatement st = c.prepare(sql.toString());
+			st.setString(1, pathPrefix != null ? new File(pathPrefix).getPath() : DIR_TAGS_ALL_FILES);
+			st.setInt(2, countLimit);
 			st.setMaxRows(countLimit);
 			return readTagFrequencyResultSet(countLimit, st);
 		}
 	}
 
-	// FIXME this does not honour auth.
-	public List<TagFrequency> getAllTagsNotMissingNotDeleted() throws SQLException {
-		final String sql = "SELECT DISTINCT tag, COUNT(DISTINCT file_id) AS freq"
+	/**
+	 * Counts are per auth ID so the index can only count files the user is allowed to see.
+	 */
+	void addAllTagsNotMissingNotDeleted(final TagIndex.Builder builder) throws SQLException {
+		final String sql = "SELECT tag, auth, COUNT(DISTINCT file_id) AS freq"
 				+ " FROM files, tags"
 				+ " WHERE id=file_id"
 				+ " AND missing=0"
 				+ " AND deleted=0"
 				+ " AND cls NOT LIKE '.%'"
-				+ " GROUP BY tag"
-				+ " ORDER BY tag ASC, freq DESC;";  // Sort order depended on by TagAutocompleter.
-		try (final PreparedStatement st = this.dbConn.prepareStatement(sql.toString())) {
-			return readTagFrequencyResultSet(1000, st);
+				+ " GROUP BY tag, auth;";
+		try (final ReadConnection c = this.readPool.borrow()) {
+			final PreparedStatement st = c.prepare(sql);
+			try (final ResultSet rs = st.executeQuery()) {
+				while (rs.next()) {
+					builder.add(rs.getString(1), new BigInteger(rs.getString(2), 16), rs.getInt(3));
+				}
+			}
 		}
 	}
 
@@ -368,18 +513,28 @@ public class MediaDb {
 		return getPlayback(Collections.singleton(id)).get(id);
 	}
 
+	/**
+	 * One query however many IDs.  Returned in the order of ids, IDs with no playback are left out.
+	 */
 	public Map<String, Playback> getPlayback(final Collection<String> ids) throws SQLException {
-		final Map<String, Playback> ret = new LinkedHashMap<>();
-		try (final PreparedStatement st = this.dbConn
-				.prepareStatement("SELECT last_played, start_count, complete_count, excluded FROM playback WHERE file_id=?")) {
-			for (final String id : ids) {
-				st.setString(1, id);
-				try (final ResultSet rs = st.executeQuery()) {
-					if (!rs.next()) continue;
-					ret.put(id, new Playback(rs.getLong(1), rs.getInt(2), rs.getInt(3), rs.getInt(4) != 0));
+		final Map<String, Playback> found = new HashMap<>();
+		if (ids.isEmpty()) return found;
+		try (final ReadConnection c = this.readPool.borrow()) {
+			final PreparedStatement st = c.prepare("SELECT file_id, last_played, start_count, complete_count, excluded FROM playback"
+					+ " WHERE file_id IN (SELECT value FROM json_each(?))");
+			st.setString(1, jsonArray(ids));
+			try (final ResultSet rs = st.executeQuery()) {
+				while (rs.next()) {
+					found.put(rs.getString(1), new Playback(rs.getLong(2), rs.getInt(3), rs.getInt(4), rs.getInt(5) != 0));
 				}
 			}
 		}
+
+		final Map<String, Playback> ret = new LinkedHashMap<>();
+		for (final String id : ids) {
+			final Playback p = found.get(id);
+			if (p != null) ret.put(id, p);
+		}
 		return ret;
 	}
 
@@ -388,7 +543,8 @@ public class MediaDb {
 
 	public Map<String, String> getNodePrefs(final String nodeId) throws SQLException {
 		final Map<String, String> ret = new HashMap<>();
-		try (final PreparedStatement st = this.dbConn.prepareStatement("SELECT key, value FROM nodeprefs WHERE id=?;")) {
+		try (final ReadConnection c = this.readPool.borrow()) {
+			final PreparedStatement st = c.prepare("SELECT key, value FROM nodeprefs WHERE id=?;");
 			st.setString(1, nodeId);
 			try (final ResultSet rs = st.executeQuery()) {
 				while (rs.next()) {
@@ -401,7 +557,8 @@ public class MediaDb {
 
 	public Map<String, String> getAllNodePref(final String key) throws SQLException {
 		final Map<String, String> ret = new HashMap<>();
-		try (final PreparedStatement st = this.dbConn.prepareStatement("SELECT id, value FROM nodeprefs WHERE key=?;")) {
+		try (final ReadConnection c = this.readPool.borrow()) {
+			final PreparedStatement st = c.prepare("SELECT id, value FROM nodeprefs WHERE key=?;");
 			st.setString(1, key);
 			try (final ResultSet rs = st.executeQuery()) {
 				while (rs.next()) {
@@ -412,25 +569,56 @@ public class MediaDb {
 		}
 	}
 
+//	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// dirs:
+
+	public Map<String, DirContents> getAllDirContents() throws SQLException {
+		final Map<String, DirContents> ret = new HashMap<>();
+		try (final ReadConnection c = this.readPool.borrow()) {
+			final PreparedStatement st = c.prepare("SELECT dir, modified, subdirs, files FROM dirs;");
+			try (final ResultSet rs = st.executeQuery()) {
+				while (rs.next()) {
+					ret.put(rs.getString(1), new DirContents(
+							rs.getLong(2),
+							DirContents.splitNames(rs.getString(3)),
+							DirContents.splitNames(rs.getString(4))));
+				}
+				return ret;
+			}
+		}
+	}
 
 //	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
 
 	private static SQLiteConfig makeDbConfig() throws SQLException {
 		final SQLiteConfig c = new SQLiteConfig();
 		c.setEncoding(Encoding.UTF8);
-		c.setSharedCache(true);
+		c.setJournalMode(JournalMode.WAL);  // Readers do not block the writer, or each other.
 		c.setTransactionMode(TransactionMode.IMMEDIATE);
 		c.enforceForeignKeys(true);
 		c.setBusyTimeout((int) TimeUnit.SECONDS.toMillis(30));  // Should be longer than MediaMetadataStore.FILE_BATCH_MAX_DURATION.
 		return c;
 	}
 
+	private static SQLiteConfig makeReadDbConfig() {
+		final SQLiteConfig c = new SQLiteConfig();
+		c.setReadOnly(true);
+		c.setCacheSize(-16 * 1024);  // Negative is KiB, so 16 MiB per connection.
+		c.setPragma(Pragma.MMAP_SIZE, String.valueOf(256L * 1024 * 1024));
+		c.setBusyTimeout((int) TimeUnit.SECONDS.toMillis(30));
+		return c;
+	}
+
 	private static Connection makeDbConnection (final String dbPath) throws SQLException {
 		return DriverManager.getConnection(dbPath, makeDbConfig().toProperties());
 	}
 
-	private boolean executeSql (final String sql) throws SQLException {
-		final Statement st = this.dbConn.createStatement();
+	private static Connection makeReadDbConnection (final String dbPath) throws SQLException {
+		return DriverManager.getConnection(dbPath, makeReadDbConfig().toProperties());
+	}
+
+	private static boolean executeSql (final Connection conn, final String sql) throws SQLException {
+		final Statement st = conn.createStatement();
 		try {
 			return st.executeUpdate(sql) > 0;
 		}
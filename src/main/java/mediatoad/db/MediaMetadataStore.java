@@ -9,6 +9,7 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
@@ -21,16 +22,21 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.prometheus.metrics.core.metrics.Counter;
 import io.prometheus.metrics.core.metrics.GaugeWithCallback;
 import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.Unit;
+import mediatoad.db.FileTask.Action;
 import mediatoad.media.MediaFormat;
 import mediatoad.media.MediaIdCallback;
 import mediatoad.util.HashHelper;
+import mediatoad.util.PerDeviceExecutor;
 
 public class MediaMetadataStore {
 
 	private static final long FILE_BATCH_START_DELAY_MILLIS = 1000;  // Yield to other activities / DB writers.
 	private static final long FILE_BATCH_MAX_DURATION_NANOS = TimeUnit.SECONDS.toNanos(10);
+	private static final int FILE_CHUNK_SIZE = 500;  // Files looked up in the DB together.
 	private static final int INFO_WRITE_INTERVAL_SECONDS = 30;
 	private static final Logger LOG = LoggerFactory.getLogger(MediaMetadataStore.class);
 
@@ -41,6 +47,11 @@ public class MediaMetadataStore {
 			.help("number of files that are inaccessable or very recently modified.")
 			.callback((cb) -> cb.call(this.fileQueue.size()))
 			.build();
+	private final Counter hashReadMetric = Counter.builder()
+			.name("db_file_hash_read")
+			.unit(Unit.BYTES)
+			.help("bytes of files read while generating hashes.")
+			.build();
 	private final GaugeWithCallback infoQueueMetric = GaugeWithCallback.builder()
 			.name("db_write_info_queue_size")
 			.help("number of files that are inaccessable or very recently modified.")
@@ -53,10 +64,14 @@ public class MediaMetadataStore {
 
 	private final MediaDb mediaDb;
 	private final ScheduledExecutorService dbEx;
-	private final ExecutorService fsEx;
+	private final PerDeviceExecutor fsEx;
 	private final boolean verboseLog;
 
 	public MediaMetadataStore(final MediaDb mediaDb, final ScheduledExecutorService dbEx, final ExecutorService fsEx, final boolean verboseLog) {
+		this(mediaDb, dbEx, new PerDeviceExecutor(fsEx, Integer.MAX_VALUE, "fs"), verboseLog);
+	}
+
+	public MediaMetadataStore(final MediaDb mediaDb, final ScheduledExecutorService dbEx, final PerDeviceExecutor fsEx, final boolean verboseLog) {
 		this.mediaDb = mediaDb;
 		this.dbEx = dbEx;
 		this.fsEx = fsEx;
@@ -66,6 +81,7 @@ public class MediaMetadataStore {
 
 	public void registerMetrics(final PrometheusRegistry registry) {
 		registry.register(this.fileQueueMetric);
+		registry.register(this.hashReadMetric);
 		registry.register(this.infoQueueMetric);
 	}
 
@@ -123,20 +139,14 @@ public class MediaMetadataStore {
 		Runnable genericCallback = null;
 
 		try (final WritableMediaDb w = this.mediaDb.getWritable()) {
-			FileTask f = null;
+			final List<FileTask> chunk = new ArrayList<>();
 			do {
-				try {
-					f = this.fileQueue.poll(10, TimeUnit.MILLISECONDS);
-				}
-				catch (final InterruptedException e) {/* ignore */}
-				if (f != null) {
-					genericCallback = f.getGenericCallback();
-					if (genericCallback != null) break;
-					processFile(w, f);
-					count += 1;
-				}
+				chunk.clear();
+				genericCallback = pollChunk(chunk);
+				processChunk(w, chunk);
+				count += chunk.size();
 			}
-			while (f != null && System.nanoTime() - startTime < FILE_BATCH_MAX_DURATION_NANOS);
+			while (genericCallback == null && chunk.size() > 0 && System.nanoTime() - startTime < FILE_BATCH_MAX_DURATION_NANOS);
 			this.fileIdWorkerRunning.compareAndSet(true, false);
 			// we have said we are not running anymore, any new work added to the queue
 			// will add a new batch.  if there is any work still on the queue, schedule a
@@ -152,10 +162,56 @@ public class MediaMetadataStore {
 		}
 	}
 
-	private void processFile(final WritableMediaDb w, final FileTask task) {
+	/**
+	 * Fills chunk with file tasks, stopping early if a generic callback is found.
+	 * Returns the generic callback, if one was found.
+	 */
+	private Runnable pollChunk(final List<FileTask> chunk) {
+		FileTask f = null;
+		try {
+			f = this.fileQueue.poll(10, TimeUnit.MILLISECONDS);
+		}
+		catch (final InterruptedException e) {/* ignore */}
+
+		while (f != null) {
+			if (f.getGenericCallback() != null) return f.getGenericCallback();
+			chunk.add(f);
+			if (chunk.size() >= FILE_CHUNK_SIZE) break;
+			f = this.fileQueue.poll();
+		}
+		return null;
+	}
+
+	/**
+	 * Looks up the DB rows for the whole chunk with a couple of queries, then resolves
+	 * in order any files that have not changed and need nothing writing.
+	 * Everything else goes through addOrUpdateFileData() as normal.
+	 * If that writes anything the prefetched rows might be stale, so they are fetched again.
+	 */
+	private void processChunk(final WritableMediaDb w, final List<FileTask> chunk) throws SQLException {
+		PrefetchedFileData prefetched = null;
+		long changes = w.totalChanges();
+		for (int i = 0; i < chunk.size(); i++) {
+			final FileTask task = chunk.get(i);
+			if (prefetched == null && task.getAction() == Action.ID && task.getNewFileData() == null) {
+				prefetched = PrefetchedFileData.forTasks(w, chunk.subList(i, chunk.size()));
+			}
+
+			processFile(w, task, prefetched);
+
+			final long newChanges = w.totalChanges();
+			if (newChanges != changes) {
+				changes = newChanges;
+				prefetched = null;
+			}
+		}
+	}
+
+	private void processFile(final WritableMediaDb w, final FileTask task, final PrefetchedFileData prefetched) {
 		try {
 			switch (task.getAction()) {
 			case ID:
+				if (prefetched != null && prefetched.resolveIfUnchanged(task)) break;
 				addOrUpdateFileData(w, task);
 				break;
 			case GONE:
@@ -238,6 +294,51 @@ public class MediaMetadataStore {
 		task.getCallback().onResult(id);
 	}
 
+	private static class PrefetchedFileData {
+
+		private final Map<String, FileData> fileData;
+		private final Map<String, String> canonicalIds;
+
+		private PrefetchedFileData(final Map<String, FileData> fileData, final Map<String, String> canonicalIds) {
+			this.fileData = fileData;
+			this.canonicalIds = canonicalIds;
+		}
+
+		public static PrefetchedFileData forTasks(final WritableMediaDb w, final List<FileTask> tasks) throws SQLException {
+			final Set<File> files = new HashSet<>();
+			for (final FileTask t : tasks) {
+				if (t.getAction() == Action.ID && t.getNewFileData() == null) files.add(t.getFile());
+			}
+			final Map<String, FileData> fileData = w.readFileData(files);
+
+			final Set<String> hashes = new HashSet<>();
+			for (final FileData d : fileData.values()) {
+				hashes.add(d.getHash());
+			}
+			return new PrefetchedFileData(fileData, w.canonicalIdsForHashes(hashes));
+		}
+
+		/**
+		 * Returns true if the callback has been called.
+		 * Only handles the case where addOrUpdateFileData() would not write anything,
+		 * so must agree with it about what needs writing.
+		 */
+		public boolean resolveIfUnchanged(final FileTask task) throws IOException {
+			if (task.getNewFileData() != null) return false;
+
+			final File file = task.getFile();
+			final FileData d = this.fileData.get(file.getAbsolutePath());
+			if (d == null || d.isMissing() || d.getMd5() == null || d.getMimeType() == null) return false;
+			if (!d.hasAuth(task.getAuth())) return false;
+			if (!d.getId().equals(this.canonicalIds.get(d.getHash()))) return false;
+			if (!file.exists() || !d.upToDate(file)) return false;
+
+			task.getCallback().onResult(d.getId());
+			return true;
+		}
+
+	}
+
 	private static String canonicaliseAndStoreId(final WritableMediaDb w, final FileData fileData) throws SQLException {
 		String id = w.canonicalIdForHash(fileData.getHash());
 		if (id == null) {
@@ -248,9 +349,10 @@ public class MediaMetadataStore {
 	}
 
 	private void generateFileDataAsync(final File file, final FileTask task) {
-		this.fsEx.execute(() -> {
+		this.fsEx.execute(file, () -> {
 			try {
 				final FileData fileData = calculateFileData(file);  // Slow.
+				this.hashReadMetric.inc(fileData.getSize());
 				this.fileQueue.put(task.withNewFileData(fileData));
 				scheduleFileIdBatchIfNeeded();
 			}
@@ -403,6 +505,10 @@ public class MediaMetadataStore {
 		return this.mediaDb.readInfoCheckingFileSize(fileId, file.length());
 	}
 
+	public PreloadedFileInfos readAllFileInfos() throws SQLException {
+		return this.mediaDb.readAllInfos();
+	}
+
 	public void storeFileInfoAsync(final String fileId, final File file, final FileInfo info) throws SQLException, InterruptedException {
 		this.storeInfoQueue.put(new FileIdAndInfo(fileId, file, info));
 	}
@@ -0,0 +1,43 @@
+package mediatoad.db;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Every stored file info, read from the DB in one query so files found during the initial scan
+ * do not need a query each.
+ */
+public class PreloadedFileInfos {
+
+	private final Map<String, SizeAndInfo> infos = new ConcurrentHashMap<>();
+
+	void put(final String fileId, final long size, final FileInfo info) {
+		this.infos.put(fileId, new SizeAndInfo(size, info));
+	}
+
+	/**
+	 * Returns null if there is no stored info or if the file has changed size since it was stored.
+	 */
+	public FileInfo get(final String fileId, final File file) {
+		final SizeAndInfo s = this.infos.get(fileId);
+		if (s == null) return null;
+		if (s.size != file.length()) return null;
+		return s.info;
+	}
+
+	public int size() {
+		return this.infos.size();
+	}
+
+	private static class SizeAndInfo {
+		final long size;
+		final FileInfo info;
+
+		SizeAndInfo(final long size, final FileInfo info) {
+			this.size = size;
+			this.info = info;
+		}
+	}
+
+}
@@ -0,0 +1,149 @@
+package mediatoad.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.Histogram;
+import io.prometheus.metrics.model.snapshots.Unit;
+
+/**
+ * Fixed size pool of read only connections, so that concurrent readers do not
+ * queue up behind each other on a single connection.
+ */
+public class ReadConnectionPool {
+
+	private static final Histogram WAIT_DURATION = Histogram.builder()
+			.name("db_read_connection_wait")
+			.unit(Unit.SECONDS)
+			.classicExponentialUpperBounds(0.0001, 4, 9)  // [0.0001, 0.0004, 0.0016, 0.0064, 0.0256, 0.1024, 0.4096, 1.6384, 6.5536]
+			.help("Time spent waiting for a read connection from the pool.")
+			.register();
+
+	private static final Counter STATEMENT_CACHE_METRIC = Counter.builder()
+			.name("db_statement_cache")
+			.labelNames("result")
+			.help("count of statements requested from read connections, grouped by whether the compiled statement was reused.")
+			.register();
+	private static final CounterDataPoint STATEMENT_CACHE_HIT_METRIC = STATEMENT_CACHE_METRIC.labelValues("hit");
+	private static final CounterDataPoint STATEMENT_CACHE_MISS_METRIC = STATEMENT_CACHE_METRIC.labelValues("miss");
+
+	private static final int STATEMENT_CACHE_SIZE = 100;
+	private static final Logger LOG = LoggerFactory.getLogger(ReadConnectionPool.class);
+
+	private final BlockingQueue<ReadConnection> idle;
+
+	public ReadConnectionPool(final ConnectionFactory factory, final int size) throws SQLException {
+		if (size < 1) throw new IllegalArgumentException("size must be at least 1: " + size);
+		this.idle = new ArrayBlockingQueue<>(size);
+		for (int i = 0; i < size; i++) {
+			final Connection c = factory.make();
+			try (final Statement st = c.createStatement()) {
+				st.execute("PRAGMA query_only=1;");
+			}
+			this.idle.add(new ReadConnection(this, c));
+		}
+	}
+
+	/**
+	 * Must be closed to return it to the pool.
+	 */
+	public ReadConnection borrow() throws SQLException {
+		final long startTime = System.nanoTime();
+		try {
+			return this.idle.take();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for DB connection.", e);
+		}
+		finally {
+			WAIT_DURATION.observe(Unit.nanosToSeconds(System.nanoTime() - startTime));
+		}
+	}
+
+	private void release(final ReadConnection c) {
+		if (!this.idle.offer(c)) throw new IllegalStateException("Connection returned to pool more than once.");
+	}
+
+	public interface ConnectionFactory {
+		Connection make() throws SQLException;
+	}
+
+	public static class ReadConnection implements AutoCloseable {
+
+		private final ReadConnectionPool pool;
+		private final Connection conn;
+		private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 6419387617618744162L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= STATEMENT_CACHE_SIZE) return false;
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+
+		ReadConnection(final ReadConnectionPool pool, final Connection conn) {
+			this.pool = pool;
+			this.conn = conn;
+		}
+
+		/**
+		 * Returns a cached statement, which must not be closed and must not be used after this connection is closed.
+		 */
+		public PreparedStatement prepare(final String sql) throws SQLException {
+			PreparedStatement st = this.statements.get(sql);
+			if (st == null || st.isClosed()) {
+				STATEMENT_CACHE_MISS_METRIC.inc();
+				try {
+					st = this.conn.prepareStatement(sql);
+				}
+				catch (final SQLException e) {
+					throw new SQLException("Failed to compile query (sql='" + sql + "').", e);
+				}
+				this.statements.put(sql, st);
+			}
+			else {
+				STATEMENT_CACHE_HIT_METRIC.inc();
+				st.clearParameters();
+				st.setMaxRows(0);
+			}
+			return st;
+		}
+
+		/**
+		 * For queries that are not worth caching.
+		 */
+		Connection getConnection() {
+			return this.conn;
+		}
+
+		@Override
+		public void close() {
+			this.pool.release(this);
+		}
+
+		private static void closeQuietly(final PreparedStatement st) {
+			try {
+				st.close();
+			}
+			catch (final SQLException e) {
+				LOG.warn("Failed to close statement.", e);
+			}
+		}
+
+	}
+
+}
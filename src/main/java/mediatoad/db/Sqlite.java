@@ -30,6 +30,15 @@ public class Sqlite {
 		return q;
 	}
 
+	public static boolean tableExists(final Connection conn, final String tableName) throws SQLException {
+		try (final PreparedStatement p = conn.prepareStatement("SELECT name FROM sqlite_master WHERE type='table' AND name=?;")) {
+			p.setString(1, tableName);
+			try (final ResultSet rs = p.executeQuery()) {
+				return rs.next();
+			}
+		}
+	}
+
 	public static void addColumnIfMissing(final Connection conn, final String tableName, final String colName, final String colType) throws SQLException {
 		try (final PreparedStatement p = conn.prepareStatement("SELECT name FROM pragma_table_info(?) WHERE name=?;")) {
 			p.setString(1, tableName);
@@ -1,58 +1,65 @@
 package mediatoad.db;
 
 import java.io.PrintWriter;
+import java.math.BigInteger;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.HashMultiset;
-import com.google.common.collect.Multiset;
-
-/*
- * Binary search and then step backwards/forwards inspired by:
- * https://stackoverflow.com/questions/9543046/implement-binary-search-with-string-prefix
+/**
+ * Suggestions come from an immutable TagIndex plus a small delta of tags that are not in it yet.
+ * Tag changes are applied as they are committed to the DB, to the counts in the index where the tag
+ * is already in it, otherwise to the delta.  The delta is merged into a new index when it gets big
+ * and periodically.  The index is also regenerated from the DB periodically to pick up changes that
+ * do not come via tag writes, such as files going missing.
  */
-public class TagAutocompleter {
+public class TagAutocompleter implements TagChangeListener {
 
 	private static final int MAX_SUGGESTIONS = 20;
+	// Ranges of the index bigger than this have their top tags precomputed rather than being scanned per keystroke.
+	private static final int SCAN_LIMIT = 256;
+	// The delta is scanned on every lookup, so keep it small.
+	private static final int MAX_DELTA_SIZE = 1000;
 	private static final long START_DELAY_SECONDS = TimeUnit.MINUTES.toSeconds(1);  // Add an extra delay as a fudge factor.
+	private static final long MERGE_INTERVAL_SECONDS = TimeUnit.MINUTES.toSeconds(5);
+	private static final long REGENERATE_INTERVAL_SECONDS = TimeUnit.HOURS.toSeconds(1);
 	private static final Logger LOG = LoggerFactory.getLogger(TagAutocompleter.class);
 
 	private final MediaDb db;
 	private final ScheduledExecutorService schExSvc;
 
-	private FragmentAndTag[] tagsArr;
-	private FragmentAndTag[] fragmentsArr;
+	private volatile Generation current;
+	private volatile long writeCountAtGenerate = -1L;
+	private final AtomicLong version = new AtomicLong(0L);
 
 	public TagAutocompleter(final MediaDb db, final ScheduledExecutorService schExSvc) {
 		this.db = db;
 		this.schExSvc = schExSvc;
+		db.addTagChangeListener(this);
 	}
 
 	public void start() {
-		this.schExSvc.submit(() -> {
-			// TODO change to scheduleWithFixedDelay() and have a way to check if the DB has changed before running.
-			this.schExSvc.schedule(new Worker(), START_DELAY_SECONDS, TimeUnit.SECONDS);
-		});
+		this.schExSvc.scheduleWithFixedDelay(new Worker(), START_DELAY_SECONDS, REGENERATE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+		this.schExSvc.scheduleWithFixedDelay(new Merger(), MERGE_INTERVAL_SECONDS, MERGE_INTERVAL_SECONDS, TimeUnit.SECONDS);
 	}
 
 	private class Worker implements Runnable {
 		@Override
 		public void run() {
 			try {
+				if (TagAutocompleter.this.db.getWriteCount() == TagAutocompleter.this.writeCountAtGenerate) return;
 				generateIndex();
 			}
 			catch (final Exception e) {
@@ -61,333 +68,181 @@ public class TagAutocompleter {
 		}
 	}
 
-	public void addOrIncrementTag(final String tag) {
-		this.schExSvc.execute(() -> {
-			internalAddOrIncrementTag(tag, 1);
-		});
+	private class Merger implements Runnable {
+		@Override
+		public void run() {
+			try {
+				mergeDelta();
+			}
+			catch (final Exception e) {
+				LOG.error("Exception while merging autocomplete delta.", e);
+			}
+		}
 	}
 
-	public void decrementTag(final String tag) {
+	@Override
+	public void onTagsChanged(final List<TagChange> changes) {
 		this.schExSvc.execute(() -> {
-			internalAddOrIncrementTag(tag, -1);
+			applyChanges(changes);
 		});
 	}
 
-	public void changeTagCount(final String tag, final int delta) {
-		this.schExSvc.execute(() -> {
-			internalAddOrIncrementTag(tag, delta);
-		});
+	/**
+	 * @param authIds Files with these auth IDs are counted, as well as those with the default auth ID.  May be null.
+	 */
+	public List<TagFrequency> suggestTags(final String input, final Set<BigInteger> authIds) {
+		final Generation g = this.current;
+		if (g == null) return Collections.emptyList();
+		return g.withDelta(g.index.suggestTags(input, authIds), input, authIds, false);
 	}
 
-	public List<TagFrequency> suggestTags(final String input) {
-		return binarySearch(this.tagsArr, input);
+	/**
+	 * @param authIds Files with these auth IDs are counted, as well as those with the default auth ID.  May be null.
+	 */
+	public List<TagFrequency> suggestFragments(final String input, final Set<BigInteger> authIds) {
+		final Generation g = this.current;
+		if (g == null) return Collections.emptyList();
+		return g.withDelta(g.index.suggestFragments(input, authIds), input, authIds, true);
 	}
 
-	public List<TagFrequency> suggestFragments(final String input) {
-		return binarySearch(this.fragmentsArr, input);
+	/**
+	 * Changes every time suggestions might have changed.
+	 */
+	public long getVersion() {
+		return this.version.get();
 	}
 
 	public void dumpTo(final PrintWriter w) {
-		if (this.tagsArr != null) {
-			w.println("tagsArr:");
-			for (final FragmentAndTag f : this.tagsArr) {
-				printFragment(w, f);
-			}
-		}
+		final Generation g = this.current;
+		if (g == null) return;
+		g.index.dumpTo(w);
 		w.println();
-		if (this.fragmentsArr != null) {
-			w.println("fragmentsArr:");
-			for (final FragmentAndTag f : this.fragmentsArr) {
-				printFragment(w, f);
-			}
+		w.println("delta:");
+		for (final DeltaTag d : g.delta.values()) {
+			w.print(StringUtils.rightPad(d.tag, 40));
+			w.print("  ");
+			w.println(d.counts);
 		}
 	}
 
-	private static void printFragment(final PrintWriter w, final FragmentAndTag f) {
-		w.print(StringUtils.rightPad(f.fragment, 40));
-		w.print("  ");
-		w.print(StringUtils.rightPad(f.tag, 40));
-		w.print("  ");
-		w.println(f.fileCount);
+	public void generateIndex() throws SQLException {
+		final long startNanos = System.nanoTime();
+		final long writeCount = this.db.getWriteCount();
+		final TagIndex.Builder builder = new TagIndex.Builder();
+		this.db.addAllTagsNotMissingNotDeleted(builder);
+		final TagIndex idx = builder.build(MAX_SUGGESTIONS, SCAN_LIMIT);
+		synchronized (this) {
+			this.current = new Generation(idx);
+			this.writeCountAtGenerate = writeCount;
+		}
+		this.version.incrementAndGet();
+		LOG.info("Tags index: {} tags in {}ms.", idx.tagCount(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
 	}
 
 	/**
-	 * the index arrays should only contain lowercase so that they are sorted correctly for case-insensitive binary searches.
+	 * Makes a new index from the current index and delta, without going to the DB.
 	 */
-	private static String indexForm(final String tag) {
-		return tag.toLowerCase();
-	}
-
-	private static List<TagFrequency> binarySearch(final FragmentAndTag[] idx, final String input) {
-		if (idx == null) return Collections.emptyList();
-		final String inputIndexForm = indexForm(input);
-
-		final Range range = searchIndexArray(idx, inputIndexForm);
-		if (!range.found) return Collections.emptyList();
-
-		final FragmentAndTag[] matches = Arrays.copyOfRange(idx, range.start, range.end);
-		Arrays.sort(matches, FragmentAndTag.Order.COUNT_DESC);
-
-		// set to remove duplicates, eg: searching "2" will match "123923" as both "23923" and "23" fragments.
-		final Set<TagFrequency> ret = new LinkedHashSet<>();
-		for (int i = 0; i < matches.length && i < MAX_SUGGESTIONS; i++) {
-			final FragmentAndTag f = matches[i];
-			ret.add(new TagFrequency(f.tag, f.fileCount));
+	synchronized void mergeDelta() {
+		final Generation g = this.current;
+		if (g == null || g.delta.isEmpty()) return;
+
+		final long startNanos = System.nanoTime();
+		final TagIndex.Builder builder = new TagIndex.Builder();
+		g.index.addTo(builder);
+		for (final DeltaTag d : g.delta.values()) {
+			for (final Map.Entry<BigInteger, Integer> e : d.counts.entrySet()) {
+				builder.add(d.tag, e.getKey(), e.getValue());
+			}
 		}
-		return new ArrayList<>(ret);
+		final TagIndex idx = builder.build(MAX_SUGGESTIONS, SCAN_LIMIT);
+		this.current = new Generation(idx);
+		this.version.incrementAndGet();
+		LOG.info("Tags index: merged {} new tags in {}ms.", g.delta.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
 	}
 
-	private static class FragmentPrefixComp implements Comparator<FragmentAndTag> {
-		private final String prefix;
+	// Only synchronized to stop it interleaving with itself and replacing the index.
+	private synchronized void applyChanges(final List<TagChange> changes) {
+		final Generation g = this.current;
+		if (g == null) return;  // Changes will be included when the index is generated.
 
-		public FragmentPrefixComp(final String prefix) {
-			this.prefix = prefix;
-		}
+		for (final TagChange c : changes) {
+			if (g.index.changeCount(c.getTag(), c.getAuthId(), c.getDelta())) continue;
 
-		@Override
-		public int compare(final FragmentAndTag o1, final FragmentAndTag o2) {
-			final String p1;
-			if (o1.fragment.length() < this.prefix.length()) {
-				p1 = o1.fragment;
-			}
-			else {
-				p1 = o1.fragment.substring(0, this.prefix.length());
+			final String key = TagIndex.indexForm(c.getTag());
+			DeltaTag d = g.delta.get(key);
+			if (d == null) {
+				if (c.getDelta() < 0) continue;
+				d = new DeltaTag(c.getTag());
+				g.delta.put(key, d);
 			}
-			return p1.compareTo(o2.fragment);
+			d.counts.merge(c.getAuthId(), c.getDelta(), (a, b) -> Math.max(a + b, 0));
 		}
-	}
+		this.version.incrementAndGet();
 
-	public void generateIndex() throws SQLException {
-		final List<TagFrequency> tags = this.db.getAllTagsNotMissingNotDeleted();
-		generateTagsIndex(tags);
-		generateFragmentsIndex(tags);
+		if (g.delta.size() >= MAX_DELTA_SIZE) mergeDelta();
 	}
 
-	private void generateTagsIndex(final List<TagFrequency> tags) {
-		final List<FragmentAndTag> idx = new ArrayList<>(tags.size());
-		for (final TagFrequency tf : tags) {
-			final String tagForIndex = indexForm(tf.getTag());
-			idx.add(new FragmentAndTag(tagForIndex, tf.getTag(), tf.getCount()));
+	private static class Generation {
+		final TagIndex index;
+		// Keyed by index form of tag.
+		final Map<String, DeltaTag> delta = new ConcurrentHashMap<>();
 
-			final String without = StringUtils.stripAccents(tagForIndex);
-			if (!without.equals(tagForIndex)) {
-				idx.add(new FragmentAndTag(without, tf.getTag(), tf.getCount()));
-			}
+		Generation(final TagIndex index) {
+			this.index = index;
 		}
-		// Ensure sort is consistent with lookup, sqlite can sort slightly differently sometimes.
-		idx.sort(FragmentAndTag.Order.FRAGMENT_ASC);
-		LOG.info("Tags index: {}", idx.size());
-		this.tagsArr = idx.toArray(new FragmentAndTag[idx.size()]);
-	}
 
-	private void generateFragmentsIndex(final List<TagFrequency> tags) {
-		final List<FragmentAndTag> fragments = makeFragments(tags);
-		LOG.info("Fragments index: {}", fragments.size());
+		List<TagFrequency> withDelta(final List<TagFrequency> fromIndex, final String input, final Set<BigInteger> authIds, final boolean fragments) {
+			if (this.delta.isEmpty()) return fromIndex;
 
-		fragments.sort(FragmentAndTag.Order.FRAGMENT_ASC);
-		final Multiset<String> fragmentCounts = HashMultiset.create();
-		for (final Iterator<FragmentAndTag> i = fragments.iterator(); i.hasNext();) {
-			final FragmentAndTag n = i.next();
-			if (fragmentCounts.count(n.fragment) < MAX_SUGGESTIONS) {
-				fragmentCounts.add(n.fragment);
-			}
-			else {
-				i.remove();
+			final String inputIndexForm = TagIndex.indexForm(input);
+			final Map<String, Integer> merged = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+			for (final DeltaTag d : this.delta.values()) {
+				if (!d.matches(inputIndexForm, fragments)) continue;
+				final int count = d.countFor(authIds);
+				if (count > 0) merged.merge(d.tag, count, Integer::sum);
 			}
-		}
-
-		LOG.info("Top fragments: {}", fragments.size());
-		this.fragmentsArr = fragments.toArray(new FragmentAndTag[fragments.size()]);
-	}
+			if (merged.isEmpty()) return fromIndex;
 
-	private static List<FragmentAndTag> makeFragments(final List<TagFrequency> allTags) {
-		final List<FragmentAndTag> allFragments = new ArrayList<>();
-		for (final TagFrequency tf : allTags) {
-			final String tagIndexForm = indexForm(tf.getTag());
-			allFragments.addAll(makeFragments(tagIndexForm, tf.getTag(), tf.getCount()));
-
-			final String without = StringUtils.stripAccents(tagIndexForm);
-			if (!without.equals(tagIndexForm)) {
-				allFragments.addAll(makeFragments(without, tf.getTag(), tf.getCount()));
+			for (final TagFrequency tf : fromIndex) {
+				merged.merge(tf.getTag(), tf.getCount(), Integer::sum);
 			}
-		}
-		return allFragments;
-	}
-
-	static List<FragmentAndTag> makeFragments(final String tagToFragment, final String realTag, final int fileCount) {
-		if (tagToFragment.length() < 2) return Collections.emptyList();
-		final List<FragmentAndTag> ret = new ArrayList<>(); // TODO would simple array be faster?
-		for (int i = 1; i < tagToFragment.length(); i++) {
-			final String frag = tagToFragment.substring(i);
-			if (Character.isWhitespace(frag.charAt(0))) continue;
-			ret.add(new FragmentAndTag(frag, realTag, fileCount));
-		}
-		return ret;
-	}
-
-	private void internalAddOrIncrementTag(final String tag, final int delta) {
-		addOrIncrementExactTag(tag, delta);
-		addOrIncrementFragments(tag, delta);
-	}
-
-	// Only synchronized to stop it interleaving with itself.
-	private synchronized void addOrIncrementExactTag(final String tag, final int delta) {
-		if (this.tagsArr == null) return;
-		final String tagIndexForm = indexForm(tag);
-
-		final Range range = searchIndexArray(this.tagsArr, tagIndexForm);
-		boolean incremented = false;
-		if (range.found) {
-			incremented = incrementRange(this.tagsArr, range, tag, tagIndexForm, delta);
-		}
-
-		if (!incremented && delta > 0) {
-			final int newIndex = range.randomIndex >= 0 ? range.randomIndex : 0 - range.randomIndex - 1;
-			final FragmentAndTag[] newTagsArr = new FragmentAndTag[this.tagsArr.length + 1];
-			System.arraycopy(this.tagsArr, 0, newTagsArr, 0, newIndex);
-			System.arraycopy(this.tagsArr, newIndex, newTagsArr, newIndex + 1, this.tagsArr.length - newIndex);
-			newTagsArr[newIndex] = new FragmentAndTag(tagIndexForm, tag, delta);
-			this.tagsArr = newTagsArr;
-		}
-	}
-
-	// Only synchronized to stop it interleaving with itself.
-	private synchronized void addOrIncrementFragments(final String tag, final int delta) {
-		if (this.fragmentsArr == null) return;
-		final String tagIndexForm = indexForm(tag);
-
-		final List<String> fragments = new ArrayList<>();
-		for (int i = 1; i < tag.length(); i++) {
-			final String frag = tagIndexForm.substring(i);
-			if (Character.isWhitespace(frag.charAt(0))) continue;
-			fragments.add(frag);
-		}
-
-		for (final String frag : fragments) {
-			final Range range = searchIndexArray(this.fragmentsArr, frag);
-
-			// TODO atm this only increments fragments already in the index.
-			// it does not insert new fragments, as that would require re-ranking them etc.
-			if (!range.found) continue;
-
-			incrementRange(this.fragmentsArr, range, tag, frag, delta);
-		}
-	}
-
-	private static Range searchIndexArray(final FragmentAndTag[] idx, final String inputIndexForm) {
-		if (idx == null) throw new IllegalArgumentException("null idx");
-
-		final FragmentPrefixComp comp = new FragmentPrefixComp(inputIndexForm);
-		final int randomIndex = Arrays.binarySearch(idx, new FragmentAndTag(inputIndexForm, "unused", -1), comp);
-		if (randomIndex < 0) return new Range(randomIndex);
-
-		int start = randomIndex;
-		while (start > -1 && idx[start].fragment.startsWith(inputIndexForm)) {
-			start--;
-		}
-		start += 1;
-
-		int end = randomIndex;
-		while (end < idx.length && idx[end].fragment.startsWith(inputIndexForm)) {
-			end++;
-		}
-
-		return new Range(start, end, randomIndex);
-	}
-
-	private static boolean incrementRange(FragmentAndTag[] ixd, final Range range, final String tag, final String frag, final int delta) {
-		boolean found = false;
-		for (int i = range.start; i < range.end; i++) {
-			final FragmentAndTag match = ixd[i];
-			if (tag.equals(match.tag) && frag.equals(match.fragment)) {
-				found = true;
-				ixd[i] = match.changeCount(delta);
+			final List<TagFrequency> ret = new ArrayList<>(merged.size());
+			for (final Map.Entry<String, Integer> e : merged.entrySet()) {
+				ret.add(new TagFrequency(e.getKey(), e.getValue()));
 			}
+			ret.sort(TagFrequency.Order.COUNT_DESC);
+			return ret.size() > MAX_SUGGESTIONS ? ret.subList(0, MAX_SUGGESTIONS) : ret;
 		}
-		return found;
 	}
 
-	static class FragmentAndTag {
-		final String fragment;
+	private static class DeltaTag {
 		final String tag;
-		final int fileCount;
+		final String key;
+		final String keyWithoutAccents;
+		final Map<BigInteger, Integer> counts = new ConcurrentHashMap<>();
 
-		public FragmentAndTag(final String fragment, final String tag, final int fileCount) {
-			if (fragment == null) throw new IllegalArgumentException("fragment is null.");
-			if (tag == null) throw new IllegalArgumentException("tag is null.");
-			this.fragment = fragment;
+		DeltaTag(final String tag) {
 			this.tag = tag;
-			this.fileCount = fileCount;
+			this.key = TagIndex.indexForm(tag);
+			this.keyWithoutAccents = StringUtils.stripAccents(this.key);
 		}
 
-		public FragmentAndTag changeCount(final int delta) {
-			return new FragmentAndTag(this.fragment, this.tag, Math.max(this.fileCount + delta, 0));
-		}
-
-		@Override
-		public String toString() {
-			return String.format("FragmentAndTag{%s, %s, %s}", this.fragment, this.tag, this.fileCount);
+		/**
+		 * Same rules as TagIndex.
+		 */
+		boolean matches(final String inputIndexForm, final boolean fragments) {
+			if (inputIndexForm.isEmpty()) return false;
+			if (!fragments) return this.key.startsWith(inputIndexForm) || this.keyWithoutAccents.startsWith(inputIndexForm);
+			if (Character.isWhitespace(inputIndexForm.charAt(0))) return false;
+			return this.key.indexOf(inputIndexForm, 1) > 0 || this.keyWithoutAccents.indexOf(inputIndexForm, 1) > 0;
 		}
 
-		@Override
-		public int hashCode() {
-			return Objects.hash(this.fragment, this.tag, this.fileCount);
-		}
-
-		@Override
-		public boolean equals(final Object obj) {
-			if (obj == null) return false;
-			if (this == obj) return true;
-			if (!(obj instanceof FragmentAndTag)) return false;
-			final FragmentAndTag that = (FragmentAndTag) obj;
-			return Objects.equals(this.fragment, that.fragment)
-					&& Objects.equals(this.tag, that.tag)
-					&& Objects.equals(this.fileCount, that.fileCount);
-		}
-
-		public enum Order implements Comparator<FragmentAndTag> {
-			FRAGMENT_ASC {
-				@Override
-				public int compare(final FragmentAndTag a, final FragmentAndTag b) {
-					final int c = a.fragment.compareTo(b.fragment);
-					if (c != 0) return c;
-					return COUNT_DESC.compare(a, b);
-				}
-			},
-			COUNT_DESC {
-				@Override
-				public int compare(final FragmentAndTag a, final FragmentAndTag b) {
-					final int c = Long.compare(b.fileCount, a.fileCount);
-					if (c != 0) return c;
-					return TAG_ASC.compare(a, b);
-				}
-			},
-			TAG_ASC {
-				@Override
-				public int compare(final FragmentAndTag a, final FragmentAndTag b) {
-					return a.tag.compareTo(b.tag);
-				}
+		int countFor(final Set<BigInteger> authIds) {
+			int ret = 0;
+			for (final Map.Entry<BigInteger, Integer> e : this.counts.entrySet()) {
+				if (e.getKey().signum() == 0 || (authIds != null && authIds.contains(e.getKey()))) ret += e.getValue();
 			}
-		}
-	}
-
-	static class Range {
-		final boolean found;
-		final int start;
-		final int end;
-		final int randomIndex;
-
-		public Range(final int start, final int end, int randomIndex) {
-			this.found = true;
-			this.start = start;
-			this.end = end;
-			this.randomIndex = randomIndex;
-		}
-		public Range(int randomIndex) {
-			this.found = false;
-			this.start = Integer.MIN_VALUE;
-			this.end = Integer.MIN_VALUE;
-			this.randomIndex = randomIndex;
+			return ret;
 		}
 	}
 
@@ -0,0 +1,65 @@
+package mediatoad.db;
+
+import java.math.BigInteger;
+import java.util.Objects;
+
+/**
+ * A file starting or stopping counting towards a tag, ie having the tag not deleted and not hidden.
+ * There is one per auth ID of the file's not missing paths.
+ */
+public class TagChange {
+
+	private final String fileId;
+	private final String tag;
+	private final BigInteger authId;
+	private final int delta;
+
+	public TagChange(final String fileId, final String tag, final BigInteger authId, final int delta) {
+		this.fileId = fileId;
+		this.tag = tag;
+		this.authId = authId;
+		this.delta = delta;
+	}
+
+	public String getFileId() {
+		return this.fileId;
+	}
+
+	public String getTag() {
+		return this.tag;
+	}
+
+	public BigInteger getAuthId() {
+		return this.authId;
+	}
+
+	/**
+	 * 1 or -1.
+	 */
+	public int getDelta() {
+		return this.delta;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(this.fileId, this.tag, this.authId, this.delta);
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (obj == null) return false;
+		if (this == obj) return true;
+		if (!(obj instanceof TagChange)) return false;
+		final TagChange that = (TagChange) obj;
+		return Objects.equals(this.fileId, that.fileId)
+				&& Objects.equals(this.tag, that.tag)
+				&& Objects.equals(this.authId, that.authId)
+				&& this.delta == that.delta;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("TagChange{%s, %s, %s, %s}", this.fileId, this.tag, this.authId, this.delta);
+	}
+
+}
@@ -0,0 +1,12 @@
+package mediatoad.db;
+
+import java.util.List;
+
+public interface TagChangeListener {
+
+	/**
+	 * Called on the writing thread after the transaction has committed, so should not block.
+	 */
+	void onTagsChanged(List<TagChange> changes);
+
+}
@@ -0,0 +1,479 @@
+package mediatoad.db;
+
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Compact index of tags for prefix and fragment (not at the start of the tag) lookups.
+ * The index forms of all tags are concatenated into one char buffer, each terminated by END,
+ * and both lookups are an array of offsets into that buffer sorted by the text at each offset,
+ * ie a suffix array, so no per-fragment objects are needed.
+ * File counts are held per auth ID so that only files the user is allowed to see are counted.
+ * Ranges too big to scan on each lookup have their top tags per auth ID worked out up front.
+ */
+class TagIndex {
+
+	private static final char END = '\0';
+	// Same as the DB, where tags are COLLATE NOCASE.
+	private static final Comparator<String> TAG_ORDER = String.CASE_INSENSITIVE_ORDER;
+
+	private final int maxResults;
+	private final int scanLimit;
+
+	// Sorted by TAG_ORDER, so comparing tag IDs is the same as comparing tags.
+	private final String[] tags;
+	private final BigInteger[] authIds;
+	// [auth][tag].
+	private final AtomicIntegerArray[] counts;
+
+	private final char[] text;
+	private final Suffixes prefixes;
+	private final Suffixes fragments;
+
+	private TagIndex(final String[] tags, final BigInteger[] authIds, final AtomicIntegerArray[] counts, final int maxResults, final int scanLimit) {
+		this.tags = tags;
+		this.authIds = authIds;
+		this.counts = counts;
+		this.maxResults = maxResults;
+		this.scanLimit = scanLimit;
+
+		final String[] keys = new String[tags.length * 2];
+		final int[] keyTags = new int[keys.length];
+		int keyCount = 0;
+		int textLength = 0;
+		int fragmentCount = 0;
+		for (int t = 0; t < tags.length; t++) {
+			final String key = indexForm(tags[t]);
+			final String without = StringUtils.stripAccents(key);
+			for (final String k : without.equals(key) ? new String[] { key } : new String[] { key, without }) {
+				if (k.indexOf(END) >= 0) continue;
+				keys[keyCount] = k;
+				keyTags[keyCount] = t;
+				keyCount += 1;
+				textLength += k.length() + 1;
+				for (int i = 1; i < k.length(); i++) {
+					if (!Character.isWhitespace(k.charAt(i))) fragmentCount += 1;
+				}
+			}
+		}
+
+		this.text = new char[textLength];
+		final int[] prefixStarts = new int[keyCount];
+		final int[] prefixTags = new int[keyCount];
+		final int[] fragmentStarts = new int[fragmentCount];
+		final int[] fragmentTags = new int[fragmentCount];
+		int pos = 0;
+		int f = 0;
+		for (int k = 0; k < keyCount; k++) {
+			final String key = keys[k];
+			key.getChars(0, key.length(), this.text, pos);
+			this.text[pos + key.length()] = END;
+			prefixStarts[k] = pos;
+			prefixTags[k] = keyTags[k];
+			for (int i = 1; i < key.length(); i++) {
+				if (Character.isWhitespace(key.charAt(i))) continue;
+				fragmentStarts[f] = pos + i;
+				fragmentTags[f] = keyTags[k];
+				f += 1;
+			}
+			pos += key.length() + 1;
+		}
+
+		this.prefixes = new Suffixes(prefixStarts, prefixTags);
+		this.fragments = new Suffixes(fragmentStarts, fragmentTags);
+	}
+
+	/**
+	 * The index only contains lowercase so that lookups are case-insensitive.
+	 */
+	static String indexForm(final String tag) {
+		return tag.toLowerCase();
+	}
+
+	public int tagCount() {
+		return this.tags.length;
+	}
+
+	public List<TagFrequency> suggestTags(final String input, final Set<BigInteger> allowedAuthIds) {
+		return suggest(this.prefixes, input, allowedAuthIds);
+	}
+
+	public List<TagFrequency> suggestFragments(final String input, final Set<BigInteger> allowedAuthIds) {
+		return suggest(this.fragments, input, allowedAuthIds);
+	}
+
+	/**
+	 * Tag is matched ignoring case.
+	 * Returns false if the tag or auth ID is not in the index.
+	 * Counts can not go below 0.
+	 * Precomputed top tags are not updated, so a tag that climbs into the top of a large range
+	 * will only be suggested for that range once the index is regenerated.
+	 */
+	public boolean changeCount(final String tag, final BigInteger authId, final int delta) {
+		final int t = indexOf(this.tags, tag, TAG_ORDER);
+		final int a = indexOf(this.authIds, authId, Comparator.naturalOrder());
+		if (t < 0 || a < 0) return false;
+		this.counts[a].updateAndGet(t, (c) -> Math.max(c + delta, 0));
+		return true;
+	}
+
+	/**
+	 * For making a new index with extra tags.
+	 */
+	public void addTo(final Builder builder) {
+		for (int a = 0; a < this.authIds.length; a++) {
+			for (int t = 0; t < this.tags.length; t++) {
+				builder.add(this.tags[t], this.authIds[a], this.counts[a].get(t));
+			}
+		}
+	}
+
+	public void dumpTo(final PrintWriter w) {
+		w.print("tags=");
+		w.print(this.tags.length);
+		w.print(" auths=");
+		w.print(this.authIds.length);
+		w.print(" chars=");
+		w.print(this.text.length);
+		w.print(" prefixes=");
+		w.print(this.prefixes.starts.length);
+		w.print(" prefix_tops=");
+		w.print(this.prefixes.topsByRange.size());
+		w.print(" fragments=");
+		w.print(this.fragments.starts.length);
+		w.print(" fragment_tops=");
+		w.println(this.fragments.topsByRange.size());
+		w.println();
+
+		for (int t = 0; t < this.tags.length; t++) {
+			w.print(StringUtils.rightPad(this.tags[t], 40));
+			for (int a = 0; a < this.authIds.length; a++) {
+				final int c = this.counts[a].get(t);
+				if (c < 1) continue;
+				w.print("  ");
+				w.print(this.authIds[a].toString(16));
+				w.print("=");
+				w.print(c);
+			}
+			w.println();
+		}
+	}
+
+	private List<TagFrequency> suggest(final Suffixes suffixes, final String input, final Set<BigInteger> allowedAuthIds) {
+		final String q = indexForm(input);
+		if (q.isEmpty() || q.indexOf(END) >= 0) return Collections.emptyList();
+
+		final int lo = lowerBound(suffixes.starts, q);
+		final int hi = upperBound(suffixes.starts, q, lo);
+		if (lo >= hi) return Collections.emptyList();
+
+		final int[] auths = allowedAuths(allowedAuthIds);
+		if (auths.length < 1) return Collections.emptyList();
+
+		final TopTags top = new TopTags(this.maxResults);
+		final int[][] precomputed = hi - lo > this.scanLimit ? suffixes.topsByRange.get(rangeKey(lo, hi)) : null;
+		if (precomputed != null) {
+			// Exact for a single auth ID, for several it can miss a tag that is not near the top for any one of them.
+			for (final int a : auths) {
+				for (final int t : precomputed[a]) {
+					top.offer(t, countFor(t, auths));
+				}
+			}
+		}
+		else {
+			for (int i = lo; i < hi; i++) {
+				final int t = suffixes.tags[i];
+				if (top.contains(t)) continue;
+				top.offer(t, countFor(t, auths));
+			}
+		}
+
+		final List<TagFrequency> ret = new ArrayList<>(top.size);
+		for (int i = 0; i < top.size; i++) {
+			ret.add(new TagFrequency(this.tags[top.ids[i]], top.counts[i]));
+		}
+		return ret;
+	}
+
+	private int[] allowedAuths(final Set<BigInteger> allowedAuthIds) {
+		final int[] ret = new int[this.authIds.length];
+		int count = 0;
+		for (int a = 0; a < this.authIds.length; a++) {
+			final BigInteger id = this.authIds[a];
+			if (id.signum() == 0 || (allowedAuthIds != null && allowedAuthIds.contains(id))) {
+				ret[count++] = a;
+			}
+		}
+		return count == ret.length ? ret : Arrays.copyOf(ret, count);
+	}
+
+	private int countFor(final int tag, final int[] auths) {
+		int c = 0;
+		for (final int a : auths) {
+			c += this.counts[a].get(tag);
+		}
+		return c;
+	}
+
+	/**
+	 * First suffix that is not before input.
+	 */
+	private int lowerBound(final int[] starts, final String input) {
+		int lo = 0;
+		int hi = starts.length;
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (comparePrefix(starts[mid], input) < 0) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * First suffix after from that does not start with input.
+	 */
+	private int upperBound(final int[] starts, final String input, final int from) {
+		int lo = from;
+		int hi = starts.length;
+		while (lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			if (comparePrefix(starts[mid], input) <= 0) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns 0 if the text at start begins with input.
+	 */
+	private int comparePrefix(final int start, final String input) {
+		for (int i = 0; i < input.length(); i++) {
+			final char c = this.text[start + i];  // END never matches so this stops at the end of the key.
+			final char d = input.charAt(i);
+			if (c != d) return c < d ? -1 : 1;
+		}
+		return 0;
+	}
+
+	private int compareSuffixes(final int a, final int b) {
+		for (int i = 0;; i++) {
+			final char ca = this.text[a + i];
+			final char cb = this.text[b + i];
+			if (ca != cb) return ca < cb ? -1 : 1;
+			if (ca == END) return 0;
+		}
+	}
+
+	private static long rangeKey(final int lo, final int hi) {
+		return ((long) lo << 32) | hi;
+	}
+
+	private static <T> int indexOf(final T[] sorted, final T key, final Comparator<? super T> order) {
+		final int i = Arrays.binarySearch(sorted, key, order);
+		return i >= 0 ? i : -1;
+	}
+
+	private class Suffixes {
+		final int[] starts;
+		final int[] tags;
+		final Map<Long, int[][]> topsByRange = new HashMap<>();
+
+		Suffixes(final int[] starts, final int[] tags) {
+			this.starts = starts;
+			this.tags = tags;
+			sort(0, starts.length, new int[starts.length], new int[starts.length]);
+			if (starts.length > TagIndex.this.scanLimit) topsOfRange(0, starts.length, 0);
+		}
+
+		/**
+		 * Stable merge sort, so suffixes that are equal stay in tag order.
+		 */
+		private void sort(final int from, final int to, final int[] startsTmp, final int[] tagsTmp) {
+			if (to - from < 2) return;
+			final int mid = (from + to) >>> 1;
+			sort(from, mid, startsTmp, tagsTmp);
+			sort(mid, to, startsTmp, tagsTmp);
+			if (compareSuffixes(this.starts[mid - 1], this.starts[mid]) <= 0) return;
+
+			System.arraycopy(this.starts, from, startsTmp, from, to - from);
+			System.arraycopy(this.tags, from, tagsTmp, from, to - from);
+			int l = from;
+			int r = mid;
+			for (int i = from; i < to; i++) {
+				if (r >= to || (l < mid && compareSuffixes(startsTmp[l], startsTmp[r]) <= 0)) {
+					this.starts[i] = startsTmp[l];
+					this.tags[i] = tagsTmp[l++];
+				}
+				else {
+					this.starts[i] = startsTmp[r];
+					this.tags[i] = tagsTmp[r++];
+				}
+			}
+		}
+
+		/**
+		 * All suffixes in the range share their first depth chars.
+		 * Stores the top tags for each range bigger than scanLimit, and returns them for any range.
+		 * The top tags of a range are the top of its children's top tags, so each level only looks at its children.
+		 */
+		private int[][] topsOfRange(final int lo, final int hi, final int depth) {
+			final TopTags[] tops = new TopTags[TagIndex.this.authIds.length];
+			for (int a = 0; a < tops.length; a++) {
+				tops[a] = new TopTags(TagIndex.this.maxResults);
+			}
+
+			if (hi - lo <= TagIndex.this.scanLimit) {
+				for (int i = lo; i < hi; i++) {
+					offerToAll(tops, this.tags[i]);
+				}
+				return toArrays(tops);
+			}
+
+			// While every suffix has the same next char the range does not change.
+			int d = depth;
+			while (true) {
+				final char first = charAt(lo, d);
+				if (first == END || charAt(hi - 1, d) != first) break;
+				d += 1;
+			}
+
+			int i = lo;
+			// Suffixes that end here sort first and are not in any child range.
+			while (i < hi && charAt(i, d) == END) {
+				offerToAll(tops, this.tags[i]);
+				i += 1;
+			}
+			while (i < hi) {
+				final char c = charAt(i, d);
+				int j = i + 1;
+				while (j < hi && charAt(j, d) == c) {
+					j += 1;
+				}
+				final int[][] child = topsOfRange(i, j, d + 1);
+				for (int a = 0; a < tops.length; a++) {
+					for (final int t : child[a]) {
+						tops[a].offer(t, TagIndex.this.counts[a].get(t));
+					}
+				}
+				i = j;
+			}
+
+			final int[][] ret = toArrays(tops);
+			this.topsByRange.put(rangeKey(lo, hi), ret);
+			return ret;
+		}
+
+		private char charAt(final int suffix, final int offset) {
+			return TagIndex.this.text[this.starts[suffix] + offset];
+		}
+
+		private void offerToAll(final TopTags[] tops, final int tag) {
+			for (int a = 0; a < tops.length; a++) {
+				tops[a].offer(tag, TagIndex.this.counts[a].get(tag));
+			}
+		}
+
+		private int[][] toArrays(final TopTags[] tops) {
+			final int[][] ret = new int[tops.length][];
+			for (int a = 0; a < tops.length; a++) {
+				ret[a] = Arrays.copyOf(tops[a].ids, tops[a].size);
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * Highest counts first, then lowest tag ID.
+	 * Tags with a count of 0 are not included.
+	 */
+	private static class TopTags {
+		final int[] ids;
+		final int[] counts;
+		int size = 0;
+
+		TopTags(final int max) {
+			this.ids = new int[max];
+			this.counts = new int[max];
+		}
+
+		boolean contains(final int id) {
+			for (int i = 0; i < this.size; i++) {
+				if (this.ids[i] == id) return true;
+			}
+			return false;
+		}
+
+		void offer(final int id, final int count) {
+			if (count < 1 || this.ids.length < 1 || contains(id)) return;
+			final boolean full = this.size == this.ids.length;
+			if (full && !before(count, id, this.counts[this.size - 1], this.ids[this.size - 1])) return;
+
+			int i = full ? this.size - 1 : this.size++;
+			while (i > 0 && before(count, id, this.counts[i - 1], this.ids[i - 1])) {
+				this.ids[i] = this.ids[i - 1];
+				this.counts[i] = this.counts[i - 1];
+				i -= 1;
+			}
+			this.ids[i] = id;
+			this.counts[i] = count;
+		}
+
+		private static boolean before(final int countA, final int idA, final int countB, final int idB) {
+			return countA > countB || (countA == countB && idA < idB);
+		}
+	}
+
+	static class Builder {
+		// Tags that differ only by case are merged.
+		private final Map<String, Map<BigInteger, Integer>> tagAuthCounts = new TreeMap<>(TAG_ORDER);
+
+		public void add(final String tag, final BigInteger authId, final int count) {
+			if (count < 1) return;
+			this.tagAuthCounts.computeIfAbsent(tag, (k) -> new HashMap<>()).merge(authId, count, Integer::sum);
+		}
+
+		public TagIndex build(final int maxResults, final int scanLimit) {
+			final String[] tags = this.tagAuthCounts.keySet().toArray(new String[0]);
+
+			final TreeSet<BigInteger> authSet = new TreeSet<>();
+			for (final Map<BigInteger, Integer> c : this.tagAuthCounts.values()) {
+				authSet.addAll(c.keySet());
+			}
+			final BigInteger[] authIds = authSet.toArray(new BigInteger[0]);
+
+			final AtomicIntegerArray[] counts = new AtomicIntegerArray[authIds.length];
+			for (int a = 0; a < authIds.length; a++) {
+				counts[a] = new AtomicIntegerArray(tags.length);
+			}
+			for (int t = 0; t < tags.length; t++) {
+				for (final Map.Entry<BigInteger, Integer> e : this.tagAuthCounts.get(tags[t]).entrySet()) {
+					counts[indexOf(authIds, e.getKey(), Comparator.naturalOrder())].set(t, e.getValue());
+				}
+			}
+
+			return new TagIndex(tags, authIds, counts, maxResults, scanLimit);
+		}
+	}
+
+}
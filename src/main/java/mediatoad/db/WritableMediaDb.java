@@ -10,16 +10,27 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
 import io.prometheus.metrics.core.metrics.Histogram;
 import io.prometheus.metrics.model.snapshots.Unit;
+import mediatoad.db.WriteLog.Table;
 
 public class WritableMediaDb implements Closeable {
 
@@ -32,12 +43,24 @@ public class WritableMediaDb implements Closeable {
 
 	private static final Logger LOG = LoggerFactory.getLogger(WritableMediaDb.class);
 
+	private static final Gson GSON = new GsonBuilder().create();
+
 	private final Connection conn;
-	private final AtomicLong writeCounter;
+	private final WriteLog writeLog;
+	private final Collection<TagChangeListener> tagChangeListeners;
 	private final long startTime;
-
-	protected WritableMediaDb(final Connection conn, final AtomicLong writeCounter) throws SQLException {
-		this.writeCounter = writeCounter;
+	// Statements used many times per transaction, closed with the connection.
+	private final Map<String, PreparedStatement> cachedStatements = new HashMap<>();
+	// Only passed to listeners once committed.
+	private final List<TagChange> pendingTagChanges = new ArrayList<>();
+	// Passed to the WriteLog once committed.
+	private final Set<Table> tablesWritten = EnumSet.noneOf(Table.class);
+	private final Set<String> dirsWritten = new HashSet<>();
+	private final Set<String> fileIdsWritten = new HashSet<>();
+
+	protected WritableMediaDb(final Connection conn, final WriteLog writeLog, final Collection<TagChangeListener> tagChangeListeners) throws SQLException {
+		this.writeLog = writeLog;
+		this.tagChangeListeners = tagChangeListeners;
 		if (conn.getAutoCommit()) {
 			throw new IllegalArgumentException("AutoCommit must not be enabled.");
 		}
@@ -54,6 +77,7 @@ public class WritableMediaDb implements Closeable {
 		}
 		finally {
 			TRANSACTION_DURATION.observe(Unit.nanosToSeconds(System.nanoTime() - this.startTime));
+			closeCachedStatements();
 			try {
 				this.conn.close();
 			}
@@ -64,12 +88,49 @@ public class WritableMediaDb implements Closeable {
 		}
 	}
 
+	private void closeCachedStatements() {
+		for (final PreparedStatement st : this.cachedStatements.values()) {
+			try {
+				st.close();
+			}
+			catch (final SQLException e) {
+				LOG.warn("Failed to close statement.", e);
+			}
+		}
+		this.cachedStatements.clear();
+	}
+
+	/**
+	 * Returned statement must not be closed by the caller.
+	 */
+	private PreparedStatement cachedStatement(final String sql) throws SQLException {
+		PreparedStatement st = this.cachedStatements.get(sql);
+		if (st == null) {
+			st = this.conn.prepareStatement(sql);
+			this.cachedStatements.put(sql, st);
+		}
+		return st;
+	}
+
+	/**
+	 * Number of rows changed by this connection so far.
+	 */
+	protected long totalChanges() throws SQLException {
+		try (final ResultSet rs = cachedStatement("SELECT total_changes();").executeQuery()) {
+			if (!rs.next()) throw new SQLException("total_changes() returned no rows.");
+			return rs.getLong(1);
+		}
+	}
+
 	private void commitOrRollback() throws IOException {
 		try {
+			final Collection<String> dirs = dirsWritten();
 			this.conn.commit();
-			this.writeCounter.incrementAndGet();
+			this.writeLog.record(this.tablesWritten, dirs);
 		}
 		catch (final SQLException e) {
+			this.pendingTagChanges.clear();
+			this.tablesWritten.clear();
 			try {
 				this.conn.rollback();
 			}
@@ -78,6 +139,57 @@ public class WritableMediaDb implements Closeable {
 			}
 			throw new IOException("Failed to commit.", e);
 		}
+		notifyTagChangeListeners();
+	}
+
+	private void wrote(final Table table) {
+		this.tablesWritten.add(table);
+	}
+
+	private void wroteFile(final String file) {
+		this.tablesWritten.add(Table.FILES);
+		this.dirsWritten.add(parentDir(file));
+	}
+
+	private void wroteTag(final String fileId) {
+		this.tablesWritten.add(Table.TAGS);
+		this.fileIdsWritten.add(fileId);
+	}
+
+	/**
+	 * Includes the dirs of files whose tags were written, so must be called before commit.
+	 * Returns null if there are too many to be worth listing.
+	 */
+	private Collection<String> dirsWritten() throws SQLException {
+		if (this.dirsWritten.size() + this.fileIdsWritten.size() > WriteLog.MAX_DIRS_PER_WRITE) return null;
+		if (this.fileIdsWritten.isEmpty()) return this.dirsWritten;
+
+		final Set<String> dirs = new HashSet<>(this.dirsWritten);
+		for (final String fileId : this.fileIdsWritten) {
+			for (final File f : filesWithId(fileId)) {
+				dirs.add(parentDir(f.getAbsolutePath()));
+			}
+		}
+		return dirs;
+	}
+
+	private static String parentDir(final String file) {
+		final String parent = new File(file).getParent();
+		return parent != null ? parent : file;
+	}
+
+	private void notifyTagChangeListeners() {
+		if (this.pendingTagChanges.isEmpty()) return;
+		final List<TagChange> changes = Collections.unmodifiableList(new ArrayList<>(this.pendingTagChanges));
+		this.pendingTagChanges.clear();
+		for (final TagChangeListener l : this.tagChangeListeners) {
+			try {
+				l.onTagsChanged(changes);
+			}
+			catch (final RuntimeException e) {
+				LOG.error("Tag change listener failed.", e);
+			}
+		}
 	}
 
 //	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
@@ -85,37 +197,77 @@ public class WritableMediaDb implements Closeable {
 	// The read methods are here so they are reading from the same transaction as the writes around them.
 
 	protected FileData readFileData (final File file) throws SQLException {
-		return MediaDb.readFileDataFromConn(this.conn, file);
+		return MediaDb.readFileDataWithStatement(cachedStatement(MediaDb.SELECT_FILE_DATA_SQL), file);
+	}
+
+	/**
+	 * Returns map of absolute path to FileData, files not in the DB are not included.
+	 */
+	protected Map<String, FileData> readFileData (final Collection<File> files) throws SQLException {
+		final List<String> paths = new ArrayList<>(files.size());
+		for (final File file : files) {
+			paths.add(file.getAbsolutePath());
+		}
+
+		final PreparedStatement st = cachedStatement("SELECT file, " + MediaDb.FILE_DATA_COLUMNS
+				+ " FROM files WHERE file IN (SELECT value FROM json_each(?));");
+		st.setString(1, GSON.toJson(paths));
+		try (final ResultSet rs = st.executeQuery()) {
+			final Map<String, FileData> ret = new HashMap<>();
+			while (rs.next()) {
+				ret.put(rs.getString(1), MediaDb.fileDataFromRow(rs, 2));
+			}
+			return ret;
+		}
+		catch (final SQLException e) {
+			throw new SQLException(String.format("Failed to read data for %s files.", files.size()), e);
+		}
 	}
 
 	protected Collection<File> filesWithId(final String id) throws SQLException {
-		try (final PreparedStatement st = this.conn.prepareStatement("SELECT file FROM files WHERE id=?;")) {
-			st.setString(1, id);
-			try (final ResultSet rs = st.executeQuery()) {
-				final Collection<File> ret = new ArrayList<>();
-				while (rs.next()) {
-					ret.add(new File(rs.getString(1)));
-				}
-				return ret;
+		final PreparedStatement st = cachedStatement("SELECT file FROM files WHERE id=?;");
+		st.setString(1, id);
+		try (final ResultSet rs = st.executeQuery()) {
+			final Collection<File> ret = new ArrayList<>();
+			while (rs.next()) {
+				ret.add(new File(rs.getString(1)));
 			}
+			return ret;
 		}
 	}
 
 	protected Collection<FileAndId> filesWithHash(final String hash) throws SQLException {
-		try (final PreparedStatement st = this.conn.prepareStatement("SELECT file,id FROM files WHERE hash=?;")) {
-			st.setString(1, hash);
-			try (final ResultSet rs = st.executeQuery()) {
-				final Collection<FileAndId> ret = new ArrayList<>();
-				while (rs.next()) {
-					ret.add(new FileAndId(new File(rs.getString(1)), rs.getString(2)));
-				}
-				return ret;
+		final PreparedStatement st = cachedStatement("SELECT file,id FROM files WHERE hash=?;");
+		st.setString(1, hash);
+		try (final ResultSet rs = st.executeQuery()) {
+			final Collection<FileAndId> ret = new ArrayList<>();
+			while (rs.next()) {
+				ret.add(new FileAndId(new File(rs.getString(1)), rs.getString(2)));
 			}
+			return ret;
 		}
 	}
 
 	public String canonicalIdForHash (final String hash) throws SQLException {
-		return MediaDb.canonicalIdForHashFromConn(this.conn, hash);
+		return MediaDb.canonicalIdForHashWithStatement(cachedStatement(MediaDb.SELECT_CANONICAL_ID_SQL), hash);
+	}
+
+	/**
+	 * Returns map of hash to canonical ID, hashes not in the DB are not included.
+	 */
+	protected Map<String, String> canonicalIdsForHashes (final Collection<String> hashes) throws SQLException {
+		final PreparedStatement st = cachedStatement("SELECT hash, id FROM hashes WHERE hash IN (SELECT value FROM json_each(?));");
+		st.setString(1, GSON.toJson(hashes));
+		try (final ResultSet rs = st.executeQuery()) {
+			final Map<String, String> ret = new HashMap<>();
+			while (rs.next()) {
+				ret.put(rs.getString(1), rs.getString(2));
+			}
+			return ret;
+		}
+		catch (final SQLException e) {
+			throw new SQLException(String.format("Failed to read canonical IDs for %s hashes.", hashes.size()), e);
+		}
 	}
 
 	protected Collection<String> hashesForId (final String id) throws SQLException {
@@ -141,9 +293,11 @@ public class WritableMediaDb implements Closeable {
 	}
 
 	protected void storeFileData (final File file, final FileData fileData) throws SQLException {
+		wroteFile(file.getAbsolutePath());
 		final PreparedStatement st = this.conn.prepareStatement(
 				"INSERT INTO files (file,size,modified,hash,md5,mimetype,id) VALUES (?,?,?,?,?,?,?);");
 		try {
+			final FileState before = readFileState(file.getAbsolutePath());
 			st.setString(1, file.getAbsolutePath());
 			st.setLong(2, fileData.getSize());
 			st.setLong(3, fileData.getModified());
@@ -153,6 +307,7 @@ public class WritableMediaDb implements Closeable {
 			st.setString(7, fileData.getId());
 			final int n = st.executeUpdate();
 			if (n < 1) throw new SQLException("No insert occured inserting file '" + file.getAbsolutePath() + "'.");
+			fileStateChanged(file.getAbsolutePath(), before, readFileState(file.getAbsolutePath()));
 		}
 		catch (final SQLException e) {
 			throw new SQLException(String.format("Failed to store new data for file %s \"%s\".", file, fileData), e);
@@ -163,9 +318,11 @@ public class WritableMediaDb implements Closeable {
 	}
 
 	protected void updateFileData (final File file, final FileData fileData) throws SQLException {
+		wroteFile(file.getAbsolutePath());
 		final PreparedStatement st = this.conn.prepareStatement(
 				"UPDATE files SET size=?,modified=?,hash=?,md5=?,mimetype=?,id=?,missing=? WHERE file=?;");
 		try {
+			final FileState before = readFileState(file.getAbsolutePath());
 			st.setLong(1, fileData.getSize());
 			st.setLong(2, fileData.getModified());
 			st.setString(3, fileData.getHash());
@@ -176,6 +333,7 @@ public class WritableMediaDb implements Closeable {
 			st.setString(8, file.getAbsolutePath());
 			final int n = st.executeUpdate();
 			if (n < 1) throw new SQLException("No update occured updating file '" + file.getAbsolutePath() + "'.");
+			fileStateChanged(file.getAbsolutePath(), before, readFileState(file.getAbsolutePath()));
 		}
 		catch (final SQLException e) {
 			throw new SQLException(String.format("Failed to update data for file %s to \"%s\".", file, fileData), e);
@@ -186,20 +344,19 @@ public class WritableMediaDb implements Closeable {
 	}
 
 	protected void updateFileAuth(final File file, final BigInteger auth) throws SQLException {
-		final PreparedStatement st = this.conn.prepareStatement(
-				"UPDATE files SET auth=? WHERE file=?;");
+		wroteFile(file.getAbsolutePath());
 		try {
+			final FileState before = readFileState(file.getAbsolutePath());
+			final PreparedStatement st = cachedStatement("UPDATE files SET auth=? WHERE file=?;");
 			st.setString(1, auth.toString(16));
 			st.setString(2, file.getAbsolutePath());
 			final int n = st.executeUpdate();
 			if (n < 1) throw new SQLException("No update occured updating auth '" + file.getAbsolutePath() + "'.");
+			fileStateChanged(file.getAbsolutePath(), before, readFileState(file.getAbsolutePath()));
 		}
 		catch (final SQLException e) {
 			throw new SQLException(String.format("Failed to update auth for file %s to \"%s\".", file, auth.toString(16)), e);
 		}
-		finally {
-			st.close();
-		}
 	}
 
 	protected void setFileMissing(final String file, final boolean missing) throws SQLException {
@@ -207,11 +364,15 @@ public class WritableMediaDb implements Closeable {
 	}
 
 	protected void setFileMissing(final String file, final boolean missing, final boolean dbMustChange) throws SQLException {
-		try (final PreparedStatement st = this.conn.prepareStatement("UPDATE files SET missing=? WHERE file=?;")) {
+		wroteFile(file);
+		try {
+			final FileState before = readFileState(file);
+			final PreparedStatement st = cachedStatement("UPDATE files SET missing=? WHERE file=?;");
 			st.setBoolean(1, missing);
 			st.setString(2, file);
 			final int n = st.executeUpdate();
 			if (dbMustChange && n < 1) throw new SQLException(String.format("No update occured setting missing=%s for file \"%s\".", missing, file));
+			fileStateChanged(file, before, readFileState(file));
 		}
 		catch (final SQLException e) {
 			throw new SQLException(String.format("Failed to set missing=%s for file \"%s\".", missing, file), e);
@@ -219,12 +380,15 @@ public class WritableMediaDb implements Closeable {
 	}
 
 	protected void removeFile (final File file) throws SQLException {
+		wroteFile(file.getAbsolutePath());
 		final PreparedStatement st = this.conn.prepareStatement(
 				"DELETE FROM files WHERE file=?;");
 		try {
+			final FileState before = readFileState(file.getAbsolutePath());
 			st.setString(1, file.getAbsolutePath());
 			final int n = st.executeUpdate();
 			if (n < 1) throw new SQLException("No update occured removing file '" + file.getAbsolutePath() + "'.");
+			fileStateChanged(file.getAbsolutePath(), before, null);
 		}
 		catch (final SQLException e) {
 			throw new SQLException(String.format("Failed to remove file \"%s\".", file), e);
@@ -235,9 +399,9 @@ public class WritableMediaDb implements Closeable {
 	}
 
 	protected void storeCanonicalId (final String hash, final String id) throws SQLException {
-		final PreparedStatement st = this.conn.prepareStatement(
-				"INSERT INTO hashes (hash,id) VALUES (?,?);");
+		wrote(Table.HASHES);
 		try {
+			final PreparedStatement st = cachedStatement("INSERT INTO hashes (hash,id) VALUES (?,?);");
 			st.setString(1, hash);
 			st.setString(2, id);
 			final int n = st.executeUpdate();
@@ -246,9 +410,6 @@ public class WritableMediaDb implements Closeable {
 		catch (final SQLException e) {
 			throw new SQLException(String.format("Failed to store canonical ID '%s' for hash '%s'.", id, hash), e);
 		}
-		finally {
-			st.close();
-		}
 	}
 
 	public Collection<String> hashesForMd5(final String md5) throws SQLException {
@@ -268,6 +429,7 @@ public class WritableMediaDb implements Closeable {
 	//	Infos.
 
 	protected void storeInfos(final List<FileIdAndInfo> toStore) throws SQLException {
+		wrote(Table.INFOS);
 		final List<FileIdAndInfo> toInsert = new ArrayList<>();
 
 		final PreparedStatement stUpdate = this.conn.prepareStatement(
@@ -349,6 +511,13 @@ public class WritableMediaDb implements Closeable {
 	}
 
 	private boolean mergeTag(final String fileId, final String tag, final String cls, final long modifiled, final boolean deleted, final boolean updateModified, final boolean insertOnly) throws SQLException {
+		final boolean countedBefore = isTagCounted(fileId, tag);
+		final boolean changed = doMergeTag(fileId, tag, cls, modifiled, deleted, updateModified, insertOnly);
+		if (changed) recordTagChange(fileId, tag, countedBefore);
+		return changed;
+	}
+
+	private boolean doMergeTag(final String fileId, final String tag, final String cls, final long modifiled, final boolean deleted, final boolean updateModified, final boolean insertOnly) throws SQLException {
 		final Collection<Tag> existing = MediaDb.getTagFromConn(this.conn, fileId, tag, cls);
 		if (existing.size() > 1) throw new IllegalStateException(String.format("DB UNIQUE(file_id, tag) constraint failed: id=%s tag='%s'", fileId, tag));
 		if (existing.size() > 0) {
@@ -358,7 +527,7 @@ public class WritableMediaDb implements Closeable {
 			if (e.getModified() >= modifiled) return false;
 			if (e.isDeleted() == deleted && !updateModified) return false;
 
-			setTagModifiedAndDeleted(fileId, tag, cls, deleted, modifiled);
+			doSetTagModifiedAndDeleted(fileId, tag, cls, deleted, modifiled);
 
 			if (!e.getTag().equals(tag)) {  // tag case changed.
 				updateTagString(fileId, tag, cls);
@@ -367,6 +536,7 @@ public class WritableMediaDb implements Closeable {
 			return true;
 		}
 
+		wroteTag(fileId);
 		try (final PreparedStatement st = this.conn.prepareStatement(
 				"INSERT INTO tags (file_id,tag,cls,modified,deleted) VALUES (?,?,?,?,?)")) {
 			st.setString(1, fileId);
@@ -384,6 +554,13 @@ public class WritableMediaDb implements Closeable {
 	}
 
 	public void setTagModifiedAndDeleted(final String fileId, final String tag, final String cls, final boolean deleted, final long modifiled) throws SQLException {
+		final boolean countedBefore = isTagCounted(fileId, tag);
+		doSetTagModifiedAndDeleted(fileId, tag, cls, deleted, modifiled);
+		recordTagChange(fileId, tag, countedBefore);
+	}
+
+	private void doSetTagModifiedAndDeleted(final String fileId, final String tag, final String cls, final boolean deleted, final long modifiled) throws SQLException {
+		wroteTag(fileId);
 		try (final PreparedStatement st = this.conn.prepareStatement("UPDATE tags SET deleted=?,modified=? WHERE file_id=? AND tag=? AND cls=?")) {
 			st.setInt(1, deleted ? 1 : 0);
 			st.setLong(2, modifiled);
@@ -398,7 +575,43 @@ public class WritableMediaDb implements Closeable {
 		}
 	}
 
+	/**
+	 * Same rules as MediaDb.addAllTagsNotMissingNotDeleted(), except that a file being missing is ignored.
+	 */
+	private boolean isTagCounted(final String fileId, final String tag) throws SQLException {
+		final PreparedStatement st = cachedStatement("SELECT 1 FROM tags WHERE file_id=? AND tag=? AND deleted=0 AND cls NOT LIKE '.%' LIMIT 1;");
+		st.setString(1, fileId);
+		st.setString(2, tag);
+		try (final ResultSet rs = st.executeQuery()) {
+			return rs.next();
+		}
+	}
+
+	private void recordTagChange(final String fileId, final String tag, final boolean countedBefore) throws SQLException {
+		final boolean countedAfter = isTagCounted(fileId, tag);
+		if (countedAfter == countedBefore) return;
+		final int delta = countedAfter ? 1 : -1;
+
+		final Map<String, String> fileToAuth = new LinkedHashMap<>();
+		final PreparedStatement st = cachedStatement("SELECT file, auth FROM files WHERE id=? AND missing=0;");
+		st.setString(1, fileId);
+		try (final ResultSet rs = st.executeQuery()) {
+			while (rs.next()) {
+				fileToAuth.put(rs.getString(1), rs.getString(2));
+			}
+		}
+
+		for (final Entry<String, String> e : fileToAuth.entrySet()) {
+			changeDirTagCounts(e.getKey(), e.getValue(), Collections.singleton(tag), delta);
+		}
+		if (this.tagChangeListeners.isEmpty()) return;
+		for (final String auth : new LinkedHashSet<>(fileToAuth.values())) {
+			this.pendingTagChanges.add(new TagChange(fileId, tag, new BigInteger(auth, 16), delta));
+		}
+	}
+
 	public void updateTagString(final String fileId, final String tag, final String cls) throws SQLException {
+		wroteTag(fileId);
 		try (final PreparedStatement st = this.conn.prepareStatement("UPDATE tags SET tag=? WHERE file_id=? AND tag=? AND cls=?")) {
 			st.setString(1, tag);
 			st.setString(2, fileId);
@@ -412,10 +625,134 @@ public class WritableMediaDb implements Closeable {
 		}
 	}
 
+//	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// dir tags:
+	// dir_tags is kept up to date by the tag writes above and by the file writes calling fileStateChanged().
+
+	/**
+	 * For populating dir_tags when the table is first created.
+	 */
+	void rebuildDirTags() throws SQLException {
+		wrote(Table.TAGS);
+		try (final PreparedStatement st = this.conn.prepareStatement("DELETE FROM dir_tags;")) {
+			st.executeUpdate();
+		}
+		try (final PreparedStatement st = this.conn.prepareStatement(
+				"SELECT file, auth, tag FROM files, tags"
+				+ " WHERE id=file_id AND missing=0 AND deleted=0 AND cls NOT LIKE '.%'"
+				+ " GROUP BY file, tag;")) {
+			try (final ResultSet rs = st.executeQuery()) {
+				while (rs.next()) {
+					changeDirTagCounts(rs.getString(1), rs.getString(2), Collections.singleton(rs.getString(3)), 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns null if file is not in the DB.
+	 */
+	private FileState readFileState(final String file) throws SQLException {
+		final PreparedStatement st = cachedStatement("SELECT id, auth, missing FROM files WHERE file=?;");
+		st.setString(1, file);
+		try (final ResultSet rs = st.executeQuery()) {
+			if (!rs.next()) return null;
+			return new FileState(rs.getString(1), rs.getString(2), rs.getBoolean(3));
+		}
+	}
+
+	/**
+	 * Moves the file's tags between dir_tags rows if it changed ID, auth, or missing.
+	 */
+	private void fileStateChanged(final String file, final FileState before, final FileState after) throws SQLException {
+		if (Objects.equals(before, after)) return;
+		if (before != null && !before.missing) changeDirTagCounts(file, before.auth, countedTags(before.id), -1);
+		if (after != null && !after.missing) changeDirTagCounts(file, after.auth, countedTags(after.id), 1);
+	}
+
+	private Collection<String> countedTags(final String fileId) throws SQLException {
+		final PreparedStatement st = cachedStatement("SELECT tag FROM tags WHERE file_id=? AND deleted=0 AND cls NOT LIKE '.%' GROUP BY tag;");
+		st.setString(1, fileId);
+		try (final ResultSet rs = st.executeQuery()) {
+			final List<String> ret = new ArrayList<>();
+			while (rs.next()) {
+				ret.add(rs.getString(1));
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * Counts file towards tags in the dir_tags rows for every dir it is in.
+	 */
+	private void changeDirTagCounts(final String file, final String auth, final Collection<String> tags, final int delta) throws SQLException {
+		if (tags.isEmpty()) return;
+
+		final List<String> dirs = new ArrayList<>();
+		for (File d = new File(file).getParentFile(); d != null; d = d.getParentFile()) {
+			dirs.add(d.getPath());
+		}
+		dirs.add(MediaDb.DIR_TAGS_ALL_FILES);
+
+		final PreparedStatement upsert = cachedStatement("INSERT INTO dir_tags (dir,tag,auth,count) VALUES (?,?,?,?)"
+				+ " ON CONFLICT (dir,tag,auth) DO UPDATE SET count=count+excluded.count;");
+		for (final String dir : dirs) {
+			for (final String tag : tags) {
+				upsert.setString(1, dir);
+				upsert.setString(2, tag);
+				upsert.setString(3, auth);
+				upsert.setInt(4, delta);
+				upsert.addBatch();
+			}
+		}
+		upsert.executeBatch();
+
+		if (delta >= 0) return;
+		final PreparedStatement rmEmpty = cachedStatement("DELETE FROM dir_tags WHERE dir=? AND tag=? AND auth=? AND count<1;");
+		for (final String dir : dirs) {
+			for (final String tag : tags) {
+				rmEmpty.setString(1, dir);
+				rmEmpty.setString(2, tag);
+				rmEmpty.setString(3, auth);
+				rmEmpty.addBatch();
+			}
+		}
+		rmEmpty.executeBatch();
+	}
+
+	private static class FileState {
+		final String id;
+		final String auth;
+		final boolean missing;
+
+		FileState(final String id, final String auth, final boolean missing) {
+			this.id = id;
+			this.auth = auth;
+			this.missing = missing;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.id, this.auth, this.missing);
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (obj == null) return false;
+			if (this == obj) return true;
+			if (!(obj instanceof FileState)) return false;
+			final FileState that = (FileState) obj;
+			return Objects.equals(this.id, that.id)
+					&& Objects.equals(this.auth, that.auth)
+					&& this.missing == that.missing;
+		}
+	}
+
 //	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
 	// playback:
 
 	public void recordPlayback(final String id, final long startTimeMillis, final boolean completed) throws SQLException {
+		wrote(Table.PLAYBACK);
 		try (final PreparedStatement st = this.conn.prepareStatement(
 				"INSERT INTO playback(file_id, last_played, start_count, complete_count) VALUES(?,?,1,?)"
 				+ "ON CONFLICT(file_id) DO UPDATE SET last_played=?, start_count=start_count+1, complete_count=complete_count+?"
@@ -434,6 +771,7 @@ public class WritableMediaDb implements Closeable {
 	}
 
 	public void setFileExcluded(final String id, final boolean excluded, final boolean dbMustChange) throws SQLException {
+		wrote(Table.PLAYBACK);
 		try (final PreparedStatement st = this.conn.prepareStatement(
 				"INSERT INTO playback(file_id, excluded) VALUES(?,?)"
 				+ "ON CONFLICT(file_id) DO UPDATE SET excluded=?"
@@ -453,6 +791,7 @@ public class WritableMediaDb implements Closeable {
 	// prefs:
 
 	public void setNodePref(final String nodeId, final String key, final String value) throws SQLException {
+		wrote(Table.NODEPREFS);
 		try (final PreparedStatement st = this.conn.prepareStatement("DELETE FROM nodeprefs WHERE id=? AND key=?")) {
 			st.setString(1, nodeId);
 			st.setString(2, key);
@@ -476,4 +815,40 @@ public class WritableMediaDb implements Closeable {
 		}
 	}
 
-}
\ No newline at end of file
+//	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
+	// dirs:
+
+	public void storeDirContents(final Map<String, DirContents> dirs) throws SQLException {
+		wrote(Table.DIRS);
+		try (final PreparedStatement st = this.conn.prepareStatement(
+				"INSERT INTO dirs (dir,modified,subdirs,files) VALUES (?,?,?,?)"
+				+ " ON CONFLICT (dir) DO UPDATE SET modified=excluded.modified, subdirs=excluded.subdirs, files=excluded.files;")) {
+			for (final Entry<String, DirContents> e : dirs.entrySet()) {
+				st.setString(1, e.getKey());
+				st.setLong(2, e.getValue().getModified());
+				st.setString(3, DirContents.joinNames(e.getValue().getSubDirNames()));
+				st.setString(4, DirContents.joinNames(e.getValue().getFileNames()));
+				st.addBatch();
+			}
+			st.executeBatch();
+		}
+		catch (final SQLException e) {
+			throw new SQLException(String.format("Failed to store contents for %s dirs.", dirs.size()), e);
+		}
+	}
+
+	public void removeDirContents(final Collection<String> dirs) throws SQLException {
+		wrote(Table.DIRS);
+		try (final PreparedStatement st = this.conn.prepareStatement("DELETE FROM dirs WHERE dir=?;")) {
+			for (final String dir : dirs) {
+				st.setString(1, dir);
+				st.addBatch();
+			}
+			st.executeBatch();
+		}
+		catch (final SQLException e) {
+			throw new SQLException(String.format("Failed to remove contents for %s dirs.", dirs.size()), e);
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+package mediatoad.db;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Records which tables each committed transaction wrote to, and for files and tags which directories,
+ * so that cached query results only need reloading when something they read has changed.
+ * Only recent directories are kept, older writes are assumed to have touched every directory.
+ */
+public class WriteLog {
+
+	public enum Table {
+		FILES,
+		HASHES,
+		TAGS,
+		INFOS,
+		PLAYBACK,
+		NODEPREFS,
+		DIRS;
+	}
+
+	// Tables where rows are for a file path, so writes are recorded against the file's directory.
+	static final Set<Table> DIR_TABLES = EnumSet.of(Table.FILES, Table.TAGS);
+	// Writes touching more directories than this, such as scanning a new library, are recorded as touching all of them.
+	static final int MAX_DIRS_PER_WRITE = 1000;
+	private static final int MAX_DIRS = 10000;
+
+	// Dirs are recorded as given by File.getParent(), so use the platform separator.
+	private final String separator;
+
+	// All guarded by this.
+	private long version = 0L;
+	private final long[] tableVersions = new long[Table.values().length];
+	// Oldest first.
+	private final Deque<DirWrite> dirWrites = new ArrayDeque<>();
+	private int dirCount = 0;
+	private long droppedVersion = 0L;
+
+	public WriteLog() {
+		this(File.separator);
+	}
+
+	WriteLog(final String separator) {
+		this.separator = separator;
+	}
+
+	public synchronized long getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * @param dirs Directories of files written to DIR_TABLES, or null if not known.
+	 */
+	synchronized void record(final Set<Table> tables, final Collection<String> dirs) {
+		this.version += 1;
+		for (final Table t : tables) {
+			this.tableVersions[t.ordinal()] = this.version;
+		}
+
+		final Set<Table> dirTables = EnumSet.noneOf(Table.class);
+		for (final Table t : tables) {
+			if (DIR_TABLES.contains(t)) dirTables.add(t);
+		}
+		if (dirTables.isEmpty()) return;
+
+		final String[] d = dirs != null && dirs.size() <= MAX_DIRS_PER_WRITE ? dirs.toArray(new String[0]) : null;
+		this.dirWrites.addLast(new DirWrite(this.version, dirTables, d));
+		this.dirCount += d != null ? d.length : 1;
+		while (this.dirCount > MAX_DIRS && this.dirWrites.size() > 1) {
+			final DirWrite dropped = this.dirWrites.removeFirst();
+			this.dirCount -= dropped.dirs != null ? dropped.dirs.length : 1;
+			this.droppedVersion = dropped.version;
+		}
+	}
+
+	public synchronized boolean changedSince(final long sinceVersion, final Table... tables) {
+		for (final Table t : tables) {
+			if (this.tableVersions[t.ordinal()] > sinceVersion) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param pathPrefix Only consider writes to files under this directory.  null means all files.
+	 * @param tables Must all be in DIR_TABLES.
+	 */
+	public synchronized boolean changedSince(final long sinceVersion, final String pathPrefix, final Table... tables) {
+		if (!changedSince(sinceVersion, tables)) return false;
+		if (pathPrefix == null) return true;
+		if (sinceVersion < this.droppedVersion) return true;
+
+		final String dirPrefix = withSeparator(pathPrefix);
+		final Iterator<DirWrite> ittr = this.dirWrites.descendingIterator();
+		while (ittr.hasNext()) {
+			final DirWrite w = ittr.next();
+			if (w.version <= sinceVersion) break;
+			if (!w.touches(tables)) continue;
+			if (w.dirs == null) return true;
+			for (final String dir : w.dirs) {
+				if (withSeparator(dir).startsWith(dirPrefix)) return true;
+			}
+		}
+		return false;
+	}
+
+	private String withSeparator(final String dir) {
+		return dir.endsWith(this.separator) ? dir : dir + this.separator;
+	}
+
+	private static class DirWrite {
+		final long version;
+		final Set<Table> tables;
+		// null means all dirs.
+		final String[] dirs;
+
+		DirWrite(final long version, final Set<Table> tables, final String[] dirs) {
+			this.version = version;
+			this.tables = tables;
+			this.dirs = dirs;
+		}
+
+		boolean touches(final Table[] ofTables) {
+			for (final Table t : ofTables) {
+				if (this.tables.contains(t)) return true;
+			}
+			return false;
+		}
+	}
+
+}
@@ -5,18 +5,25 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
 import com.google.common.collect.ImmutableSet;
 
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.metrics.Counter;
+
 import mediatoad.db.MediaDb;
+import mediatoad.db.ReadConnectionPool.ReadConnection;
 import mediatoad.db.SqlFragments;
 import mediatoad.db.Sqlite;
 import mediatoad.db.Tag;
@@ -27,6 +34,28 @@ import mediatoad.rpc.MediaToadProto.ChooseMethod;
 public class DbSearchParser {
 
 	private static final int MAX_SEARCH_TERMS = 10;
+	private static final int SQL_CACHE_SIZE = 500;
+
+	private static final Counter SQL_CACHE_METRIC = Counter.builder()
+			.name("db_search_sql_cache")
+			.labelNames("result")
+			.help("count of searches parsed, grouped by whether the SQL for the same shape of terms, auth and sort was already built.")
+			.register();
+	private static final CounterDataPoint SQL_CACHE_HIT_METRIC = SQL_CACHE_METRIC.labelValues("hit");
+	private static final CounterDataPoint SQL_CACHE_MISS_METRIC = SQL_CACHE_METRIC.labelValues("miss");
+
+	/**
+	 * Key is the kind of search plus everything the SQL depends on, with terms reduced to their shape.
+	 * Term values are bound as parameters so the SQL, and so the PreparedStatement, is shared by every search of the same shape.
+	 */
+	private static final Map<List<Object>, String> SQL_CACHE = Collections.synchronizedMap(new LinkedHashMap<List<Object>, String>(16, 0.75f, true) {
+		private static final long serialVersionUID = -2468785323190236387L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<List<Object>, String> eldest) {
+			return size() > SQL_CACHE_SIZE;
+		}
+	});
 
 	// join against hashes so that only canonical IDs are returned,
 	// as non canonical IDs will be dropped by ContentTree.getItemsForIds() anyway.
@@ -59,7 +88,7 @@ public class DbSearchParser {
 			+ " FROM files, tags"
 			+ " WHERE id=file_id AND missing=0 AND deleted=0 AND cls NOT LIKE '.%' AND id IN (FILEQUERY)"
 			+ " GROUP BY tag"
-			+ " ORDER BY freq DESC, tag ASC;";
+			+ " ORDER BY freq DESC, tag ASC";
 
 	private static final String _SQL_AND = " AND";
 	private static final String _SQL_OR = " OR";
@@ -151,6 +180,20 @@ public class DbSearchParser {
 			final boolean includeTags) {
 		if (sorts == null || sorts.size() < 1) throw new IllegalArgumentException("Sort must be specified");
 
+		final List<String> terms = QuerySplitter.split(allTerms, MAX_SEARCH_TERMS);
+		final List<String> sortSql = sorts.stream().map(SortOrder::toSql).collect(Collectors.toList());
+		final String sql = cachedSql(
+				Arrays.asList("search", termsShape(terms), authKey(authIds), bypassAuthChecks, sortSql, includeTags),
+				() -> makeSearchSql(terms, authIds, bypassAuthChecks, sorts, includeTags));
+		return ImmutablePair.of(sql, terms);
+	}
+
+	private static String makeSearchSql(
+			final List<String> terms,
+			final Set<BigInteger> authIds,
+			final boolean bypassAuthChecks,
+			final List<SortOrder> sorts,
+			final boolean includeTags) {
 		final boolean hasInfoSort = sorts.stream().anyMatch(s -> INFO_SORTS.contains(s.column()));
 		final boolean hasPlaybackSort = sorts.stream().anyMatch(s -> PLAYBACK_SORTS.contains(s.column()));
 		if (hasInfoSort && hasPlaybackSort) throw new IllegalArgumentException("Unsupported set of sort columns.");
@@ -176,7 +219,6 @@ public class DbSearchParser {
 			SqlFragments.appendWhereAuth(sql, authIds);
 		}
 
-		final List<String> terms = QuerySplitter.split(allTerms, MAX_SEARCH_TERMS);
 		appendWhereTerms(sql, terms, authIds);
 
 		sql.append(" ORDER BY ");
@@ -189,17 +231,34 @@ public class DbSearchParser {
 
 		if (includeTags) sql.append(", id ASC");  // ensure rows for same file are together.
 
-		return ImmutablePair.of(sql.toString(), terms);
+		return sql.toString();
 	}
 
 	public static DbSearch parseSearchForChoose(final String allTerms, final Set<BigInteger> authIds, final ChooseMethod method) {
+		final List<String> terms = QuerySplitter.split(allTerms, MAX_SEARCH_TERMS);
+		final String sql = cachedSql(
+				Arrays.asList("choose", termsShape(terms), authKey(authIds), method),
+				() -> makeChooseSql(terms, authIds, method));
+
+		// LESS_PLAYED repeats the terms in a sub query in the ORDER BY, so they need binding a second time.
+		final List<String> paramTerms;
+		if (method == ChooseMethod.LESS_PLAYED) {
+			paramTerms = new ArrayList<>(terms);
+			paramTerms.addAll(terms);
+		}
+		else {
+			paramTerms = terms;
+		}
+		return new DbSearch(sql, paramTerms);
+	}
+
+	private static String makeChooseSql(final List<String> terms, final Set<BigInteger> authIds, final ChooseMethod method) {
 		final StringBuilder sql = new StringBuilder();
 		sql.append(_SQL_MEDIAFILES_SELECT_WITH_PLAYBACK_TABLE);
 		sql.append(" AND (excluded IS NULL OR excluded=0)");
 		sql.append(_SQL_AND);
 		SqlFragments.appendWhereAuth(sql, authIds);
 
-		final List<String> terms = QuerySplitter.split(allTerms, MAX_SEARCH_TERMS);
 		appendWhereTerms(sql, terms, authIds);
 
 		switch (method) {
@@ -224,19 +283,88 @@ public class DbSearchParser {
 			throw new IllegalArgumentException("Method not supported: " + method);
 		}
 
-		return new DbSearch(sql.toString(), terms);
+		return sql.toString();
 	}
 
 	public static TagFrequencySearch parseSearchForTags(final String allTerms, final Set<BigInteger> authIds) {
+		final List<String> terms = QuerySplitter.split(allTerms, MAX_SEARCH_TERMS);
+		final String sql = cachedSql(
+				Arrays.asList("tags", termsShape(terms), authKey(authIds)),
+				() -> makeTagsSql(terms, authIds));
+		return new TagFrequencySearch(sql, terms);
+	}
+
+	private static String makeTagsSql(final List<String> terms, final Set<BigInteger> authIds) {
 		final StringBuilder fileQuery = new StringBuilder(_SQL_MEDIAFILES_SELECT);
 		fileQuery.append(_SQL_AND);
 		SqlFragments.appendWhereAuth(fileQuery, authIds);
 
-		final List<String> terms = QuerySplitter.split(allTerms, MAX_SEARCH_TERMS);
 		appendWhereTerms(fileQuery, terms, authIds);
 
-		final String tagQuery = _SQL_TAG_FREQUENCY_SELECT.replace("FILEQUERY", fileQuery.toString());
-		return new TagFrequencySearch(tagQuery, terms);
+		return _SQL_TAG_FREQUENCY_SELECT.replace("FILEQUERY", fileQuery.toString());
+	}
+
+	private static String cachedSql(final List<Object> key, final Supplier<String> maker) {
+		final String cached = SQL_CACHE.get(key);
+		if (cached != null) {
+			SQL_CACHE_HIT_METRIC.inc();
+			return cached;
+		}
+		SQL_CACHE_MISS_METRIC.inc();
+		final String sql = maker.get();
+		SQL_CACHE.put(key, sql);
+		return sql;
+	}
+
+	/**
+	 * Copy so that later changes to the caller's set do not change the key.
+	 */
+	private static Set<BigInteger> authKey(final Set<BigInteger> authIds) {
+		return authIds != null ? ImmutableSet.copyOf(authIds) : null;
+	}
+
+	private enum TermKind {
+		FILE,
+		NOT_FILE,
+		TYPE,
+		TAG,
+		NOT_TAG,
+		TAG_COUNT_LESS_THAN,
+		TAG_COUNT_GREATER_THAN,
+		WIDTH_OR_HEIGHT,
+		DUPE_COUNT_GREATER_THAN,
+		FILE_OR_TAG;
+	}
+
+	private static TermKind termKind(final String term) {
+		if (DbSearchSyntax.isFileMatchPartial(term)) return TermKind.FILE;
+		if (DbSearchSyntax.isFileNotMatchPartial(term)) return TermKind.NOT_FILE;
+		if (DbSearchSyntax.isTypeMatchExactOrPartial(term)) return TermKind.TYPE;
+		if (DbSearchSyntax.isTagMatchPartial(term) || DbSearchSyntax.isTagMatchExact(term)) return TermKind.TAG;
+		if (DbSearchSyntax.isTagNotMatchPartial(term) || DbSearchSyntax.isTagNotMatchExact(term)) return TermKind.NOT_TAG;
+		if (DbSearchSyntax.isTagCountLessThan(term)) return TermKind.TAG_COUNT_LESS_THAN;
+		if (DbSearchSyntax.isTagCountGreaterThan(term)) return TermKind.TAG_COUNT_GREATER_THAN;
+		if (DbSearchSyntax.widthOrHeight(term) != null) return TermKind.WIDTH_OR_HEIGHT;
+		if (DbSearchSyntax.isDupeCountGreaterThan(term)) return TermKind.DUPE_COUNT_GREATER_THAN;
+		return TermKind.FILE_OR_TAG;
+	}
+
+	/**
+	 * What the SQL for terms depends on: the operators and brackets, and the kind of each term, but not its value.
+	 * Width and height comparisons put the column and operator in the SQL, so those are included.
+	 */
+	static List<Object> termsShape(final List<String> terms) {
+		final List<Object> ret = new ArrayList<>(terms.size());
+		for (final String term : terms) {
+			if ("OR".equals(term) || "AND".equals(term) || "(".equals(term) || ")".equals(term)) {
+				ret.add(term);
+			}
+			else {
+				final TermKind kind = termKind(term);
+				ret.add(kind == TermKind.WIDTH_OR_HEIGHT ? DbSearchSyntax.widthOrHeight(term) : kind);
+			}
+		}
+		return ret;
 	}
 
 	private static void appendWhereTerms (final StringBuilder sql, final List<String> terms, final Set<BigInteger> authIds) {
@@ -284,40 +412,42 @@ public class DbSearchParser {
 					}
 				}
 
-				String woh;
-
 				if ("(".equals(term)) {
 					sql.append(" ( ");
 					openBrackets += 1;
+					continue;
 				}
-				else if (DbSearchSyntax.isFileMatchPartial(term)) {
+
+				switch (termKind(term)) {
+				case FILE:
 					sql.append(_SQL_MEDIAFILES_WHERES_FILE);
-				}
-				else if (DbSearchSyntax.isFileNotMatchPartial(term)) {
+					break;
+				case NOT_FILE:
 					sql.append(_SQL_MEDIAFILES_WHERES_NOT_FILE);
-				}
-				else if (DbSearchSyntax.isTypeMatchExactOrPartial(term)) {
+					break;
+				case TYPE:
 					sql.append(_SQL_MEDIAFILES_WHERES_TYPE);
-				}
-				else if (DbSearchSyntax.isTagMatchPartial(term) || DbSearchSyntax.isTagMatchExact(term)) {
+					break;
+				case TAG:
 					sql.append(_SQL_MEDIAFILES_WHERES_TAG);
-				}
-				else if (DbSearchSyntax.isTagNotMatchPartial(term) || DbSearchSyntax.isTagNotMatchExact(term)) {
+					break;
+				case NOT_TAG:
 					sql.append(_SQL_MEDIAFILES_WHERES_NOT_TAG);
-				}
-				else if (DbSearchSyntax.isTagCountLessThan(term)) {
+					break;
+				case TAG_COUNT_LESS_THAN:
 					sql.append(_SQL_MEDIAFILES_WHERES_TAG_COUNT_LESS_THAN);
-				}
-				else if (DbSearchSyntax.isTagCountGreaterThan(term)) {
+					break;
+				case TAG_COUNT_GREATER_THAN:
 					sql.append(_SQL_MEDIAFILES_WHERES_TAG_COUNT_GREATER_THAN);
-				}
-				else if ((woh = DbSearchSyntax.widthOrHeight(term)) != null) {
-					sql.append(_SQL_MEDIAFILES_WHERE_INFOS.replace("WOH", woh));
-				}
-				else if (DbSearchSyntax.isDupeCountGreaterThan(term)) {
+					break;
+				case WIDTH_OR_HEIGHT:
+					sql.append(_SQL_MEDIAFILES_WHERE_INFOS.replace("WOH", DbSearchSyntax.widthOrHeight(term)));
+					break;
+				case DUPE_COUNT_GREATER_THAN:
 					sql.append(_SQL_MEDIAFILES_WHERES_DUPE_COUNT_GREATER_THAN.replace("AUTH", SqlFragments.makeWhereAuth(authIds)));
-				}
-				else {
+					break;
+				case FILE_OR_TAG:
+				default:
 					sql.append(_SQL_MEDIAFILES_WHERES_FILEORTAG);
 				}
 			}
@@ -445,11 +575,13 @@ public class DbSearchParser {
 		public T execute(final MediaDb db, final int maxResults, final int offset) throws SQLException {
 			if (!this.limitQueryRowCount && offset != 0) throw new IllegalStateException("Can not use offset without limitQueryRowCount.");
 
-			final String modifiedSql = this.limitQueryRowCount
-					? maybeAddLimit(this.sql, maxResults, offset)
+			final boolean addLimit = this.limitQueryRowCount && maxResults >= 0;
+			final String modifiedSql = addLimit
+					? this.sql + " LIMIT ? OFFSET ?"
 					: this.sql;
 
-			try (final PreparedStatement ps = db.prepare(modifiedSql)) {
+			try (final ReadConnection c = db.borrowReadConnection()) {
+				final PreparedStatement ps = c.prepare(modifiedSql);
 				int parmIn = 1;
 				for (final String term : this.terms) {
 					if ("OR".equals(term)) continue;
@@ -485,6 +617,11 @@ public class DbSearchParser {
 					}
 				}
 
+				if (addLimit) {
+					ps.setInt(parmIn++, maxResults);
+					ps.setInt(parmIn++, offset);
+				}
+
 				if (this.limitQueryRowCount && maxResults > 0) ps.setMaxRows(maxResults);
 				try (final ResultSet rs = ps.executeQuery()) {
 					return parseRecordSet(rs, maxResults);
@@ -492,11 +629,6 @@ public class DbSearchParser {
 			}
 		}
 
-		private static String maybeAddLimit(final String sql, final int maxResults, final int offset) {
-			if (maxResults < 0) return sql;
-			return String.format("%s LIMIT %d OFFSET %d", sql, maxResults, offset);
-		}
-
 		abstract protected T parseRecordSet(final ResultSet rs, final int maxResults) throws SQLException;
 
 		@Override
@@ -3,6 +3,7 @@ package mediatoad.dlnaserver;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
@@ -15,11 +16,12 @@ import org.jupnp.support.model.BrowseFlag;
 import org.jupnp.support.model.BrowseResult;
 import org.jupnp.support.model.DIDLContent;
 import org.jupnp.support.model.SortCriterion;
-import org.jupnp.support.model.container.Container;
-import org.jupnp.support.model.item.Item;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import mediatoad.media.ContentItem;
 import mediatoad.media.ContentNode;
 import mediatoad.media.ContentTree;
@@ -33,6 +35,9 @@ public class ContentDirectoryService extends AbstractContentDirectoryService {
 	private static final Logger LOG = LoggerFactory.getLogger(ContentDirectoryService.class);
 
 	private static final int MAX_RESULTS = 500;
+	// Bounds how long changes to the children themselves, such as item durations being read, take to show up.
+	private static final long BROWSE_CACHE_EXPIRY_SECONDS = TimeUnit.MINUTES.toSeconds(1);
+	private static final long BROWSE_CACHE_MAX_CHARS = 16L * 1024 * 1024;
 
 	private final ContentTree contentTree;
 	private final NodeConverter nodeConverter;
@@ -40,6 +45,17 @@ public class ContentDirectoryService extends AbstractContentDirectoryService {
 	private final boolean printAccessLog;
 	private final Supplier<DIDLParser> parserSupplier;
 
+	/**
+	 * Clients page through big dirs by repeating the same browse with a moving window,
+	 * so cache the generated DIDL for each window.  Keys include the node's children version
+	 * so adding or removing children means old entries are no longer used.
+	 */
+	private final Cache<BrowseKey, BrowseResult> browseCache = CacheBuilder.newBuilder()
+			.maximumWeight(BROWSE_CACHE_MAX_CHARS)
+			.weigher((final BrowseKey k, final BrowseResult v) -> v.getResult().length())
+			.expireAfterWrite(BROWSE_CACHE_EXPIRY_SECONDS, TimeUnit.SECONDS)
+			.build();
+
 	public ContentDirectoryService(final ContentTree contentTree, final NodeConverter nodeConverter, final SearchEngine searchEngine, final boolean printAccessLog) {
 		this(contentTree, nodeConverter, searchEngine, printAccessLog, () -> new DIDLParser());
 	}
@@ -70,9 +86,15 @@ public class ContentDirectoryService extends AbstractContentDirectoryService {
 					return new BrowseResult(this.parserSupplier.get().generate(didl), 1, 1);
 				}
 
-				final List<Container> containers = this.nodeConverter.makeSubContainersWithoutTheirSubContainers(node);
-				final List<Item> items = this.nodeConverter.makeItems(node);
-				return toRangedResult(containers, items, firstResult, maxResults);
+				final BrowseKey key = new BrowseKey(node.getId(), node.getChildrenVersion(), firstResult, maxResults);
+				final BrowseResult cached = this.browseCache.getIfPresent(key);
+				if (cached != null) return cached;
+
+				final List<ContentNode> nodes = this.nodeConverter.listSubContainers(node);
+				final List<ContentItem> items = this.nodeConverter.listItems(node);
+				final BrowseResult result = toRangedResult(nodes, items, firstResult, maxResults);
+				this.browseCache.put(key, result);
+				return result;
 			}
 
 			final ContentItem item = this.contentTree.getItem(objectID);
@@ -108,11 +130,9 @@ public class ContentDirectoryService extends AbstractContentDirectoryService {
 			final ContentNode node = this.contentTree.getNode(containerId);
 			if (node == null) return new BrowseResult("", 0, 0);
 
-			// TODO cache search results to make pagination faster.
-
 			final List<ContentItem> results = this.searchEngine.search(node, searchCriteria, MAX_RESULTS, /* username= */null);
-			final List<Item> items = this.nodeConverter.makeItems(results);
-			return toRangedResult(Collections.<Container> emptyList(), items, firstResult, maxResults);
+			final List<ContentItem> items = this.nodeConverter.listItems(results);
+			return toRangedResult(Collections.<ContentNode> emptyList(), items, firstResult, maxResults);
 		}
 		catch (final ContentDirectoryException e) {
 			LOG.warn(String.format("Failed to parse search request" +
@@ -135,23 +155,57 @@ public class ContentDirectoryService extends AbstractContentDirectoryService {
 		}
 	}
 
-	private BrowseResult toRangedResult (final List<Container> containers, final List<Item> items, final long firstResult, final long maxResultsParam) throws Exception {
-		final long maxResults = maxResultsParam == 0 ? containers.size() + items.size() : maxResultsParam;
+	/**
+	 * Only converts the nodes and items inside the requested window.
+	 */
+	private BrowseResult toRangedResult (final List<ContentNode> nodes, final List<ContentItem> items, final long firstResult, final long maxResultsParam) throws Exception {
+		final long maxResults = maxResultsParam == 0 ? nodes.size() + items.size() : maxResultsParam;
 
 		final DIDLContent didl = new DIDLContent();
-		if (containers.size() > firstResult) {
+		if (nodes.size() > firstResult) {
 			final int from = (int) firstResult;
-			final int to = Math.min((int) (firstResult + maxResults), containers.size());
-			didl.setContainers(containers.subList(from, to));
+			final int to = (int) Math.min(firstResult + maxResults, nodes.size());
+			didl.setContainers(this.nodeConverter.makeContainersWithoutTheirSubContainers(nodes.subList(from, to)));
 		}
 		if (didl.getContainers().size() < maxResults) {
-			final int from = (int) Math.max(firstResult - containers.size(), 0);
-			final int to = Math.min(items.size(), from + (int) (maxResults - didl.getContainers().size()));
-			didl.setItems(items.subList(from, to));
+			final int from = (int) Math.min(Math.max(firstResult - nodes.size(), 0), items.size());
+			final int to = (int) Math.min(items.size(), from + (maxResults - didl.getContainers().size()));
+			didl.setItems(this.nodeConverter.makeItems(items.subList(from, to)));
 		}
 		return new BrowseResult(this.parserSupplier.get().generate(didl),
 				didl.getContainers().size() + didl.getItems().size(),
-				containers.size() + items.size());
+				nodes.size() + items.size());
+	}
+
+	private static class BrowseKey {
+		final String objectId;
+		final long childrenVersion;
+		final long firstResult;
+		final long maxResults;
+
+		BrowseKey(final String objectId, final long childrenVersion, final long firstResult, final long maxResults) {
+			this.objectId = objectId;
+			this.childrenVersion = childrenVersion;
+			this.firstResult = firstResult;
+			this.maxResults = maxResults;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.objectId, this.childrenVersion, this.firstResult, this.maxResults);
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (obj == null) return false;
+			if (this == obj) return true;
+			if (!(obj instanceof BrowseKey)) return false;
+			final BrowseKey that = (BrowseKey) obj;
+			return Objects.equals(this.objectId, that.objectId)
+					&& this.childrenVersion == that.childrenVersion
+					&& this.firstResult == that.firstResult
+					&& this.maxResults == that.maxResults;
+		}
 	}
 
 }
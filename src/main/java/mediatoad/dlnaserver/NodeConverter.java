@@ -53,14 +53,29 @@ public class NodeConverter {
 	}
 
 	public List<Container> makeSubContainersWithoutTheirSubContainers(final ContentNode n) {
-		final List<Container> ret = new ArrayList<>();
+		return makeContainersWithoutTheirSubContainers(listSubContainers(n));
+	}
+
+	/**
+	 * The sub nodes of n that makeSubContainersWithoutTheirSubContainers() would convert, without converting them.
+	 */
+	public List<ContentNode> listSubContainers(final ContentNode n) {
+		final List<ContentNode> ret = new ArrayList<>();
 		n.withEachNode(i -> {
 			if (i.hasAuthList() && i.getAuthList().getAccessType() != AccessType.DEFAULT_ALL_USERS) return;
-			ret.add(makeContainerWithoutSubContainers(i));
+			ret.add(i);
 		});
 		return ret;
 	}
 
+	public List<Container> makeContainersWithoutTheirSubContainers(final List<ContentNode> nodes) {
+		final List<Container> ret = new ArrayList<>(nodes.size());
+		for (final ContentNode n : nodes) {
+			ret.add(makeContainerWithoutSubContainers(n));
+		}
+		return ret;
+	}
+
 	public Container makeContainerWithoutSubContainers(final ContentNode n) {
 		final Container c = new Container();
 		c.setClazz(new DIDLObject.Class("object.container"));
@@ -82,27 +97,47 @@ public class NodeConverter {
 	}
 
 	public List<Item> makeItems(final ContentNode n) {
-		final List<Item> ret = new ArrayList<>();
-		n.withEachItem(i -> maybeMakeAndAddItem(ret, i));
+		return makeItems(listItems(n));
+	}
+
+	/**
+	 * The items of n that makeItems() would convert, without converting them.
+	 */
+	public List<ContentItem> listItems(final ContentNode n) {
+		final List<ContentItem> ret = new ArrayList<>();
+		n.withEachItem(i -> {
+			if (isConvertible(i)) ret.add(i);
+		});
+		return ret;
+	}
+
+	/**
+	 * The items that makeItems() would convert, without converting them.
+	 */
+	public List<ContentItem> listItems(final List<ContentItem> items) {
+		final List<ContentItem> ret = new ArrayList<>(items.size());
+		for (final ContentItem i : items) {
+			if (isConvertible(i)) ret.add(i);
+		}
 		return ret;
 	}
 
 	public List<Item> makeItems(final List<ContentItem> items) {
 		final List<Item> ret = new ArrayList<>();
 		for (final ContentItem i : items) {
-			maybeMakeAndAddItem(ret, i);
+			if (isConvertible(i)) ret.add(makeItem(i));
 		}
 		return ret;
 	}
 
-	private void maybeMakeAndAddItem(final List<Item> ret, final ContentItem i) {
+	private static boolean isConvertible(final ContentItem i) {
 		switch (i.getFormat().getContentGroup()) {
 		case VIDEO:
 		case IMAGE:
 		case AUDIO:
-			ret.add(makeItem(i));
-			break;
+			return true;
 		default:
+			return false;
 		}
 	}
 
@@ -1,9 +1,12 @@
 package mediatoad.dlnaserver;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -25,6 +28,8 @@ import org.jupnp.support.model.item.VideoItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 
 import cdsc.CDSCBaseListener;
@@ -37,8 +42,11 @@ import cdsc.CDSCParser.SearchExpContext;
 import mediatoad.db.MediaDb;
 import mediatoad.db.Sqlite;
 import mediatoad.media.ContentGroup;
+import mediatoad.media.ContentIndex;
+import mediatoad.media.ContentIndex.Field;
 import mediatoad.media.ContentItem;
 import mediatoad.media.ContentNode;
+import mediatoad.media.ContentTree;
 import mediatoad.media.MetadataReader.Metadata;
 import mediatoad.util.StringHelper;
 
@@ -46,16 +54,36 @@ public class SearchEngine {
 
 	private static final Logger LOG = LoggerFactory.getLogger(SearchEngine.class);
 
-	public SearchEngine () {}
+	private final ContentTree contentTree;
 
+	/**
+	 * Clients page through results by repeating the same search, so keep results for a short while.
+	 * Keys include the index version so results are not reused once items are added or removed.
+	 */
+	private final Cache<SearchKey, List<ContentItem>> resultCache = CacheBuilder.newBuilder()
+			.maximumSize(100)
+			.expireAfterWrite(1, TimeUnit.MINUTES)
+			.build();
+
+	public SearchEngine (final ContentTree contentTree) {
+		this.contentTree = contentTree;
+	}
+
+	/**
+	 * Returned list is immutable.
+	 */
 	public List<ContentItem> search (final ContentNode node, final String searchCriteria, final int maxResults, final String username) throws ContentDirectoryException {
+		final SearchKey key = new SearchKey(node.getId(), searchCriteria, maxResults, username, this.contentTree.getIndex().getVersion());
+		final List<ContentItem> cached = this.resultCache.getIfPresent(key);
+		if (cached != null) return cached;
+
 		final long startTime = System.nanoTime();
 		final Predicate<ContentItem> predicate = criteriaToPredicate(searchCriteria);
 		if (predicate == null) throw new ContentDirectoryException(ContentDirectoryErrorCodes.UNSUPPORTED_SEARCH_CRITERIA, "Do not know how to parse: " + searchCriteria);
 		LOG.debug("'{}' => {} in {}ms.", searchCriteria, predicate, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
 
-		final List<ContentItem> results = new ArrayList<>();
-		filterItems(node, predicate, maxResults, username, results);
+		final List<ContentItem> results = Collections.unmodifiableList(filterItems(node, predicate, maxResults, username));
+		this.resultCache.put(key, results);
 		return results;
 	}
 
@@ -75,6 +103,9 @@ public class SearchEngine {
 		private static final Set<String> ARTIST_FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
 				"dc:creator", "upnp:artist")));
 
+		private static final Set<String> ALBUM_FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+				"upnp:album")));
+
 		private static final Set<String> TAG_FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
 				"tag")));
 
@@ -210,6 +241,15 @@ public class SearchEngine {
 					predicate = new Bool<>(true);
 				}
 			}
+			else if (ALBUM_FIELDS.contains(propertyName)) {
+				if ("=".equals(op) || "contains".equalsIgnoreCase(op)) {
+					predicate = new AlbumContains(value);
+				}
+				else {
+					LOG.debug("Unsupported op for property {}: {}", propertyName, op);
+					predicate = new Bool<>(true);
+				}
+			}
 			else if (TAG_FIELDS.contains(propertyName)) {
 				if ("=".equals(op)) {
 					predicate = new TagPredicate(value, Operator.EQUAL);
@@ -262,25 +302,95 @@ public class SearchEngine {
 	}
 
 	/**
-	 * Lazy recursive impl.
+	 * The index is only used when searching from root for something it can narrow down,
+	 * otherwise walking the container is cheaper than checking the scope of every item in the library.
+	 */
+	private List<ContentItem> filterItems (final ContentNode node, final Predicate<ContentItem> predicate, final int maxResults, final String username) {
+		if (ContentGroup.ROOT.getId().equals(node.getId())) {
+			final ContentIndex index = this.contentTree.getIndex();
+			final Set<Integer> ids = predicate.candidateIds(index);
+			if (ids != null) return filterCandidates(index.itemsForIds(ids), node, predicate, maxResults, username);
+		}
+		return walkItems(node, predicate, maxResults, username);
+	}
+
+	/**
+	 * Doc ID order is arbitrary as IDs are reused, so all matches are sorted by title before
+	 * truncating so that the same search always returns the same items.
 	 */
-	private static void filterItems (final ContentNode node, final Predicate<ContentItem> predicate, final int maxResults, final String username, final List<ContentItem> results) {
-		if (results.size() >= maxResults) return;
-		if (!node.isUserAuth(username)) return;
-
-		node.withEachItem(i -> {
-			if (results.size() >= maxResults) return;  // TODO is there a nicer way to stop iterating?
-			if (predicate.matches(i)) {
-				results.add(i);
+	private List<ContentItem> filterCandidates (final List<ContentItem> candidates, final ContentNode node, final Predicate<ContentItem> predicate, final int maxResults, final String username) {
+		final List<ContentItem> results = new ArrayList<>();
+		final Map<String, Boolean> inScope = new HashMap<>();
+		for (final ContentItem i : candidates) {
+			if (!predicate.matches(i)) continue;
+			if (!isInScope(i.getParentId(), node, username, inScope)) continue;
+			results.add(i);
+		}
+		results.sort(ContentItem.Order.TITLE_CASE_INSENSITIVE);
+		return results.size() > maxResults ? new ArrayList<>(results.subList(0, maxResults)) : results;
+	}
+
+	/**
+	 * In tree order, each node's items before its child nodes.
+	 * Uses a stack rather than recursion so deep trees do not need deep call stacks.
+	 */
+	private static List<ContentItem> walkItems (final ContentNode node, final Predicate<ContentItem> predicate, final int maxResults, final String username) {
+		final List<ContentItem> results = new ArrayList<>();
+		final Deque<ContentNode> toSearch = new ArrayDeque<>();
+		toSearch.push(node);
+		while (!toSearch.isEmpty() && results.size() < maxResults) {
+			final ContentNode n = toSearch.pop();
+			if (!n.isUserAuth(username)) continue;
+
+			n.withEachItem(i -> {
+				if (results.size() >= maxResults) return;
+				if (predicate.matches(i)) results.add(i);
+			});
+
+			final List<ContentNode> children = new ArrayList<>();
+			n.withEachNode(c -> {
+				if (ContentGroup.RECENT.getId().equals(c.getId())) return;  // Do not search in recent.
+				children.add(c);
+			});
+			for (int x = children.size() - 1; x >= 0; x--) {
+				toSearch.push(children.get(x));
 			}
-		});
-
-		// FIXME this is recursive and acquires locks so may deadlock.
-		// TODO replace with non-recursive impl.
-		node.withEachNode(n -> {
-			if (ContentGroup.RECENT.getId().equals(n.getId())) return;  // Do not search in recent.
-			filterItems(n, predicate, maxResults, username, results);
-		});
+		}
+		return results;
+	}
+
+	/**
+	 * If the node with nodeId is scope or under it, and the user has auth for every node from scope down to it.
+	 * Items in recent are not found as their parent is the dir they are in.
+	 * @param inScope Results for nodes already checked in this search.
+	 */
+	private boolean isInScope(final String nodeId, final ContentNode scope, final String username, final Map<String, Boolean> inScope) {
+		final List<String> path = new ArrayList<>();
+		Boolean ret = null;
+		String id = nodeId;
+		while (ret == null) {
+			final Boolean known = inScope.get(id);
+			if (known != null) {
+				ret = known;
+				break;
+			}
+			path.add(id);
+
+			final ContentNode n = this.contentTree.getNode(id);
+			if (n == null || !n.isUserAuth(username)) {
+				ret = Boolean.FALSE;
+			}
+			else if (n.getId().equals(scope.getId())) {
+				ret = Boolean.TRUE;
+			}
+			else {
+				id = n.getParentId();
+			}
+		}
+		for (final String p : path) {
+			inScope.put(p, ret);
+		}
+		return ret;
 	}
 
 	private enum LogOp {
@@ -318,6 +428,10 @@ public class SearchEngine {
 	protected interface Predicate<T> {
 		boolean matches (T thing);
 		Where getWhere();
+		/**
+		 * Doc IDs of items that might match, or null if any item might.
+		 */
+		Set<Integer> candidateIds(ContentIndex index);
 	}
 
 	private static class Bool<T> implements Predicate<T> {
@@ -342,6 +456,11 @@ public class SearchEngine {
 		public Where getWhere() {
 			return new Where(this.v ? "TRUE" : "FALSE", null);
 		}
+
+		@Override
+		public Set<Integer> candidateIds(final ContentIndex index) {
+			return this.v ? null : new HashSet<>();
+		}
 	}
 
 	private static class Or<T> implements Predicate<T> {
@@ -370,6 +489,17 @@ public class SearchEngine {
 			return Where.join(this.predicates, "OR");
 		}
 
+		@Override
+		public Set<Integer> candidateIds(final ContentIndex index) {
+			final Set<Integer> ret = new HashSet<>();
+			for (final Predicate<T> p : this.predicates) {
+				final Set<Integer> ids = p.candidateIds(index);
+				if (ids == null) return null;
+				ret.addAll(ids);
+			}
+			return ret;
+		}
+
 		@Override
 		public int hashCode () {
 			return this.predicates.hashCode();
@@ -412,6 +542,22 @@ public class SearchEngine {
 			return Where.join(this.predicates, "AND");
 		}
 
+		@Override
+		public Set<Integer> candidateIds(final ContentIndex index) {
+			Set<Integer> ret = null;
+			for (final Predicate<T> p : this.predicates) {
+				final Set<Integer> ids = p.candidateIds(index);
+				if (ids == null) continue;
+				if (ret == null) {
+					ret = ids;
+				}
+				else {
+					ret.retainAll(ids);
+				}
+			}
+			return ret;
+		}
+
 		@Override
 		public int hashCode () {
 			return this.predicates.hashCode();
@@ -451,6 +597,11 @@ public class SearchEngine {
 			return new Bool<>(true).getWhere();  // TODO check type.
 		}
 
+		@Override
+		public Set<Integer> candidateIds(final ContentIndex index) {
+			return index.idsInGroup(this.contentGroup);
+		}
+
 		@Override
 		public int hashCode () {
 			return this.contentGroup.hashCode();
@@ -491,6 +642,11 @@ public class SearchEngine {
 					Arrays.asList(Sqlite.escapeSearch(this.lcaseSubString), Sqlite.SEARCH_ESC));
 		}
 
+		@Override
+		public Set<Integer> candidateIds(final ContentIndex index) {
+			return index.idsContaining(Field.TITLE, this.lcaseSubString);
+		}
+
 		@Override
 		public int hashCode () {
 			return this.lcaseSubString.hashCode();
@@ -537,6 +693,11 @@ public class SearchEngine {
 					Arrays.asList(Sqlite.escapeSearch(this.lcaseSubString), Sqlite.SEARCH_ESC));
 		}
 
+		@Override
+		public Set<Integer> candidateIds(final ContentIndex index) {
+			return index.idsContaining(Field.ARTIST, this.lcaseSubString);
+		}
+
 		@Override
 		public int hashCode () {
 			return this.lcaseSubString.hashCode();
@@ -553,6 +714,57 @@ public class SearchEngine {
 
 	}
 
+	private static class AlbumContains implements Predicate<ContentItem> {
+
+		private final String lcaseSubString;
+
+		public AlbumContains (final String subString) {
+			this.lcaseSubString = subString.toLowerCase(Locale.ENGLISH);
+		}
+
+		@Override
+		public boolean matches (final ContentItem item) {
+			final Metadata md = item.getMetadata();
+			if (md == null) return false;
+
+			final String album = md.getAlbum();
+			if (album == null) return false;
+
+			return album.toLowerCase(Locale.ENGLISH).contains(this.lcaseSubString);
+		}
+
+		@Override
+		public String toString () {
+			return String.format("albumContains '%s'", this.lcaseSubString);
+		}
+
+		@Override
+		public Where getWhere() {
+			return new Where(MediaDb.COL_FILE + " LIKE ? ESCAPE ?",
+					Arrays.asList(Sqlite.escapeSearch(this.lcaseSubString), Sqlite.SEARCH_ESC));
+		}
+
+		@Override
+		public Set<Integer> candidateIds(final ContentIndex index) {
+			return index.idsContaining(Field.ALBUM, this.lcaseSubString);
+		}
+
+		@Override
+		public int hashCode () {
+			return this.lcaseSubString.hashCode();
+		}
+
+		@Override
+		public boolean equals (final Object obj) {
+			if (obj == null) return false;
+			if (obj == this) return true;
+			if (!(obj instanceof AlbumContains)) return false;
+			final AlbumContains that = (AlbumContains) obj;
+			return Objects.equals(this.lcaseSubString, that.lcaseSubString);
+		}
+
+	}
+
 	private static class TagPredicate implements Predicate<ContentItem> {
 
 		private final String val;
@@ -568,6 +780,11 @@ public class SearchEngine {
 			return true;  // TODO implement for memory searches?
 		}
 
+		@Override
+		public Set<Integer> candidateIds(final ContentIndex index) {
+			return null;
+		}
+
 		@Override
 		public String toString () {
 			return String.format("tag %s '%s'", this.op, this.val);
@@ -621,4 +838,38 @@ public class SearchEngine {
 
 	}
 
+	private static class SearchKey {
+		final String nodeId;
+		final String searchCriteria;
+		final int maxResults;
+		final String username;
+		final long indexVersion;
+
+		SearchKey(final String nodeId, final String searchCriteria, final int maxResults, final String username, final long indexVersion) {
+			this.nodeId = nodeId;
+			this.searchCriteria = searchCriteria;
+			this.maxResults = maxResults;
+			this.username = username;
+			this.indexVersion = indexVersion;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.nodeId, this.searchCriteria, this.maxResults, this.username, this.indexVersion);
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (obj == null) return false;
+			if (this == obj) return true;
+			if (!(obj instanceof SearchKey)) return false;
+			final SearchKey that = (SearchKey) obj;
+			return Objects.equals(this.nodeId, that.nodeId)
+					&& Objects.equals(this.searchCriteria, that.searchCriteria)
+					&& this.maxResults == that.maxResults
+					&& Objects.equals(this.username, that.username)
+					&& this.indexVersion == that.indexVersion;
+		}
+	}
+
 }
@@ -18,6 +18,7 @@ import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.ErrorHandler;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
 import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
@@ -46,6 +47,7 @@ import mediatoad.media.ContentServlet;
 import mediatoad.media.ContentTree;
 import mediatoad.media.MediaFormat;
 import mediatoad.media.ThumbnailGenerator;
+import mediatoad.rpc.client.RemoteChunkCache;
 import mediatoad.rpc.client.RemoteContentServlet;
 import mediatoad.rpc.client.RpcClient;
 import mediatoad.rpc.server.JwkLoader;
@@ -202,7 +204,7 @@ public class HttpServer {
 			servletHandler.addFilter(new FilterHolder(new PermissionFilter(ReqAttr.ALLOW_MANAGE_RPC)), RpcStatusServlet.CONTEXTPATH + "/*", null);
 			servletHandler.addServlet(new ServletHolder(new RpcStatusServlet()), RpcStatusServlet.CONTEXTPATH);
 		}
-		servletHandler.addServlet(new ServletHolder(new RemoteContentServlet(this.rpcClient, servletCommon)), "/" + C.REMOTE_CONTENT_PATH_PREFIX + "*");
+		servletHandler.addServlet(new ServletHolder(new RemoteContentServlet(this.rpcClient, servletCommon, new RemoteChunkCache(this.args.getRemoteCacheBytes()))), "/" + C.REMOTE_CONTENT_PATH_PREFIX + "*");
 
 		final ContentServlet contentServlet = new ContentServlet(this.contentTree, contentServingHistory, servletCommon);
 		servletHandler.addServlet(new ServletHolder(contentServlet), "/" + C.CONTENT_PATH_PREFIX + "*");
@@ -212,9 +214,9 @@ public class HttpServer {
 
 		servletHandler.addServlet(new ServletHolder(new SearchServlet(servletCommon, this.contentTree, contentServlet, this.mediaDb, this.dbCache, this.upnpService, this.rpcClient, this.thumbnailGenerator)), "/" + C.SEARCH_PATH_PREFIX + "*");
 		servletHandler.addServlet(new ServletHolder(new ThumbsServlet(this.contentTree, this.thumbnailGenerator, servletCommon)), "/" + C.THUMBS_PATH_PREFIX + "*");
-		servletHandler.addServlet(new ServletHolder(new AutocompleteServlet(this.tagAutocompleter, this.args.getDefaultOpenHttp())), "/" + C.AUTOCOMPLETE_PATH);
-		servletHandler.addServlet(new ServletHolder(new ItemServlet(servletCommon, this.contentTree, this.mediaDb, this.tagAutocompleter)), "/" + C.ITEM_PATH_PREFIX + "*");
-		servletHandler.addServlet(new ServletHolder(new TagsServlet(this.contentTree, this.mediaDb, this.tagAutocompleter)), "/" + C.TAGS_PATH);
+		servletHandler.addServlet(new ServletHolder(new AutocompleteServlet(this.tagAutocompleter, this.contentTree, this.args.getDefaultOpenHttp())), "/" + C.AUTOCOMPLETE_PATH);
+		servletHandler.addServlet(new ServletHolder(new ItemServlet(servletCommon, this.contentTree, this.mediaDb)), "/" + C.ITEM_PATH_PREFIX + "*");
+		servletHandler.addServlet(new ServletHolder(new TagsServlet(this.contentTree, this.mediaDb)), "/" + C.TAGS_PATH);
 		servletHandler.addServlet(new ServletHolder(new StaticFilesServlet(this.args.getWebRoot())), "/" + C.STATIC_FILES_PATH_PREFIX + "*");
 		servletHandler.addServlet(new ServletHolder(new IndexServlet(this.contentTree, contentServlet, dirServlet, servletCommon)), "/*");
 
@@ -222,7 +224,27 @@ public class HttpServer {
 
 		final ServletContextHandler webavHandler = makeWebdavHandler(authFilter, this.contentTree, this.mediaDb, servletCommon, this.args);
 
-		return new WebdavDivertingHandler(webavHandler, servletHandler);
+		return wrapWithGzip(new WebdavDivertingHandler(webavHandler, servletHandler));
+	}
+
+	/**
+	 * Pages, listings and scripts are text that compresses very well, but media is already compressed.
+	 * Jetty takes care of Accept-Encoding, Vary and giving compressed responses their own ETags.
+	 */
+	private static Handler wrapWithGzip(final Handler wrapped) {
+		final GzipHandler gzip = new GzipHandler();
+		gzip.setIncludedMethods("GET", "PROPFIND");
+		gzip.setIncludedMimeTypes(
+				"text/html",
+				"text/plain",
+				"text/json",
+				"text/css",
+				"text/javascript",
+				"application/javascript",
+				"application/xml");
+		gzip.setSyncFlush(true);  // So progressive search results are still sent as they arrive.
+		gzip.setHandler(wrapped);
+		return gzip;
 	}
 
 	private static ServletContextHandler makeWebdavHandler(
@@ -1,11 +1,18 @@
 package mediatoad.media;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public abstract class AbstractContent {
 
+	// Shared by all content so that a version is never reused and the latest change always has the highest version.
+	private static final AtomicLong VERSIONS = new AtomicLong(0L);
+
 	protected final String id;
 	protected final String parentId;
 	protected final String title;
 
+	private volatile long version = nextVersion();
+
 	public AbstractContent(final String id, final String parentId, final String title) {
 		if (id == null) throw new IllegalArgumentException("id must not be null.");
 		this.id = id;
@@ -25,4 +32,22 @@ public abstract class AbstractContent {
 		return this.title;
 	}
 
+	/**
+	 * Changes every time a detail of this content changes, eg its duration or art.
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * Call after a detail has changed.
+	 */
+	protected void changed() {
+		this.version = nextVersion();
+	}
+
+	static long nextVersion() {
+		return VERSIONS.incrementAndGet();
+	}
+
 }
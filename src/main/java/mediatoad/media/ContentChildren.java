@@ -0,0 +1,101 @@
+package mediatoad.media;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Children of a ContentNode, kept sorted and indexed by ID so that adding and
+ * removing are O(log n) rather than a scan and a full re-sort.
+ * Reads return an immutable snapshot that is only rebuilt on the first read
+ * after a change, so reads of a node that is not changing do not take a lock.
+ */
+class ContentChildren<T extends AbstractContent> {
+
+	private final Map<String, T> byId = new ConcurrentHashMap<>();
+	// Guarded by this.
+	private final TreeSet<T> sorted;
+	private volatile List<T> snapshot = Collections.emptyList();
+	// Only written while holding this.
+	private volatile long version = 0L;
+
+	ContentChildren(final Comparator<? super T> order) {
+		this.sorted = new TreeSet<>(order);
+	}
+
+	public synchronized boolean addIfAbsent(final T child) {
+		if (this.byId.putIfAbsent(child.getId(), child) != null) return false;
+		this.sorted.add(child);
+		this.snapshot = null;
+		this.version = AbstractContent.nextVersion();
+		return true;
+	}
+
+	public synchronized boolean removeById(final String id) {
+		final T removed = this.byId.remove(id);
+		if (removed == null) return false;
+		if (!this.sorted.remove(removed)) {
+			// Fields the order depends on changed since it was added, so search the slow way.
+			this.sorted.removeIf((c) -> c == removed);
+		}
+		this.snapshot = null;
+		this.version = AbstractContent.nextVersion();
+		return true;
+	}
+
+	public boolean hasId(final String id) {
+		return this.byId.containsKey(id);
+	}
+
+	/**
+	 * Changes every time a child is added or removed.
+	 */
+	public long version() {
+		return this.version;
+	}
+
+	public int size() {
+		return this.byId.size();
+	}
+
+	/**
+	 * Returns null if empty.
+	 */
+	public synchronized T last() {
+		return this.sorted.isEmpty() ? null : this.sorted.last();
+	}
+
+	/**
+	 * Returns null if empty.
+	 */
+	public synchronized T pollLast() {
+		final T last = this.sorted.pollLast();
+		if (last == null) return null;
+		this.byId.remove(last.getId());
+		this.snapshot = null;
+		this.version = AbstractContent.nextVersion();
+		return last;
+	}
+
+	/**
+	 * Immutable list in sort order.
+	 */
+	public List<T> snapshot() {
+		final List<T> s = this.snapshot;
+		if (s != null) return s;
+		synchronized (this) {
+			if (this.snapshot == null) this.snapshot = Collections.unmodifiableList(new ArrayList<>(this.sorted));
+			return this.snapshot;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return snapshot().toString();
+	}
+
+}
@@ -0,0 +1,245 @@
+package mediatoad.media;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import mediatoad.media.MetadataReader.Metadata;
+
+/**
+ * Inverted index of items by the words in their title, artist and album, and by content group,
+ * so that searches only need to check items that could match rather than walking the whole tree.
+ * Lookups return a superset of the items that match, so callers must still check each item.
+ * Items are indexed as they are when added, so metadata should be set before adding them to the tree.
+ * Each item gets an int doc ID, and lists of items are returned in doc ID order.
+ * IDs of removed items are reused, so doc ID order is not a meaningful order and callers should sort.
+ */
+public class ContentIndex {
+
+	public enum Field {
+		TITLE,
+		ARTIST,
+		ALBUM;
+	}
+
+	// All guarded by this.
+	private final Map<String, Doc> docsByItemId = new HashMap<>();
+	private final Map<Integer, Doc> docsById = new HashMap<>();
+	private final Map<Field, TreeMap<String, Set<Integer>>> words = new EnumMap<>(Field.class);
+	private final Map<ContentGroup, Set<Integer>> groups = new EnumMap<>(ContentGroup.class);
+	private final Deque<Integer> freeDocIds = new ArrayDeque<>();
+	private int nextDocId = 0;
+	private long version = 0L;
+
+	public ContentIndex() {
+		for (final Field f : Field.values()) {
+			this.words.put(f, new TreeMap<>());
+		}
+	}
+
+	/**
+	 * Replaces any item already indexed with the same ID, keeping its place in the order.
+	 */
+	public synchronized void add(final ContentItem item) {
+		final Doc prev = this.docsByItemId.get(item.getId());
+		final int docId;
+		if (prev != null) {
+			removeDoc(prev);
+			docId = prev.docId;
+		}
+		else {
+			docId = this.freeDocIds.isEmpty() ? this.nextDocId++ : this.freeDocIds.pollFirst();
+		}
+		final Doc doc = new Doc(docId, item);
+		this.docsByItemId.put(item.getId(), doc);
+		this.docsById.put(docId, doc);
+
+		for (final Field f : Field.values()) {
+			final Map<String, Set<Integer>> fieldWords = this.words.get(f);
+			for (final String w : doc.words.get(f)) {
+				fieldWords.computeIfAbsent(w, (k) -> new HashSet<>()).add(docId);
+			}
+		}
+		this.groups.computeIfAbsent(doc.group, (k) -> new HashSet<>()).add(docId);
+		this.version += 1;
+	}
+
+	/**
+	 * Does nothing if a different item with the same ID has replaced it.
+	 */
+	public synchronized void remove(final ContentItem item) {
+		final Doc doc = this.docsByItemId.get(item.getId());
+		if (doc == null || doc.item != item) return;
+		removeDoc(doc);
+		this.freeDocIds.addLast(doc.docId);
+		this.version += 1;
+	}
+
+	private void removeDoc(final Doc doc) {
+		this.docsByItemId.remove(doc.item.getId());
+		this.docsById.remove(doc.docId);
+		for (final Field f : Field.values()) {
+			final Map<String, Set<Integer>> fieldWords = this.words.get(f);
+			for (final String w : doc.words.get(f)) {
+				final Set<Integer> ids = fieldWords.get(w);
+				if (ids == null) continue;
+				ids.remove(doc.docId);
+				if (ids.isEmpty()) fieldWords.remove(w);
+			}
+		}
+		final Set<Integer> groupIds = this.groups.get(doc.group);
+		if (groupIds != null) groupIds.remove(doc.docId);
+	}
+
+	/**
+	 * Changes every time an item is added or removed.
+	 */
+	public synchronized long getVersion() {
+		return this.version;
+	}
+
+	public synchronized int size() {
+		return this.docsById.size();
+	}
+
+	/**
+	 * Doc IDs of items where field might contain subString, ignoring case.
+	 * Returns null if subString has no words in it so every item might match.
+	 */
+	public synchronized Set<Integer> idsContaining(final Field field, final String subString) {
+		final String lcase = subString.toLowerCase(Locale.ENGLISH);
+		final List<Word> queryWords = queryWords(lcase);
+		if (queryWords.isEmpty()) return null;
+
+		final TreeMap<String, Set<Integer>> fieldWords = this.words.get(field);
+		Set<Integer> ret = null;
+		for (final Word qw : queryWords) {
+			final Set<Integer> ids = new HashSet<>();
+			for (final Map.Entry<String, Set<Integer>> e : wordsMatching(fieldWords, qw).entrySet()) {
+				if (qw.matches(e.getKey())) ids.addAll(e.getValue());
+			}
+			if (ret == null) {
+				ret = ids;
+			}
+			else {
+				ret.retainAll(ids);
+			}
+			if (ret.isEmpty()) break;
+		}
+		return ret;
+	}
+
+	public synchronized Set<Integer> idsInGroup(final ContentGroup group) {
+		final Set<Integer> ids = this.groups.get(group);
+		return ids != null ? new HashSet<>(ids) : new HashSet<>();
+	}
+
+	/**
+	 * In doc ID order.  IDs no longer in the index are skipped.
+	 */
+	public synchronized List<ContentItem> itemsForIds(final Collection<Integer> ids) {
+		final List<Integer> sorted = new ArrayList<>(ids);
+		sorted.sort(null);
+		final List<ContentItem> ret = new ArrayList<>(sorted.size());
+		for (final Integer id : sorted) {
+			final Doc doc = this.docsById.get(id);
+			if (doc != null) ret.add(doc.item);
+		}
+		return ret;
+	}
+
+	/**
+	 * In doc ID order.
+	 */
+	public synchronized List<ContentItem> allItems() {
+		return itemsForIds(this.docsById.keySet());
+	}
+
+	/**
+	 * Only words that start with a prefix can be found without scanning every word.
+	 */
+	private static SortedMap<String, Set<Integer>> wordsMatching(final TreeMap<String, Set<Integer>> fieldWords, final Word qw) {
+		if (qw.boundedLeft) return fieldWords.subMap(qw.word, true, qw.word + Character.MAX_VALUE, false);
+		return fieldWords;
+	}
+
+	static List<String> words(final String s) {
+		if (s == null) return new ArrayList<>();
+		final List<String> ret = new ArrayList<>();
+		for (final Word w : queryWords(s.toLowerCase(Locale.ENGLISH))) {
+			ret.add(w.word);
+		}
+		return ret;
+	}
+
+	/**
+	 * Words are runs of letters and digits.  A word in the query that has other characters either side
+	 * of it must match the start or end of a word in the field, otherwise it could be part of a longer word.
+	 */
+	private static List<Word> queryWords(final String lcase) {
+		final List<Word> ret = new ArrayList<>();
+		int start = -1;
+		int i = 0;
+		while (i <= lcase.length()) {
+			final int cp = i < lcase.length() ? lcase.codePointAt(i) : -1;
+			final boolean wordChar = cp >= 0 && Character.isLetterOrDigit(cp);
+			if (wordChar && start < 0) {
+				start = i;
+			}
+			else if (!wordChar && start >= 0) {
+				ret.add(new Word(lcase.substring(start, i), start > 0, i < lcase.length()));
+				start = -1;
+			}
+			i += cp >= 0 ? Character.charCount(cp) : 1;
+		}
+		return ret;
+	}
+
+	private static class Word {
+		final String word;
+		final boolean boundedLeft;
+		final boolean boundedRight;
+
+		Word(final String word, final boolean boundedLeft, final boolean boundedRight) {
+			this.word = word;
+			this.boundedLeft = boundedLeft;
+			this.boundedRight = boundedRight;
+		}
+
+		boolean matches(final String fieldWord) {
+			if (this.boundedLeft && this.boundedRight) return fieldWord.equals(this.word);
+			if (this.boundedLeft) return fieldWord.startsWith(this.word);
+			if (this.boundedRight) return fieldWord.endsWith(this.word);
+			return fieldWord.contains(this.word);
+		}
+	}
+
+	private static class Doc {
+		final int docId;
+		final ContentItem item;
+		final ContentGroup group;
+		final Map<Field, Set<String>> words = new EnumMap<>(Field.class);
+
+		Doc(final int docId, final ContentItem item) {
+			this.docId = docId;
+			this.item = item;
+			this.group = item.getFormat().getContentGroup();
+
+			final Metadata md = item.getMetadata();
+			this.words.put(Field.TITLE, new HashSet<>(ContentIndex.words(item.getTitle())));
+			this.words.put(Field.ARTIST, new HashSet<>(ContentIndex.words(md != null ? md.getArtist() : null)));
+			this.words.put(Field.ALBUM, new HashSet<>(ContentIndex.words(md != null ? md.getAlbum() : null)));
+		}
+	}
+
+}
@@ -42,23 +42,28 @@ public class ContentItem extends AbstractContent {
 		if (this.file == null || !this.file.exists()) return;
 		this.fileLength = this.file.length();
 		this.lastModified = this.file.lastModified();
+		changed();
 	}
 
 	public void setDurationMillis(final long durationMillis) {
 		this.durationMillis = durationMillis;
+		changed();
 	}
 
 	public void setArt(final ContentItem art) {
 		this.art = art;
+		changed();
 	}
 
 	public void setMetadata(final Metadata metadata) {
 		this.metadata = metadata;
+		changed();
 	}
 
 	public void setWidthAndHeight(int width, int height) {
 		this.width = width;
 		this.height = height;
+		changed();
 	}
 
 	/**
@@ -71,6 +76,7 @@ public class ContentItem extends AbstractContent {
 				if (Objects.equals(a.getId(), attachment.getId())) return false;
 			}
 			this.attachments.add(attachment);
+			changed();
 			return true;
 		}
 	}
@@ -82,6 +88,7 @@ public class ContentItem extends AbstractContent {
 			while (ittr.hasNext()) {
 				if (attachmentId.equals(ittr.next().getId())) {
 					ittr.remove();
+					changed();
 					return true;
 				}
 			}
@@ -3,10 +3,7 @@ package mediatoad.media;
 import java.io.File;
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 
@@ -25,8 +22,8 @@ public class ContentNode extends AbstractContent {
 	private final String path;
 	private final AuthList authList;
 
-	private final List<ContentNode> nodes = new ArrayList<>();
-	protected final Collection<ContentItem> items;
+	private final ContentChildren<ContentNode> nodes = new ContentChildren<>(Order.SORT_KEY);
+	protected final ContentChildren<ContentItem> items;
 
 	private volatile ContentItem art;
 	private volatile long lastModified = 0L;
@@ -36,17 +33,17 @@ public class ContentNode extends AbstractContent {
 	}
 
 	public ContentNode (final String id, final String parentId, final String title, final File dir, final String path, final AuthList authList, final String sortKey) {
-		this(id, parentId, title, dir, path, authList, sortKey, new ArrayList<>());
+		this(id, parentId, title, dir, path, authList, sortKey, ContentItem.Order.TITLE_CASE_INSENSITIVE);
 	}
 
-	protected ContentNode (final String id, final String parentId, final String title, final File dir, final String path, final AuthList authList, final String sortKey, final Collection<ContentItem> itemsCollection) {
+	protected ContentNode (final String id, final String parentId, final String title, final File dir, final String path, final AuthList authList, final String sortKey, final Comparator<ContentItem> itemOrder) {
 		super(id, parentId, title);
 		if (parentId == null)  throw new IllegalArgumentException("parentId must not be null.");
 		this.file = dir;
 		this.path = path;
 		this.authList = authList;
 		this.sortKey = sortKey;
-		this.items = itemsCollection;
+		this.items = new ContentChildren<>(itemOrder);
 		reload();
 	}
 
@@ -78,13 +75,12 @@ public class ContentNode extends AbstractContent {
 	}
 
 	public List<ContentNode> nodesUserHasAuth(final String username) {
-		synchronized (this.nodes) {
-			final List<ContentNode> ret = new ArrayList<>(this.nodes.size());
-			for (final ContentNode node : this.nodes) {
-				if (node.isUserAuth(username)) ret.add(node);
-			}
-			return ret;
+		final List<ContentNode> nodes = this.nodes.snapshot();
+		final List<ContentNode> ret = new ArrayList<>(nodes.size());
+		for (final ContentNode node : nodes) {
+			if (node.isUserAuth(username)) ret.add(node);
 		}
+		return ret;
 	}
 
 	/**
@@ -95,23 +91,20 @@ public class ContentNode extends AbstractContent {
 	}
 
 	public <E extends Exception> void withEachNode (final ExConsumer<ContentNode, E> consumer) throws E {
-		synchronized (this.nodes) {
-			for (final ContentNode node : this.nodes) {
-				consumer.accept(node);
-			}
+		for (final ContentNode node : this.nodes.snapshot()) {
+			consumer.accept(node);
 		}
 	}
 
 	public <E extends Exception> void withEachItem (final ExConsumer<ContentItem, E> consumer) throws E {
-		synchronized (this.items) {
-			for (final ContentItem item : this.items) {
-				consumer.accept(item);
-			}
+		for (final ContentItem item : this.items.snapshot()) {
+			consumer.accept(item);
 		}
 	}
 
 	public void setArt(final ContentItem art) {
 		this.art = art;
+		changed();
 	}
 
 	public ContentItem getArt() {
@@ -130,32 +123,48 @@ public class ContentNode extends AbstractContent {
 		return this.lastModified;
 	}
 
+	/**
+	 * Changes every time a node or item is added to or removed from this node.
+	 */
+	public long getChildrenVersion() {
+		return this.nodes.version() + this.items.version();
+	}
+
+	/**
+	 * Changes every time this node changes, a node or item is added to or removed from it,
+	 * or the details of any of its nodes or items change.
+	 * Visits every child so is O(n), but does not take any locks.
+	 */
+	public long getContentVersion() {
+		// Versions come from one shared sequence, so the newest change always has the highest.
+		long ret = Math.max(getVersion(), Math.max(this.nodes.version(), this.items.version()));
+		for (final ContentNode n : this.nodes.snapshot()) {
+			ret = Math.max(ret, n.getVersion());
+		}
+		for (final ContentItem i : this.items.snapshot()) {
+			ret = Math.max(ret, i.getVersion());
+		}
+		return ret;
+	}
+
 	public int getNodeAndItemCount() {
 		return getNodeCount() + getItemCount();
 	}
 
 	public int getNodeCount() {
-		synchronized (this.nodes) {
-			return this.nodes.size();
-		}
+		return this.nodes.size();
 	}
 
 	public int getItemCount() {
-		synchronized (this.items) {
-			return this.items.size();
-		}
+		return this.items.size();
 	}
 
 	public List<ContentNode> getCopyOfNodes() {
-		synchronized (this.nodes) {
-			return new ArrayList<>(this.nodes);
-		}
+		return new ArrayList<>(this.nodes.snapshot());
 	}
 
 	public List<ContentItem> getCopyOfItems() {
-		synchronized (this.items) {
-			return new ArrayList<>(this.items);
-		}
+		return new ArrayList<>(this.items.snapshot());
 	}
 
 	public boolean addNodeIfAbsent(final ContentNode node) {
@@ -165,12 +174,7 @@ public class ContentNode extends AbstractContent {
 					node.getId(), node.getParentId(), this.id));
 		}
 
-		synchronized (this.nodes) {
-			if (hasNodeWithId(node.getId())) return false;
-			this.nodes.add(node);
-			Collections.sort(this.nodes, Order.SORT_KEY);
-			return true;
-		}
+		return this.nodes.addIfAbsent(node);
 	}
 
 	public boolean addItemIfAbsent(final ContentItem item) {
@@ -180,62 +184,29 @@ public class ContentNode extends AbstractContent {
 					item.getId(), item.getParentId(), this.id));
 		}
 
-		synchronized (this.items) {
-			if (hasItemWithId(item.getId())) return false;
-			this.items.add(item);
-			if (this.items instanceof List) {
-				Collections.sort((List<ContentItem>) this.items, ContentItem.Order.TITLE_CASE_INSENSITIVE);
-			}
-			return true;
-		}
+		return this.items.addIfAbsent(item);
 	}
 
 	public boolean removeNode(final ContentNode toRemove) {
-		synchronized (this.nodes) {
-			return removeById(this.nodes, toRemove.getId());
-		}
+		return this.nodes.removeById(toRemove.getId());
 	}
 
 	public boolean removeItem(final ContentItem toRemove) {
-		synchronized (this.items) {
-			return removeById(this.items, toRemove.getId());
-		}
-	}
-
-	private static <T extends AbstractContent> boolean removeById(final Collection<T> list, final String id) {
-		final Iterator<T> it = list.iterator();
-		boolean removed = false;
-		while (it.hasNext()) {
-			final T item = it.next();
-			if (id.equals(item.getId())) {
-				it.remove();
-				removed = true;
-			}
-		}
-		return removed;
+		return this.items.removeById(toRemove.getId());
 	}
 
-	public boolean hasNodeWithId(final String idToRemove) {
-		synchronized (this.nodes) {
-			for (final ContentNode c : this.nodes) {
-				if (idToRemove.equals(c.getId())) return true;
-			}
-		}
-		return false;
+	public boolean hasNodeWithId(final String idToFind) {
+		return this.nodes.hasId(idToFind);
 	}
 
 	public boolean hasItemWithId(final String idToFind) {
-		synchronized (this.items) {
-			for (final ContentItem i : this.items) {
-				if (idToFind.equals(i.getId())) return true;
-			}
-		}
-		return false;
+		return this.items.hasId(idToFind);
 	}
 
 	public void reload() {
 		if (this.file == null || !this.file.exists()) return;
 		this.lastModified = this.file.lastModified();
+		changed();
 	}
 
 	@Override
@@ -260,12 +231,8 @@ public class ContentNode extends AbstractContent {
 		s.append(", ").append(this.parentId);
 		s.append(", ").append(this.title);
 		s.append(", ");
-		synchronized (this.nodes) {
-			s.append(this.nodes);
-		}
-		synchronized (this.items) {
-			s.append(this.items);
-		}
+		s.append(this.nodes);
+		s.append(this.items);
 		return s.append("}").toString();
 	}
 
@@ -3,16 +3,20 @@ package mediatoad.media;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.ImmutableSet;
+
 import io.prometheus.metrics.core.metrics.GaugeWithCallback;
 import io.prometheus.metrics.model.registry.PrometheusRegistry;
 import mediatoad.C;
@@ -45,6 +49,12 @@ public class ContentTree {
 	private final ContentNode rootNode;
 	private final Map<String, ContentItem> contentItems = new ConcurrentHashMap<>();
 
+	// Absolute path to IDs, so that removing a file does not need to check every node and item.
+	// Sorted so that everything under a dir can be found without a full scan.
+	private final ConcurrentNavigableMap<String, Set<String>> nodeIdsByFile = new ConcurrentSkipListMap<>();
+	private final ConcurrentNavigableMap<String, Set<String>> itemIdsByFile = new ConcurrentSkipListMap<>();
+	private final ContentIndex index = new ContentIndex();
+
 	private final RecentContentNode recentNode;
 
 	public ContentTree() {
@@ -95,6 +105,10 @@ public class ContentTree {
 		return this.contentItems.values();
 	}
 
+	public ContentIndex getIndex() {
+		return this.index;
+	}
+
 	public ContentNode getNode (final String id) {
 		if (id == null) throw new NullPointerException("Cannot get node with null id.");
 		return this.contentNodes.get(id);
@@ -102,7 +116,9 @@ public class ContentTree {
 
 	public void addNode (final ContentNode node) {
 		this.authSet.add(node.getAuthList());
-		this.contentNodes.put(node.getId(), node);
+		final ContentNode prev = this.contentNodes.put(node.getId(), node);
+		if (prev != null && prev != node) unindexFile(this.nodeIdsByFile, prev.getFile(), prev.getId());
+		indexFile(this.nodeIdsByFile, node.getFile(), node.getId());
 		addNodePath(node);
 	}
 
@@ -132,7 +148,10 @@ public class ContentTree {
 	}
 
 	public void addItem(final ContentItem item) {
-		this.contentItems.put(item.getId(), item);
+		final ContentItem prev = this.contentItems.put(item.getId(), item);
+		if (prev != null && prev != item) unindexFile(this.itemIdsByFile, prev.getFile(), prev.getId());
+		indexFile(this.itemIdsByFile, item.getFile(), item.getId());
+		this.index.add(item);
 
 		if (this.recentNode != null) {
 			// Do not add items in collections that require auth.
@@ -167,47 +186,103 @@ public class ContentTree {
 	 */
 	public int removeFile (final File file) {
 		if (file == null) throw new IllegalArgumentException("file can not be null.");
+		final String path = file.getAbsolutePath();
 		int removeCount = 0;
 
-		// FIXME this is very lazy and not efficient.
-
-		final Iterator<Entry<String, ContentNode>> nodeIttr = this.contentNodes.entrySet().iterator();
-		while (nodeIttr.hasNext()) {
-			final Entry<String, ContentNode> e = nodeIttr.next();
-			if (file.equals(e.getValue().getFile())) {
-				nodeIttr.remove();
-				removeNodePath(e.getValue());
-				removeNodesAndItemsInNode(e.getValue());
-				removeNodeFromParent(e.getValue());
-				removeCount += 1;
-			}
+		for (final String id : this.nodeIdsByFile.getOrDefault(path, Collections.emptySet())) {
+			final ContentNode node = this.contentNodes.get(id);
+			if (node == null || !forgetNode(node)) continue;
+			removeNodesAndItemsInNode(node);
+			removeNodeFromParent(node);
+			removeCount += 1;
 		}
 
-		final Iterator<Entry<String, ContentItem>> itemIttr = this.contentItems.entrySet().iterator();
-		while (itemIttr.hasNext()) {
-			final Entry<String, ContentItem> e = itemIttr.next();
-			if (file.equals(e.getValue().getFile())) {
-				itemIttr.remove();
-				removeItemFromParent(e.getValue());
-				if (this.recentNode != null) this.recentNode.removeFromRecent(e.getValue());
-				removeCount += 1;
-			}
+		for (final String id : this.itemIdsByFile.getOrDefault(path, Collections.emptySet())) {
+			final ContentItem item = this.contentItems.get(id);
+			if (item == null || !forgetItem(item)) continue;
+			removeItemFromParent(item);
+			removeCount += 1;
+		}
+
+		return removeCount;
+	}
+
+	/**
+	 * For when a dir is gone, removes it and every node and item for files under it,
+	 * including dirs that are not nodes under the dir's node, eg when the hierarchy is flattened.
+	 * Returns number of items removed.
+	 */
+	public int removeSubtree (final File dir) {
+		if (dir == null) throw new IllegalArgumentException("dir can not be null.");
+		int removeCount = removeFile(dir);
+
+		String prefix = dir.getAbsolutePath();
+		if (!prefix.endsWith(File.separator)) prefix += File.separator;
+
+		// Nodes first as removing them also removes the items in them.
+		for (final String path : new ArrayList<>(underPrefix(this.nodeIdsByFile, prefix).keySet())) {
+			removeCount += removeFile(new File(path));
+		}
+		for (final String path : new ArrayList<>(underPrefix(this.itemIdsByFile, prefix).keySet())) {
+			removeCount += removeFile(new File(path));
 		}
 
 		return removeCount;
 	}
 
+	private static NavigableMap<String, Set<String>> underPrefix(final ConcurrentNavigableMap<String, Set<String>> map, final String prefix) {
+		return map.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+	}
+
+	/**
+	 * Values are immutable so that concurrent updates are just a compare and swap.
+	 */
+	private static void indexFile(final ConcurrentNavigableMap<String, Set<String>> map, final File file, final String id) {
+		if (file == null || file.getAbsolutePath() == null) return;
+		map.compute(file.getAbsolutePath(), (k, ids) -> {
+			if (ids == null) return ImmutableSet.of(id);
+			if (ids.contains(id)) return ids;
+			return ImmutableSet.<String>builder().addAll(ids).add(id).build();
+		});
+	}
+
+	private static void unindexFile(final ConcurrentNavigableMap<String, Set<String>> map, final File file, final String id) {
+		if (file == null || file.getAbsolutePath() == null) return;
+		map.computeIfPresent(file.getAbsolutePath(), (k, ids) -> {
+			if (!ids.contains(id)) return ids;
+			if (ids.size() == 1) return null;
+			return ids.stream().filter((i) -> !i.equals(id)).collect(ImmutableSet.toImmutableSet());
+		});
+	}
+
+	/**
+	 * Returns false if node was already removed.
+	 */
+	private boolean forgetNode(final ContentNode node) {
+		if (!this.contentNodes.remove(node.getId(), node)) return false;
+		unindexFile(this.nodeIdsByFile, node.getFile(), node.getId());
+		removeNodePath(node);
+		return true;
+	}
+
+	/**
+	 * Returns false if item was already removed.
+	 */
+	private boolean forgetItem(final ContentItem item) {
+		if (!this.contentItems.remove(item.getId(), item)) return false;
+		unindexFile(this.itemIdsByFile, item.getFile(), item.getId());
+		this.index.remove(item);
+		if (this.recentNode != null) this.recentNode.removeFromRecent(item);
+		return true;
+	}
+
 	private void removeNodesAndItemsInNode(final ContentNode node) {
 		node.withEachNode((n) -> {
-			this.contentNodes.remove(n.getId());
-			removeNodePath(n);
-
-			// in theory this recursively getting a lock on a node via withEachNode() while within a lock
-			// could deadlock, but lets see if that ever happens in practice before switching to a list copy.
+			forgetNode(n);
 			removeNodesAndItemsInNode(n);
 		});
 		node.withEachItem((i) -> {
-			this.contentItems.remove(i.getId());
+			forgetItem(i);
 		});
 	}
 
@@ -221,8 +296,7 @@ public class ContentTree {
 			LOG.error("Container '{}' not in its parent: '{}'.", node.getId(), node.getParentId());
 		}
 		if (isContainerEmptyAndRemoveable(parentNode)) {
-			this.contentNodes.remove(parentNode.getId());
-			removeNodePath(parentNode);
+			forgetNode(parentNode);
 			removeNodeFromParent(parentNode);
 		}
 	}
@@ -243,8 +317,7 @@ public class ContentTree {
 			LOG.error("Item '{}' not in its parent: '{}'.", item.getId(), item.getParentId());
 		}
 		if (isContainerEmptyAndRemoveable(parentNode)) {
-			this.contentNodes.remove(parentNode.getId());
-			removeNodePath(parentNode);
+			forgetNode(parentNode);
 			removeNodeFromParent(parentNode);
 		}
 	}
@@ -2,8 +2,12 @@ package mediatoad.media;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 public class CoverArtHelper {
 
@@ -18,51 +22,97 @@ public class CoverArtHelper {
 
 		final String[] imgNames = dir.list(ImgFilenameFilter.INSTANCE);
 		if (imgNames == null || imgNames.length < 1) return null;
-		Arrays.sort(imgNames);
 
 		final String baseName = file.isFile() ? fileBaseName(file) : null;
+		return findCoverArt(dir, new DirImages(imgNames), baseName);
+	}
+
+	/**
+	 * @param baseName of the media file, or null to find art for the whole directory.
+	 */
+	static File findCoverArt (final File dir, final DirImages images, final String baseName) {
+		final String name = images.findArtName(baseName);
+		return name != null ? new File(dir, name) : null;
+	}
+
+	static String fileBaseName (final File file) {
+		return fileBaseName(file.getName());
+	}
 
-		// Same name but with different extension.
-		if (baseName != null) {
-			for (final String imgName : imgNames) {
-				if (fileBaseName(imgName).equals(baseName)) return new File(dir, imgName);
+	/**
+	 * The images in a directory, indexed once so that finding the art for each file in the directory
+	 * does not mean sorting and lower casing all their names again.
+	 */
+	static class DirImages {
+
+		private final String[] imgNames;
+		private final String[] lcaseImgBaseNames;
+		// Both hold the first image in sorted order for each name.
+		private final Map<String, String> byBaseName = new HashMap<>();
+		private final Map<String, String> byLcaseBaseName = new HashMap<>();
+		// Conventional name for entire directory.
+		private final String dirArtName;
+
+		/**
+		 * @param names may include names that are not images, which are ignored.
+		 */
+		DirImages (final String[] names) {
+			final List<String> imgs = new ArrayList<>();
+			for (final String name : names) {
+				if (ImgFilenameFilter.INSTANCE.accept(null, name)) imgs.add(name);
+			}
+			this.imgNames = imgs.toArray(new String[imgs.size()]);
+			Arrays.sort(this.imgNames);
+
+			this.lcaseImgBaseNames = new String[this.imgNames.length];
+			for (int i = 0; i < this.imgNames.length; i++) {
+				this.lcaseImgBaseNames[i] = fileBaseName(this.imgNames[i].toLowerCase(Locale.UK));
+				this.byBaseName.putIfAbsent(fileBaseName(this.imgNames[i]), this.imgNames[i]);
+				this.byLcaseBaseName.putIfAbsent(this.lcaseImgBaseNames[i], this.imgNames[i]);
 			}
+
+			this.dirArtName = findDirArtName();
 		}
 
-		// Make lower case names without extensions of all the images.
-		final String[] lcaseImgBaseNames = new String[imgNames.length];
-		for (int i = 0; i < imgNames.length; i++) {
-			lcaseImgBaseNames[i] = fileBaseName(imgNames[i].toLowerCase(Locale.UK));
+		boolean isEmpty () {
+			return this.imgNames.length < 1;
 		}
 
-		if (baseName != null) {
-			final String lcaseBaseName = baseName.toLowerCase(Locale.UK);
-			// Same name but with different case and extension.
-			for (int i = 0; i < imgNames.length; i++) {
-				if (lcaseImgBaseNames[i].equals(lcaseBaseName)) return new File(dir, imgNames[i]);
-			}
-			// Image starts with the same name but with different case.
-			for (int i = 0; i < imgNames.length; i++) {
-				if (lcaseImgBaseNames[i].startsWith(lcaseBaseName)) return new File(dir, imgNames[i]);
-			}
-			// Track starts with same name as image.
-			for (int i = 0; i < imgNames.length; i++) {
-				if (lcaseBaseName.startsWith(lcaseImgBaseNames[i])) return new File(dir, imgNames[i]);
+		String findArtName (final String baseName) {
+			if (isEmpty()) return null;
+
+			if (baseName != null) {
+				// Same name but with different extension.
+				final String sameName = this.byBaseName.get(baseName);
+				if (sameName != null) return sameName;
+
+				final String lcaseBaseName = baseName.toLowerCase(Locale.UK);
+				// Same name but with different case and extension.
+				final String sameLcaseName = this.byLcaseBaseName.get(lcaseBaseName);
+				if (sameLcaseName != null) return sameLcaseName;
+
+				// Image starts with the same name but with different case.
+				for (int i = 0; i < this.imgNames.length; i++) {
+					if (this.lcaseImgBaseNames[i].startsWith(lcaseBaseName)) return this.imgNames[i];
+				}
+				// Track starts with same name as image.
+				for (int i = 0; i < this.imgNames.length; i++) {
+					if (lcaseBaseName.startsWith(this.lcaseImgBaseNames[i])) return this.imgNames[i];
+				}
 			}
+
+			return this.dirArtName;
 		}
 
-		// Conventional name for entire directory.
-		for (final String name : DIR_FILE_NAMES) {
-			for (int i = 0; i < imgNames.length; i++) {
-				if (lcaseImgBaseNames[i].startsWith(name)) return new File(dir, imgNames[i]);
+		private String findDirArtName () {
+			for (final String name : DIR_FILE_NAMES) {
+				for (int i = 0; i < this.imgNames.length; i++) {
+					if (this.lcaseImgBaseNames[i].startsWith(name)) return this.imgNames[i];
+				}
 			}
+			return null;
 		}
 
-		return null;
-	}
-
-	private static String fileBaseName (final File file) {
-		return fileBaseName(file.getName());
 	}
 
 	private static String fileBaseName (final String name) {
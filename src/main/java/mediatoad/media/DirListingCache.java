@@ -0,0 +1,100 @@
+package mediatoad.media;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.metrics.Counter;
+import mediatoad.media.CoverArtHelper.DirImages;
+
+/**
+ * Short lived cache of the names in a directory, so that finding the art and subtitles for each file added
+ * does not list its directory again.  Seeded with the listings made by the initial scan, and a directory's
+ * entry should be invalidated whenever a file in it is added, changed or removed.
+ */
+class DirListingCache {
+
+	private static final int MAX_DIRS = 1000;
+	private static final long EXPIRE_AFTER_ACCESS_SECONDS = 60;
+
+	private static final Counter REQUESTS_METRIC = Counter.builder()
+			.name("dir_listing_cache_requests")
+			.labelNames("result")
+			.help("count of lookups of directory listings for finding art and subtitles, grouped by whether the listing was already cached.")
+			.register();
+	private static final CounterDataPoint HIT = REQUESTS_METRIC.labelValues("hit");
+	private static final CounterDataPoint MISS = REQUESTS_METRIC.labelValues("miss");
+
+	private final Cache<File, Listing> cache = CacheBuilder.newBuilder()
+			.maximumSize(MAX_DIRS)
+			.expireAfterAccess(EXPIRE_AFTER_ACCESS_SECONDS, TimeUnit.SECONDS)
+			.build();
+
+	/**
+	 * Returns null if the directory can not be listed.
+	 */
+	Listing get(final File dir) {
+		final Listing cached = this.cache.getIfPresent(dir);
+		if (cached != null) {
+			HIT.inc();
+			return cached;
+		}
+		MISS.inc();
+
+		final String[] names = dir.list();
+		if (names == null) return null;
+		final Listing listing = new Listing(names);
+		this.cache.put(dir, listing);
+		return listing;
+	}
+
+	/**
+	 * For a listing that has already been made, eg by Watcher.
+	 * Only needs to include files that are media, art or subtitles.
+	 */
+	void put(final File dir, final List<File> files) {
+		final String[] names = new String[files.size()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = files.get(i).getName();
+		}
+		this.cache.put(dir, new Listing(names));
+	}
+
+	void invalidate(final File dir) {
+		if (dir != null) this.cache.invalidate(dir);
+	}
+
+	static class Listing {
+
+		private final DirImages images;
+		private final NavigableSet<String> subtitleNames = new TreeSet<>();
+
+		Listing(final String[] names) {
+			this.images = new DirImages(names);
+			for (final String name : names) {
+				final MediaFormat format = MediaFormat.identify(name);
+				if (format != null && format.getContentGroup() == ContentGroup.SUBTITLES) this.subtitleNames.add(name);
+			}
+		}
+
+		DirImages getImages() {
+			return this.images;
+		}
+
+		/**
+		 * Subtitles whose names start with baseName, eg "foo.srt" and "foo.en.srt" for "foo".
+		 */
+		Collection<String> subtitlesStartingWith(final String baseName) {
+			return this.subtitleNames.subSet(baseName, true, baseName + Character.MAX_VALUE, false);
+		}
+
+	}
+
+}
@@ -45,6 +45,8 @@ public class MediaIndex implements FileListener {
 	private final ContentNode audioContainer;
 	private final ContentNode docContainer;
 
+	private final DirListingCache dirListings = new DirListingCache();
+
 	public MediaIndex(final ContentTree contentTree, final HierarchyMode hierarchyMode, final MediaId mediaId, final MediaInfo mediaInfo, final Authoriser authoriser, final boolean verboseLog) throws IOException {
 		this.contentTree = contentTree;
 		this.hierarchyMode = hierarchyMode;
@@ -71,9 +73,15 @@ public class MediaIndex implements FileListener {
 		}
 	}
 
+	@Override
+	public void dirListed(final File dir, final List<File> files) {
+		this.dirListings.put(dir, files);
+	}
+
 	@Override
 	public EventResult fileFound(final File rootDir, final File file, final EventType eventType, final Runnable onUsed)
 			throws IOException {
+		if (eventType != EventType.SCAN) this.dirListings.invalidate(file.getParentFile());
 		addFile(rootDir, file, new Runnable() {
 			@Override
 			public void run() {
@@ -133,6 +141,9 @@ public class MediaIndex implements FileListener {
 
 	@Override
 	public void fileGone(final File file, final boolean isDir) throws IOException {
+		this.dirListings.invalidate(file.getParentFile());
+		if (isDir) this.dirListings.invalidate(file);
+
 		final MediaFormat format = MediaFormat.identify(file);
 		if (format != null) {
 			switch (format.getContentGroup()) {
@@ -143,7 +154,8 @@ public class MediaIndex implements FileListener {
 			}
 		}
 
-		if (this.contentTree.removeFile(file) > 0) {
+		final int removed = isDir ? this.contentTree.removeSubtree(file) : this.contentTree.removeFile(file);
+		if (removed > 0) {
 			LOG.info("unshared: {}", file.getAbsolutePath());
 		}
 		this.mediaId.fileGoneAsync(file);
@@ -220,7 +232,7 @@ public class MediaIndex implements FileListener {
 		final String sortName = dir.getAbsolutePath().toLowerCase();
 		final ContentNode dirContainer = makeContainerOnTree(parentNode, id, dir.getName(), sortName, dir, path);
 
-		findArtItem(dir, contentGroup, dirContainer, new AsyncCallback<ContentItem, IOException>() {
+		findArtItem(dir, null, contentGroup, dirContainer, new AsyncCallback<ContentItem, IOException>() {
 			@Override
 			public void onResult(final ContentItem art) throws IOException {
 				if (art == null) return;
@@ -328,9 +340,10 @@ public class MediaIndex implements FileListener {
 		if (parent.hasItemWithId(id)) return false;  // Optimistic lock.
 
 		final ContentItem item = new ContentItem(id, parent.getId(), title, file, format);
+		// Reads the file, so done before the item is visible anywhere.  Also means it is in the search index.
+		findMetadata(file, item);
 		if (parent.addItemIfAbsent(item)) {
 			this.contentTree.addItem(item);
-			findMetadata(file, item);
 			findArt(file, format, item, parent);
 
 			final ContentGroup contentGroup = format.getContentGroup();
@@ -356,7 +369,7 @@ public class MediaIndex implements FileListener {
 		// Images are their own art so no need to search for anything.
 		if (mediaFormat.getContentGroup() == ContentGroup.IMAGE) return;
 
-		findArtItem(mediaFile, mediaFormat.getContentGroup(), node, new AsyncCallback<ContentItem, IOException>() {
+		findArtItem(mediaFile.getParentFile(), CoverArtHelper.fileBaseName(mediaFile), mediaFormat.getContentGroup(), node, new AsyncCallback<ContentItem, IOException>() {
 			@Override
 			public void onResult(final ContentItem artItem) throws IOException {
 				item.setArt(artItem);
@@ -369,8 +382,14 @@ public class MediaIndex implements FileListener {
 		});
 	}
 
-	private void findArtItem(final File mediaFile, final ContentGroup mediaContentGroup, final ContentNode node, final AsyncCallback<ContentItem, IOException> callback) throws IOException {
-		final File artFile = CoverArtHelper.findCoverArt(mediaFile);
+	/**
+	 * @param mediaBaseName null to find art for the whole directory.
+	 */
+	private void findArtItem(final File dir, final String mediaBaseName, final ContentGroup mediaContentGroup, final ContentNode node, final AsyncCallback<ContentItem, IOException> callback) throws IOException {
+		final DirListingCache.Listing listing = this.dirListings.get(dir);
+		if (listing == null) return;
+
+		final File artFile = CoverArtHelper.findCoverArt(dir, listing.getImages(), mediaBaseName);
 		if (artFile == null) return;
 
 		final MediaFormat artFormat = MediaFormat.identify(artFile);
@@ -441,17 +460,14 @@ public class MediaIndex implements FileListener {
 		final File dir = itemFile.getParentFile();
 		if (dir == null) throw new NullPointerException("itemFile has null parent: " + itemFile);
 
-		final String[] fNames = dir.list(new BasenameFilter(itemFile));
-		if (fNames == null) {
+		final DirListingCache.Listing listing = this.dirListings.get(dir);
+		if (listing == null) {
 			LOG.warn("Directory containing item no longer contains itself: {}", itemFile);
 			return;
 		}
 
-		for (final String fName : fNames) {
-			final MediaFormat fFormat = MediaFormat.identify(fName);
-			if (fFormat != null && fFormat.getContentGroup() == ContentGroup.SUBTITLES) {
-				addSubtitlesToItem(item, new File(dir, fName), fFormat, null);
-			}
+		for (final String fName : listing.subtitlesStartingWith(FilenameUtils.getBaseName(itemFile.getName()))) {
+			addSubtitlesToItem(item, new File(dir, fName), MediaFormat.identify(fName), null);
 		}
 	}
 
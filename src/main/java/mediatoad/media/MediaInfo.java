@@ -4,12 +4,18 @@ import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.prometheus.metrics.core.metrics.GaugeWithCallback;
+import io.prometheus.metrics.core.metrics.Histogram;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+import io.prometheus.metrics.model.snapshots.Unit;
 import mediatoad.db.FileInfo;
 import mediatoad.db.MediaMetadataStore;
+import mediatoad.db.PreloadedFileInfos;
 import mediatoad.ffmpeg.Ffprobe;
 import mediatoad.ffmpeg.FfprobeInfo;
 import mediatoad.util.ExceptionHelper;
@@ -18,73 +24,138 @@ public class MediaInfo {
 
 	private static final Logger LOG = LoggerFactory.getLogger(MediaInfo.class);
 
+	private final Histogram probeDurationMetric = Histogram.builder()
+			.name("media_info_probe_duration")
+			.unit(Unit.SECONDS)
+			.help("Time for ffprobe to read a file's media info.")
+			.build();
+	private final GaugeWithCallback backlogMetric = GaugeWithCallback.builder()
+			.name("media_info_backlog")
+			.help("number of files waiting for their media info to be read from the DB or by ffprobe.")
+			.callback((cb) -> cb.call(this.backlog.get()))
+			.build();
+
 	private final MediaMetadataStore mediaMetadataStore;
 	private final ThumbnailGenerator thumbnailGenerator;
 	private final ExecutorService exSvc;
+	private final AtomicInteger backlog = new AtomicInteger(0);
 
+	private volatile PreloadedFileInfos preloaded;
 
 	public MediaInfo () {
 		this(null, null, null);
 	}
 
+	/**
+	 * @param exSvc runs a ffprobe on each of its threads, so its size limits how many run at once.
+	 */
 	public MediaInfo (final MediaMetadataStore mediaMetadataStore, final ThumbnailGenerator thumbnailGenerator, final ExecutorService exSvc) {
 		this.mediaMetadataStore = mediaMetadataStore;
 		this.thumbnailGenerator = thumbnailGenerator;
 		this.exSvc = exSvc;
 	}
 
+	public void registerMetrics(final PrometheusRegistry registry) {
+		registry.register(this.probeDurationMetric);
+		registry.register(this.backlogMetric);
+	}
+
+	/**
+	 * Reads every stored info in one query, so files found by the initial scan do not each need their own.
+	 * Until dropPreloadedInfo() is called, files without a preloaded info go straight to ffprobe.
+	 */
+	public void preloadStoredInfo () throws SQLException {
+		if (this.mediaMetadataStore == null) return;
+		final PreloadedFileInfos p = this.mediaMetadataStore.readAllFileInfos();
+		LOG.info("Preloaded info for {} files.", p.size());
+		this.preloaded = p;
+	}
+
+	/**
+	 * Call once the initial scan has found every file, after that files are checked in the DB one at a time.
+	 */
+	public void dropPreloadedInfo () {
+		this.preloaded = null;
+	}
+
 	public void readInfoAsync (final File file, final ContentItem item) {
 		if (this.mediaMetadataStore != null) {
-			this.exSvc.submit(new ReadInfoJob(file, item, this.mediaMetadataStore));
+			final PreloadedFileInfos p = this.preloaded;
+			final FileInfo info = p != null ? p.get(item.getId(), file) : null;
+			if (info != null) {
+				applyInfo(item, info);
+			}
+			else {
+				this.backlog.incrementAndGet();
+				this.exSvc.submit(new ReadInfoJob(file, item, p == null));
+			}
 		}
 
 		// TODO read dir prefs for video_thumbs prefs.
 		if (this.thumbnailGenerator != null && this.thumbnailGenerator.supported(item.getFormat().getContentGroup(), false)) {
-			this.exSvc.submit(() -> generateThumbnail(item));
+			this.thumbnailGenerator.generateInBackground(item).whenComplete((f, e) -> {
+				if (e != null) LOG.warn("Failed to generate thumbnail for {}: {}", item.getFile(), ExceptionHelper.causeTrace(e));
+			});
+		}
+	}
+
+	private static void applyInfo (final ContentItem item, final FileInfo info) {
+		if (info.hasDuration()) {
+			item.setDurationMillis(info.getDurationMillis());
+		}
+		if (info.hasWidthAndHeight()) {
+			item.setWidthAndHeight(info.getWidth(), info.getHeight());
 		}
 	}
 
-	private static class ReadInfoJob implements Runnable {
+	private class ReadInfoJob implements Runnable {
 
 		private final File file;
 		private final ContentItem item;
-		private final MediaMetadataStore mediaMetadataStore;
+		// false if the DB was already checked when preloading.
+		private final boolean checkDb;
 
-		public ReadInfoJob (final File file, final ContentItem item, final MediaMetadataStore mediaMetadataStore) {
+		public ReadInfoJob (final File file, final ContentItem item, final boolean checkDb) {
 			this.file = file;
 			this.item = item;
-			this.mediaMetadataStore = mediaMetadataStore;
+			this.checkDb = checkDb;
 		}
 
 		@Override
 		public void run () {
 			try {
 				final FileInfo info = readInfo();
-				if (info != null) {
-					if (info.hasDuration()) {
-						this.item.setDurationMillis(info.getDurationMillis());
-					}
-					if (info.hasWidthAndHeight()) {
-						this.item.setWidthAndHeight(info.getWidth(), info.getHeight());
-					}
-				}
+				if (info != null) applyInfo(this.item, info);
 			}
 			catch (final Exception e) {
 				LOG.warn("Failed to read info: \"{}\" {}", this.file.getAbsolutePath(), e.toString());
 			}
+			finally {
+				MediaInfo.this.backlog.decrementAndGet();
+			}
 		}
 
 		private FileInfo readInfo () throws IOException, SQLException, InterruptedException {
-			final FileInfo storedInfo = this.mediaMetadataStore.readFileInfo(this.item.getId(), this.file);
-			if (storedInfo != null) return storedInfo;
+			if (this.checkDb) {
+				final FileInfo storedInfo = MediaInfo.this.mediaMetadataStore.readFileInfo(this.item.getId(), this.file);
+				if (storedInfo != null) return storedInfo;
+			}
 
 			if (!Ffprobe.isAvailable()) return null;
 			if (!this.file.exists()) return null;  // did file disappear between being put on the queue and now?
 
-			final FfprobeInfo probeInfo = Ffprobe.inspect(this.file);
+			final long startTime = System.nanoTime();
+			final FfprobeInfo probeInfo;
+			try {
+				probeInfo = Ffprobe.inspect(this.file);
+			}
+			finally {
+				MediaInfo.this.probeDurationMetric.observe(Unit.nanosToSeconds(System.nanoTime() - startTime));
+			}
 			if (probeInfo.hasDuration() || probeInfo.hasWidthAndHeight()) {
 				final FileInfo info = new FileInfo(probeInfo.getDurationMillis(), probeInfo.getWidth(), probeInfo.getHeight());
-				this.mediaMetadataStore.storeFileInfoAsync(this.item.getId(), this.file, info);
+				// Written to the DB in batches.
+				MediaInfo.this.mediaMetadataStore.storeFileInfoAsync(this.item.getId(), this.file, info);
 				return info;
 			}
 
@@ -94,13 +165,4 @@ public class MediaInfo {
 
 	}
 
-	private void generateThumbnail(final ContentItem item) {
-		try {
-			this.thumbnailGenerator.generate(item);
-		}
-		catch (final IOException e) {
-			LOG.warn("Failed to generate thumbnail for {}: {}", item.getFile(), ExceptionHelper.causeTrace(e));
-		}
-	}
-
 }
@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 import mediatoad.auth.AuthList;
 
@@ -12,7 +11,7 @@ public class RecentContentNode extends ContentNode {
 
 	private static final int MAX_RECENT_ITEMS = 200;
 
-	private final ConcurrentSkipListSet<ContentItem> recent;
+	private final ContentChildren<ContentItem> recent;
 	private volatile long oldestRecentItem = 0L;
 
 	private final Map<String, AuthList> itemIdToAuth = new ConcurrentHashMap<>();
@@ -23,20 +22,19 @@ public class RecentContentNode extends ContentNode {
 				ContentGroup.ROOT.getId(),
 				ContentGroup.RECENT.getHumanName(),
 				null, null, null, null,
-				new ConcurrentSkipListSet<>(ContentItem.Order.MODIFIED_DESC));
-		this.recent = (ConcurrentSkipListSet<ContentItem>) this.items;
+				ContentItem.Order.MODIFIED_DESC);
+		this.recent = this.items;
 	}
 
 	@Override
 	public List<ContentItem> itemsUserHasAuth(final String username) {
-		synchronized (this.recent) {
-			final List<ContentItem> ret = new ArrayList<>(this.recent.size());
-			for (final ContentItem item : this.recent) {
-				final AuthList auth = this.itemIdToAuth.get(item.getId());
-				if (auth == null || auth.hasUser(username)) ret.add(item);
-			}
-			return ret;
+		final List<ContentItem> recent = this.recent.snapshot();
+		final List<ContentItem> ret = new ArrayList<>(recent.size());
+		for (final ContentItem item : recent) {
+			final AuthList auth = this.itemIdToAuth.get(item.getId());
+			if (auth == null || auth.hasUser(username)) ret.add(item);
 		}
+		return ret;
 	}
 
 	public void maybeAddToRecent(final ContentItem item, ContentNode node) {
@@ -47,7 +45,8 @@ public class RecentContentNode extends ContentNode {
 		if (auth != null) this.itemIdToAuth.put(item.getId(), auth);
 
 		synchronized (this.recent) {
-			this.recent.add(item);
+			this.recent.removeById(item.getId());  // Replace any previous version of the same file.
+			this.recent.addIfAbsent(item);
 			if (this.recent.size() > MAX_RECENT_ITEMS) {
 				final ContentItem removed = this.recent.pollLast();
 				this.itemIdToAuth.remove(removed.getId());
@@ -62,7 +61,7 @@ public class RecentContentNode extends ContentNode {
 
 	public void removeFromRecent(final ContentItem item) {
 		synchronized (this.recent) {
-			this.recent.remove(item);
+			this.recent.removeById(item.getId());
 			this.itemIdToAuth.remove(item.getId());
 		}
 	}
@@ -3,26 +3,68 @@ package mediatoad.media;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.FileUtils;
 
+import io.prometheus.metrics.core.datapoints.DistributionDataPoint;
+import io.prometheus.metrics.core.metrics.Histogram;
+import io.prometheus.metrics.model.snapshots.Unit;
 import mediatoad.ffmpeg.Ffmpeg;
+import mediatoad.util.ExecutorHelper;
 import mediatoad.util.HashHelper;
 import mediatoad.util.ImageResizer;
 
+/**
+ * Generates thumbnails on a fixed size pool of workers.
+ * Requests for a thumbnail that is already being generated wait for that rather than generating it again,
+ * and thumbnails being waited for by a request are generated before those being made in the background.
+ */
 public class ThumbnailGenerator {
 
 	private static final int THUMB_SIZE_PIXELS = 200;
 	private static final float THUMB_QUALITY = 0.8f;
 
-	private static final Object[] LOCK = new Object[0];
+	private static final Histogram DURATION_METRIC = Histogram.builder()
+			.name("thumbnail_duration")
+			.unit(Unit.SECONDS)
+			.labelNames("priority")
+			.help("Time from a thumbnail being requested to it being ready, including time waiting for a worker.")
+			.register();
+	private static final DistributionDataPoint REQUEST_DURATION_METRIC = DURATION_METRIC.labelValues("request");
+	private static final DistributionDataPoint BACKGROUND_DURATION_METRIC = DURATION_METRIC.labelValues("background");
 
 	private final File cacheDir;
 	private final ImageResizer imageResizer;
+	private final ExecutorService ex;
+
+	// Keyed by output file.
+	private final Map<File, Job> inFlight = new ConcurrentHashMap<>();
+	private final AtomicLong sequence = new AtomicLong(0L);
 
 	public ThumbnailGenerator(final File cacheDir) {
+		this(cacheDir, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ThumbnailGenerator(final File cacheDir, final int threads) {
+		// Queue depth is reported by executor_queue_size.
+		this(cacheDir, ExecutorHelper.newPriorityExecutor(threads, "thumbs"));
+	}
+
+	/**
+	 * ex must run tasks in priority order, see ExecutorHelper.newPriorityExecutor().
+	 */
+	ThumbnailGenerator(final File cacheDir, final ExecutorService ex) {
 		this.cacheDir = cacheDir;
 		this.imageResizer = new ImageResizer();
+		this.ex = ex;
 	}
 
 	public boolean supported(final ContentGroup group, final boolean videoThumbs) {
@@ -36,22 +78,90 @@ public class ThumbnailGenerator {
 		}
 	}
 
+	/**
+	 * For when someone is waiting for the thumbnail.  Blocks until it is ready.
+	 */
 	public File generate(final ContentItem item) throws IOException {
+		final long startTime = System.nanoTime();
 		final File inF = item.getFile();
 		if (!inF.exists()) throw new FileNotFoundException("File does not exist: " + inF.getAbsolutePath());
 
 		final File outF = chooseOutputFile(inF, THUMB_SIZE_PIXELS);
-		if (outF.exists() && outF.lastModified() > inF.lastModified()) return outF;
+		if (isFresh(inF, outF)) return outF;
+
+		try {
+			return schedule(item, inF, outF, Priority.REQUEST).get();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for thumbnail: " + inF.getAbsolutePath());
+		}
+		catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException("Failed to generate thumbnail: " + inF.getAbsolutePath(), e.getCause());
+		}
+		finally {
+			REQUEST_DURATION_METRIC.observe(Unit.nanosToSeconds(System.nanoTime() - startTime));
+		}
+	}
+
+	/**
+	 * For pre-generating thumbnails no one is waiting for yet.
+	 */
+	public CompletableFuture<File> generateInBackground(final ContentItem item) {
+		final long startTime = System.nanoTime();
+		final File inF = item.getFile();
+		final File outF = chooseOutputFile(inF, THUMB_SIZE_PIXELS);
+		if (isFresh(inF, outF)) return CompletableFuture.completedFuture(outF);
+
+		final CompletableFuture<File> future = schedule(item, inF, outF, Priority.BACKGROUND);
+		future.whenComplete((f, e) -> BACKGROUND_DURATION_METRIC.observe(Unit.nanosToSeconds(System.nanoTime() - startTime)));
+		return future;
+	}
+
+	private CompletableFuture<File> schedule(final ContentItem item, final File inF, final File outF, final Priority priority) {
+		final Job job;
+		final boolean isNew;
+		synchronized (this.inFlight) {
+			final Job existing = this.inFlight.get(outF);
+			if (existing != null) {
+				job = existing;
+				isNew = false;
+			}
+			else {
+				job = new Job(item, inF, outF);
+				this.inFlight.put(outF, job);
+				isNew = true;
+			}
+		}
 
-		// TODO do something better than this nasty rate-limiting hack.
-		synchronized (LOCK) {
-			FileUtils.forceMkdir(outF.getParentFile());
-			doGenerate(item, inF, outF);
+		// A job already queued in the background gets queued again at the higher priority,
+		// whichever copy of it reaches a worker first does the work.
+		if (isNew || (priority == Priority.REQUEST && !job.started.get())) {
+			this.ex.execute(new QueuedJob(job, priority, this.sequence.getAndIncrement()));
 		}
-		return outF;
+		return job.future;
 	}
 
-	private void doGenerate(final ContentItem item, final File inF, final File outF) throws IOException {
+	private void runJob(final Job job) {
+		if (!job.started.compareAndSet(false, true)) return;
+		try {
+			if (!job.inF.exists()) throw new FileNotFoundException("File does not exist: " + job.inF.getAbsolutePath());
+			if (!isFresh(job.inF, job.outF)) {
+				FileUtils.forceMkdir(job.outF.getParentFile());
+				doGenerate(job.item, job.inF, job.outF);
+			}
+			job.future.complete(job.outF);
+		}
+		catch (final Exception e) {
+			job.future.completeExceptionally(e);
+		}
+		finally {
+			this.inFlight.remove(job.outF, job);
+		}
+	}
+
+	void doGenerate(final ContentItem item, final File inF, final File outF) throws IOException {
 		switch (item.getFormat().getContentGroup()) {
 		case IMAGE:
 			this.imageResizer.scaleImageToFile(inF, THUMB_SIZE_PIXELS, THUMB_QUALITY, outF);
@@ -64,10 +174,61 @@ public class ThumbnailGenerator {
 		}
 	}
 
+	private static boolean isFresh(final File inF, final File outF) {
+		return outF.exists() && outF.lastModified() > inF.lastModified();
+	}
+
 	private File chooseOutputFile(final File inF, final int size) {
 		final String outName = HashHelper.md5(inF.getAbsolutePath()).toString(16) + "_" + size + ".jpg";
 		final File outDir = new File(new File(this.cacheDir, outName.substring(0, 1)), outName.substring(1, 2));
 		return new File(outDir, outName);
 	}
 
+	private enum Priority {
+		// Order is run order.
+		REQUEST,
+		BACKGROUND;
+	}
+
+	private static class Job {
+		final ContentItem item;
+		final File inF;
+		final File outF;
+		final CompletableFuture<File> future = new CompletableFuture<>();
+		final AtomicBoolean started = new AtomicBoolean(false);
+
+		Job(final ContentItem item, final File inF, final File outF) {
+			this.item = item;
+			this.inF = inF;
+			this.outF = outF;
+		}
+	}
+
+	private class QueuedJob implements Runnable, Comparable<QueuedJob> {
+		private final Job job;
+		private final Priority priority;
+		private final long sequence;
+
+		QueuedJob(final Job job, final Priority priority, final long sequence) {
+			this.job = job;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public void run() {
+			runJob(this.job);
+		}
+
+		/**
+		 * Higher priority first, then oldest first.
+		 */
+		@Override
+		public int compareTo(final QueuedJob o) {
+			final int c = this.priority.compareTo(o.priority);
+			if (c != 0) return c;
+			return Long.compare(this.sequence, o.sequence);
+		}
+	}
+
 }
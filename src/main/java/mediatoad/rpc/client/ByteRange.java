@@ -0,0 +1,82 @@
+package mediatoad.rpc.client;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A single range from an HTTP Range header, eg "bytes=100-199", "bytes=100-" or "bytes=-100".
+ */
+class ByteRange {
+
+	// -1 if a suffix range.
+	final long first;
+	// -1 if open ended or a suffix range.
+	final long last;
+	// -1 unless a suffix range.
+	final long suffixLength;
+
+	private ByteRange(final long first, final long last, final long suffixLength) {
+		this.first = first;
+		this.last = last;
+		this.suffixLength = suffixLength;
+	}
+
+	static ByteRange of(final long first, final long last) {
+		return new ByteRange(first, last, -1L);
+	}
+
+	/**
+	 * Returns null for anything other than a single valid byte range, so the header can be ignored.
+	 */
+	static ByteRange parse(final String header) {
+		if (header == null || !header.startsWith("bytes=")) return null;
+		final String spec = header.substring("bytes=".length()).trim();
+		if (spec.indexOf(',') >= 0) return null;  // multipart/byteranges responses not supported.
+
+		final int dash = spec.indexOf('-');
+		if (dash < 0) return null;
+		final String firstStr = spec.substring(0, dash).trim();
+		final String lastStr = spec.substring(dash + 1).trim();
+		try {
+			if (firstStr.isEmpty()) {
+				if (!StringUtils.isNumeric(lastStr)) return null;
+				final long suffix = Long.parseLong(lastStr);
+				if (suffix < 1) return null;
+				return new ByteRange(-1L, -1L, suffix);
+			}
+			if (!StringUtils.isNumeric(firstStr)) return null;
+			final long first = Long.parseLong(firstStr);
+			if (lastStr.isEmpty()) return new ByteRange(first, -1L, -1L);
+			if (!StringUtils.isNumeric(lastStr)) return null;
+			final long last = Long.parseLong(lastStr);
+			if (last < first) return null;
+			return new ByteRange(first, last, -1L);
+		}
+		catch (final NumberFormatException e) {
+			return null;
+		}
+	}
+
+	boolean isSuffix() {
+		return this.suffixLength > 0;
+	}
+
+	/**
+	 * Returns null if the range does not overlap the file.
+	 */
+	ByteRange resolve(final long totalLength) {
+		if (isSuffix()) {
+			if (totalLength < 1) return null;
+			return of(Math.max(0L, totalLength - this.suffixLength), totalLength - 1);
+		}
+		if (this.first >= totalLength) return null;
+		if (this.last < 0 || this.last >= totalLength) return of(this.first, totalLength - 1);
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		if (isSuffix()) return "-" + this.suffixLength;
+		return this.first + "-" + (this.last >= 0 ? String.valueOf(this.last) : "");
+	}
+
+}
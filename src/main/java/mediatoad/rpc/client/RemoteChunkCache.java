@@ -0,0 +1,172 @@
+package mediatoad.rpc.client;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.protobuf.ByteString;
+
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.metrics.Counter;
+
+/**
+ * Recently streamed chunks of remote files, so seeking back over part of a remote file does not fetch it again.
+ * Chunks are aligned to CHUNK_SIZE so that different ranges of the same file share entries.
+ * The length and type of recently streamed files are always remembered, even if chunk caching is disabled.
+ */
+public class RemoteChunkCache {
+
+	// Same as the message size used by ReadMedia, so an aligned request gets back aligned chunks.
+	static final int CHUNK_SIZE = 256 * 1024;
+
+	private static final Counter REQUESTS_METRIC = Counter.builder()
+			.name("remote_chunk_cache_requests")
+			.labelNames("result")
+			.help("count of lookups of chunks of remote files, grouped by whether the chunk was already cached.")
+			.register();
+	private static final CounterDataPoint HIT = REQUESTS_METRIC.labelValues("hit");
+	private static final CounterDataPoint MISS = REQUESTS_METRIC.labelValues("miss");
+
+	private final Cache<FileKey, FileInfo> files = CacheBuilder.newBuilder()
+			.maximumSize(1000L)
+			.expireAfterWrite(10, TimeUnit.MINUTES)
+			.build();
+	// null if disabled.
+	private final Cache<ChunkKey, ByteString> chunks;
+
+	/**
+	 * @param maxBytes Less than 1 disables caching chunks.
+	 */
+	public RemoteChunkCache(final long maxBytes) {
+		if (maxBytes > 0) {
+			this.chunks = CacheBuilder.newBuilder()
+					.maximumWeight(maxBytes)
+					.weigher((final ChunkKey k, final ByteString v) -> v.size())
+					.expireAfterAccess(1, TimeUnit.HOURS)
+					.build();
+		}
+		else {
+			this.chunks = null;
+		}
+	}
+
+	public FileInfo getFileInfo(final String instanceId, final String id) {
+		return this.files.getIfPresent(new FileKey(instanceId, id));
+	}
+
+	public void putFileInfo(final String instanceId, final String id, final FileInfo info) {
+		this.files.put(new FileKey(instanceId, id), info);
+	}
+
+	/**
+	 * For when the remote file has changed length since it was cached.
+	 * Also drops chunks of any other length of the file, as they would never be used again.
+	 */
+	public void replaceFileInfo(final String instanceId, final String id, final FileInfo info) {
+		putFileInfo(instanceId, id, info);
+		if (this.chunks == null) return;
+		this.chunks.asMap().keySet().removeIf((k) -> k.instanceId.equals(instanceId) && k.id.equals(id) && k.totalLength != info.totalLength);
+	}
+
+	/**
+	 * Returns null if not cached.
+	 */
+	public ByteString getChunk(final String instanceId, final String id, final long totalLength, final long start) {
+		if (this.chunks == null) return null;
+		final ByteString chunk = this.chunks.getIfPresent(new ChunkKey(instanceId, id, totalLength, start));
+		if (chunk != null) {
+			HIT.inc();
+		}
+		else {
+			MISS.inc();
+		}
+		return chunk;
+	}
+
+	/**
+	 * Only keeps chunks that are aligned and complete, anything else is ignored.
+	 */
+	public void putChunk(final String instanceId, final String id, final long totalLength, final long start, final ByteString content) {
+		if (this.chunks == null) return;
+		if (start % CHUNK_SIZE != 0) return;
+		if (content.size() != CHUNK_SIZE && start + content.size() != totalLength) return;
+		this.chunks.put(new ChunkKey(instanceId, id, totalLength, start), content);
+	}
+
+	static long chunkStart(final long offset) {
+		return offset - (offset % CHUNK_SIZE);
+	}
+
+	static long chunkLast(final long offset) {
+		return chunkStart(offset) + CHUNK_SIZE - 1;
+	}
+
+	public static class FileInfo {
+		final long totalLength;
+		final String mimeType;
+
+		public FileInfo(final long totalLength, final String mimeType) {
+			this.totalLength = totalLength;
+			this.mimeType = mimeType;
+		}
+	}
+
+	private static class FileKey {
+		final String instanceId;
+		final String id;
+
+		FileKey(final String instanceId, final String id) {
+			this.instanceId = instanceId;
+			this.id = id;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.instanceId, this.id);
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (obj == null) return false;
+			if (this == obj) return true;
+			if (!(obj instanceof FileKey)) return false;
+			final FileKey that = (FileKey) obj;
+			return Objects.equals(this.instanceId, that.instanceId)
+					&& Objects.equals(this.id, that.id);
+		}
+	}
+
+	private static class ChunkKey {
+		final String instanceId;
+		final String id;
+		// So a file that changes length does not get served stale chunks.
+		final long totalLength;
+		final long start;
+
+		ChunkKey(final String instanceId, final String id, final long totalLength, final long start) {
+			this.instanceId = instanceId;
+			this.id = id;
+			this.totalLength = totalLength;
+			this.start = start;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.instanceId, this.id, this.totalLength, this.start);
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (obj == null) return false;
+			if (this == obj) return true;
+			if (!(obj instanceof ChunkKey)) return false;
+			final ChunkKey that = (ChunkKey) obj;
+			return Objects.equals(this.instanceId, that.instanceId)
+					&& Objects.equals(this.id, that.id)
+					&& this.totalLength == that.totalLength
+					&& this.start == that.start;
+		}
+	}
+
+}
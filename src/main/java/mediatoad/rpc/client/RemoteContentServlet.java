@@ -1,17 +1,15 @@
 package mediatoad.rpc.client;
 
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.concurrent.TimeUnit;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import mediatoad.rpc.MediaGrpc.MediaBlockingStub;
-import mediatoad.rpc.MediaToadProto.ReadMediaReply;
-import mediatoad.rpc.MediaToadProto.ReadMediaRequest;
+import mediatoad.rpc.MediaGrpc.MediaStub;
+import mediatoad.rpc.client.RemoteChunkCache.FileInfo;
 import mediatoad.ui.ServletCommon;
 
 public class RemoteContentServlet extends HttpServlet {
@@ -19,13 +17,14 @@ public class RemoteContentServlet extends HttpServlet {
 	private static final long serialVersionUID = 752811101673893518L;
 	private final RpcClient rpcClient;
 	private final ServletCommon servletCommon;
+	private final RemoteChunkCache chunkCache;
 
-	public RemoteContentServlet(final RpcClient rpcClient, final ServletCommon servletCommon) {
+	public RemoteContentServlet(final RpcClient rpcClient, final ServletCommon servletCommon, final RemoteChunkCache chunkCache) {
 		this.rpcClient = rpcClient;
 		this.servletCommon = servletCommon;
+		this.chunkCache = chunkCache;
 	}
 
-	@SuppressWarnings("resource")
 	@Override
 	protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
 		final String instanceId = getRemoteInstanceId(req, resp);
@@ -34,29 +33,53 @@ public class RemoteContentServlet extends HttpServlet {
 		final String id = getIdFromPath(req, resp);
 		if (id == null) return;
 
-		final MediaBlockingStub stub;
+		final MediaStub stub;
 		try {
-			stub = this.rpcClient.getMediaBlockingStub(instanceId);
+			stub = this.rpcClient.getMediaStub(instanceId);
 		}
 		catch (final IllegalArgumentException e) {
 			ServletCommon.returnStatus(resp, HttpServletResponse.SC_BAD_REQUEST, "Invalid remote instance ID.");
 			return;
 		}
 
-		// TODO support Range header.
-		// TODO better timeout / deadline handling.
-		final Iterator<ReadMediaReply> replies = stub
-				.withDeadlineAfter(15, TimeUnit.MINUTES)
-				.readMedia(ReadMediaRequest.newBuilder().setId(id).build());
+		final FileInfo fileInfo = this.chunkCache.getFileInfo(instanceId, id);
+		ByteRange range = requestedRange(req, id, fileInfo);
+		if (range != null && fileInfo != null) {
+			range = range.resolve(fileInfo.totalLength);
+			if (range == null) {
+				resp.reset();
+				resp.setHeader("Content-Range", "bytes */" + fileInfo.totalLength);
+				ServletCommon.returnStatusWithoutReset(resp, HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, "Range not satisfiable.");
+				return;
+			}
+		}
+		else if (range != null && range.isSuffix()) {
+			range = null;  // can not work out where it starts without the file length, so send the whole file.
+		}
 
-		final ReadMediaReply first = replies.next(); // TODO catch this throwing StatusRuntimeException for not found, etc.
-		resp.setContentType(first.getMimeType());
-		resp.setContentLengthLong(first.getTotalFileLength());
-		first.getContent().writeTo(resp.getOutputStream());
+		final AsyncContext ctx = req.startAsync();
+		new RemoteContentStream(stub, instanceId, id, range, fileInfo, this.chunkCache, resp, ctx).start();
+	}
 
-		while (replies.hasNext()) {
-			replies.next().getContent().writeTo(resp.getOutputStream());
-		}
+	/**
+	 * Returns null if there is no Range header or it should be ignored.
+	 */
+	private static ByteRange requestedRange(final HttpServletRequest req, final String id, final FileInfo fileInfo) {
+		final ByteRange range = ByteRange.parse(req.getHeader("Range"));
+		if (range == null) return null;
+
+		// The only validator sent is the ETag, so anything else can not match.
+		final String ifRange = req.getHeader("If-Range");
+		if (ifRange != null && (fileInfo == null || !ifRange.equals(etag(id, fileInfo.totalLength)))) return null;
+
+		return range;
+	}
+
+	/**
+	 * Remote item IDs do not change while the file is the same, and length is the best change indicator ReadMedia gives.
+	 */
+	static String etag(final String id, final long totalLength) {
+		return "\"" + id + "-" + totalLength + "\"";
 	}
 
 	private String getRemoteInstanceId(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
@@ -0,0 +1,375 @@
+package mediatoad.rpc.client;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.ByteString;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import mediatoad.rpc.MediaGrpc.MediaStub;
+import mediatoad.rpc.MediaToadProto.Range;
+import mediatoad.rpc.MediaToadProto.ReadMediaReply;
+import mediatoad.rpc.MediaToadProto.ReadMediaRequest;
+import mediatoad.rpc.client.RemoteChunkCache.FileInfo;
+import mediatoad.ui.ServletCommon;
+
+/**
+ * Copies a remote file, or a range of it, to an async servlet response.
+ * Another reply is only requested from the remote once one has been written out, so a slow
+ * HTTP client slows down the remote instead of filling memory, and no thread waits on either side.
+ * Chunks already in the RemoteChunkCache are written without asking the remote for them.
+ */
+class RemoteContentStream implements ClientResponseObserver<ReadMediaRequest, ReadMediaReply> {
+
+	// So the next reply is already on its way while the current one is being written.
+	private static final int REPLIES_IN_FLIGHT = 2;
+	// Remotes clamp the end of a range to the end of the file.  Not MAX_VALUE so that last - first + 1 can not overflow.
+	private static final long UNKNOWN_LAST = Long.MAX_VALUE - 1;
+	// Sent by MediaImpl with OUT_OF_RANGE so the 416 can say how long the file is.
+	private static final Metadata.Key<String> TOTAL_FILE_LENGTH_TRAILER = Metadata.Key.of("total-file-length", Metadata.ASCII_STRING_MARSHALLER);
+	private static final Logger LOG = LoggerFactory.getLogger(RemoteContentStream.class);
+
+	private final MediaStub stub;
+	private final String instanceId;
+	private final String id;
+	// null means whole file.  Already resolved if fileInfo was known, otherwise not a suffix range.
+	private final ByteRange range;
+	private final RemoteChunkCache cache;
+	private final HttpServletResponse resp;
+	private final AsyncContext ctx;
+
+	// All guarded by this.
+	private final Deque<Chunk> pending = new ArrayDeque<>();
+	private FileInfo fileInfo;
+	private long nextByte;
+	private long lastByte = -1L;
+	private long remotePosition;
+	private boolean firstReply = true;
+	private ClientCallStreamObserver<ReadMediaRequest> call;
+	private boolean remoteDone = false;
+	private ServletOutputStream out;
+	private boolean finished = false;
+
+	RemoteContentStream(final MediaStub stub, final String instanceId, final String id, final ByteRange range, final FileInfo fileInfo,
+			final RemoteChunkCache cache, final HttpServletResponse resp, final AsyncContext ctx) {
+		this.stub = stub;
+		this.instanceId = instanceId;
+		this.id = id;
+		this.range = range;
+		this.fileInfo = fileInfo;
+		this.cache = cache;
+		this.resp = resp;
+		this.ctx = ctx;
+	}
+
+	synchronized void start() {
+		this.ctx.setTimeout(0);  // a stream can last as long as playback does, the connection idle timeout still applies.
+		this.ctx.addListener(new ClientListener());
+		this.nextByte = this.range != null ? this.range.first : 0L;
+
+		if (this.fileInfo == null) {
+			if (this.range != null) {
+				requestRemote(RemoteChunkCache.chunkStart(this.range.first), this.range.last >= 0 ? RemoteChunkCache.chunkLast(this.range.last) : UNKNOWN_LAST);
+			}
+			else {
+				requestRemote(-1L, -1L);
+			}
+			return;
+		}
+
+		this.lastByte = this.range != null ? this.range.last : this.fileInfo.totalLength - 1;
+		long pos = RemoteChunkCache.chunkStart(this.nextByte);
+		while (pos <= this.lastByte) {
+			final ByteString chunk = this.cache.getChunk(this.instanceId, this.id, this.fileInfo.totalLength, pos);
+			if (chunk == null) break;
+			this.pending.add(new Chunk(pos, chunk, false));
+			pos += chunk.size();
+		}
+		if (pos > this.lastByte) {
+			this.remoteDone = true;
+		}
+		else {
+			requestRemote(pos, RemoteChunkCache.chunkLast(this.lastByte));
+		}
+		startWriting();
+	}
+
+	/**
+	 * Requests are aligned to whole chunks so that every chunk that comes back can be cached.
+	 * @param first -1 for whole file.
+	 */
+	private void requestRemote(final long first, final long last) {
+		final ReadMediaRequest.Builder req = ReadMediaRequest.newBuilder().setId(this.id);
+		if (first >= 0) req.addRange(Range.newBuilder().setFirst(first).setLast(last).build());
+		this.remotePosition = Math.max(first, 0L);
+		this.stub.readMedia(req.build(), this);
+	}
+
+	@Override
+	public synchronized void beforeStart(final ClientCallStreamObserver<ReadMediaRequest> requestStream) {
+		this.call = requestStream;
+		requestStream.disableAutoRequestWithInitial(REPLIES_IN_FLIGHT);
+	}
+
+	@Override
+	public synchronized void onNext(final ReadMediaReply reply) {
+		if (this.finished) return;
+
+		if (this.firstReply) {
+			this.firstReply = false;
+			if (!reply.hasRangeIndex()) this.remotePosition = 0L;  // remote sent the whole file.
+
+			if (this.fileInfo == null) {
+				this.fileInfo = new FileInfo(reply.getTotalFileLength(), reply.getMimeType());
+				this.cache.putFileInfo(this.instanceId, this.id, this.fileInfo);
+
+				if (this.range != null) {
+					final ByteRange resolved = this.range.resolve(this.fileInfo.totalLength);
+					if (resolved == null) {
+						returnRangeNotSatisfiable(this.fileInfo.totalLength);
+						return;
+					}
+					this.lastByte = resolved.last;
+				}
+				else {
+					this.lastByte = this.fileInfo.totalLength - 1;
+				}
+				startWriting();
+			}
+			else if (reply.getTotalFileLength() != this.fileInfo.totalLength) {
+				// Headers for the old length have already been set, so cut the response short and the client will ask again.
+				LOG.info("Remote {} file {} changed length from {} to {}.", this.instanceId, this.id, this.fileInfo.totalLength, reply.getTotalFileLength());
+				this.cache.replaceFileInfo(this.instanceId, this.id, new FileInfo(reply.getTotalFileLength(), reply.getMimeType()));
+				finish();
+				return;
+			}
+		}
+
+		final ByteString content = reply.getContent();
+		final long start = this.remotePosition;
+		this.remotePosition += content.size();
+		this.cache.putChunk(this.instanceId, this.id, this.fileInfo.totalLength, start, content);
+		this.pending.add(new Chunk(start, content, true));
+		write();
+	}
+
+	@Override
+	public synchronized void onError(final Throwable t) {
+		this.remoteDone = true;
+		if (this.finished) return;
+
+		if (this.out == null) {
+			final Status status = Status.fromThrowable(t);
+			switch (status.getCode()) {
+				case NOT_FOUND:
+					returnStatusAndFinish(HttpServletResponse.SC_NOT_FOUND, "Not found.");
+					break;
+				case PERMISSION_DENIED:
+					returnStatusAndFinish(HttpServletResponse.SC_FORBIDDEN, "Forbidden.");
+					break;
+				case OUT_OF_RANGE:
+					returnRangeNotSatisfiable(totalLengthFromError(t));
+					break;
+				default:
+					LOG.warn("Failed to read {} from remote {}: {}", this.id, this.instanceId, status);
+					returnStatusAndFinish(HttpServletResponse.SC_BAD_GATEWAY, "Remote error.");
+			}
+			return;
+		}
+
+		// too late to change the status, so cut the response short.
+		LOG.warn("Remote {} failed part way through {}: {}", this.instanceId, this.id, Status.fromThrowable(t));
+		finish();
+	}
+
+	@Override
+	public synchronized void onCompleted() {
+		this.remoteDone = true;
+		if (this.finished) return;
+
+		if (this.out == null) {
+			returnStatusAndFinish(HttpServletResponse.SC_BAD_GATEWAY, "Remote returned no content.");
+			return;
+		}
+		write();
+	}
+
+	private void startWriting() {
+		this.resp.setContentType(this.fileInfo.mimeType);
+		this.resp.setHeader("Accept-Ranges", "bytes");
+		this.resp.setHeader("ETag", RemoteContentServlet.etag(this.id, this.fileInfo.totalLength));
+		if (this.range != null) {
+			this.resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			this.resp.setHeader("Content-Range", "bytes " + this.nextByte + "-" + this.lastByte + "/" + this.fileInfo.totalLength);
+		}
+		this.resp.setContentLengthLong(this.lastByte - this.nextByte + 1);
+
+		try {
+			this.out = this.resp.getOutputStream();
+		}
+		catch (final IOException e) {
+			LOG.warn("Failed to get output stream: {}", e.toString());
+			finish();
+			return;
+		}
+		// calls onWritePossible() once the response can be written to.
+		this.out.setWriteListener(new ResponseWriter());
+	}
+
+	/**
+	 * Writes as much as the response will take without blocking.
+	 */
+	private void write() {
+		if (this.finished || this.out == null) return;
+		try {
+			while (this.out.isReady()) {
+				if (this.nextByte > this.lastByte || (this.remoteDone && this.pending.isEmpty())) {
+					finish();
+					return;
+				}
+
+				final Chunk chunk = this.pending.poll();
+				if (chunk == null) return;  // more on its way from the remote.
+
+				final long from = Math.max(this.nextByte, chunk.start);
+				final long to = Math.min(this.lastByte + 1, chunk.start + chunk.content.size());
+				if (to > from) {
+					// one array per write() as the response may only be written to once per isReady().
+					this.out.write(chunk.content.substring((int) (from - chunk.start), (int) (to - chunk.start)).toByteArray());
+					this.nextByte = to;
+				}
+				if (chunk.fromRemote && !this.remoteDone) this.call.request(1);
+			}
+		}
+		catch (final IOException e) {
+			LOG.debug("Failed to write response: {}", e.toString());
+			finish();
+		}
+	}
+
+	/**
+	 * @param totalLength -1 if not known.
+	 */
+	private void returnRangeNotSatisfiable(final long totalLength) {
+		try {
+			this.resp.reset();
+			if (totalLength >= 0) this.resp.setHeader("Content-Range", "bytes */" + totalLength);
+			ServletCommon.returnStatusWithoutReset(this.resp, HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, "Range not satisfiable.");
+		}
+		catch (final IOException e) {
+			LOG.debug("Failed to write response: {}", e.toString());
+		}
+		finish();
+	}
+
+	/**
+	 * Returns -1 if not known, eg from a remote that does not send it.
+	 */
+	private long totalLengthFromError(final Throwable t) {
+		final long fallback = this.fileInfo != null ? this.fileInfo.totalLength : -1L;
+		final Metadata trailers = Status.trailersFromThrowable(t);
+		final String length = trailers != null ? trailers.get(TOTAL_FILE_LENGTH_TRAILER) : null;
+		if (length == null) return fallback;
+		try {
+			return Long.parseLong(length);
+		}
+		catch (final NumberFormatException e) {
+			return fallback;
+		}
+	}
+
+	private void returnStatusAndFinish(final int status, final String msg) {
+		try {
+			ServletCommon.returnStatus(this.resp, status, msg);
+		}
+		catch (final IOException e) {
+			LOG.debug("Failed to write response: {}", e.toString());
+		}
+		finish();
+	}
+
+	private void finish() {
+		if (this.finished) return;
+		this.finished = true;
+		cancelRemote("Response finished.");
+		this.ctx.complete();
+	}
+
+	private void cancelRemote(final String reason) {
+		if (!this.remoteDone && this.call != null) {
+			this.remoteDone = true;
+			this.call.cancel(reason, null);
+		}
+	}
+
+	private synchronized void clientGone(final Throwable t) {
+		if (this.finished) return;
+		LOG.debug("Client stopped reading {}: {}", this.id, t != null ? t.toString() : null);
+		finish();
+	}
+
+	private class ResponseWriter implements WriteListener {
+		@Override
+		public void onWritePossible() throws IOException {
+			synchronized (RemoteContentStream.this) {
+				write();
+			}
+		}
+
+		@Override
+		public void onError(final Throwable t) {
+			clientGone(t);
+		}
+	}
+
+	private class ClientListener implements AsyncListener {
+		@Override
+		public void onComplete(final AsyncEvent event) throws IOException {
+			synchronized (RemoteContentStream.this) {
+				cancelRemote("Response completed.");
+			}
+		}
+
+		@Override
+		public void onTimeout(final AsyncEvent event) throws IOException {
+			clientGone(event.getThrowable());
+		}
+
+		@Override
+		public void onError(final AsyncEvent event) throws IOException {
+			clientGone(event.getThrowable());
+		}
+
+		@Override
+		public void onStartAsync(final AsyncEvent event) throws IOException {
+			// not used.
+		}
+	}
+
+	private static class Chunk {
+		final long start;
+		final ByteString content;
+		final boolean fromRemote;
+
+		Chunk(final long start, final ByteString content, final boolean fromRemote) {
+			this.start = start;
+			this.content = content;
+			this.fromRemote = fromRemote;
+		}
+	}
+
+}
@@ -16,6 +16,7 @@ import mediatoad.Args.ArgsException;
 import mediatoad.rpc.MediaGrpc;
 import mediatoad.rpc.MediaGrpc.MediaBlockingStub;
 import mediatoad.rpc.MediaGrpc.MediaFutureStub;
+import mediatoad.rpc.MediaGrpc.MediaStub;
 
 public class RpcClient {
 
@@ -23,6 +24,7 @@ public class RpcClient {
 	private final Map<RemoteInstance, ManagedChannel> managedChannels = new ConcurrentHashMap<>();
 	private final Map<String, MediaFutureStub> mediaFutureStubs = new ConcurrentHashMap<>();
 	private final Map<String, MediaBlockingStub> mediaBlockingStubs = new ConcurrentHashMap<>();
+	private final Map<String, MediaStub> mediaStubs = new ConcurrentHashMap<>();
 
 	public RpcClient(final Args args) throws ArgsException {
 		parseArgs(args);
@@ -65,11 +67,18 @@ public class RpcClient {
 		return stub;
 	}
 
+	public MediaStub getMediaStub(final String rid) {
+		final MediaStub stub = this.mediaStubs.get(rid);
+		if (stub == null) throw new IllegalArgumentException("No stub found for: " + rid);
+		return stub;
+	}
+
 	private void startChannel(final RemoteInstance ri) {
 		final ManagedChannel channel = ri.getTarget().buildChannel();
 		this.managedChannels.put(ri, channel);
 		this.mediaFutureStubs.put(ri.getId(), MediaGrpc.newFutureStub(channel));
 		this.mediaBlockingStubs.put(ri.getId(), MediaGrpc.newBlockingStub(channel));
+		this.mediaStubs.put(ri.getId(), MediaGrpc.newStub(channel));
 	}
 
 	private void parseArgs(final Args args) throws ArgsException {
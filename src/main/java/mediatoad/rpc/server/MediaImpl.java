@@ -1,14 +1,15 @@
 package mediatoad.rpc.server;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -20,13 +21,11 @@ import org.apache.commons.lang3.StringUtils;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
-import com.google.protobuf.ByteString;
 
-import io.grpc.Deadline;
+import io.grpc.Metadata;
 import io.grpc.Status;
 import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
-import io.prometheus.metrics.core.metrics.Counter;
 import mediatoad.C;
 import mediatoad.auth.Permission;
 import mediatoad.db.MediaDb;
@@ -74,12 +73,9 @@ import mediatoad.rpc.MediaToadProto.UpdateTagsRequest;
 public class MediaImpl extends MediaGrpc.MediaImplBase {
 
 	private static final int MAX_SEARCH_RESULTS = 500;
-	private static final int MESSAGE_SIZE_BYTES = 256 * 1024;
-
-	private static final Counter CHUNKS_SENT_METRIC = Counter.builder()
-			.name("rpc_chunks_sent")
-			.help("count of chunks of media file that have been written to the grpc output buffer.")
-			.register();
+	private static final int STREAM_PAGE_SIZE = 500;
+	// Read by RemoteContentStream so it can tell its HTTP client how long the file is.
+	private static final Metadata.Key<String> TOTAL_FILE_LENGTH_TRAILER = Metadata.Key.of("total-file-length", Metadata.ASCII_STRING_MARSHALLER);
 
 	// to match search().
 	private static final Set<SortField> SUPPORTED_SORT_FIELDS = ImmutableSet.of(
@@ -91,13 +87,19 @@ public class MediaImpl extends MediaGrpc.MediaImplBase {
 
 	private final ContentTree contentTree;
 	private final MediaDb mediaDb;
+	private final int streamPageSize;
 
 	private final Cache<String, Boolean> recentlyReportedPlaybacks = CacheBuilder.newBuilder()
 			.expireAfterWrite(15, TimeUnit.MINUTES).build();
 
 	public MediaImpl(final ContentTree contentTree, final MediaDb mediaDb) {
+		this(contentTree, mediaDb, STREAM_PAGE_SIZE);
+	}
+
+	MediaImpl(final ContentTree contentTree, final MediaDb mediaDb, final int streamPageSize) {
 		this.contentTree = contentTree;
 		this.mediaDb = mediaDb;
+		this.streamPageSize = streamPageSize;
 	}
 
 	@Override
@@ -158,25 +160,45 @@ public class MediaImpl extends MediaGrpc.MediaImplBase {
 			reply.addChild(nodeToRpcNode(n));
 		}
 
-		final List<ContentItem> items = node.itemsUserHasAuth(username);
-		final List<String> ids = items.stream().map(i -> i.getId()).collect(Collectors.toList());
 		try {
-			final Map<String, Playback> playbacks = this.mediaDb.getPlayback(ids);
-			for (final ContentItem i : items) {
-				reply.addItem(itemToRpcItem(
-						i,
-						playbacks.get(i.getId()),
-						this.mediaDb.getTags(i.getId(), false, false)));  // TODO batch read tags.
-			}
+			reply.addAllItem(itemsToRpcItems(node.itemsUserHasAuth(username)));
 		}
 		catch (final SQLException e) {
 			responseObserver.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
+			return;
 		}
 
 		responseObserver.onNext(reply.build());
 		responseObserver.onCompleted();
 	}
 
+	@Override
+	public void listNodeStream(final ListNodeRequest request, final StreamObserver<ListNodeReply> responseObserver) {
+		final String username = JwtInterceptor.USERNAME_CONTEXT_KEY.get();
+
+		final ContentNode node = this.contentTree.getNode(request.getNodeId());
+		if (node == null || !node.isUserAuth(username)) {
+			responseObserver.onError(Status.NOT_FOUND.withDescription("Not found.").asRuntimeException());
+			return;
+		}
+
+		final MediaNode rpcNode = nodeToRpcNode(node);
+		final List<MediaNode> children = node.nodesUserHasAuth(username).stream().map(MediaImpl::nodeToRpcNode).collect(Collectors.toList());
+		final List<ContentItem> items = node.itemsUserHasAuth(username);
+
+		// always at least one reply, so the node and its children are sent even if there are no items.
+		final int pageCount = Math.max(1, PagedReplyStreamer.pageCount(items.size(), this.streamPageSize));
+		new PagedReplyStreamer<>(pageCount, (page) -> {
+			final ListNodeReply.Builder reply = ListNodeReply.newBuilder();
+			if (page == 0) {
+				reply.setNode(rpcNode);
+				reply.addAllChild(children);
+			}
+			reply.addAllItem(itemsToRpcItems(pageOf(items, page)));
+			return reply.build();
+		}, (ServerCallStreamObserver<ListNodeReply>) responseObserver).start();
+	}
+
 	@Override
 	public void readMedia(final ReadMediaRequest request, final StreamObserver<ReadMediaReply> responseObserver) {
 		final String username = JwtInterceptor.USERNAME_CONTEXT_KEY.get();
@@ -190,65 +212,33 @@ public class MediaImpl extends MediaGrpc.MediaImplBase {
 			return;
 		}
 
+		final long fileLength = file.length();
 		final List<Range> ranges = request.getRangeList();
-		if (ranges.size() > 1) {
-			responseObserver.onError(Status.UNIMPLEMENTED.withDescription("Multiple ranges not implemented.").asRuntimeException());
+		for (final Range r : ranges) {
+			if (r.getFirst() < 0 || r.getLast() < r.getFirst()) {
+				responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("Invalid range.").asRuntimeException());
+				return;
+			}
+			if (r.getFirst() >= fileLength) {
+				final Metadata trailers = new Metadata();
+				trailers.put(TOTAL_FILE_LENGTH_TRAILER, String.valueOf(fileLength));
+				responseObserver.onError(Status.OUT_OF_RANGE.withDescription("Range starts after end of file.").asRuntimeException(trailers));
+				return;
+			}
 		}
-		final Range range = ranges.size() == 1 ? ranges.get(0) : null;
-		final long rangeLength = range != null ? range.getLast() - range.getFirst() + 1 : 0L;
+		final List<Range> clampedRanges = ranges.stream()
+				.map((r) -> r.getLast() < fileLength ? r : r.toBuilder().setLast(fileLength - 1).build())
+				.collect(Collectors.toList());
 
 		final ServerCallStreamObserver<ReadMediaReply> serverCallStreamObserver = (ServerCallStreamObserver<ReadMediaReply>) responseObserver;
 		serverCallStreamObserver.setMessageCompression(false);  // no point trying to compress media files.
-		serverCallStreamObserver.setOnReadyThreshold(4 * MESSAGE_SIZE_BYTES); // default is 32kib io.grpc.internal.AbstractStream.TransportState.DEFAULT_ONREADY_THRESHOLD
-
-		try (final BufferedInputStream is = new BufferedInputStream(new FileInputStream(file))) {
-			final byte[] buffer = new byte[MESSAGE_SIZE_BYTES];
-			boolean first = true;
-			long totalRead = 0;
-			int toReadLength;
-			int wasReadLength;
-
-			if (range != null) is.skip(range.getFirst());
-			toReadLength = range != null
-					? (int) Math.min(rangeLength, MESSAGE_SIZE_BYTES)
-					: MESSAGE_SIZE_BYTES;
-
-			// ideally this would be implemented async, but given expected server load is very low this simpler blocking impl will do for now.
-			while ((wasReadLength = is.read(buffer, 0, toReadLength)) != -1) {
-				// fae suspects this blocking impl is preventing the async deadline set in io.grpc.servlet.ServletAdapter
-				// from working, so add our own deadline tracking for safety.
-				if (!serverCallStreamObserver.isReady() || serverCallStreamObserver.isCancelled()) {
-					final Deadline deadline = Deadline.after(5, TimeUnit.MINUTES);
-					while (!serverCallStreamObserver.isReady() && !serverCallStreamObserver.isCancelled() && !deadline.isExpired()) Thread.sleep(100L);
-					if (serverCallStreamObserver.isCancelled()) {
-						responseObserver.onError(Status.CANCELLED.asRuntimeException());
-						return;
-					}
-					if (deadline.isExpired()) {
-						responseObserver.onError(Status.DEADLINE_EXCEEDED.asRuntimeException());
-						return;
-					}
-				}
+		serverCallStreamObserver.setOnReadyThreshold(4 * ReadMediaStreamer.MESSAGE_SIZE_BYTES); // default is 32kib io.grpc.internal.AbstractStream.TransportState.DEFAULT_ONREADY_THRESHOLD
 
-				final ReadMediaReply.Builder builder = ReadMediaReply.newBuilder().setContent(ByteString.copyFrom(buffer, 0, wasReadLength));
-				if (first) {
-					builder.setTotalFileLength(file.length());
-					builder.setMimeType(item.getFormat().getMime());
-					first = false;
-				}
-				if (range != null) builder.setRangeIndex(0);
-				responseObserver.onNext(builder.build());
-				CHUNKS_SENT_METRIC.inc();
-
-				if (range != null) {
-					totalRead += wasReadLength;
-					toReadLength = (int) Math.min(rangeLength - totalRead, MESSAGE_SIZE_BYTES);
-					if (toReadLength < 1) break;
-				}
-			}
-			responseObserver.onCompleted();
+		final FileChannel channel;
+		try {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
 		}
-		catch (final FileNotFoundException e) {
+		catch (final NoSuchFileException e) {
 			responseObserver.onError(Status.INTERNAL.withDescription("File missing.").asRuntimeException());
 			return;
 		}
@@ -256,9 +246,9 @@ public class MediaImpl extends MediaGrpc.MediaImplBase {
 			responseObserver.onError(Status.INTERNAL.withDescription("File error.").asRuntimeException());
 			return;
 		}
-		catch (final InterruptedException e) {
-			// ignore.
-		}
+
+		// sends what it can now then continues from the onReady handler, so no thread is held while the client catches up.
+		new ReadMediaStreamer(item, fileLength, clampedRanges, channel, serverCallStreamObserver).start();
 	}
 
 	@Override
@@ -269,38 +259,8 @@ public class MediaImpl extends MediaGrpc.MediaImplBase {
 			return;
 		}
 
-		final List<SortOrder> sorts = new ArrayList<>();
-		for (final SortBy sb : request.getSortByList()) {
-			switch (sb.getSortField()) {
-			case UNSPECIFIED_ORDER:
-			case FILE_PATH:
-				sorts.add(direction(SortColumn.FILE_PATH, sb.getDirection()));
-				break;
-			case DATE_ADDED:
-				// TODO MODIFIED is not reallllly the same as ADDED, would be nice to add a column for ADDED.
-				sorts.add(direction(SortColumn.MODIFIED, sb.getDirection()));
-				break;
-			case DURATION:
-				sorts.add(direction(SortColumn.DURATION, sb.getDirection()));
-				break;
-			case FILE_SIZE:
-				sorts.add(direction(SortColumn.FILE_SIZE, sb.getDirection()));
-				break;
-			case LAST_PLAYED:
-				sorts.add(direction(SortColumn.LAST_PLAYED, sb.getDirection()));
-				break;
-			case PLAYBACK_STARTED:
-				sorts.add(direction(SortColumn.START_COUNT, sb.getDirection()));
-				break;
-			case PLAYBACK_COMPLETED:
-				sorts.add(direction(SortColumn.COMPLETE_COUNT, sb.getDirection()));
-				break;
-			default:
-				responseObserver.onError(Status.UNIMPLEMENTED.withDescription("Sort column not implemented.").asRuntimeException());
-				return;
-			}
-		}
-		if (sorts.size() < 1) sorts.add(SortColumn.FILE_PATH.asc());
+		final List<SortOrder> sorts = parseSorts(request, responseObserver);
+		if (sorts == null) return;
 
 		final String username = JwtInterceptor.USERNAME_CONTEXT_KEY.get();
 		final Set<BigInteger> authIds = this.contentTree.getAuthSet().authIdsForUser(username);
@@ -328,6 +288,36 @@ public class MediaImpl extends MediaGrpc.MediaImplBase {
 		responseObserver.onCompleted();
 	}
 
+	@Override
+	public void searchStream(final SearchRequest request, final StreamObserver<SearchReply> responseObserver) {
+		if (request.getMaxResults() < 0) {
+			responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("Invalid max_results.").asRuntimeException());
+			return;
+		}
+		final int maxResults = request.getMaxResults() == 0 ? -1 : request.getMaxResults();  // -1 means no limit.
+
+		final List<SortOrder> sorts = parseSorts(request, responseObserver);
+		if (sorts == null) return;
+
+		final String username = JwtInterceptor.USERNAME_CONTEXT_KEY.get();
+		final Set<BigInteger> authIds = this.contentTree.getAuthSet().authIdsForUser(username);
+
+		// IDs are only strings, so fetch them all up front and page through that list so pages do not shift as the DB changes.
+		final List<String> ids;
+		try {
+			ids = DbSearchParser.parseSearch(request.getQuery(), authIds, sorts).execute(this.mediaDb, maxResults);
+		}
+		catch (final SQLException e) {
+			responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("Failed to run query: " + e).asRuntimeException());
+			return;
+		}
+
+		new PagedReplyStreamer<>(PagedReplyStreamer.pageCount(ids.size(), this.streamPageSize), (page) -> {
+			final List<ContentItem> results = this.contentTree.getItemsForIds(pageOf(ids, page), username);
+			return SearchReply.newBuilder().addAllResult(itemsToRpcItems(results)).build();
+		}, (ServerCallStreamObserver<SearchReply>) responseObserver).start();
+	}
+
 	@Override
 	public void chooseMedia(final ChooseMediaRequest request, final StreamObserver<ChooseMediaReply> responseObserver) {
 		if (!SUPPORTED_CHOOSE_METHODS.contains(request.getMethod())) {
@@ -351,13 +341,7 @@ public class MediaImpl extends MediaGrpc.MediaImplBase {
 
 		final ChooseMediaReply.Builder ret = ChooseMediaReply.newBuilder();
 		try {
-			final Map<String, Playback> playbacks = this.mediaDb.getPlayback(ids);
-			for (final ContentItem i : results) {
-				ret.addItem(itemToRpcItem(
-						i,
-						playbacks.get(i.getId()),
-						this.mediaDb.getTags(i.getId(), false, false)));
-			}
+			ret.addAllItem(itemsToRpcItems(results));
 		}
 		catch (final SQLException e) {
 			responseObserver.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
@@ -559,6 +543,65 @@ public class MediaImpl extends MediaGrpc.MediaImplBase {
 		return item;
 	}
 
+	/**
+	 * Returns null if the request was rejected.
+	 */
+	private static List<SortOrder> parseSorts(final SearchRequest request, final StreamObserver<SearchReply> responseObserver) {
+		final List<SortOrder> sorts = new ArrayList<>();
+		for (final SortBy sb : request.getSortByList()) {
+			switch (sb.getSortField()) {
+			case UNSPECIFIED_ORDER:
+			case FILE_PATH:
+				sorts.add(direction(SortColumn.FILE_PATH, sb.getDirection()));
+				break;
+			case DATE_ADDED:
+				// TODO MODIFIED is not reallllly the same as ADDED, would be nice to add a column for ADDED.
+				sorts.add(direction(SortColumn.MODIFIED, sb.getDirection()));
+				break;
+			case DURATION:
+				sorts.add(direction(SortColumn.DURATION, sb.getDirection()));
+				break;
+			case FILE_SIZE:
+				sorts.add(direction(SortColumn.FILE_SIZE, sb.getDirection()));
+				break;
+			case LAST_PLAYED:
+				sorts.add(direction(SortColumn.LAST_PLAYED, sb.getDirection()));
+				break;
+			case PLAYBACK_STARTED:
+				sorts.add(direction(SortColumn.START_COUNT, sb.getDirection()));
+				break;
+			case PLAYBACK_COMPLETED:
+				sorts.add(direction(SortColumn.COMPLETE_COUNT, sb.getDirection()));
+				break;
+			default:
+				responseObserver.onError(Status.UNIMPLEMENTED.withDescription("Sort column not implemented.").asRuntimeException());
+				return null;
+			}
+		}
+		if (sorts.size() < 1) sorts.add(SortColumn.FILE_PATH.asc());
+		return sorts;
+	}
+
+	/**
+	 * Reads tags and playback for all items in one go.
+	 */
+	private List<MediaItem> itemsToRpcItems(final List<ContentItem> items) throws SQLException {
+		final List<String> ids = items.stream().map(i -> i.getId()).collect(Collectors.toList());
+		final Map<String, Playback> playbacks = this.mediaDb.getPlayback(ids);
+		final Map<String, Collection<Tag>> tags = this.mediaDb.getTags(ids, false, false);
+		final List<MediaItem> ret = new ArrayList<>(items.size());
+		for (final ContentItem i : items) {
+			ret.add(itemToRpcItem(i, playbacks.get(i.getId()), tags.get(i.getId())));
+		}
+		return ret;
+	}
+
+	private <T> List<T> pageOf(final List<T> list, final int page) {
+		final int from = page * this.streamPageSize;
+		if (from >= list.size()) return Collections.emptyList();
+		return list.subList(from, Math.min(from + this.streamPageSize, list.size()));
+	}
+
 	private static SortOrder direction(final SortColumn order, final SortDirection direction) {
 		switch (direction) {
 		case UNSPECIFIED_DIRECTION:
@@ -0,0 +1,86 @@
+package mediatoad.rpc.server;
+
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+
+/**
+ * Sends a reply per page for as long as the call is ready, then carries on from the call's onReady handler,
+ * so each page is only built once the client is ready for it and a slow client does not fill the server's memory.
+ */
+class PagedReplyStreamer<T> implements Runnable {
+
+	interface PageMaker<T> {
+		T makePage(int pageIndex) throws SQLException;
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(PagedReplyStreamer.class);
+
+	private final int pageCount;
+	private final PageMaker<T> pageMaker;
+	private final ServerCallStreamObserver<T> observer;
+
+	// All guarded by this.
+	private int nextPage = 0;
+	private boolean finished = false;
+
+	PagedReplyStreamer(final int pageCount, final PageMaker<T> pageMaker, final ServerCallStreamObserver<T> observer) {
+		this.pageCount = pageCount;
+		this.pageMaker = pageMaker;
+		this.observer = observer;
+	}
+
+	void start() {
+		this.observer.setOnCancelHandler(this::cancelled);
+		this.observer.setOnReadyHandler(this);
+		run();
+	}
+
+	/**
+	 * Called once to start and then by the call every time it becomes ready again.
+	 */
+	@Override
+	public synchronized void run() {
+		if (this.finished) return;
+		try {
+			while (this.observer.isReady()) {
+				if (this.nextPage >= this.pageCount) {
+					this.finished = true;
+					this.observer.onCompleted();
+					return;
+				}
+				final T page = this.pageMaker.makePage(this.nextPage);
+				this.nextPage += 1;
+				this.observer.onNext(page);
+			}
+		}
+		catch (final SQLException e) {
+			LOG.warn("Failed to make page {}: {}", this.nextPage, e.toString());
+			failed(e);
+		}
+		catch (final RuntimeException e) {
+			// eg the call being cancelled between isReady() and onNext().
+			LOG.warn("Failed to send page {}.", this.nextPage, e);
+			failed(e);
+		}
+	}
+
+	private void failed(final Exception e) {
+		this.finished = true;
+		if (this.observer.isCancelled()) return;
+		this.observer.onError(Status.INTERNAL.withDescription(e.getMessage()).asRuntimeException());
+	}
+
+	private synchronized void cancelled() {
+		this.finished = true;
+	}
+
+	static int pageCount(final int itemCount, final int pageSize) {
+		return (itemCount + pageSize - 1) / pageSize;
+	}
+
+}
@@ -0,0 +1,156 @@
+package mediatoad.rpc.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.protobuf.UnsafeByteOperations;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.prometheus.metrics.core.metrics.Counter;
+import mediatoad.media.ContentItem;
+import mediatoad.rpc.MediaToadProto.Range;
+import mediatoad.rpc.MediaToadProto.ReadMediaReply;
+
+/**
+ * Sends a file, or ranges of it, as ReadMediaReply chunks for as long as the call is ready,
+ * then carries on from the call's onReady handler, so no thread waits on a slow client.
+ * Each chunk is read from the FileChannel straight into the buffer that backs the message's ByteString.
+ */
+class ReadMediaStreamer implements Runnable {
+
+	static final int MESSAGE_SIZE_BYTES = 256 * 1024;
+
+	private static final Counter CHUNKS_SENT_METRIC = Counter.builder()
+			.name("rpc_chunks_sent")
+			.help("count of chunks of media file that have been written to the grpc output buffer.")
+			.register();
+	private static final Logger LOG = LoggerFactory.getLogger(ReadMediaStreamer.class);
+
+	private final ContentItem item;
+	private final long fileLength;
+	// Empty means whole file.
+	private final List<Range> ranges;
+	private final FileChannel channel;
+	private final ServerCallStreamObserver<ReadMediaReply> observer;
+
+	// All guarded by this.
+	private int rangeIndex = 0;
+	private long position;
+	private long end;  // exclusive.
+	private boolean first = true;
+	private boolean finished = false;
+
+	/**
+	 * @param ranges Must already be checked to be inside the file.
+	 */
+	ReadMediaStreamer(final ContentItem item, final long fileLength, final List<Range> ranges, final FileChannel channel, final ServerCallStreamObserver<ReadMediaReply> observer) {
+		this.item = item;
+		this.fileLength = fileLength;
+		this.ranges = ranges;
+		this.channel = channel;
+		this.observer = observer;
+		if (ranges.isEmpty()) {
+			this.position = 0L;
+			this.end = fileLength;
+		}
+		else {
+			this.position = ranges.get(0).getFirst();
+			this.end = ranges.get(0).getLast() + 1;
+		}
+	}
+
+	void start() {
+		this.observer.setOnCancelHandler(this::cancelled);
+		this.observer.setOnReadyHandler(this);
+		run();
+	}
+
+	/**
+	 * Called once to start and then by the call every time it becomes ready again.
+	 */
+	@Override
+	public synchronized void run() {
+		if (this.finished) return;
+		try {
+			while (this.observer.isReady()) {
+				if (this.observer.isCancelled()) {
+					finish();
+					return;
+				}
+				sendChunk();
+				if (!moveToNextChunk()) {
+					this.observer.onCompleted();
+					finish();
+					return;
+				}
+			}
+		}
+		catch (final IOException e) {
+			LOG.warn("Failed to read {}: {}", this.item.getFile(), e.toString());
+			this.observer.onError(Status.INTERNAL.withDescription("File error.").asRuntimeException());
+			finish();
+		}
+		catch (final RuntimeException e) {
+			finish();
+			throw e;
+		}
+	}
+
+	private void sendChunk() throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(this.end - this.position, MESSAGE_SIZE_BYTES));
+		while (buffer.hasRemaining()) {
+			if (this.channel.read(buffer, this.position + buffer.position()) < 0) {
+				throw new IOException("File shorter than expected: " + this.item.getFile());
+			}
+		}
+		buffer.flip();
+
+		// Safe because the buffer is not touched again once wrapped.
+		final ReadMediaReply.Builder builder = ReadMediaReply.newBuilder().setContent(UnsafeByteOperations.unsafeWrap(buffer));
+		if (this.first) {
+			builder.setTotalFileLength(this.fileLength);
+			builder.setMimeType(this.item.getFormat().getMime());
+			this.first = false;
+		}
+		if (!this.ranges.isEmpty()) builder.setRangeIndex(this.rangeIndex);
+		this.position += buffer.limit();
+
+		this.observer.onNext(builder.build());
+		CHUNKS_SENT_METRIC.inc();
+	}
+
+	/**
+	 * Returns false if there is nothing left to send.
+	 */
+	private boolean moveToNextChunk() {
+		if (this.position < this.end) return true;
+		if (this.rangeIndex + 1 >= this.ranges.size()) return false;
+		this.rangeIndex += 1;
+		final Range r = this.ranges.get(this.rangeIndex);
+		this.position = r.getFirst();
+		this.end = r.getLast() + 1;
+		return true;
+	}
+
+	private synchronized void cancelled() {
+		finish();
+	}
+
+	private void finish() {
+		if (this.finished) return;
+		this.finished = true;
+		try {
+			this.channel.close();
+		}
+		catch (final IOException e) {
+			LOG.warn("Failed to close {}: {}", this.item.getFile(), e.toString());
+		}
+	}
+
+}
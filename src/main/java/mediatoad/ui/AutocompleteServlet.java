@@ -1,11 +1,13 @@
 package mediatoad.ui;
 
 import java.io.IOException;
+import java.math.BigInteger;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -22,17 +24,20 @@ import mediatoad.auth.ReqAttr;
 import mediatoad.db.TagAutocompleter;
 import mediatoad.db.TagFrequency;
 import mediatoad.db.search.DbSearchSyntax;
+import mediatoad.media.ContentTree;
 
 public class AutocompleteServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 7357804711012837077L;
 
 	private final TagAutocompleter tagAutocompleter;
+	private final ContentTree contentTree;
 	private final DefaultAccess defaultAccess;
 	private final Gson gson;
 
-	public AutocompleteServlet(final TagAutocompleter tagAutocompleter, final DefaultAccess defaultAccess) {
+	public AutocompleteServlet(final TagAutocompleter tagAutocompleter, final ContentTree contentTree, final DefaultAccess defaultAccess) {
 		this.tagAutocompleter = tagAutocompleter;
+		this.contentTree = contentTree;
 		this.defaultAccess = defaultAccess;
 		this.gson = new GsonBuilder().create();
 	}
@@ -72,12 +77,16 @@ public class AutocompleteServlet extends HttpServlet {
 		final String fragment = ServletCommon.readRequiredParam(req, resp, "fragment", 1);
 		if (fragment == null) return;
 
+		final Set<BigInteger> authIds = this.contentTree.getAuthSet().authIdsForUser(username);
+		final String etag = ETags.make(mode, fragment, username, authIds, this.tagAutocompleter.getVersion());
+		if (ETags.respondIfNotModified(req, resp, etag)) return;
+
 		final Collection<TagFrequency> tags;
 		if ("addtag".equalsIgnoreCase(mode)) {
-			tags = mergedPrefixAndFragmentSuggestions(fragment);
+			tags = mergedPrefixAndFragmentSuggestions(fragment, authIds);
 		}
 		else if ("search".equalsIgnoreCase(mode)) {
-			tags = forSearch(fragment);
+			tags = forSearch(fragment, authIds);
 		}
 		else {
 			ServletCommon.returnStatus(resp, HttpServletResponse.SC_BAD_REQUEST, "Invalid mode.");
@@ -88,27 +97,27 @@ public class AutocompleteServlet extends HttpServlet {
 		this.gson.toJson(tags, resp.getWriter());
 	}
 
-	private Collection<TagFrequency> mergedPrefixAndFragmentSuggestions(final String fragment) {
+	private Collection<TagFrequency> mergedPrefixAndFragmentSuggestions(final String fragment, final Set<BigInteger> authIds) {
 		final List<TagFrequency> ret = new ArrayList<>();
-		ret.addAll(this.tagAutocompleter.suggestTags(fragment));
-		ret.addAll(this.tagAutocompleter.suggestFragments(fragment));
+		ret.addAll(this.tagAutocompleter.suggestTags(fragment, authIds));
+		ret.addAll(this.tagAutocompleter.suggestFragments(fragment, authIds));
 		ret.sort(TagFrequency.Order.COUNT_DESC);
 		return new LinkedHashSet<>(ret);
 	}
 
-	private List<TagFrequency> forSearch(final String fragment) {
+	private List<TagFrequency> forSearch(final String fragment, final Set<BigInteger> authIds) {
 		final String toMatch = DbSearchSyntax.removeMatchOperator(fragment);
 		if (DbSearchSyntax.isTagMatchExact(fragment)) {
-			return makeSearch(this.tagAutocompleter.suggestTags(toMatch), "");
+			return makeSearch(this.tagAutocompleter.suggestTags(toMatch, authIds), "");
 		}
 		else if (DbSearchSyntax.isTagNotMatchExact(fragment)) {
-			return makeSearch(this.tagAutocompleter.suggestTags(toMatch), "-");
+			return makeSearch(this.tagAutocompleter.suggestTags(toMatch, authIds), "-");
 		}
 		else if (DbSearchSyntax.isTagMatchPartial(fragment)) {
-			return makeSearch(mergedPrefixAndFragmentSuggestions(toMatch), "");
+			return makeSearch(mergedPrefixAndFragmentSuggestions(toMatch, authIds), "");
 		}
 		else if (DbSearchSyntax.isTagNotMatchPartial(fragment)) {
-			return makeSearch(mergedPrefixAndFragmentSuggestions(toMatch), "-");
+			return makeSearch(mergedPrefixAndFragmentSuggestions(toMatch, authIds), "-");
 		}
 		throw new IllegalStateException("Fragment does not start with matches: " + fragment);
 	}
@@ -11,6 +11,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -129,6 +130,7 @@ public class DirServlet extends HttpServlet {
 
 		final boolean isRoot = ContentGroup.ROOT.getId().equals(node.getId());
 		final ResultGroupScope favouritesScope;
+		final List<ContentNode> favourites;
 		final boolean favourite;
 		final boolean sortModified;
 		final boolean videoThumbs;
@@ -136,7 +138,7 @@ public class DirServlet extends HttpServlet {
 			genTimer.startSection("favs");
 
 			favouritesScope = new ResultGroupScope("Favourites", null, null, pageScope);
-			final List<ContentNode> favourites = readFavourites(username);
+			favourites = readFavourites(username);
 			appendNodes(favouritesScope, favourites);
 
 			favourite = false;
@@ -152,9 +154,32 @@ public class DirServlet extends HttpServlet {
 			videoThumbs = Boolean.parseBoolean(dirPrefs.get(PREF_KEY_VIDEO_THUMBS));
 
 			favouritesScope = null;
+			favourites = null;
 			pageScope.setUpLinkPath(node.getParentId());
 		}
 
+		genTimer.startSection("tags");
+		final List<TagFrequency> topTags = readTopTags(node, username);
+
+		// The root page has a live debug footer for logged in users, so is always rendered.
+		if (!isRoot || StringUtils.isBlank(username)) {
+			genTimer.startSection("etag");
+			final String etag = ETags.make(
+					node.getId(),
+					node.getContentVersion(),
+					username,
+					req.getQueryString(),
+					pathPrefix,
+					ReqAttr.ALLOW_EDIT_DIR_PREFS.get(req),
+					ReqAttr.ALLOW_REMOTE_SEARCH.get(req),
+					favourites != null ? favourites.stream().map(ContentNode::getId).collect(Collectors.toList()) : null,
+					favourite,
+					sortModified,
+					videoThumbs,
+					topTags);
+			if (ETags.respondIfNotModified(req, resp, etag)) return;
+		}
+
 		genTimer.startSection("auth");
 		final List<ContentNode> nodesUserHasAuth = node.nodesUserHasAuth(username);
 		final List<ContentItem> itemsUserHasAuth = node.itemsUserHasAuth(username);
@@ -206,8 +231,7 @@ public class DirServlet extends HttpServlet {
 			resultScope.addContentItem(i, linkQuery, this.thumbnailGenerator, videoThumbs);
 		}
 
-		genTimer.startSection("tags");
-		maybeAppendTopTags(resultScope, node, username);
+		if (topTags != null) addTagFrequenciesToScope(resultScope, node, topTags);
 
 		// TODO this should probable go somewhere more generic, like IndexServlet.
 		if (StringUtils.isNotBlank(username)) {
@@ -261,17 +285,19 @@ public class DirServlet extends HttpServlet {
 		}
 	}
 
-	private void maybeAppendTopTags(final ResultGroupScope resultScope, final ContentNode node, final String username) throws IOException {
-		if (this.dbCache == null) return;
+	/**
+	 * Returns null if this node does not have top tags.
+	 */
+	private List<TagFrequency> readTopTags(final ContentNode node, final String username) throws IOException {
+		if (this.dbCache == null) return null;
 
 		final File dir = node.getFile();
 		final String pathPrefix = dir != null ? dir.getAbsolutePath() : null;
-		if (pathPrefix == null && !ContentGroup.ROOT.getId().equals(node.getId())) return;
+		if (pathPrefix == null && !ContentGroup.ROOT.getId().equals(node.getId())) return null;
 
 		final Set<BigInteger> authIds = this.contentTree.getAuthSet().authIdsForUser(username);
 		try {
-			final List<TagFrequency> topTags = this.dbCache.dirTopTags(authIds, pathPrefix);
-			addTagFrequenciesToScope(resultScope, node, topTags);
+			return this.dbCache.dirTopTags(authIds, pathPrefix);
 		}
 		catch (final SQLException e) {
 			throw new IOException(e);
@@ -0,0 +1,87 @@
+package mediatoad.ui;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
+import io.prometheus.metrics.core.metrics.Counter;
+
+/**
+ * Validators for generated pages, so that a client that already has the current version of a page
+ * can be answered before anything is rendered.
+ * Tags are weak since the same page may be sent compressed or not.
+ */
+public final class ETags {
+
+	// Changes every restart so pages rendered by a different version of the templates are never reused.
+	private static final String INSTANCE_SALT = Long.toHexString(System.nanoTime()) + Long.toHexString(System.currentTimeMillis());
+
+	private static final Counter REQUESTS_METRIC = Counter.builder()
+			.name("etag_requests")
+			.labelNames("result")
+			.help("count of requests for generated pages that have an ETag, grouped by whether the client already had the current version.")
+			.register();
+	private static final CounterDataPoint MATCH = REQUESTS_METRIC.labelValues("match");
+	private static final CounterDataPoint MISS = REQUESTS_METRIC.labelValues("miss");
+
+	private ETags() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * parts must include everything the response is generated from, eg IDs, versions, username and params.
+	 */
+	public static String make(final Object... parts) {
+		final Hasher h = Hashing.murmur3_128().newHasher();
+		h.putString(INSTANCE_SALT, StandardCharsets.UTF_8);
+		for (final Object part : parts) {
+			h.putByte((byte) 0);
+			h.putString(String.valueOf(part), StandardCharsets.UTF_8);
+		}
+		return "W/\"" + h.hash() + "\"";
+	}
+
+	/**
+	 * Sets the ETag header, and if the client already has this version responds with 304 Not Modified.
+	 * Only for GET and HEAD, other methods are left alone as they have no not modified response.
+	 * Pages vary by user so may only be cached privately, and must be revalidated every time.
+	 * @return true if the response has been sent and nothing else should be written.
+	 */
+	public static boolean respondIfNotModified(final HttpServletRequest req, final HttpServletResponse resp, final String etag) {
+		if (!"GET".equals(req.getMethod()) && !"HEAD".equals(req.getMethod())) return false;
+
+		resp.setHeader("ETag", etag);
+		resp.setHeader("Cache-Control", "private, no-cache");
+
+		if (!matches(req.getHeader("If-None-Match"), etag)) {
+			MISS.inc();
+			return false;
+		}
+		MATCH.inc();
+		resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		return true;
+	}
+
+	/**
+	 * If-None-Match uses weak comparison, so the W/ prefix is ignored.
+	 */
+	static boolean matches(final String ifNoneMatch, final String etag) {
+		if (ifNoneMatch == null) return false;
+		final String opaque = removeWeakPrefix(etag);
+		for (final String candidate : ifNoneMatch.split(",")) {
+			final String c = candidate.trim();
+			if ("*".equals(c) || removeWeakPrefix(c).equals(opaque)) return true;
+		}
+		return false;
+	}
+
+	private static String removeWeakPrefix(final String etag) {
+		return etag.startsWith("W/") ? etag.substring(2) : etag;
+	}
+
+}
@@ -34,7 +34,6 @@ import mediatoad.auth.ReqAttr;
 import mediatoad.db.FileData;
 import mediatoad.db.MediaDb;
 import mediatoad.db.Tag;
-import mediatoad.db.TagAutocompleter;
 import mediatoad.db.WritableMediaDb;
 import mediatoad.db.search.DbSearchParser;
 import mediatoad.db.search.DbSearchSyntax;
@@ -84,13 +83,11 @@ public class ItemServlet extends HttpServlet {
 	private final ContentTree contentTree;
 	private final MediaDb mediaDb;
 	private final Supplier<Mustache> pageTemplate;
-	private final TagAutocompleter tagAutocompleter;
 
-	public ItemServlet(final ServletCommon servletCommon, final ContentTree contentTree, final MediaDb mediaDb, final TagAutocompleter tagAutocompleter) {
+	public ItemServlet(final ServletCommon servletCommon, final ContentTree contentTree, final MediaDb mediaDb) {
 		this.servletCommon = servletCommon;
 		this.contentTree = contentTree;
 		this.mediaDb = mediaDb;
-		this.tagAutocompleter = tagAutocompleter;
 		this.pageTemplate = servletCommon.mustacheTemplate("item.html");
 	}
 
@@ -439,9 +436,6 @@ public class ItemServlet extends HttpServlet {
 			LOG.info("{} added tag to {}: {}", username, item.getId(), tag);
 			resp.addHeader("Location", item.getId() + ServletCommon.queryWithParam(req, "autofocus=addtag"));
 			ServletCommon.returnStatusWithoutReset(resp, HttpServletResponse.SC_SEE_OTHER, "Tag added.");
-
-			// TODO this should probably be integrated somewhere more central so that other tag changes are also taken into account.
-			this.tagAutocompleter.addOrIncrementTag(tag);
 		}
 		else if ("rmtags".equalsIgnoreCase(req.getParameter("action"))) {
 			final String[] b64tagsandclss = ServletCommon.readRequiredParams(req, resp, "b64tag", 1);
@@ -471,11 +465,6 @@ public class ItemServlet extends HttpServlet {
 			LOG.info("{} rm tags from {}: {}", username, item.getId(), Arrays.toString(b64tagsandclss));
 			resp.addHeader("Location", item.getId() + ServletCommon.query(req));
 			ServletCommon.returnStatusWithoutReset(resp, HttpServletResponse.SC_SEE_OTHER, "Tags removed.");
-
-			// TODO this should probably be integrated somewhere more central so that other tag changes are also taken into account.
-			for (final String tag : tags) {
-				this.tagAutocompleter.decrementTag(tag);
-			}
 		}
 		else {
 			ServletCommon.returnStatus(resp, HttpServletResponse.SC_BAD_REQUEST, "Invalid action.");
@@ -0,0 +1,307 @@
+package mediatoad.ui;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jupnp.UpnpService;
+import org.jupnp.model.ModelUtil;
+import org.jupnp.model.action.ActionInvocation;
+import org.jupnp.model.message.UpnpResponse;
+import org.jupnp.model.meta.RemoteDevice;
+import org.jupnp.model.meta.RemoteService;
+import org.jupnp.model.meta.Service;
+import org.jupnp.model.types.ServiceType;
+import org.jupnp.support.contentdirectory.callback.Search;
+import org.jupnp.support.model.DIDLContent;
+import org.jupnp.support.model.Res;
+import org.jupnp.support.model.SortCriterion;
+import org.jupnp.support.model.item.Item;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import io.grpc.Status;
+import io.prometheus.metrics.core.metrics.Counter;
+import io.prometheus.metrics.core.metrics.Histogram;
+import io.prometheus.metrics.model.snapshots.Unit;
+import mediatoad.C;
+import mediatoad.rpc.MediaToadProto.MediaItem;
+import mediatoad.rpc.MediaToadProto.SearchReply;
+import mediatoad.rpc.MediaToadProto.SearchRequest;
+import mediatoad.rpc.client.RemoteInstance;
+import mediatoad.rpc.client.RpcClient;
+import mediatoad.ui.templates.PageScope;
+import mediatoad.ui.templates.ResultGroupScope;
+import mediatoad.util.FileHelper;
+
+/**
+ * Searches all remote content directories and remote instances at the same time.
+ * Every remote shares one deadline, so waiting is bounded by the slowest remote that answers in time
+ * rather than the sum of them all, and a remote that does not answer in time just gets an error group.
+ */
+class RemoteSearch {
+
+	static final long DEADLINE_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+	private static final String ROOT_CONTENT_ID = "0"; // Root id of '0' is in the spec.
+	private static final ServiceType CONTENT_DIRECTORY_TYPE = ServiceType.valueOf("urn:schemas-upnp-org:service:ContentDirectory:1");
+	private static final String KIND_UPNP = "upnp";
+	private static final String KIND_RPC = "rpc";
+
+	private static final Histogram DURATION_METRIC = Histogram.builder()
+			.name("remote_search_duration")
+			.unit(Unit.SECONDS)
+			.labelNames("kind", "remote")
+			.help("Time for a remote to answer a search, including answers that were errors.")
+			.register();
+	private static final Counter ERRORS_METRIC = Counter.builder()
+			.name("remote_search_errors")
+			.labelNames("kind", "remote", "reason")
+			.help("count of remote searches that failed or did not answer before the deadline.")
+			.register();
+
+	private static final Logger LOG = LoggerFactory.getLogger(RemoteSearch.class);
+
+	private final PageScope pageScope;
+	private final long deadlineMillis;
+	private final long deadlineNanos;
+	private final List<Remote> remotes = new ArrayList<>();
+	// Each remote is added once, either when it answers or when it times out.
+	private final BlockingQueue<Remote> settled = new LinkedBlockingQueue<>();
+	// Only used by the thread that is reading the results.
+	private int unreturned = 0;
+
+	RemoteSearch(final PageScope pageScope) {
+		this(pageScope, DEADLINE_MILLIS);
+	}
+
+	RemoteSearch(final PageScope pageScope, final long deadlineMillis) {
+		this.pageScope = pageScope;
+		this.deadlineMillis = deadlineMillis;
+		this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+	}
+
+	void searchContentDirectories(final UpnpService upnpService, final String searchCriteria, final int maxResults) {
+		for (final RemoteDevice rd : upnpService.getRegistry().getRemoteDevices()) {
+			for (final RemoteService cd : rd.findServices(CONTENT_DIRECTORY_TYPE)) {
+				final CDSearch cds = new CDSearch(cd, ROOT_CONTENT_ID, searchCriteria, Search.CAPS_WILDCARD, 0, (long) maxResults);
+				add(cds.remote);
+				cds.remote.future = upnpService.getControlPoint().execute(cds);
+			}
+		}
+	}
+
+	void searchInstances(final RpcClient rpcClient, final String query) {
+		for (final RemoteInstance ri : rpcClient.getRemoteInstances()) {
+			// TODO set search sort and max_results params!
+			final SearchRequest req = SearchRequest.newBuilder().setQuery(query).build();
+			final ListenableFuture<SearchReply> f = rpcClient.getMediaFutureStub(ri.getId())
+					.withDeadlineAfter(this.deadlineMillis, TimeUnit.MILLISECONDS)
+					.search(req);
+			final Remote remote = new Remote(KIND_RPC, ri.getId(), String.valueOf(ri.getTarget()));
+			remote.future = f;
+			add(remote);
+			Futures.addCallback(f, new FutureCallback<SearchReply>() {
+				@Override
+				public void onSuccess(final SearchReply rep) {
+					remote.answered(rpcResultGroup(remote, ri, rep), false);
+				}
+
+				@Override
+				public void onFailure(final Throwable t) {
+					remote.answered(errorGroup(remote, "Failed to search: " + Status.fromThrowable(t)), true);
+				}
+			}, MoreExecutors.directExecutor());
+		}
+	}
+
+	private void add(final Remote remote) {
+		this.remotes.add(remote);
+		this.unreturned += 1;
+	}
+
+	/**
+	 * Waits for every remote to answer or for the deadline.
+	 * @return one group per remote, in the order the searches were started.
+	 */
+	List<ResultGroupScope> awaitAll() throws InterruptedException {
+		while (nextGroup() != null) {
+			// Wait for the rest.
+		}
+		final List<ResultGroupScope> ret = new ArrayList<>();
+		for (final Remote r : this.remotes) {
+			ret.add(r.group);
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns one group per remote in the order they answer, then error groups for any still waiting at the deadline.
+	 * beforeWaiting is called every time nothing is ready yet, so what has been written so far can be sent to the client.
+	 */
+	Iterator<ResultGroupScope> asTheyArrive(final Flushable beforeWaiting) {
+		return new AbstractIterator<ResultGroupScope>() {
+			@Override
+			protected ResultGroupScope computeNext() {
+				try {
+					if (RemoteSearch.this.settled.isEmpty()) beforeWaiting.flush();
+					final ResultGroupScope group = nextGroup();
+					return group != null ? group : endOfData();
+				}
+				catch (final IOException e) {
+					LOG.debug("Client went away waiting for remote search results: {}", e.toString());
+					cancelAll();
+					return endOfData();
+				}
+				catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					cancelAll();
+					return endOfData();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns null once there is a group for every remote.
+	 */
+	private ResultGroupScope nextGroup() throws InterruptedException {
+		if (this.unreturned < 1) return null;
+		Remote r = this.settled.poll(Math.max(0L, this.deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+		if (r == null) {
+			for (final Remote p : this.remotes) {
+				p.timedOut();
+			}
+			r = this.settled.take();  // Every remote is settled now.
+		}
+		this.unreturned -= 1;
+		return r.group;
+	}
+
+	private void cancelAll() {
+		for (final Remote r : this.remotes) {
+			if (r.settle()) r.cancel();
+		}
+	}
+
+	private ResultGroupScope errorGroup(final Remote remote, final String msg) {
+		return new ResultGroupScope(remote.title, msg, null, this.pageScope);
+	}
+
+	private ResultGroupScope rpcResultGroup(final Remote remote, final RemoteInstance ri, final SearchReply rep) {
+		final ResultGroupScope resultGroup = new ResultGroupScope(remote.title + " items: " + rep.getResultCount(), null, null, this.pageScope);
+		for (final MediaItem i : rep.getResultList()) {
+			final String path = C.REMOTE_CONTENT_PATH_PREFIX + ri.getId() + "/" + i.getId();
+			final long fileLength = i.getFileLength();
+			final long durationSeconds = TimeUnit.MILLISECONDS.toSeconds(i.getDurationMillis());
+			resultGroup.addRemoteItem(
+					path,
+					i.getTitle(),
+					fileLength > 0 ? FileHelper.readableFileSize(fileLength) : null,
+					durationSeconds > 0 ? ModelUtil.toTimeString(durationSeconds) : null);
+		}
+		return resultGroup;
+	}
+
+	private ResultGroupScope upnpResultGroup(final Remote remote, final DIDLContent didl) {
+		final List<Item> items = didl.getItems();
+		final ResultGroupScope resultGroup = new ResultGroupScope(remote.title + " items: " + items.size(), null, null, this.pageScope);
+		for (final Item item : items) {
+			final Res res = biggestRes(item.getResources());
+			if (res == null) continue;
+
+			final String size = res.getSize() != null ? FileHelper.readableFileSize(res.getSize()) : null;
+			resultGroup.addRemoteItem(res.getValue(), item.getTitle(), size, res.getDuration());
+		}
+		return resultGroup;
+	}
+
+	private static Res biggestRes(final List<Res> resources) {
+		Res ret = null;
+		for (final Res r : resources) {
+			if (ret == null || r.getSize() > ret.getSize()) ret = r;
+		}
+		return ret;
+	}
+
+	class Remote {
+		final String kind;
+		final String name;
+		final String title;
+		final long startNanos = System.nanoTime();
+		private final AtomicBoolean settled = new AtomicBoolean(false);
+		volatile Future<?> future;
+		volatile ResultGroupScope group;
+
+		Remote(final String kind, final String name, final String title) {
+			this.kind = kind;
+			this.name = name;
+			this.title = title;
+		}
+
+		boolean settle() {
+			return this.settled.compareAndSet(false, true);
+		}
+
+		void answered(final ResultGroupScope answer, final boolean isError) {
+			if (!settle()) return;  // Already timed out.
+			DURATION_METRIC.labelValues(this.kind, this.name).observe(Unit.nanosToSeconds(System.nanoTime() - this.startNanos));
+			if (isError) ERRORS_METRIC.labelValues(this.kind, this.name, "failed").inc();
+			this.group = answer;
+			RemoteSearch.this.settled.add(this);
+		}
+
+		void timedOut() {
+			if (!settle()) return;
+			ERRORS_METRIC.labelValues(this.kind, this.name, "timeout").inc();
+			this.group = errorGroup(this, "No answer within " + RemoteSearch.this.deadlineMillis + "ms.");
+			cancel();
+			RemoteSearch.this.settled.add(this);
+		}
+
+		void cancel() {
+			final Future<?> f = this.future;
+			if (f != null) f.cancel(true);
+		}
+	}
+
+	private class CDSearch extends Search {
+
+		final Remote remote;
+
+		public CDSearch(final Service<?, ?> service, final String containerId, final String searchCriteria, final String filter, final long firstResult, final Long maxResults, final SortCriterion... orderBy) {
+			super(service, containerId, searchCriteria, filter, firstResult, maxResults, orderBy);
+			final String friendlyName = service.getDevice().getDetails().getFriendlyName();
+			this.remote = new Remote(KIND_UPNP, friendlyName, friendlyName);
+		}
+
+		@Override
+		public void failure(final ActionInvocation invocation, final UpnpResponse operation, final String defaultMsg) {
+			this.remote.answered(errorGroup(this.remote, "Failed to search content directory: " + defaultMsg), true);
+		}
+
+		@Override
+		public void received(final ActionInvocation<?> invocation, final DIDLContent didl) {
+			this.remote.answered(upnpResultGroup(this.remote, didl), false);
+		}
+
+		@Override
+		public void updateStatus(final Search.Status status) {
+			// Unused.
+		}
+	}
+
+}
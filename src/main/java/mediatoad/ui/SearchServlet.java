@@ -2,20 +2,10 @@ package mediatoad.ui;
 
 import java.io.IOException;
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
 import javax.servlet.ServletException;
@@ -26,25 +16,11 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.StringEscapeUtils;
 import org.jupnp.UpnpService;
-import org.jupnp.model.ModelUtil;
-import org.jupnp.model.action.ActionInvocation;
-import org.jupnp.model.message.UpnpResponse;
-import org.jupnp.model.meta.RemoteDevice;
-import org.jupnp.model.meta.RemoteService;
-import org.jupnp.model.meta.Service;
-import org.jupnp.model.types.ServiceType;
-import org.jupnp.support.contentdirectory.callback.Search;
-import org.jupnp.support.model.DIDLContent;
-import org.jupnp.support.model.Res;
-import org.jupnp.support.model.SortCriterion;
-import org.jupnp.support.model.item.Item;
 
 import com.github.mustachejava.Mustache;
 import com.google.common.base.Strings;
 import com.google.common.net.UrlEscapers;
-import com.google.common.util.concurrent.ListenableFuture;
 
-import mediatoad.C;
 import mediatoad.auth.ReqAttr;
 import mediatoad.db.DbCache;
 import mediatoad.db.MediaDb;
@@ -61,17 +37,11 @@ import mediatoad.media.ContentNode;
 import mediatoad.media.ContentServlet;
 import mediatoad.media.ContentTree;
 import mediatoad.media.ThumbnailGenerator;
-import mediatoad.rpc.MediaGrpc.MediaFutureStub;
-import mediatoad.rpc.MediaToadProto.MediaItem;
-import mediatoad.rpc.MediaToadProto.SearchReply;
-import mediatoad.rpc.MediaToadProto.SearchRequest;
-import mediatoad.rpc.client.RemoteInstance;
 import mediatoad.rpc.client.RpcClient;
 import mediatoad.ui.RequestPaths.SearchPath;
 import mediatoad.ui.templates.PageScope;
 import mediatoad.ui.templates.ResultGroupScope;
 import mediatoad.ui.templates.SearchResultsScope;
-import mediatoad.util.FileHelper;
 import mediatoad.util.GenTimer;
 
 public class SearchServlet extends HttpServlet {
@@ -82,11 +52,10 @@ public class SearchServlet extends HttpServlet {
 	static final String PARAM_PAGE_OFFSET = "offset";
 	static final String PARAM_REMOTE = "remote";
 	static final String PARAM_FORMAT = "format";
+	static final String REMOTE_PROGRESSIVE = "progressive";
 	static final SortOrder RESULT_SORT_ORDER = SortColumn.MODIFIED.desc();
 
 	static final int MAX_RESULTS = 500;
-	private static final String ROOT_CONTENT_ID = "0"; // Root id of '0' is in the spec.
-	private static final ServiceType CONTENT_DIRECTORY_TYPE = ServiceType.valueOf("urn:schemas-upnp-org:service:ContentDirectory:1");
 
 	private static final String FORMAT_HTML = "html";
 	private static final String FORMAT_TXT = "txt";
@@ -106,7 +75,7 @@ public class SearchServlet extends HttpServlet {
 	private final Supplier<Mustache> resultsTemplateTxt;
 
 	public SearchServlet(final ServletCommon servletCommon, final ContentTree contentTree, ContentServlet contentServlet, final MediaDb mediaDb, final DbCache dbCache, final UpnpService upnpService, final RpcClient rpcClient, final ThumbnailGenerator thumbnailGenerator) {
-		this(servletCommon, contentTree, contentServlet, mediaDb, dbCache, upnpService, rpcClient, thumbnailGenerator, new SearchEngine());
+		this(servletCommon, contentTree, contentServlet, mediaDb, dbCache, upnpService, rpcClient, thumbnailGenerator, new SearchEngine(contentTree));
 	}
 
 	protected SearchServlet(final ServletCommon servletCommon, final ContentTree contentTree, ContentServlet contentServlet, final MediaDb mediaDb, final DbCache dbCache, final UpnpService upnpService, final RpcClient rpcClient, final ThumbnailGenerator thumbnailGenerator, final SearchEngine searchEngine) {
@@ -196,6 +165,21 @@ public class SearchServlet extends HttpServlet {
 					tagResults = Collections.emptyList();
 				}
 
+				// Remote results can change at any time, and top tags that are still loading will not be the same next time.
+				final String remote = StringUtils.trimToEmpty(req.getParameter(PARAM_REMOTE));
+				final boolean doRemoteSearch = ReqAttr.ALLOW_REMOTE_SEARCH.get(req) && StringUtils.isNotBlank(remote);
+				if (!doRemoteSearch && tagResults != null) {
+					genTimer.startSection("etag");
+					final String etag = ETags.make(
+							req.getPathInfo(),
+							req.getQueryString(),
+							username,
+							ReqAttr.ALLOW_REMOTE_SEARCH.get(req),
+							itemIdsAndVersions(results),
+							tagResults);
+					if (ETags.respondIfNotModified(req, resp, etag)) return;
+				}
+
 				genTimer.startSection("page");
 				final SearchResultsScope resultsScope = new SearchResultsScope(pageScope);
 				final String linkQuery = "?" + PARAM_QUERY + "=" + StringEscapeUtils.escapeHtml4(UrlEscapers.urlFormParameterEscaper().escape(query));
@@ -209,13 +193,19 @@ public class SearchServlet extends HttpServlet {
 				appendItems(resultGroup, results, linkQuery, offset, !useTxtFormat);
 
 				// Only do remote search if local does not error.
-				final String remote = StringUtils.trimToEmpty(req.getParameter(PARAM_REMOTE));
-				if (ReqAttr.ALLOW_REMOTE_SEARCH.get(req) && StringUtils.isNotBlank(remote)) {
+				if (doRemoteSearch) {
 					genTimer.startSection("remote");
-
-					// TODO Do these all in parallel.
-					remoteSearch(upnpQuery, resultsScope);
-					rpcSearch(query, resultsScope);
+					final RemoteSearch remoteSearch = new RemoteSearch(pageScope);
+					remoteSearch.searchContentDirectories(this.upnpService, upnpQuery, MAX_RESULTS);
+					remoteSearch.searchInstances(this.rpcClient, query);
+
+					if (REMOTE_PROGRESSIVE.equals(remote)) {
+						// Rendered as they arrive after everything else is written and sent.
+						resultsScope.addResultGroupsToFollow(remoteSearch.asTheyArrive(resp::flushBuffer));
+					}
+					else {
+						resultsScope.addResultGroups(remoteSearch.awaitAll());
+					}
 
 					genTimer.endSection();
 				}
@@ -250,6 +240,14 @@ public class SearchServlet extends HttpServlet {
 		return searchPath.query;
 	}
 
+	private static String itemIdsAndVersions(final List<ContentItem> items) {
+		final StringBuilder s = new StringBuilder();
+		for (final ContentItem i : items) {
+			s.append(i.getId()).append(':').append(i.getVersion()).append(',');
+		}
+		return s.toString();
+	}
+
 	private void appendItems(
 			final ResultGroupScope resultGroup,
 			final List<ContentItem> items,
@@ -265,127 +263,4 @@ public class SearchServlet extends HttpServlet {
 		}
 	}
 
-	private void rpcSearch(final String query, final SearchResultsScope resultsScope) throws InterruptedException, ExecutionException {
-		final Map<RemoteInstance, Future<SearchReply>> futures = new LinkedHashMap<>();
-		for (final RemoteInstance ri : this.rpcClient.getRemoteInstances()) {
-			final MediaFutureStub stub = this.rpcClient.getMediaFutureStub(ri.getId());
-
-			// TODO set search sort and max_results params!
-			final SearchRequest req = SearchRequest.newBuilder().setQuery(query).build();
-			final ListenableFuture<SearchReply> f = stub
-					.withDeadlineAfter(30, TimeUnit.SECONDS)
-					.search(req);
-			futures.put(ri, f);
-		}
-
-		for (final Entry<RemoteInstance, Future<SearchReply>> a : futures.entrySet()) {
-			final SearchReply rep = a.getValue().get();
-			final ResultGroupScope resultGroup = resultsScope.addResultGroup(a.getKey().getTarget() + " items: " + rep.getResultCount());
-			for (final MediaItem i : rep.getResultList()) {
-				final String path = C.REMOTE_CONTENT_PATH_PREFIX + a.getKey().getId() + "/" + i.getId();
-				final long fileLength = i.getFileLength();
-				final long durationSeconds = TimeUnit.MILLISECONDS.toSeconds(i.getDurationMillis());
-				resultGroup.addRemoteItem(
-						path,
-						i.getTitle(),
-						fileLength > 0 ? FileHelper.readableFileSize(fileLength) : null,
-						durationSeconds > 0 ? ModelUtil.toTimeString(durationSeconds) : null);
-			}
-		}
-	}
-
-	private void remoteSearch(final String searchCriteria, final SearchResultsScope resultsScope) throws InterruptedException, ExecutionException {
-		final Collection<RemoteService> contentDirectoryServices = findAllContentDirectoryServices();
-		searchContentDirectories(contentDirectoryServices, searchCriteria, resultsScope);
-	}
-
-	private Collection<RemoteService> findAllContentDirectoryServices() {
-		final Collection<RemoteService> ret = new ArrayList<>();
-		for (final RemoteDevice rd : this.upnpService.getRegistry().getRemoteDevices()) {
-			ret.addAll(Arrays.asList(rd.findServices(CONTENT_DIRECTORY_TYPE)));
-		}
-		return ret;
-	}
-
-	private void searchContentDirectories(final Collection<RemoteService> contentDirectoryServices, final String searchCriteria, final SearchResultsScope resultsScope) throws InterruptedException, ExecutionException {
-		final Collection<CDSearch> searches = new ArrayList<>();
-		final Collection<Future<?>> futures = new ArrayList<>();
-		for (final RemoteService cd : contentDirectoryServices) {
-			final CDSearch cds = new CDSearch(cd, ROOT_CONTENT_ID, searchCriteria, Search.CAPS_WILDCARD, 0, (long) MAX_RESULTS);
-			futures.add(this.upnpService.getControlPoint().execute(cds));
-			searches.add(cds);
-		}
-
-		for (final Future<?> f : futures) {
-			f.get();
-		}
-
-		for (final CDSearch s : searches) {
-			final String title = s.getService().getDevice().getDetails().getFriendlyName();
-
-			final String err = s.getErr();
-			if (StringUtils.isNotBlank(err)) {
-				resultsScope.addErrorGroup(title, err);
-				continue;
-			}
-
-			final List<Item> items = s.getPayload().getItems();
-			final ResultGroupScope resultGroup = resultsScope.addResultGroup(title + " items: " + items.size());
-			for (final Item item : items) {
-				final Res res = biggestRes(item.getResources());
-				if (res == null) continue;
-
-				final String size = res.getSize() != null ? FileHelper.readableFileSize(res.getSize()) : null;
-				resultGroup.addRemoteItem(res.getValue(), item.getTitle(), size, res.getDuration());
-			}
-		}
-	}
-
-	private static Res biggestRes(final List<Res> resources) {
-		Res ret = null;
-		for (final Res r : resources) {
-			if (ret == null || r.getSize() > ret.getSize()) ret = r;
-		}
-		return ret;
-	}
-
-	private static class CDSearch extends Search {
-
-		private final Service<?, ?> service;
-		private final AtomicReference<DIDLContent> payload = new AtomicReference<>();
-		private final AtomicReference<String> err = new AtomicReference<>();
-
-		public CDSearch(final Service<?, ?> service, final String containerId, final String searchCriteria, final String filter, final long firstResult, final Long maxResults, final SortCriterion... orderBy) {
-			super(service, containerId, searchCriteria, filter, firstResult, maxResults, orderBy);
-			this.service = service;
-		}
-
-		public Service<?, ?> getService() {
-			return this.service;
-		}
-
-		public DIDLContent getPayload() {
-			return this.payload.get();
-		}
-
-		public String getErr() {
-			return this.err.get();
-		}
-
-		@Override
-		public void failure(final ActionInvocation invocation, final UpnpResponse operation, final String defaultMsg) {
-			this.err.set("Failed to search content directory: " + defaultMsg);
-		}
-
-		@Override
-		public void received(final ActionInvocation<?> invocation, final DIDLContent didl) {
-			this.payload.set(didl);
-		}
-
-		@Override
-		public void updateStatus(final Status status) {
-			// Unused.
-		}
-	}
-
 }
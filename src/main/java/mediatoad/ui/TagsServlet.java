@@ -3,9 +3,11 @@ package mediatoad.ui;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -24,7 +26,6 @@ import mediatoad.auth.Permission;
 import mediatoad.auth.ReqAttr;
 import mediatoad.db.MediaDb;
 import mediatoad.db.Tag;
-import mediatoad.db.TagAutocompleter;
 import mediatoad.db.TagFrequency;
 import mediatoad.db.WritableMediaDb;
 import mediatoad.db.search.DbSearchSyntax;
@@ -42,13 +43,11 @@ public class TagsServlet extends HttpServlet {
 
 	private final ContentTree contentTree;
 	private final MediaDb mediaDb;
-	private final TagAutocompleter tagAutocompleter;
 	private final Gson gson;
 
-	public TagsServlet(final ContentTree contentTree, final MediaDb mediaDb, final TagAutocompleter tagAutocompleter) {
+	public TagsServlet(final ContentTree contentTree, final MediaDb mediaDb) {
 		this.contentTree = contentTree;
 		this.mediaDb = mediaDb;
-		this.tagAutocompleter = tagAutocompleter;
 		this.gson = new GsonBuilder().create();
 	}
 
@@ -139,10 +138,6 @@ public class TagsServlet extends HttpServlet {
 			}
 		}
 
-		int count = items.size();
-		if (remove) count = 0 - count;
-		this.tagAutocompleter.changeTagCount(tag, count);
-
 		returnTagsAndCounts(resp, items);
 	}
 
@@ -159,8 +154,9 @@ public class TagsServlet extends HttpServlet {
 	@SuppressWarnings("resource")
 	private void returnTagsAndCounts(final HttpServletResponse resp, final List<ContentItem> items) throws SQLException, IOException {
 		final Multiset<Tag> tagCounts = HashMultiset.create();
-		for (final ContentItem i : items) {
-			for (final Tag t : this.mediaDb.getTags(i.getId(), false, false)) {
+		final List<String> ids = items.stream().map(i -> i.getId()).collect(Collectors.toList());
+		for (final Collection<Tag> tags : this.mediaDb.getTags(ids, false, false).values()) {
+			for (final Tag t : tags) {
 				tagCounts.add(new Tag(t.getTag(), t.getCls(), 0L, false));
 			}
 		}
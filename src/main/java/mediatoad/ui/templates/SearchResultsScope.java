@@ -1,11 +1,17 @@
 package mediatoad.ui.templates;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
+import com.google.common.collect.Iterators;
+
 public class SearchResultsScope {
 
-	public final List<ResultGroupScope> result_groups = new ArrayList<>();
+	private final List<ResultGroupScope> resultGroups = new ArrayList<>();
+	private Iterator<ResultGroupScope> resultGroupsToFollow = Collections.emptyIterator();
 
 	private final PageScope pageScope;
 
@@ -13,18 +19,36 @@ public class SearchResultsScope {
 		this.pageScope = pageScope;
 	}
 
+	/**
+	 * Iterated only once while rendering, and may block waiting for groups added with addResultGroupsToFollow().
+	 */
+	public Iterable<ResultGroupScope> result_groups() {
+		return () -> Iterators.concat(this.resultGroups.iterator(), this.resultGroupsToFollow);
+	}
+
 	public ResultGroupScope addResultGroup(final String group_title) {
 		return addResultGroup(group_title, null);
 	}
 
 	public ResultGroupScope addResultGroup(final String group_title, final String next_page_path) {
 		final ResultGroupScope group = new ResultGroupScope(group_title, null, next_page_path, this.pageScope);
-		this.result_groups.add(group);
+		this.resultGroups.add(group);
 		return group;
 	}
 
+	public void addResultGroups(final Collection<ResultGroupScope> groups) {
+		this.resultGroups.addAll(groups);
+	}
+
 	public void addErrorGroup(final String group_title, final String msg) {
-		this.result_groups.add(new ResultGroupScope(group_title, msg, null, this.pageScope));
+		this.resultGroups.add(new ResultGroupScope(group_title, msg, null, this.pageScope));
+	}
+
+	/**
+	 * Rendered after all other groups, each one as soon as the iterator returns it.
+	 */
+	public void addResultGroupsToFollow(final Iterator<ResultGroupScope> groups) {
+		this.resultGroupsToFollow = groups;
 	}
 
 }
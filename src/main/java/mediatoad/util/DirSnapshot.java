@@ -0,0 +1,50 @@
+package mediatoad.util;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Remembers directory listings between restarts so that dirs that have not
+ * been modified do not need listing again.
+ * All methods may be called concurrently.
+ */
+public interface DirSnapshot {
+
+	/**
+	 * Returns null if dir is not known or has been modified since its listing was stored.
+	 */
+	Listing get(File dir, long modifiedMillis);
+
+	/**
+	 * modifiedMillis must be read before the dir is listed.
+	 * files is every regular file in dir, not only those that are wanted now, so that what is wanted can change.
+	 */
+	void put(File dir, long modifiedMillis, List<File> subDirs, List<File> files);
+
+	/**
+	 * Called once after the initial scan.
+	 * Any dir that was not passed to get() or put() during the scan is assumed to be gone.
+	 */
+	void scanComplete();
+
+	class Listing {
+
+		private final List<File> subDirs;
+		private final List<File> files;
+
+		public Listing(final List<File> subDirs, final List<File> files) {
+			this.subDirs = subDirs;
+			this.files = files;
+		}
+
+		public List<File> getSubDirs() {
+			return this.subDirs;
+		}
+
+		public List<File> getFiles() {
+			return this.files;
+		}
+
+	}
+
+}
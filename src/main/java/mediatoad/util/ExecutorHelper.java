@@ -4,9 +4,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -35,12 +37,27 @@ public class ExecutorHelper {
 	}
 
 	public static ExecutorService newExecutor(final int minThreads, final int maxThreads, final String name, final int priority) {
+		return newExecutor(minThreads, maxThreads, name, priority, new LinkedBlockingQueue<Runnable>());
+	}
+
+	/**
+	 * Waiting tasks run in their natural order, lowest first.
+	 * Tasks must implement Comparable and must be passed to execute() as submit() wraps them.
+	 */
+	public static ExecutorService newPriorityExecutor(final int threads, final String name) {
+		// Threads beyond core threads are only started when the queue is full, which a PriorityBlockingQueue never is.
+		final ThreadPoolExecutor e = newExecutor(threads, threads, name, Thread.MIN_PRIORITY, new PriorityBlockingQueue<Runnable>());
+		e.allowCoreThreadTimeOut(true);
+		return e;
+	}
+
+	private static ThreadPoolExecutor newExecutor(final int minThreads, final int maxThreads, final String name, final int priority, final BlockingQueue<Runnable> queue) {
 		final ThreadPoolExecutor e = new ThreadPoolExecutor(
 				minThreads,
 				maxThreads,
 				60L,
 				TimeUnit.SECONDS,
-				new LinkedBlockingQueue<Runnable>(),
+				queue,
 				new DaemonThreadFactory(name, priority)) {
 
 			@Override
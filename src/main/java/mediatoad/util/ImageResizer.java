@@ -29,7 +29,9 @@ import com.twelvemonkeys.contrib.exif.EXIFUtilities;
 import com.twelvemonkeys.contrib.exif.Orientation;
 import com.twelvemonkeys.contrib.tiff.TIFFUtilities;
 
+import io.prometheus.metrics.core.datapoints.CounterDataPoint;
 import io.prometheus.metrics.core.datapoints.Timer;
+import io.prometheus.metrics.core.metrics.Counter;
 import io.prometheus.metrics.core.metrics.Histogram;
 import io.prometheus.metrics.model.snapshots.Unit;
 
@@ -41,6 +43,25 @@ public class ImageResizer {
 			.help("Duraction of image resize operations.")
 			.register();
 
+	private static final Counter DECODE_METRIC = Counter.builder()
+			.name("image_resize_decode")
+			.labelNames("method")
+			.help("count of images decoded for resizing, grouped by how much of the source image was decoded.")
+			.register();
+	private static final CounterDataPoint DECODE_FULL_METRIC = DECODE_METRIC.labelValues("full");
+	private static final CounterDataPoint DECODE_SUBSAMPLED_METRIC = DECODE_METRIC.labelValues("subsampled");
+	private static final CounterDataPoint DECODE_EMBEDDED_THUMBNAIL_METRIC = DECODE_METRIC.labelValues("embedded_thumbnail");
+
+	/**
+	 * Decode at least this many times the target size so that scaling down still has pixels to interpolate,
+	 * subsampling just skips pixels so going straight to the target size would look jagged.
+	 */
+	private static final int SUBSAMPLE_HEADROOM = 2;
+	/**
+	 * Embedded thumbnails that do not match the shape of the image are usually letterboxed.
+	 */
+	private static final double MAX_EMBEDDED_THUMBNAIL_ASPECT_DIFF = 0.02d;
+
 	private static final Logger LOG = LoggerFactory.getLogger(ImageResizer.class);
 
 	public ImageResizer() {
@@ -59,7 +80,7 @@ public class ImageResizer {
 	public void doScaleImageToFile (final File inF, final int size, final float quality, final File outF) throws IOException {
 		if (size < 16 || size > 1000) throw new IllegalArgumentException("Invalid size: " + size);
 
-		final BufferedImage inImg = readImage(inF);
+		final BufferedImage inImg = readImage(inF, size);
 
 		if (inImg.getWidth() < 1 || inImg.getHeight() < 1) throw new IllegalArgumentException("Image too small: " + inF.getAbsolutePath());
 
@@ -81,7 +102,10 @@ public class ImageResizer {
 		writeImageViaTmpFile(outImg, quality, outF);
 	}
 
-	private static BufferedImage readImage(final File file) throws IOException {
+	/**
+	 * Decodes no more of the image than is needed to scale it down to size.
+	 */
+	private static BufferedImage readImage(final File file, final int size) throws IOException {
 		try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
 			final Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
 			if (!readers.hasNext()) {
@@ -95,8 +119,7 @@ public class ImageResizer {
 					input.mark();
 					reader.setInput(input, true, false);
 
-					final ImageReadParam param = reader.getDefaultReadParam();
-					final BufferedImage image = reader.read(0, param);
+					final BufferedImage image = readScaledImage(reader, size);
 
 					final Orientation orientation = EXIFUtilities.findImageOrientation(reader.getImageMetadata(0));
 					return TIFFUtilities.applyOrientation(image, orientation.value());
@@ -118,6 +141,49 @@ public class ImageResizer {
 		return null;
 	}
 
+	private static BufferedImage readScaledImage(final ImageReader reader, final int size) throws IOException {
+		final int width = reader.getWidth(0);
+		final int height = reader.getHeight(0);
+
+		final BufferedImage thumbnail = readEmbeddedThumbnail(reader, width, height, size);
+		if (thumbnail != null) {
+			DECODE_EMBEDDED_THUMBNAIL_METRIC.inc();
+			return thumbnail;
+		}
+
+		final ImageReadParam param = reader.getDefaultReadParam();
+		final int subsampling = chooseSubsampling(width, height, size);
+		if (subsampling > 1) {
+			param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+			DECODE_SUBSAMPLED_METRIC.inc();
+		}
+		else {
+			DECODE_FULL_METRIC.inc();
+		}
+		return reader.read(0, param);
+	}
+
+	/**
+	 * Returns null if there is no embedded thumbnail big enough and the same shape as the image.
+	 */
+	private static BufferedImage readEmbeddedThumbnail(final ImageReader reader, final int width, final int height, final int size) throws IOException {
+		if (!reader.readerSupportsThumbnails() || !reader.hasThumbnails(0)) return null;
+
+		final double aspect = width / (double) height;
+		for (int i = 0; i < reader.getNumThumbnails(0); i++) {
+			final int tWidth = reader.getThumbnailWidth(0, i);
+			final int tHeight = reader.getThumbnailHeight(0, i);
+			if (Math.max(tWidth, tHeight) < size || tHeight < 1) continue;
+			if (Math.abs(tWidth / (double) tHeight - aspect) > aspect * MAX_EMBEDDED_THUMBNAIL_ASPECT_DIFF) continue;
+			return reader.readThumbnail(0, i);
+		}
+		return null;
+	}
+
+	static int chooseSubsampling(final int width, final int height, final int size) {
+		return Math.max(1, Math.max(width, height) / (size * SUBSAMPLE_HEADROOM));
+	}
+
 	private static BufferedImage scaleImage (final BufferedImage inImg, final int width, final int height) {
 		final BufferedImage outImg = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 		final Graphics2D g = outImg.createGraphics();
@@ -126,9 +192,10 @@ public class ImageResizer {
 			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
 			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-			// TODO only do this if mime type says it is needed?
-			g.setPaint(createCheckerboardPaint(16));
-			g.fillRect(0, 0, width, height);
+			if (inImg.getColorModel().hasAlpha()) {
+				g.setPaint(createCheckerboardPaint(16));
+				g.fillRect(0, 0, width, height);
+			}
 
 			g.setComposite(AlphaComposite.SrcOver);
 			g.drawImage(inImg, 0, 0, width, height, null);
@@ -0,0 +1,124 @@
+package mediatoad.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.prometheus.metrics.core.metrics.GaugeWithCallback;
+import io.prometheus.metrics.model.registry.PrometheusRegistry;
+
+/**
+ * Runs tasks that read files, limiting how many run at the same time against each
+ * storage device, so that a spinning disk is not made to seek between several files.
+ * Tasks for the same device that are waiting for a slot run in the order submitted.
+ */
+public class PerDeviceExecutor {
+
+	private static final Object UNKNOWN_DEVICE = new Object();
+	private static final Logger LOG = LoggerFactory.getLogger(PerDeviceExecutor.class);
+
+	private final ExecutorService ex;
+	private final int perDeviceLimit;
+
+	// Guarded by this.
+	private final Map<Object, Device> devices = new HashMap<>();
+	private final AtomicInteger waiting = new AtomicInteger(0);
+	private final GaugeWithCallback waitingMetric;
+
+	public PerDeviceExecutor(final int threads, final int perDeviceLimit, final String name) {
+		this(ExecutorHelper.newExecutor(threads, name), perDeviceLimit, name);
+	}
+
+	public PerDeviceExecutor(final ExecutorService ex, final int perDeviceLimit, final String name) {
+		if (perDeviceLimit < 1) throw new IllegalArgumentException("perDeviceLimit must be at least 1: " + perDeviceLimit);
+		this.ex = ex;
+		this.perDeviceLimit = perDeviceLimit;
+		this.waitingMetric = GaugeWithCallback.builder()
+				.name("device_executor_waiting")
+				.labelNames("name")
+				.help("number of tasks waiting for a device slot or a thread.")
+				.callback((cb) -> cb.call(this.waiting.get(), name))
+				.build();
+	}
+
+	public void registerMetrics(final PrometheusRegistry registry) {
+		registry.register(this.waitingMetric);
+	}
+
+	public void execute(final File file, final Runnable task) {
+		// No point looking up the device if there is no limit.
+		final Object deviceId = this.perDeviceLimit < Integer.MAX_VALUE ? deviceId(file) : UNKNOWN_DEVICE;
+		this.waiting.incrementAndGet();
+		synchronized (this) {
+			final Device device = this.devices.computeIfAbsent(deviceId, (k) -> new Device());
+			if (device.running < this.perDeviceLimit) {
+				device.running += 1;
+				submit(device, task);
+			}
+			else {
+				device.queue.add(task);
+			}
+		}
+	}
+
+	private void submit(final Device device, final Runnable task) {
+		this.ex.execute(() -> {
+			this.waiting.decrementAndGet();
+			try {
+				task.run();
+			}
+			finally {
+				taskDone(device);
+			}
+		});
+	}
+
+	private synchronized void taskDone(final Device device) {
+		final Runnable next = device.queue.poll();
+		if (next != null) {
+			submit(device, next);
+		}
+		else {
+			device.running -= 1;
+		}
+	}
+
+	/**
+	 * File stores are only checked if the device ID is not available as looking them up is slower.
+	 */
+	static Object deviceId(final File file) {
+		try {
+			final Object dev = Files.getAttribute(file.toPath(), "unix:dev");
+			if (dev != null) return dev;
+		}
+		catch (final UnsupportedOperationException | IllegalArgumentException e) {
+			// Not a unix-like system, fall through.
+		}
+		catch (final IOException e) {
+			LOG.debug("Failed to read device ID: {}", e.toString());
+			return UNKNOWN_DEVICE;
+		}
+
+		try {
+			return Files.getFileStore(file.toPath()).name();
+		}
+		catch (final IOException e) {
+			return UNKNOWN_DEVICE;
+		}
+	}
+
+	private static class Device {
+		final Queue<Runnable> queue = new LinkedList<>();
+		int running = 0;
+	}
+
+}
@@ -2,6 +2,7 @@ package mediatoad.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
@@ -102,4 +103,9 @@ public class ProgressLogFileListener implements FileListener {
 		this.deligate.fileGone(file, isDir);
 	}
 
+	@Override
+	public void dirListed (final File dir, final List<File> files) {
+		this.deligate.dirListed(dir, files);
+	}
+
 }
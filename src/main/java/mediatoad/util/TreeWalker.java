@@ -3,12 +3,19 @@ package mediatoad.util;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import org.apache.commons.io.comparator.NameFileComparator;
 import org.slf4j.Logger;
@@ -19,20 +26,67 @@ public class TreeWalker {
 	private final List<File> roots;
 	private final FileFilter fileFilter;
 	private final Hiker hiker;
+	private final ForkJoinPool pool;
+	private final DirSnapshot snapshot;
+
+	private List<ForkJoinTask<DirListing>> rootTasks;
 
 	public TreeWalker (final File root, final FileFilter fileFilter, final Hiker hiker) {
-		this.roots = Collections.singletonList(root);
-		this.fileFilter = fileFilter;
-		this.hiker = hiker;
+		this(Collections.singletonList(root), fileFilter, hiker, null);
 	}
 
 	public TreeWalker (final List<File> roots, final FileFilter fileFilter, final Hiker hiker) {
+		this(roots, fileFilter, hiker, null);
+	}
+
+	/**
+	 * If pool is not null directories are listed in parallel using the pool.
+	 * In this mode Hiker.onDir() is called from pool threads, possibly concurrently, before the dir is listed.
+	 * All other Hiker methods are called from the thread that calls walk(), in the same order as a serial walk.
+	 */
+	public TreeWalker (final List<File> roots, final FileFilter fileFilter, final Hiker hiker, final ForkJoinPool pool) {
+		this(roots, fileFilter, hiker, pool, null);
+	}
+
+	/**
+	 * If snapshot is not null, dirs that have not been modified since they were last listed will not be listed again.
+	 * Every file is stored in the snapshot and fileFilter is applied when it is read back,
+	 * so a change to fileFilter, eg a newly supported format, does not need the dir to be modified.
+	 */
+	public TreeWalker (final List<File> roots, final FileFilter fileFilter, final Hiker hiker, final ForkJoinPool pool, final DirSnapshot snapshot) {
 		this.roots = roots;
 		this.fileFilter = fileFilter;
 		this.hiker = hiker;
+		this.pool = pool;
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Start listing the roots in the background without waiting for walk() to be called.
+	 * Allows several walkers sharing a pool to make progress at the same time.
+	 * Does nothing when not walking in parallel.
+	 */
+	public TreeWalker prefetch () {
+		if (this.pool != null && this.rootTasks == null) {
+			final List<ForkJoinTask<DirListing>> tasks = new ArrayList<>();
+			for (final File root : this.roots) {
+				tasks.add(this.pool.submit(new ListDirTask(root)));
+			}
+			this.rootTasks = tasks;
+		}
+		return this;
 	}
 
 	public void walk () throws IOException {
+		if (this.pool != null) {
+			walkParallel();
+		}
+		else {
+			walkSerial();
+		}
+	}
+
+	private void walkSerial () throws IOException {
 		final Queue<File> dirs = new LinkedList<>();
 		for (File root : this.roots) {
 			dirs.add(root);
@@ -42,37 +96,185 @@ public class TreeWalker {
 			final File dir = dirs.poll();
 			this.hiker.onDir(dir);
 
-			final File[] listFiles = dir.listFiles();
-			if (listFiles != null) {
-				Arrays.sort(listFiles, NameFileComparator.NAME_INSENSITIVE_COMPARATOR);
-				List<File> keepFiles = null;
-				for (final File file : listFiles) {
-					if (file.getName().startsWith(".")) {
-						continue;
-					}
-					else if (file.isDirectory()) {
-						dirs.add(file);
-					}
-					else if (file.isFile() && this.fileFilter.accept(file)) {
-						if (keepFiles == null) keepFiles = new ArrayList<>();
-						keepFiles.add(file);
-					}
+			final DirListing listing = listDir(dir);
+			if (listing.readable) dirs.addAll(listing.subDirs);
+			deliver(listing);
+		}
+	}
+
+	private void walkParallel () throws IOException {
+		prefetch();
+		final Queue<ForkJoinTask<DirListing>> tasks = new LinkedList<>(this.rootTasks);
+		this.rootTasks = null;
+
+		try {
+			while (!tasks.isEmpty()) {
+				final DirListing listing = tasks.poll().join();
+				if (listing.error != null) throw listing.error;
+				tasks.addAll(listing.subDirTasks);
+				deliver(listing);
+			}
+		}
+		finally {
+			// Only not empty if something failed.
+			for (final ForkJoinTask<DirListing> t : tasks) {
+				t.cancel(false);
+			}
+		}
+	}
+
+	private void deliver (final DirListing listing) throws IOException {
+		if (!listing.readable) {
+			this.hiker.onUnreadableDir(listing.dir);
+		}
+		else if (listing.files.size() > 0) {
+			this.hiker.onDirWithFiles(listing.dir, listing.files);
+		}
+	}
+
+	private DirListing listDir (final File dir) {
+		if (this.snapshot == null) return readDir(dir);
+
+		final long modified;
+		try {
+			modified = Files.getLastModifiedTime(dir.toPath()).toMillis();
+		}
+		catch (final IOException e) {
+			return new DirListing(dir);
+		}
+
+		final DirSnapshot.Listing cached = this.snapshot.get(dir, modified);
+		if (cached != null) return new DirListing(dir, cached.getSubDirs(), filterFiles(cached.getFiles()));
+
+		final List<File> allFiles = new ArrayList<>();
+		final DirListing listing = readDir(dir, allFiles);
+		if (listing.readable) this.snapshot.put(dir, modified, listing.subDirs, allFiles);
+		return listing;
+	}
+
+	private List<File> filterFiles (final List<File> files) {
+		final List<File> ret = new ArrayList<>(files.size());
+		for (final File file : files) {
+			if (this.fileFilter.accept(file)) ret.add(file);
+		}
+		return ret;
+	}
+
+	private DirListing readDir (final File dir) {
+		return readDir(dir, null);
+	}
+
+	/**
+	 * Reads the attributes of each entry once, rather than calling isDirectory() and isFile() separately.
+	 * If allFiles is not null, every regular file is added to it, including those that do not pass fileFilter.
+	 */
+	private DirListing readDir (final File dir, final List<File> allFiles) {
+		final List<File> subDirs = new ArrayList<>();
+		final List<File> files = new ArrayList<>();
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+			for (final Path path : stream) {
+				final File file = path.toFile();
+				if (file.getName().startsWith(".")) continue;
+
+				final BasicFileAttributes attr;
+				try {
+					attr = Files.readAttributes(path, BasicFileAttributes.class);
+				}
+				catch (final IOException e) {
+					continue;  // eg dangling symlink, which is neither a file or a directory.
+				}
+
+				if (attr.isDirectory()) {
+					subDirs.add(file);
 				}
-				if (keepFiles != null) {
-					this.hiker.onDirWithFiles(dir, keepFiles);
-					keepFiles = null;
+				else if (attr.isRegularFile()) {
+					if (allFiles != null) allFiles.add(file);
+					if (this.fileFilter.accept(file)) files.add(file);
 				}
 			}
-			else {
-				this.hiker.onUnreadableDir(dir);
+		}
+		catch (final IOException | DirectoryIteratorException e) {
+			return new DirListing(dir);
+		}
+
+		subDirs.sort(NameFileComparator.NAME_INSENSITIVE_COMPARATOR);
+		files.sort(NameFileComparator.NAME_INSENSITIVE_COMPARATOR);
+		if (allFiles != null) allFiles.sort(NameFileComparator.NAME_INSENSITIVE_COMPARATOR);
+		return new DirListing(dir, subDirs, files);
+	}
+
+	private class ListDirTask extends RecursiveTask<DirListing> {
+
+		private static final long serialVersionUID = -1780326468727460514L;
+
+		private final File dir;
+
+		public ListDirTask (final File dir) {
+			this.dir = dir;
+		}
+
+		@Override
+		protected DirListing compute () {
+			try {
+				TreeWalker.this.hiker.onDir(this.dir);
+			}
+			catch (final IOException e) {
+				return new DirListing(this.dir, e);
 			}
+
+			final DirListing listing = listDir(this.dir);
+			if (listing.readable) {
+				for (final File subDir : listing.subDirs) {
+					listing.subDirTasks.add(new ListDirTask(subDir).fork());
+				}
+			}
+			return listing;
 		}
+
+	}
+
+	private static class DirListing {
+
+		final File dir;
+		final boolean readable;
+		final List<File> subDirs;
+		final List<File> files;
+		final IOException error;
+		final List<ForkJoinTask<DirListing>> subDirTasks = new ArrayList<>();
+
+		public DirListing (final File dir, final List<File> subDirs, final List<File> files) {
+			this.dir = dir;
+			this.readable = true;
+			this.subDirs = subDirs;
+			this.files = files;
+			this.error = null;
+		}
+
+		public DirListing (final File dir) {
+			this.dir = dir;
+			this.readable = false;
+			this.subDirs = Collections.emptyList();
+			this.files = Collections.emptyList();
+			this.error = null;
+		}
+
+		public DirListing (final File dir, final IOException error) {
+			this.dir = dir;
+			this.readable = false;
+			this.subDirs = Collections.emptyList();
+			this.files = Collections.emptyList();
+			this.error = error;
+		}
+
 	}
 
 	public abstract static class Hiker {
 
 		private static final Logger LOG = LoggerFactory.getLogger(TreeWalker.Hiker.class);
 
+		/**
+		 * When walking in parallel this must be thread safe.
+		 */
 		public abstract void onDir (File dir) throws IOException;
 
 		public abstract void onDirWithFiles (File dir, List<File> files) throws IOException;
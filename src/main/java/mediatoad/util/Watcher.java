@@ -12,15 +12,20 @@ import java.nio.file.WatchEvent;
 import java.nio.file.WatchEvent.Kind;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
@@ -49,6 +54,13 @@ public class Watcher {
 		EventResult fileFound (File rootDir, File file, EventType eventType, Runnable onUsed) throws IOException;
 		EventResult fileModified (final File rootDir, File file, Runnable onUsed) throws IOException;
 		void fileGone (File file, boolean isDir) throws IOException;
+
+		/**
+		 * Called by the initial scan with the files in a directory that passed the filter,
+		 * before fileFound() is called for each of them.
+		 * Not a default method so that wrapping listeners have to pass it on.
+		 */
+		void dirListed (File dir, List<File> files);
 	}
 
 	private static final Counter FILES_FOUND_METRIC = Counter.builder()
@@ -89,39 +101,64 @@ public class Watcher {
 	private final FileListener listener;
 	private final Time time;
 	private final long pollIntervalMillis;
+	private final ForkJoinPool scanPool;
+	private final DirSnapshot dirSnapshot;
 
 	private final List<Runnable> onPrescanComplete = new CopyOnWriteArrayList<>();
 	private final CountDownLatch prescanComplete = new CountDownLatch(1);
 	private final AtomicLong watchEvents = new AtomicLong(0);
 
 	private final WatchService watchService;
-	private final Map<WatchKey, Path> watchKeys = new HashMap<>();
-	private final Map<WatchKey, File> watchKeyRoots = new HashMap<>();
+	// Concurrent because register() is called from scan pool threads.
+	private final Map<WatchKey, Path> watchKeys = new ConcurrentHashMap<>();
+	private final Map<WatchKey, File> watchKeyRoots = new ConcurrentHashMap<>();
 	private final Queue<WaitingFile> waitingFiles = new DelayQueue<>();
 
 	private volatile boolean running = true;
 
 	public Watcher (final List<File> roots, final FileFilter filter, final FileListener listener) throws IOException {
-		this(roots, filter, listener, Time.DEFAULT, TimeUnit.SECONDS.toMillis(5));
+		this(roots, filter, listener, 1, null);
+	}
+
+	/**
+	 * If scanThreads is more than 1, directories will be listed in parallel.
+	 * Listener callbacks are always made from the thread that calls run().
+	 * dirSnapshot is optional and only used for the initial scan.
+	 */
+	public Watcher (final List<File> roots, final FileFilter filter, final FileListener listener, final int scanThreads, final DirSnapshot dirSnapshot) throws IOException {
+		this(roots, filter, listener, Time.DEFAULT, TimeUnit.SECONDS.toMillis(5), scanThreads, dirSnapshot);
 	}
 
-	@SuppressWarnings("resource")
 	Watcher (final List<File> roots, final FileFilter filter, final FileListener listener, final Time time, final long pollIntervalMillis) throws IOException {
+		this(roots, filter, listener, time, pollIntervalMillis, 1, null);
+	}
+
+	@SuppressWarnings("resource")
+	Watcher (final List<File> roots, final FileFilter filter, final FileListener listener, final Time time, final long pollIntervalMillis, final int scanThreads, final DirSnapshot dirSnapshot) throws IOException {
 		this.roots = roots;
 		this.filter = filter;
 		this.listener = listener;
 		this.time = time;
 		this.pollIntervalMillis = pollIntervalMillis;
+		this.scanPool = makeScanPool(scanThreads);
+		this.dirSnapshot = dirSnapshot;
 		this.watchService = FileSystems.getDefault().newWatchService();
 	}
 
+	private static ForkJoinPool makeScanPool (final int threads) {
+		if (threads < 2) return null;
+		final AtomicInteger counter = new AtomicInteger(0);
+		return new ForkJoinPool(threads, (pool) -> {
+			final ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			t.setName("t-scan" + counter.getAndIncrement());
+			return t;
+		}, null, false);
+	}
+
 	public void run () throws IOException {
 		try {
-			long totalFiles = 0L;
 			final long startTime = System.nanoTime();
-			for (final File root : this.roots) {
-				totalFiles += registerRecursive(root, root);
-			}
+			final long totalFiles = prescan();
 			final long scanTime = System.nanoTime() - startTime;
 			LOG.info("Found {} media files in {} seconds.", totalFiles, TimeUnit.NANOSECONDS.toSeconds(scanTime));
 
@@ -134,10 +171,35 @@ public class Watcher {
 		}
 		finally {
 			LOG.error("Watcher terminated.");
+			if (this.scanPool != null) this.scanPool.shutdownNow();
 			this.watchService.close();
 		}
 	}
 
+	/**
+	 * Returns number of files found during initial scan.
+	 * When scanning in parallel all roots are listed at the same time,
+	 * but files are still passed to the listener one root at a time.
+	 */
+	private long prescan () throws IOException {
+		final List<RegisterRecursiveHiker> hikers = new ArrayList<>();
+		final List<TreeWalker> walkers = new ArrayList<>();
+		for (final File root : this.roots) {
+			checkDirExists(root);
+			final RegisterRecursiveHiker hiker = new RegisterRecursiveHiker(this, root);
+			hikers.add(hiker);
+			walkers.add(new TreeWalker(Collections.singletonList(root), this.filter, hiker, this.scanPool, this.dirSnapshot).prefetch());
+		}
+
+		long totalFiles = 0L;
+		for (int i = 0; i < walkers.size(); i++) {
+			walkers.get(i).walk();
+			totalFiles += hikers.get(i).getTotalFiles();
+		}
+		if (this.dirSnapshot != null) this.dirSnapshot.scanComplete();
+		return totalFiles;
+	}
+
 	public void addPrescanCompleteListener(final Runnable l) {
 		this.onPrescanComplete.add(l);
 	}
@@ -153,6 +215,7 @@ public class Watcher {
 	public void shutdown () {
 		PrometheusRegistry.defaultRegistry.unregister(this.filesWaitingMetric);
 		this.running = false;
+		if (this.scanPool != null) this.scanPool.shutdown();
 	}
 
 	protected void register (final File rootDir, final Path dir) throws IOException {
@@ -176,12 +239,16 @@ public class Watcher {
 	 * Returns number of files found during initial scan.
 	 */
 	private long registerRecursive (final File rootDir, final File dir) throws IOException {
-		if (!dir.exists()) throw new FileNotFoundException("Unable to watch dir '" + dir + "' as it does not exist.");
+		checkDirExists(dir);
 		final RegisterRecursiveHiker hiker = new RegisterRecursiveHiker(this, rootDir);
-		new TreeWalker(dir, this.filter, hiker).walk();
+		new TreeWalker(Collections.singletonList(dir), this.filter, hiker, this.scanPool).walk();
 		return hiker.getTotalFiles();
 	}
 
+	private static void checkDirExists (final File dir) throws FileNotFoundException {
+		if (!dir.exists()) throw new FileNotFoundException("Unable to watch dir '" + dir + "' as it does not exist.");
+	}
+
 	private void watch () {
 		while (this.running) {
 			WaitingFile modFile;
@@ -380,6 +447,7 @@ public class Watcher {
 
 		@Override
 		public void onDirWithFiles (final File dir, final List<File> files) {
+			this.host.listener.dirListed(dir, files);
 			this.host.initialScanFiles(files, this.rootDir);
 			this.totalFiles += files.size();
 		}
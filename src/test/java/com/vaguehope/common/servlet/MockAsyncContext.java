@@ -0,0 +1,104 @@
+package com.vaguehope.common.servlet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+public class MockAsyncContext implements AsyncContext {
+
+	private final ServletRequest request;
+	private final List<AsyncListener> listeners = new ArrayList<>();
+	private long timeout = 30000L;
+	private boolean completed = false;
+
+	public MockAsyncContext (final ServletRequest request) {
+		this.request = request;
+	}
+
+	public boolean isCompleted () {
+		return this.completed;
+	}
+
+	@Override
+	public ServletRequest getRequest () {
+		return this.request;
+	}
+
+	@Override
+	public ServletResponse getResponse () {
+		throw new UnsupportedOperationException("Not implemented.");
+	}
+
+	@Override
+	public boolean hasOriginalRequestAndResponse () {
+		return true;
+	}
+
+	@Override
+	public void dispatch () {
+		throw new UnsupportedOperationException("Not implemented.");
+	}
+
+	@Override
+	public void dispatch (final String path) {
+		throw new UnsupportedOperationException("Not implemented.");
+	}
+
+	@Override
+	public void dispatch (final ServletContext context, final String path) {
+		throw new UnsupportedOperationException("Not implemented.");
+	}
+
+	@Override
+	public void complete () {
+		if (this.completed) throw new IllegalStateException("Already completed.");
+		this.completed = true;
+		for (final AsyncListener l : this.listeners) {
+			try {
+				l.onComplete(new AsyncEvent(this, this.request, null));
+			}
+			catch (final IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	@Override
+	public void start (final Runnable run) {
+		throw new UnsupportedOperationException("Not implemented.");
+	}
+
+	@Override
+	public void addListener (final AsyncListener listener) {
+		this.listeners.add(listener);
+	}
+
+	@Override
+	public void addListener (final AsyncListener listener, final ServletRequest servletRequest, final ServletResponse servletResponse) {
+		this.listeners.add(listener);
+	}
+
+	@Override
+	public <T extends AsyncListener> T createListener (final Class<T> clazz) throws ServletException {
+		throw new UnsupportedOperationException("Not implemented.");
+	}
+
+	@Override
+	public void setTimeout (final long timeout) {
+		this.timeout = timeout;
+	}
+
+	@Override
+	public long getTimeout () {
+		return this.timeout;
+	}
+
+}
@@ -42,6 +42,7 @@ public class MockHttpServletRequest implements HttpServletRequest {
 	private final List<Cookie> cookies = new ArrayList<>();
 	final Map<String, Object> attributes = new ConcurrentHashMap<>();
 	private byte[] content;
+	private MockAsyncContext asyncContext;
 
 	public void setMethod(final String method) {
 		this.method = method;
@@ -153,8 +154,9 @@ public class MockHttpServletRequest implements HttpServletRequest {
 //	- - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - - -
 
 	@Override
-	public AsyncContext getAsyncContext () {
-		throw new UnsupportedOperationException("Not implemented.");
+	public MockAsyncContext getAsyncContext () {
+		if (this.asyncContext == null) throw new IllegalStateException("Async not started.");
+		return this.asyncContext;
 	}
 
 	@Override
@@ -264,12 +266,12 @@ public class MockHttpServletRequest implements HttpServletRequest {
 
 	@Override
 	public boolean isAsyncStarted () {
-		throw new UnsupportedOperationException("Not implemented.");
+		return this.asyncContext != null;
 	}
 
 	@Override
 	public boolean isAsyncSupported () {
-		throw new UnsupportedOperationException("Not implemented.");
+		return true;
 	}
 
 	@Override
@@ -289,7 +291,9 @@ public class MockHttpServletRequest implements HttpServletRequest {
 
 	@Override
 	public AsyncContext startAsync () throws IllegalStateException {
-		throw new UnsupportedOperationException("Not implemented.");
+		if (this.asyncContext != null) throw new IllegalStateException("Async already started.");
+		this.asyncContext = new MockAsyncContext(this);
+		return this.asyncContext;
 	}
 
 	@Override
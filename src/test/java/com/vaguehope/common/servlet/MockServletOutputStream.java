@@ -9,6 +9,8 @@ import javax.servlet.WriteListener;
 public class MockServletOutputStream extends ServletOutputStream {
 
 	private final ByteArrayOutputStream outputStream;
+	private boolean ready = true;
+	private WriteListener writeListener;
 
 	public MockServletOutputStream (final ByteArrayOutputStream outputStream) {
 		this.outputStream = outputStream;
@@ -21,12 +23,29 @@ public class MockServletOutputStream extends ServletOutputStream {
 
 	@Override
 	public boolean isReady() {
-		throw new UnsupportedOperationException("Not implemented.");
+		return this.ready;
+	}
+
+	/**
+	 * If becoming ready, also calls the WriteListener like a container would.
+	 */
+	public void setReady(final boolean ready) throws IOException {
+		this.ready = ready;
+		if (ready && this.writeListener != null) this.writeListener.onWritePossible();
 	}
 
 	@Override
-	public void setWriteListener(WriteListener writeListener) {
-		throw new UnsupportedOperationException("Not implemented.");
+	public void setWriteListener(final WriteListener writeListener) {
+		if (this.writeListener != null) throw new IllegalStateException("WriteListener already set.");
+		this.writeListener = writeListener;
+		if (this.ready) {
+			try {
+				writeListener.onWritePossible();
+			}
+			catch (final IOException e) {
+				writeListener.onError(e);
+			}
+		}
 	}
 
 }
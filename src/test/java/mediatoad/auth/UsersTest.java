@@ -9,12 +9,14 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import mediatoad.FakeTicker;
 import mediatoad.auth.Users.User;
 
 public class UsersTest {
@@ -50,4 +52,26 @@ public class UsersTest {
 		assertFalse(remoteuser.validPass("0"));
 	}
 
+	@Test
+	public void itRemembersVerifiedCredentialsForAWhile() throws Exception {
+		final File f = this.tmp.newFile();
+		FileUtils.write(f, "myuser $2a$10$SjEvTt.bmT24T23CK6cQB.LWvtTWuBeH6W9WixjjEEqcww2/ZnLz.\n", "UTF-8");
+		final FakeTicker ticker = new FakeTicker();
+		final Users undertest = new Users(f, ticker);
+
+		assertNull(undertest.validUser("myuser", "12"));
+		assertEquals(0, undertest.verifiedCredentialsCount());
+
+		assertNotNull(undertest.validUser("myuser", "123"));
+		assertEquals(1, undertest.verifiedCredentialsCount());
+		assertNotNull(undertest.validUser("myuser", "123"));
+		assertNull(undertest.validUser("myuser", "1234"));
+		assertNull(undertest.validUser("otheruser", "123"));
+		assertEquals(1, undertest.verifiedCredentialsCount());
+
+		ticker.addTime(6, TimeUnit.MINUTES);
+		assertEquals(0, undertest.verifiedCredentialsCount());
+		assertNotNull(undertest.validUser("myuser", "123"));
+	}
+
 }
@@ -13,6 +13,7 @@ import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -23,16 +24,21 @@ import org.junit.Test;
 import com.google.common.collect.ImmutableMap;
 
 import mediatoad.FakeTicker;
+import mediatoad.db.WriteLog.Table;
 
 public class DbCacheTest {
 
 	private MediaDb db;
+	private WriteLog writeLog;
 	private FakeTicker ticker;
 	private DbCache undertest;
 
 	@Before
 	public void before() throws Exception {
 		this.db = mock(MediaDb.class);
+		this.writeLog = new WriteLog();
+		when(this.db.getWriteLog()).thenReturn(this.writeLog);
+		when(this.db.getWriteCount()).thenAnswer((inv) -> this.writeLog.getVersion());
 		this.ticker = new FakeTicker();
 		this.undertest = new DbCache(this.db, (e) -> e.run(), true, this.ticker);
 	}
@@ -48,7 +54,6 @@ public class DbCacheTest {
 
 		final List<TagFrequency> ret1 = Arrays.asList(new TagFrequency("foo", 1));
 		when(this.db.getTopTags(eq(null), eq(pathPrefix), anyInt())).thenReturn(ret1);
-		when(this.db.getWriteCount()).thenReturn(1L);
 
 		assertEquals(ret1, this.undertest.dirTopTags(null, pathPrefix));
 		verify(this.db, times(1)).getTopTags(any(), any(), anyInt());
@@ -59,13 +64,33 @@ public class DbCacheTest {
 
 		final List<TagFrequency> ret2 = Arrays.asList(new TagFrequency("bar", 1));
 		when(this.db.getTopTags(eq(null), eq(pathPrefix), anyInt())).thenReturn(ret2);
-		when(this.db.getWriteCount()).thenReturn(2L);
+		this.writeLog.record(EnumSet.of(Table.TAGS), Collections.singleton(pathPrefix + "/sub"));
 
 		this.ticker.addTime(10, TimeUnit.MINUTES);
 		assertEquals(ret2, this.undertest.dirTopTags(null, pathPrefix));
 		verify(this.db, times(2)).getTopTags(any(), any(), anyInt());
 	}
 
+	@Test
+	public void itDoesNotRefreshDirTopTagsForUnrelatedWrites() throws Exception {
+		final String pathPrefix = "/some/media/dir";
+		final List<TagFrequency> ret1 = Arrays.asList(new TagFrequency("foo", 1));
+		when(this.db.getTopTags(eq(null), eq(pathPrefix), anyInt())).thenReturn(ret1);
+		assertEquals(ret1, this.undertest.dirTopTags(null, pathPrefix));
+
+		this.writeLog.record(EnumSet.of(Table.PLAYBACK, Table.INFOS), null);
+		this.writeLog.record(EnumSet.of(Table.TAGS), Collections.singleton("/some/media/other"));
+		this.writeLog.record(EnumSet.of(Table.FILES), Collections.singleton("/some/media/dir-2"));
+		this.ticker.addTime(10, TimeUnit.MINUTES);
+		assertEquals(ret1, this.undertest.dirTopTags(null, pathPrefix));
+		verify(this.db, times(1)).getTopTags(any(), any(), anyInt());
+
+		this.writeLog.record(EnumSet.of(Table.FILES), Collections.singleton("/some/media/dir"));
+		this.ticker.addTime(10, TimeUnit.MINUTES);
+		this.undertest.dirTopTags(null, pathPrefix);
+		verify(this.db, times(2)).getTopTags(any(), any(), anyInt());
+	}
+
 	@Test
 	public void itDoesNotReturnNullNodePrefs() throws Exception {
 		assertNotNull(this.undertest.nodePrefs("foo"));
@@ -75,7 +100,6 @@ public class DbCacheTest {
 	public void itCachesDbPrefs() throws Exception {
 		final Map<String, String> ret1 = ImmutableMap.of("foo", "bar");
 		when(this.db.getNodePrefs("nodeId")).thenReturn(ret1);
-		when(this.db.getWriteCount()).thenReturn(1L);
 
 		for (int i = 0; i < 3; i++) {
 			this.ticker.addTime(2, TimeUnit.NANOSECONDS);
@@ -84,8 +108,15 @@ public class DbCacheTest {
 		verify(this.db, times(1)).getNodePrefs(anyString());
 
 		final Map<String, String> ret2 = ImmutableMap.of("foo", "buzz");
+		this.writeLog.record(EnumSet.of(Table.TAGS, Table.PLAYBACK), null);
+		for (int i = 0; i < 3; i++) {
+			this.ticker.addTime(2, TimeUnit.NANOSECONDS);
+			assertEquals(ret1, this.undertest.nodePrefs("nodeId"));
+		}
+		verify(this.db, times(1)).getNodePrefs(anyString());
+
 		when(this.db.getNodePrefs("nodeId")).thenReturn(ret2);
-		when(this.db.getWriteCount()).thenReturn(2L);
+		this.writeLog.record(EnumSet.of(Table.NODEPREFS), null);
 
 		for (int i = 0; i < 3; i++) {
 			this.ticker.addTime(2, TimeUnit.NANOSECONDS);
@@ -0,0 +1,79 @@
+package mediatoad.db;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import mediatoad.util.DirSnapshot.Listing;
+
+public class DbDirSnapshotTest {
+
+	private MediaDb mediaDb;
+	private ExecutorService dbEx;
+
+	@Before
+	public void before() throws Exception {
+		this.mediaDb = new InMemoryMediaDb();
+		this.dbEx = MoreExecutors.newDirectExecutorService();
+	}
+
+	@Test
+	public void itReturnsStoredListingIfNotModified() throws Exception {
+		final File dir = new File("/media/a");
+		final File subDir = new File(dir, "b");
+		final File file = new File(dir, "1.mp4");
+
+		final DbDirSnapshot first = new DbDirSnapshot(this.mediaDb, this.dbEx);
+		assertNull(first.get(dir, 1234L));
+		first.put(dir, 1234L, Arrays.asList(subDir), Arrays.asList(file));
+		first.scanComplete();
+
+		final DbDirSnapshot second = new DbDirSnapshot(this.mediaDb, this.dbEx);
+		assertNull(second.get(dir, 1235L));
+		final Listing listing = second.get(dir, 1234L);
+		assertEquals(Arrays.asList(subDir), listing.getSubDirs());
+		assertEquals(Arrays.asList(file), listing.getFiles());
+	}
+
+	@Test
+	public void itRemovesDirsNotSeenDuringScan() throws Exception {
+		final File dir1 = new File("/media/a");
+		final File dir2 = new File("/media/b");
+
+		final DbDirSnapshot first = new DbDirSnapshot(this.mediaDb, this.dbEx);
+		first.put(dir1, 1234L, Collections.emptyList(), Collections.emptyList());
+		first.put(dir2, 1234L, Collections.emptyList(), Collections.emptyList());
+		first.scanComplete();
+
+		final DbDirSnapshot second = new DbDirSnapshot(this.mediaDb, this.dbEx);
+		second.get(dir1, 1234L);
+		second.scanComplete();
+
+		assertThat(this.mediaDb.getAllDirContents().keySet(), contains(dir1.getAbsolutePath()));
+	}
+
+	@Test
+	public void itDoesNotStoreRecentlyModifiedDirs() throws Exception {
+		final File dir = new File("/media/a");
+		final long modified = System.currentTimeMillis();
+
+		final DbDirSnapshot first = new DbDirSnapshot(this.mediaDb, this.dbEx);
+		first.put(dir, modified, Collections.emptyList(), Collections.emptyList());
+		first.scanComplete();
+
+		final DbDirSnapshot second = new DbDirSnapshot(this.mediaDb, this.dbEx);
+		assertNull(second.get(dir, modified));
+	}
+
+}
@@ -2,6 +2,8 @@ package mediatoad.db;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -11,10 +13,16 @@ import static org.junit.Assert.assertTrue;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.RandomStringUtils;
@@ -28,6 +36,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
+import mediatoad.db.WriteLog.Table;
+
 public class MediaDbTest {
 
 	@Rule public TemporaryFolder tmp = new TemporaryFolder();
@@ -85,6 +95,31 @@ public class MediaDbTest {
 				new Tag("my-tag", "source", 1234567891L, false)));
 	}
 
+	@Test
+	public void itGetsTagsForManyFilesAtOnce() throws Exception {
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			w.storeFileData(new File("/media/a.wav"), new FileData(12, 123456, "hash-a", "md5-a", "mime/type", "id-a", BigInteger.ZERO, false));
+			w.storeFileData(new File("/media/b.wav"), new FileData(12, 123456, "hash-b", "md5-b", "mime/type", "id-b", BigInteger.ZERO, false));
+			w.storeFileData(new File("/media/c\"'.wav"), new FileData(12, 123456, "hash-c", "md5-c", "mime/type", "id-\"'c", BigInteger.ZERO, false));
+			assertTrue(w.addTag("id-a", "tag-2", "", 1234567890L));
+			assertTrue(w.addTag("id-a", "tag-1", "", 1234567891L));
+			assertTrue(w.addTag("id-a", "hidden", ".hidden", 1234567892L));
+			assertTrue(w.mergeTag("id-a", "deleted", "", 1234567899L, true));
+			assertTrue(w.addTag("id-\"'c", "tag-3", "", 1234567893L));
+		}
+
+		final Map<String, Collection<Tag>> actual = this.undertest.getTags(Arrays.asList("id-\"'c", "id-b", "id-a", "id-missing"), false, false);
+		assertThat(actual.keySet(), contains("id-\"'c", "id-b", "id-a", "id-missing"));
+		assertThat(actual.get("id-a"), contains(
+				new Tag("tag-1", "", 1234567891L, false),
+				new Tag("tag-2", "", 1234567890L, false)));
+		assertThat(actual.get("id-b"), empty());
+		assertThat(actual.get("id-\"'c"), contains(new Tag("tag-3", "", 1234567893L, false)));
+		assertThat(actual.get("id-missing"), empty());
+
+		assertThat(this.undertest.getTags(Collections.emptyList(), false, false).entrySet(), empty());
+	}
+
 	@Test
 	public void itGetsGettingHiddenTags() throws Exception {
 		final String fileId = "myid";
@@ -246,6 +281,57 @@ public class MediaDbTest {
 		assertEquals(1234567892L, undeletedTag.getModified());
 	}
 
+	@Test
+	public void itNotifiesListenersOfTagChangesAfterCommit() throws Exception {
+		final List<TagChange> changes = new ArrayList<>();
+		this.undertest.addTagChangeListener(changes::addAll);
+		final BigInteger auth = BigInteger.valueOf(123);
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			addMockFiles(w, "id1", auth);
+			assertTrue(w.addTag("id1", "my-tag", 1234567890L));
+			assertTrue(w.addTag("id1", ".hidden", ".cls", 1234567890L));
+			assertFalse(w.addTag("id1", "MY-TAG", 1234567890L));
+			assertThat(changes, hasSize(0));
+		}
+		assertThat(changes, contains(new TagChange("id1", "my-tag", auth, 1)));
+
+		changes.clear();
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			assertTrue(w.addTag("id1", "my-tag", "other-cls", 1234567891L));
+			w.setTagModifiedAndDeleted("id1", "my-tag", "", true, 1234567892L);
+		}
+		assertThat(changes, hasSize(0));
+
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			w.setTagModifiedAndDeleted("id1", "my-tag", "other-cls", true, 1234567893L);
+			w.setTagModifiedAndDeleted("id1", "my-tag", "other-cls", true, 1234567894L);
+		}
+		assertThat(changes, contains(new TagChange("id1", "my-tag", auth, -1)));
+	}
+
+	@Test
+	public void itRecordsWhichTablesAndDirsWereWritten() throws Exception {
+		final WriteLog log = this.undertest.getWriteLog();
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			addMockFiles(w, "id1", BigInteger.ZERO);
+		}
+		final long v1 = log.getVersion();
+
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			w.recordPlayback("id1", 1234567890L, true);
+		}
+		assertTrue(log.changedSince(v1, Table.PLAYBACK));
+		assertFalse(log.changedSince(v1, Table.FILES, Table.TAGS));
+		final long v2 = log.getVersion();
+
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			assertTrue(w.addTag("id1", "my-tag", 1234567890L));
+		}
+		assertTrue(log.changedSince(v2, "/media", Table.FILES, Table.TAGS));
+		assertFalse(log.changedSince(v2, "/other", Table.FILES, Table.TAGS));
+		assertFalse(log.changedSince(v2, Table.PLAYBACK));
+	}
+
 	@Test
 	public void itMarkesFileAsMissing() throws Exception {
 		final File file = new File("/media/foo.wav");
@@ -273,6 +359,22 @@ public class MediaDbTest {
 		assertEquals(new FileInfo(0, 2000, 1000), this.undertest.readInfoCheckingFileSize("id1", 0));
 	}
 
+	@Test
+	public void itReadsAllInfosAtOnce() throws Exception {
+		final List<FileIdAndInfo> infos = ImmutableList.of(
+				new FileIdAndInfo("id1", new File("/media/foo.jpg"), new FileInfo(0, 2000, 1000)),
+				new FileIdAndInfo("id2", new File("/media/bar.mp4"), new FileInfo(123456, 640, 480))
+				);
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			w.storeInfos(infos);
+		}
+
+		final PreloadedFileInfos preloaded = this.undertest.readAllInfos();
+		assertEquals(2, preloaded.size());
+		assertEquals(new FileInfo(123456, 640, 480), preloaded.get("id2", new File("/media/bar.mp4")));
+		assertEquals(null, preloaded.get("id3", new File("/media/other.mp4")));
+	}
+
 	@Test
 	public void itInsertsInfosWithSameIdTwiceIn1Batch() throws Exception {
 		final List<FileIdAndInfo> infos = ImmutableList.of(
@@ -323,6 +425,69 @@ public class MediaDbTest {
 				new TagFrequency("tag2", 6)));
 	}
 
+	@Test
+	public void itMaintainsDirTagsAsFilesAndTagsChange() throws Exception {
+		final BigInteger auth = BigInteger.valueOf(234567);
+		final File file = new File("/media/sub/dir/id-0.wav");
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			addMockFiles(w, "sub/dir/id-0", BigInteger.ZERO, "tag1", "Tag2");
+			addMockFiles(w, "sub/id-1", BigInteger.ZERO, "TAG1");
+			addMockFiles(w, "other/id-2", BigInteger.ZERO, "tag1");
+		}
+		assertThat(this.undertest.getTopTags(null, "/media/sub", 10), contains(
+				new TagFrequency("tag1", 2),
+				new TagFrequency("Tag2", 1)));
+		assertThat(this.undertest.getTopTags(null, "/media/sub/dir", 10), contains(
+				new TagFrequency("tag1", 1),
+				new TagFrequency("Tag2", 1)));
+
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			w.setFileMissing(file.getAbsolutePath(), true);
+		}
+		assertThat(this.undertest.getTopTags(null, "/media/sub", 10), contains(new TagFrequency("tag1", 1)));
+		assertThat(this.undertest.getTopTags(null, "/media/sub/dir", 10), hasSize(0));
+
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			w.setFileMissing(file.getAbsolutePath(), false);
+			w.mergeTag("sub/dir/id-0", "Tag2", "", 1234567891L, true);
+		}
+		assertThat(this.undertest.getTopTags(null, "/media/sub", 10), contains(new TagFrequency("tag1", 2)));
+
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			w.updateFileAuth(file, auth);
+		}
+		assertThat(this.undertest.getTopTags(null, "/media/sub", 10), contains(new TagFrequency("tag1", 1)));
+		assertThat(this.undertest.getTopTags(ImmutableSet.of(auth), "/media/sub", 10), contains(new TagFrequency("tag1", 2)));
+		assertThat(this.undertest.getTopTags(ImmutableSet.of(auth), null, 10), contains(new TagFrequency("tag1", 3)));
+
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			w.removeFile(file);
+		}
+		assertThat(this.undertest.getTopTags(ImmutableSet.of(auth), "/media/sub", 10), contains(new TagFrequency("tag1", 1)));
+		assertThat(this.undertest.getTopTags(ImmutableSet.of(auth), null, 10), contains(new TagFrequency("tag1", 2)));
+	}
+
+	@Test
+	public void itPopulatesDirTagsForExistingDb() throws Exception {
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			for (int i = 0; i < 3; i++) {
+				addMockFiles(w, "sub/id-" + i, BigInteger.ZERO, "tag1");
+			}
+			addMockFiles(w, "id-3", BigInteger.ZERO, "tag2");
+		}
+		try (final Connection c = DriverManager.getConnection("jdbc:sqlite:" + this.dbFile.getAbsolutePath())) {
+			try (final Statement st = c.createStatement()) {
+				st.execute("DROP TABLE dir_tags;");
+			}
+		}
+
+		final MediaDb reopened = new MediaDb(this.dbFile);
+		assertThat(reopened.getTopTags(null, null, 10), contains(
+				new TagFrequency("tag1", 3),
+				new TagFrequency("tag2", 1)));
+		assertThat(reopened.getTopTags(null, "/media/sub", 10), contains(new TagFrequency("tag1", 3)));
+	}
+
 	@Test
 	public void itGetsAllTags() throws Exception {
 		try (final WritableMediaDb w = this.undertest.getWritable()) {
@@ -331,9 +496,31 @@ public class MediaDbTest {
 				w.addTag("id-" + i, "foo hidden", ".class", 1234567891L);  // . classes should be excluded
 				w.mergeTag("id-" + i, "foodeleted", "", 1234567890L, true);
 			}
+			for (int i = 0; i < 3; i++) {
+				addMockFiles(w, "id-auth-" + i, BigInteger.ONE, "foobar");
+			}
 		}
-		assertThat(this.undertest.getAllTagsNotMissingNotDeleted(), contains(
+		final TagIndex.Builder builder = new TagIndex.Builder();
+		this.undertest.addAllTagsNotMissingNotDeleted(builder);
+		final TagIndex index = builder.build(10, 100);
+		assertEquals(1, index.tagCount());
+		assertThat(index.suggestTags("foo", null), contains(
 				new TagFrequency("foobar", 10)));
+		assertThat(index.suggestTags("foo", Collections.singleton(BigInteger.ONE)), contains(
+				new TagFrequency("foobar", 13)));
+	}
+
+	@Test
+	public void itGetsPlaybackForManyFilesAtOnce() throws Exception {
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			w.recordPlayback("id-a", 1234567890L, false);
+			w.recordPlayback("id-b", 2234567890L, true);
+		}
+
+		final Map<String, Playback> actual = this.undertest.getPlayback(Arrays.asList("id-b", "id-missing", "id-a"));
+		assertThat(actual.keySet(), contains("id-b", "id-a"));
+		assertEquals(1234567890L, actual.get("id-a").getDateLastPlayed());
+		assertEquals(1, actual.get("id-b").getCompleteCount());
 	}
 
 	@Test
@@ -435,6 +622,33 @@ public class MediaDbTest {
 		assertEquals(ImmutableMap.of(id2, "true"), this.undertest.getAllNodePref("my_pref_1"));
 	}
 
+	@Test
+	public void itStoresAndRemovesDirContents() throws Exception {
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			w.storeDirContents(ImmutableMap.of(
+					"/media/a", new DirContents(1234L, ImmutableList.of("b", "c"), ImmutableList.of("1.mp4", "2.mp4")),
+					"/media/a/b", new DirContents(5678L, ImmutableList.of(), ImmutableList.of())));
+		}
+
+		Map<String, DirContents> actual = this.undertest.getAllDirContents();
+		assertThat(actual.keySet(), containsInAnyOrder("/media/a", "/media/a/b"));
+		assertEquals(1234L, actual.get("/media/a").getModified());
+		assertEquals(ImmutableList.of("b", "c"), actual.get("/media/a").getSubDirNames());
+		assertEquals(ImmutableList.of("1.mp4", "2.mp4"), actual.get("/media/a").getFileNames());
+		assertEquals(ImmutableList.of(), actual.get("/media/a/b").getSubDirNames());
+		assertEquals(ImmutableList.of(), actual.get("/media/a/b").getFileNames());
+
+		try (final WritableMediaDb w = this.undertest.getWritable()) {
+			w.storeDirContents(ImmutableMap.of("/media/a", new DirContents(4321L, ImmutableList.of(), ImmutableList.of("3.mp4"))));
+			w.removeDirContents(ImmutableList.of("/media/a/b"));
+		}
+
+		actual = this.undertest.getAllDirContents();
+		assertThat(actual.keySet(), contains("/media/a"));
+		assertEquals(4321L, actual.get("/media/a").getModified());
+		assertEquals(ImmutableList.of("3.mp4"), actual.get("/media/a").getFileNames());
+	}
+
 	private static void addMockFiles(final WritableMediaDb w, final String id, final BigInteger auth, final String... tags) throws SQLException {
 		final File f = new File("/media/" + id + ".wav");
 		w.storeFileData(f, new FileData(12, 123456, "myhash-" + id, "mime/type", "mymd5=" + id, id, null, false));
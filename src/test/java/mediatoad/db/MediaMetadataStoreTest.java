@@ -10,7 +10,10 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
@@ -113,6 +116,33 @@ public class MediaMetadataStoreTest {
 				callIdForFile(f2));
 	}
 
+	@Test
+	public void itResolvesQueuedFilesTogether () throws Exception {
+		final File f1 = mockMediaFile("media-1.ext");
+		final File f2 = mockMediaFile("media-2.ext");
+		final File f3 = mockMediaFile("media-3.ext");
+		final String id1 = callIdForFile(f1);
+		final String id2 = callIdForFile(f2);
+		final String id3 = callIdForFile(f3);
+		FileUtils.touch(f2);  // Needs rehashing, so is not resolved from the prefetched data.
+
+		final ArgumentCaptor<Runnable> worker = ArgumentCaptor.forClass(Runnable.class);
+		doReturn(null).when(this.fakeEx).schedule(worker.capture(), anyLong(), any(TimeUnit.class));
+		final StoringMediaIdCallback cb1 = new StoringMediaIdCallback();
+		final StoringMediaIdCallback cb2 = new StoringMediaIdCallback();
+		final StoringMediaIdCallback cb3 = new StoringMediaIdCallback();
+		this.undertest.idForFile(f1, BigInteger.ZERO, cb1);
+		this.undertest.idForFile(f2, BigInteger.ZERO, cb2);
+		this.undertest.idForFile(f3, BigInteger.ZERO, cb3);
+
+		doCallRealMethod().when(this.fakeEx).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+		worker.getValue().run();
+
+		assertEquals(id1, cb1.getMediaId());
+		assertEquals(id2, cb2.getMediaId());
+		assertEquals(id3, cb3.getMediaId());
+	}
+
 	@Ignore("It is debatable if this test should pass or not.")
 	@Test
 	public void itStoresTheSameIdInTheFilesTableForIdenticalFiles() throws Exception {
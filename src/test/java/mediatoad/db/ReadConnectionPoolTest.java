@@ -0,0 +1,113 @@
+package mediatoad.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import mediatoad.db.ReadConnectionPool.ReadConnection;
+
+public class ReadConnectionPoolTest {
+
+	private static final AtomicInteger NUMBER = new AtomicInteger(0);
+
+	private String dbPath;
+	private Connection keepAlive;
+	private ExecutorService ex;
+
+	@Before
+	public void before() throws Exception {
+		this.dbPath = "jdbc:sqlite:file:pooltestdb-" + NUMBER.incrementAndGet() + "?mode=memory&cache=shared";
+		this.keepAlive = DriverManager.getConnection(this.dbPath);
+		try (final Statement st = this.keepAlive.createStatement()) {
+			st.executeUpdate("CREATE TABLE t (v INT);");
+			st.executeUpdate("INSERT INTO t VALUES (1);");
+		}
+		this.ex = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void after() throws Exception {
+		this.ex.shutdownNow();
+		this.keepAlive.close();
+	}
+
+	@Test
+	public void itReusesStatementsOnSameConnection() throws Exception {
+		final ReadConnectionPool undertest = new ReadConnectionPool(() -> DriverManager.getConnection(this.dbPath), 1);
+		final PreparedStatement first;
+		try (final ReadConnection c = undertest.borrow()) {
+			first = c.prepare("SELECT v FROM t WHERE v=?;");
+			first.setInt(1, 1);
+			first.setMaxRows(1);
+			try (final ResultSet rs = first.executeQuery()) {
+				assertTrue(rs.next());
+			}
+		}
+		try (final ReadConnection c = undertest.borrow()) {
+			final PreparedStatement second = c.prepare("SELECT v FROM t WHERE v=?;");
+			assertSame(first, second);
+			assertEquals(0, second.getMaxRows());
+			assertNotSame(second, c.prepare("SELECT v FROM t;"));
+		}
+	}
+
+	@Test
+	public void itRefusesWrites() throws Exception {
+		final ReadConnectionPool undertest = new ReadConnectionPool(() -> DriverManager.getConnection(this.dbPath), 1);
+		try (final ReadConnection c = undertest.borrow()) {
+			c.prepare("INSERT INTO t VALUES (2);").executeUpdate();
+			fail("Expected write to fail.");
+		}
+		catch (final SQLException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void itBlocksWhenAllConnectionsAreInUse() throws Exception {
+		final ReadConnectionPool undertest = new ReadConnectionPool(() -> DriverManager.getConnection(this.dbPath), 2);
+		final ReadConnection a = undertest.borrow();
+		final ReadConnection b = undertest.borrow();
+		assertNotSame(a, b);
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final Future<ReadConnection> third = this.ex.submit(() -> {
+			started.countDown();
+			return undertest.borrow();
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		try {
+			third.get(100, TimeUnit.MILLISECONDS);
+			fail("Expected borrow() to block.");
+		}
+		catch (final TimeoutException e) {
+			// Expected.
+		}
+		assertFalse(third.isDone());
+
+		b.close();
+		assertSame(b, third.get(5, TimeUnit.SECONDS));
+	}
+
+}
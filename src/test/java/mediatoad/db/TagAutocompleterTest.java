@@ -1,8 +1,8 @@
 package mediatoad.db;
 
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
@@ -11,8 +11,15 @@ import static org.mockito.Mockito.mock;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -23,7 +30,6 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import mediatoad.db.MockMediaMetadataStore.Batch;
-import mediatoad.db.TagAutocompleter.FragmentAndTag;
 
 public class TagAutocompleterTest {
 
@@ -52,26 +58,14 @@ public class TagAutocompleterTest {
 		this.undertest = new TagAutocompleter(this.mediaDb, this.schEx);
 	}
 
-	@Test
-	public void itMakesFragments() throws Exception {
-		final List<FragmentAndTag> actual = TagAutocompleter.makeFragments("foobar", "foobar", 10);
-		assertThat(actual, contains(
-				new FragmentAndTag("oobar", "foobar", 10),
-				new FragmentAndTag("obar", "foobar", 10),
-				new FragmentAndTag("bar", "foobar", 10),
-				new FragmentAndTag("ar", "foobar", 10),
-				new FragmentAndTag("r", "foobar", 10)
-				));
-	}
-
 	@Test
 	public void itSuggestsTagPrefixMatches() throws Exception {
 		mockFilesWithTags();
 		this.undertest.generateIndex();
 
-		assertThat(this.undertest.suggestTags("zzzzzzzzzzzzzzzzzzz"), empty());
+		assertThat(this.undertest.suggestTags("zzzzzzzzzzzzzzzzzzz", null), empty());
 
-		final List<TagFrequency> actual = this.undertest.suggestTags("foo");
+		final List<TagFrequency> actual = this.undertest.suggestTags("foo", null);
 		assertEquals(Arrays.asList(
 				new TagFrequency("fooa", 7),
 				new TagFrequency("fooob", 6),
@@ -88,9 +82,9 @@ public class TagAutocompleterTest {
 		mockFilesWithTags();
 		this.undertest.generateIndex();
 
-		assertThat(this.undertest.suggestFragments("foo"), empty());
+		assertThat(this.undertest.suggestFragments("foo", null), empty());
 
-		final List<TagFrequency> actual = this.undertest.suggestFragments("oo");
+		final List<TagFrequency> actual = this.undertest.suggestFragments("oo", null);
 		assertEquals(Arrays.asList(
 				new TagFrequency("aooa", 7),
 				new TagFrequency("booa", 7),
@@ -105,7 +99,13 @@ public class TagAutocompleterTest {
 				new TagFrequency("dooob", 6),
 				new TagFrequency("eooob", 6),
 				new TagFrequency("fooob", 6),
-				new TagFrequency("gooob", 6)
+				new TagFrequency("gooob", 6),
+				new TagFrequency("aooc", 5),
+				new TagFrequency("booc", 5),
+				new TagFrequency("cooc", 5),
+				new TagFrequency("dooc", 5),
+				new TagFrequency("eooc", 5),
+				new TagFrequency("fooc", 5)
 				), actual);
 	}
 
@@ -119,19 +119,26 @@ public class TagAutocompleterTest {
 		}
 		this.undertest.generateIndex();
 
-		assertEquals(Arrays.asList(new TagFrequency("Blåhaj", 1)), this.undertest.suggestTags("Blå"));
-		assertEquals(Arrays.asList(new TagFrequency("Blåhaj", 1)), this.undertest.suggestTags("Bla"));
-		assertEquals(Arrays.asList(new TagFrequency("Blåhaj", 1)), this.undertest.suggestTags("bla"));
-		assertEquals(Arrays.asList(new TagFrequency("Blåhaj", 1)), this.undertest.suggestTags("bl"));
+		assertEquals(Arrays.asList(new TagFrequency("Blåhaj", 1)), this.undertest.suggestTags("Blå", null));
+		assertEquals(Arrays.asList(new TagFrequency("Blåhaj", 1)), this.undertest.suggestTags("Bla", null));
+		assertEquals(Arrays.asList(new TagFrequency("Blåhaj", 1)), this.undertest.suggestTags("bla", null));
+		assertEquals(Arrays.asList(new TagFrequency("Blåhaj", 1)), this.undertest.suggestTags("bl", null));
 
-		assertEquals(Arrays.asList(new TagFrequency("Blåhaj", 1)), this.undertest.suggestFragments("låh"));
-		assertEquals(Arrays.asList(new TagFrequency("Blåhaj", 1)), this.undertest.suggestFragments("lah"));
+		assertEquals(Arrays.asList(new TagFrequency("Blåhaj", 1)), this.undertest.suggestFragments("låh", null));
+		assertEquals(Arrays.asList(new TagFrequency("Blåhaj", 1)), this.undertest.suggestFragments("lah", null));
 	}
 
 	@Test
 	public void itIncrementsTagCount() throws Exception {
+		final Future<String> ggFile;
+		final Future<String> otherFile;
 		try (final Batch b = this.mockMediaMetadataStore.batch()) {
-			for (char x = 'a'; x <= 'z'; x++) {
+			otherFile = b.fileWithTags();
+			for (char x = 'a'; x <= 'f'; x++) {
+				b.fileWithTags("" + x + x);
+			}
+			ggFile = b.fileWithTags("gg");
+			for (char x = 'h'; x <= 'z'; x++) {
 				b.fileWithTags("" + x + x);
 			}
 			b.fileWithTags("12");
@@ -140,51 +147,63 @@ public class TagAutocompleterTest {
 		}
 
 		this.undertest.generateIndex();
-		assertEquals(Arrays.asList(new TagFrequency("ff", 1)), this.undertest.suggestTags("ff"));
-		assertEquals(Arrays.asList(new TagFrequency("ff", 1)), this.undertest.suggestFragments("f"));
+		assertEquals(Arrays.asList(new TagFrequency("ff", 1)), this.undertest.suggestTags("ff", null));
+		assertEquals(Arrays.asList(new TagFrequency("ff", 1)), this.undertest.suggestFragments("f", null));
 
 		// increment existing.
-		this.undertest.addOrIncrementTag("ff");
-		assertEquals(Arrays.asList(new TagFrequency("ff", 2)), this.undertest.suggestTags("ff"));
-		assertEquals(Arrays.asList(new TagFrequency("ff", 2)), this.undertest.suggestFragments("f"));
+		addTag(otherFile.get(), "ff");
+		assertEquals(Arrays.asList(new TagFrequency("ff", 2)), this.undertest.suggestTags("ff", null));
+		assertEquals(Arrays.asList(new TagFrequency("ff", 2)), this.undertest.suggestFragments("f", null));
 
 		// insert at start.
-		this.undertest.addOrIncrementTag("a");
-		assertEquals(Arrays.asList(new TagFrequency("a", 1), new TagFrequency("aa", 1)), this.undertest.suggestTags("a"));
-		assertEquals(Arrays.asList(new TagFrequency("aa", 1)), this.undertest.suggestFragments("a"));
+		addTag(otherFile.get(), "a");
+		assertEquals(Arrays.asList(new TagFrequency("a", 1), new TagFrequency("aa", 1)), this.undertest.suggestTags("a", null));
+		assertEquals(Arrays.asList(new TagFrequency("aa", 1)), this.undertest.suggestFragments("a", null));
 
 		// insert in middle.
-		this.undertest.addOrIncrementTag("fa");
-		assertEquals(Arrays.asList(new TagFrequency("fa", 1)), this.undertest.suggestTags("fa"));
-		assertEquals(Arrays.asList(new TagFrequency("ff", 2)), this.undertest.suggestFragments("f"));
+		addTag(otherFile.get(), "fa");
+		assertEquals(Arrays.asList(new TagFrequency("fa", 1)), this.undertest.suggestTags("fa", null));
+		assertEquals(Arrays.asList(new TagFrequency("ff", 2)), this.undertest.suggestFragments("f", null));
 
 		// insert but prefix is an existing entry.
-		this.undertest.addOrIncrementTag("fff");
-		assertEquals(Arrays.asList(new TagFrequency("fff", 1)), this.undertest.suggestTags("fff"));
-		assertEquals(Arrays.asList(new TagFrequency("ff", 2)), this.undertest.suggestFragments("f"));
+		addTag(otherFile.get(), "fff");
+		assertEquals(Arrays.asList(new TagFrequency("fff", 1)), this.undertest.suggestTags("fff", null));
+		assertEquals(Arrays.asList(new TagFrequency("ff", 2), new TagFrequency("fff", 1)), this.undertest.suggestFragments("f", null));
 
 		// insert at end.
-		this.undertest.addOrIncrementTag("zzz");
-		assertEquals(Arrays.asList(new TagFrequency("zzz", 1)), this.undertest.suggestTags("zzz"));
-		assertEquals(Arrays.asList(new TagFrequency("zz", 1)), this.undertest.suggestFragments("z"));
+		addTag(otherFile.get(), "zzz");
+		assertEquals(Arrays.asList(new TagFrequency("zzz", 1)), this.undertest.suggestTags("zzz", null));
+		assertEquals(Arrays.asList(new TagFrequency("zz", 1), new TagFrequency("zzz", 1)), this.undertest.suggestFragments("z", null));
 
 		// more complex, importantly "23" is repeated creating 2 fragments with the same prefix.
-		assertEquals(Arrays.asList(new TagFrequency("123923", 1)), this.undertest.suggestFragments("9"));
-		this.undertest.addOrIncrementTag("123923");
-		assertEquals(Arrays.asList(new TagFrequency("123923", 2), new TagFrequency("12", 1)), this.undertest.suggestTags("1"));
-		assertEquals(Arrays.asList(new TagFrequency("123923", 2), new TagFrequency("12", 1)), this.undertest.suggestFragments("2"));
-		assertEquals(Arrays.asList(new TagFrequency("123923", 2), new TagFrequency("23", 1)), this.undertest.suggestFragments("3"));
-		assertEquals(Arrays.asList(new TagFrequency("123923", 2)), this.undertest.suggestFragments("9"));
-
-		// decrement existing.
-		this.undertest.decrementTag("gg");
-		assertEquals(Arrays.asList(new TagFrequency("gg", 0)), this.undertest.suggestTags("gg"));
-		assertEquals(Arrays.asList(new TagFrequency("gg", 0)), this.undertest.suggestFragments("g"));
+		assertEquals(Arrays.asList(new TagFrequency("123923", 1)), this.undertest.suggestFragments("9", null));
+		addTag(otherFile.get(), "123923");
+		assertEquals(Arrays.asList(new TagFrequency("123923", 2), new TagFrequency("12", 1)), this.undertest.suggestTags("1", null));
+		assertEquals(Arrays.asList(new TagFrequency("123923", 2), new TagFrequency("12", 1)), this.undertest.suggestFragments("2", null));
+		assertEquals(Arrays.asList(new TagFrequency("123923", 2), new TagFrequency("23", 1)), this.undertest.suggestFragments("3", null));
+		assertEquals(Arrays.asList(new TagFrequency("123923", 2)), this.undertest.suggestFragments("9", null));
+
+		// decrement existing, no files left so no longer suggested.
+		rmTag(ggFile.get(), "gg");
+		assertThat(this.undertest.suggestTags("gg", null), empty());
+		assertThat(this.undertest.suggestFragments("g", null), empty());
+
+		// same results once new tags are merged into the index.
+		this.undertest.mergeDelta();
+		assertEquals(Arrays.asList(new TagFrequency("a", 1), new TagFrequency("aa", 1)), this.undertest.suggestTags("a", null));
+		assertEquals(Arrays.asList(new TagFrequency("fa", 1)), this.undertest.suggestTags("fa", null));
+		assertEquals(Arrays.asList(new TagFrequency("ff", 2), new TagFrequency("fff", 1)), this.undertest.suggestFragments("f", null));
+		assertEquals(Arrays.asList(new TagFrequency("zz", 1), new TagFrequency("zzz", 1)), this.undertest.suggestFragments("z", null));
+		assertThat(this.undertest.suggestTags("gg", null), empty());
 	}
 
 	@Test
 	public void itIncrementsTagCount2() throws Exception {
+		final Future<String> otherFile1;
+		final Future<String> otherFile2;
 		try (final Batch b = this.mockMediaMetadataStore.batch()) {
+			otherFile1 = b.fileWithTags();
+			otherFile2 = b.fileWithTags();
 			b.fileWithTags("power line");
 			b.fileWithTags("power_lines");
 			b.fileWithTags("powerline");
@@ -199,25 +218,120 @@ public class TagAutocompleterTest {
 				new TagFrequency("powerPuff", 1),
 				new TagFrequency("powerPuff_girls", 1),
 				new TagFrequency("powerpuff_girls_z", 1)),
-				this.undertest.suggestTags("powerp"));
+				this.undertest.suggestTags("powerp", null));
 
-		this.undertest.changeTagCount("powerpuff_girls", 1);
+		// Tags differing only in case are the same tag, as in the DB.
+		addTag(otherFile1.get(), "powerpuff_girls");
 		assertEquals(Arrays.asList(
+				new TagFrequency("powerPuff_girls", 2),
 				new TagFrequency("powerPuff", 1),
-				new TagFrequency("powerPuff_girls", 1),
-				new TagFrequency("powerpuff_girls", 1),
 				new TagFrequency("powerpuff_girls_z", 1)),
-				this.undertest.suggestTags("powerp"));
+				this.undertest.suggestTags("powerp", null));
 
-		this.undertest.changeTagCount("powerpuff_girls", 1);
+		addTag(otherFile2.get(), "powerpuff_girls");
 		assertEquals(Arrays.asList(
-				new TagFrequency("powerpuff_girls", 2),
+				new TagFrequency("powerPuff_girls", 3),
 				new TagFrequency("powerPuff", 1),
-				new TagFrequency("powerPuff_girls", 1),
 				new TagFrequency("powerpuff_girls_z", 1)),
-				this.undertest.suggestTags("powerp"));
+				this.undertest.suggestTags("powerp", null));
+
+		assertEquals(Arrays.asList(), this.undertest.suggestFragments("powerp", null));
+	}
+
+	@Test
+	public void itIgnoresWritesThatDoNotChangeCounts() throws Exception {
+		final Future<String> file;
+		final Future<String> otherFile;
+		try (final Batch b = this.mockMediaMetadataStore.batch()) {
+			file = b.fileWithTags("foo");
+			otherFile = b.fileWithTags();
+		}
+		final String fileId = file.get();
+		this.undertest.generateIndex();
+
+		try (final WritableMediaDb w = this.mediaDb.getWritable()) {
+			w.addTag(fileId, "bar", ".cls", 1L);
+			w.addTag(fileId, "FOO", 1L);
+		}
+		assertEquals(Arrays.asList(new TagFrequency("foo", 1)), this.undertest.suggestTags("foo", null));
+		assertThat(this.undertest.suggestTags("bar", null), empty());
+
+		rmTag(fileId, "foo");
+		rmTag(fileId, "foo");
+		assertThat(this.undertest.suggestTags("foo", null), empty());
+		addTag(otherFile.get(), "foo");
+		assertEquals(Arrays.asList(new TagFrequency("foo", 1)), this.undertest.suggestTags("foo", null));
+	}
+
+	@Test
+	public void itMergesDeltaIntoIndexWhenItGetsBig() throws Exception {
+		final String fileId = this.mockMediaMetadataStore.addFileWithTags("foo");
+		this.undertest.generateIndex();
 
-		assertEquals(Arrays.asList(), this.undertest.suggestFragments("powerp"));
+		addTag(fileId, makeTags(0, 999));
+		assertThat(dumpIndex(), startsWith("tags=1 "));
+		assertEquals(Arrays.asList(new TagFrequency("tag998", 1)), this.undertest.suggestTags("tag998", null));
+
+		addTag(fileId, makeTags(999, 1100));
+		assertThat(dumpIndex(), startsWith("tags=1101 "));
+		assertEquals(Arrays.asList(new TagFrequency("tag998", 1)), this.undertest.suggestTags("tag998", null));
+		assertEquals(Arrays.asList(new TagFrequency("tag1099", 1)), this.undertest.suggestTags("tag1099", null));
+	}
+
+	private static String[] makeTags(final int from, final int to) {
+		final String[] ret = new String[to - from];
+		for (int i = from; i < to; i++) {
+			ret[i - from] = "tag" + i;
+		}
+		return ret;
+	}
+
+	private String dumpIndex() {
+		final StringWriter w = new StringWriter();
+		this.undertest.dumpTo(new PrintWriter(w));
+		return w.toString();
+	}
+
+	@Test
+	public void itOnlyCountsFilesUserCanSee() throws Exception {
+		final BigInteger auth1 = BigInteger.valueOf(1);
+		final BigInteger auth2 = BigInteger.valueOf(2);
+		this.mockMediaMetadataStore.addFileWithAuthAndTags(BigInteger.ZERO, "public", "shared");
+		this.mockMediaMetadataStore.addFileWithAuthAndTags(auth1, "secret1", "shared");
+		this.mockMediaMetadataStore.addFileWithAuthAndTags(auth2, "secret2", "shared");
+		this.undertest.generateIndex();
+
+		assertEquals(Arrays.asList(new TagFrequency("shared", 1)), this.undertest.suggestTags("s", null));
+		assertEquals(Arrays.asList(
+				new TagFrequency("shared", 2),
+				new TagFrequency("secret1", 1)),
+				this.undertest.suggestTags("s", Collections.singleton(auth1)));
+		assertEquals(Arrays.asList(
+				new TagFrequency("shared", 3),
+				new TagFrequency("secret1", 1),
+				new TagFrequency("secret2", 1)),
+				this.undertest.suggestTags("s", new HashSet<>(Arrays.asList(auth1, auth2))));
+		assertEquals(Arrays.asList(new TagFrequency("secret2", 1)), this.undertest.suggestFragments("ecret", Collections.singleton(auth2)));
+
+		this.mockMediaMetadataStore.addFileWithAuthAndTags(auth1, "secret3", "public");
+		assertEquals(Arrays.asList(new TagFrequency("public", 1)), this.undertest.suggestTags("p", null));
+		assertEquals(Arrays.asList(new TagFrequency("public", 2)), this.undertest.suggestTags("p", Collections.singleton(auth1)));
+		assertThat(this.undertest.suggestTags("secret3", null), empty());
+		assertEquals(Arrays.asList(new TagFrequency("secret3", 1)), this.undertest.suggestTags("secret3", Collections.singleton(auth1)));
+	}
+
+	private void addTag(final String fileId, final String... tags) throws SQLException, IOException {
+		try (final WritableMediaDb w = this.mediaDb.getWritable()) {
+			for (final String tag : tags) {
+				w.addTag(fileId, tag, System.currentTimeMillis());
+			}
+		}
+	}
+
+	private void rmTag(final String fileId, final String tag) throws SQLException, IOException {
+		try (final WritableMediaDb w = this.mediaDb.getWritable()) {
+			w.setTagModifiedAndDeleted(fileId, tag, "", true, System.currentTimeMillis());
+		}
 	}
 
 	private void mockFilesWithTags() throws IOException, InterruptedException, Exception {
@@ -241,8 +355,8 @@ public class TagAutocompleterTest {
 		ut.generateIndex();
 
 		final long startNanos = System.nanoTime();
-//		final List<TagFrequency> res = ut.suggestTags("a");
-		final List<TagFrequency> res = ut.suggestFragments("e");
+//		final List<TagFrequency> res = ut.suggestTags("a", null);
+		final List<TagFrequency> res = ut.suggestFragments("e", null);
 		final long endNanos = System.nanoTime();
 		System.out.println("Search took: "
 				+ TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos) + " millis = "
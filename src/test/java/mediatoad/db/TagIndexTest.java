@@ -0,0 +1,129 @@
+package mediatoad.db;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class TagIndexTest {
+
+	private static final BigInteger AUTH_1 = BigInteger.valueOf(1);
+	private static final BigInteger AUTH_2 = BigInteger.valueOf(2);
+
+	@Test
+	public void itSuggestsByPrefixAndFragment() throws Exception {
+		final TagIndex.Builder b = new TagIndex.Builder();
+		b.add("foobar", BigInteger.ZERO, 3);
+		b.add("barfoo", BigInteger.ZERO, 2);
+		b.add("Blåhaj", BigInteger.ZERO, 1);
+		b.add("two words", BigInteger.ZERO, 1);
+		final TagIndex undertest = b.build(10, 100);
+
+		assertEquals(Arrays.asList(new TagFrequency("foobar", 3)), undertest.suggestTags("foo", null));
+		assertEquals(Arrays.asList(new TagFrequency("barfoo", 2)), undertest.suggestFragments("foo", null));
+		assertEquals(Arrays.asList(new TagFrequency("Blåhaj", 1)), undertest.suggestTags("BLA", null));
+		assertEquals(Arrays.asList(new TagFrequency("Blåhaj", 1)), undertest.suggestFragments("haj", null));
+		assertEquals(Arrays.asList(new TagFrequency("two words", 1)), undertest.suggestFragments("words", null));
+		assertThat(undertest.suggestFragments(" words", null), empty());
+		assertThat(undertest.suggestTags("", null), empty());
+		assertThat(undertest.suggestTags("\0", null), empty());
+	}
+
+	@Test
+	public void itDoesNotCountTagsForOtherAuthIds() throws Exception {
+		final TagIndex.Builder b = new TagIndex.Builder();
+		b.add("tag", BigInteger.ZERO, 1);
+		b.add("tag", AUTH_1, 2);
+		b.add("tagsecret", AUTH_2, 5);
+		final TagIndex undertest = b.build(10, 100);
+
+		assertEquals(Arrays.asList(new TagFrequency("tag", 1)), undertest.suggestTags("ta", null));
+		assertEquals(Arrays.asList(new TagFrequency("tag", 3)), undertest.suggestTags("ta", Collections.singleton(AUTH_1)));
+		assertEquals(Arrays.asList(
+				new TagFrequency("tagsecret", 5),
+				new TagFrequency("tag", 1)),
+				undertest.suggestTags("ta", Collections.singleton(AUTH_2)));
+	}
+
+	@Test
+	public void itChangesCounts() throws Exception {
+		final TagIndex.Builder b = new TagIndex.Builder();
+		b.add("a", AUTH_1, 1);
+		b.add("ab", AUTH_1, 2);
+		final TagIndex undertest = b.build(10, 100);
+		final Set<BigInteger> auths = Collections.singleton(AUTH_1);
+
+		assertEquals(true, undertest.changeCount("a", AUTH_1, 5));
+		assertEquals(Arrays.asList(new TagFrequency("a", 6), new TagFrequency("ab", 2)), undertest.suggestTags("a", auths));
+
+		assertEquals(true, undertest.changeCount("ab", AUTH_1, -10));
+		assertEquals(Arrays.asList(new TagFrequency("a", 6)), undertest.suggestTags("a", auths));
+
+		assertEquals(false, undertest.changeCount("ac", AUTH_1, 1));
+		assertEquals(false, undertest.changeCount("a", AUTH_2, 1));
+	}
+
+	@Test
+	public void itGivesSameResultsFromPrecomputedTopTagsAsFromScanning() throws Exception {
+		final TagIndex.Builder b = new TagIndex.Builder();
+		final Random rnd = new Random(1234L);
+		for (int i = 0; i < 2000; i++) {
+			b.add(randomTag(rnd), BigInteger.valueOf(1 + rnd.nextInt(3)), 1 + rnd.nextInt(50));
+		}
+		final TagIndex scanned = b.build(20, Integer.MAX_VALUE);
+		final TagIndex precomputed = b.build(20, 4);
+
+		for (final String input : new String[] { "a", "b", "ab", "ba", "abc", "cab", "aaa", "bbbb", "d" }) {
+			for (int auth = 1; auth <= 3; auth++) {
+				final Set<BigInteger> auths = Collections.singleton(BigInteger.valueOf(auth));
+				assertEquals(input, scanned.suggestTags(input, auths), precomputed.suggestTags(input, auths));
+				assertEquals(input, scanned.suggestFragments(input, auths), precomputed.suggestFragments(input, auths));
+			}
+		}
+	}
+
+	@Ignore("Micro benchmark.")
+	@Test
+	public void itSuggestsQuickly() throws Exception {
+		final TagIndex.Builder b = new TagIndex.Builder();
+		final Random rnd = new Random(1234L);
+		for (int i = 0; i < 100_000; i++) {
+			b.add(randomTag(rnd) + randomTag(rnd) + randomTag(rnd), BigInteger.valueOf(rnd.nextInt(4)), 1 + rnd.nextInt(100));
+		}
+
+		long startNanos = System.nanoTime();
+		final TagIndex undertest = b.build(20, 256);
+		System.out.println("Build took: " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + "ms");
+
+		final Set<BigInteger> auths = Collections.singleton(BigInteger.ONE);
+		for (int round = 0; round < 5; round++) {
+			startNanos = System.nanoTime();
+			int results = 0;
+			for (final String input : new String[] { "a", "b", "c", "ab", "ba", "abc", "cab", "dab" }) {
+				final List<TagFrequency> res = undertest.suggestFragments(input, auths);
+				results += res.size();
+				results += undertest.suggestTags(input, auths).size();
+			}
+			System.out.println("16 lookups took: " + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos) + " micros, results=" + results);
+		}
+	}
+
+	private static String randomTag(final Random rnd) {
+		final char[] c = new char[2 + rnd.nextInt(5)];
+		for (int i = 0; i < c.length; i++) {
+			c[i] = (char) ('a' + rnd.nextInt(4));
+		}
+		return new String(c);
+	}
+
+}
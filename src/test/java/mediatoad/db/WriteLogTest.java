@@ -0,0 +1,108 @@
+package mediatoad.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import mediatoad.db.WriteLog.Table;
+
+public class WriteLogTest {
+
+	private WriteLog undertest;
+
+	@Before
+	public void before() throws Exception {
+		this.undertest = new WriteLog("/");
+	}
+
+	@Test
+	public void itTracksChangesPerTable() throws Exception {
+		assertEquals(0L, this.undertest.getVersion());
+		this.undertest.record(EnumSet.of(Table.PLAYBACK), null);
+		assertEquals(1L, this.undertest.getVersion());
+
+		assertTrue(this.undertest.changedSince(0L, Table.PLAYBACK));
+		assertTrue(this.undertest.changedSince(0L, Table.TAGS, Table.PLAYBACK));
+		assertFalse(this.undertest.changedSince(0L, Table.TAGS));
+		assertFalse(this.undertest.changedSince(1L, Table.PLAYBACK));
+
+		this.undertest.record(EnumSet.noneOf(Table.class), null);
+		assertEquals(2L, this.undertest.getVersion());
+		assertFalse(this.undertest.changedSince(1L, Table.PLAYBACK));
+	}
+
+	@Test
+	public void itTracksChangesPerDir() throws Exception {
+		this.undertest.record(EnumSet.of(Table.TAGS), Arrays.asList("/media/a/b", "/media/c"));
+
+		assertTrue(this.undertest.changedSince(0L, (String) null, Table.TAGS));
+		assertTrue(this.undertest.changedSince(0L, "/media", Table.TAGS));
+		assertTrue(this.undertest.changedSince(0L, "/media/", Table.TAGS));
+		assertTrue(this.undertest.changedSince(0L, "/media/a", Table.TAGS));
+		assertTrue(this.undertest.changedSince(0L, "/media/a/b", Table.TAGS));
+		assertTrue(this.undertest.changedSince(0L, "/media/c", Table.FILES, Table.TAGS));
+
+		assertFalse(this.undertest.changedSince(0L, "/media/a/b/d", Table.TAGS));
+		assertFalse(this.undertest.changedSince(0L, "/media/a/bb", Table.TAGS));
+		assertFalse(this.undertest.changedSince(0L, "/other", Table.TAGS));
+		assertFalse(this.undertest.changedSince(0L, "/media", Table.FILES));
+		assertFalse(this.undertest.changedSince(1L, "/media", Table.TAGS));
+
+		this.undertest.record(EnumSet.of(Table.FILES), Collections.singleton("/other"));
+		assertFalse(this.undertest.changedSince(0L, "/media/a/b/d", Table.FILES, Table.TAGS));
+		assertTrue(this.undertest.changedSince(1L, "/other", Table.FILES));
+		assertFalse(this.undertest.changedSince(1L, "/media", Table.FILES, Table.TAGS));
+	}
+
+	@Test
+	public void itTracksChangesPerDirWithBackslashSeparator() throws Exception {
+		this.undertest = new WriteLog("\\");
+		this.undertest.record(EnumSet.of(Table.TAGS), Arrays.asList("C:\\media\\a\\b"));
+
+		assertTrue(this.undertest.changedSince(0L, "C:\\media", Table.TAGS));
+		assertTrue(this.undertest.changedSince(0L, "C:\\media\\", Table.TAGS));
+		assertTrue(this.undertest.changedSince(0L, "C:\\media\\a\\b", Table.TAGS));
+
+		assertFalse(this.undertest.changedSince(0L, "C:\\media\\a\\bb", Table.TAGS));
+		assertFalse(this.undertest.changedSince(0L, "C:\\media\\a\\b\\d", Table.TAGS));
+		assertFalse(this.undertest.changedSince(0L, "C:\\other", Table.TAGS));
+	}
+
+	@Test
+	public void itAssumesAllDirsChangedWhenNotKnown() throws Exception {
+		this.undertest.record(EnumSet.of(Table.FILES), null);
+		assertTrue(this.undertest.changedSince(0L, "/media", Table.FILES));
+
+		final List<String> manyDirs = new ArrayList<>();
+		for (int i = 0; i <= WriteLog.MAX_DIRS_PER_WRITE; i++) {
+			manyDirs.add("/media/" + i);
+		}
+		this.undertest.record(EnumSet.of(Table.FILES), manyDirs);
+		assertTrue(this.undertest.changedSince(1L, "/other", Table.FILES));
+	}
+
+	@Test
+	public void itAssumesAllDirsChangedOnceWriteIsForgotten() throws Exception {
+		this.undertest.record(EnumSet.of(Table.TAGS), Collections.singleton("/media/a"));
+		for (int i = 0; i < 20; i++) {
+			final List<String> dirs = new ArrayList<>();
+			for (int j = 0; j < WriteLog.MAX_DIRS_PER_WRITE; j++) {
+				dirs.add("/media/b/" + i + "/" + j);
+			}
+			this.undertest.record(EnumSet.of(Table.TAGS), dirs);
+		}
+		assertTrue(this.undertest.changedSince(0L, "/media/c", Table.TAGS));
+		assertFalse(this.undertest.changedSince(20L, "/media/c", Table.TAGS));
+		assertTrue(this.undertest.changedSince(20L, "/media/b/19", Table.TAGS));
+	}
+
+}
@@ -7,6 +7,7 @@ import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 
 import java.math.BigInteger;
 import java.sql.SQLException;
@@ -76,6 +77,21 @@ public class DbSearchParserTest {
 		runQuery("hello", id);
 	}
 
+	@Test
+	public void itSharesSqlBetweenSearchesOfTheSameShape() throws Exception {
+		assertEquals(DbSearchParser.termsShape(Arrays.asList("t=foo", "OR", "bar", "w>=100")),
+				DbSearchParser.termsShape(Arrays.asList("t=baz", "OR", "qux", "w>=200")));
+		assertNotEquals(DbSearchParser.termsShape(Arrays.asList("t=foo", "w>=100")),
+				DbSearchParser.termsShape(Arrays.asList("t=foo", "h>=100")));
+		assertNotEquals(DbSearchParser.termsShape(Arrays.asList("t=foo")),
+				DbSearchParser.termsShape(Arrays.asList("-t=foo")));
+
+		final DbSearch a = DbSearchParser.parseSearch("t=foo OR bar", null, SortColumn.FILE_PATH.asc());
+		final DbSearch b = DbSearchParser.parseSearch("t=baz OR qux", null, SortColumn.FILE_PATH.asc());
+		assertSame(a.getSql(), b.getSql());
+		assertThat(b.getTerms(), contains("t=baz", "OR", "qux"));
+	}
+
 	@Test
 	public void itPagesSearchResults() throws Exception {
 		final List<String> ids = new ArrayList<>();
@@ -652,6 +668,20 @@ public class DbSearchParserTest {
 				contains(id4, id3, id2, id1));
 	}
 
+	@Test
+	public void itPagesThroughResultsUsingSameSql() throws Exception {
+		final String id2 = mockMediaTrackWithNameContaining("thing 2");
+		final String id1 = mockMediaTrackWithNameContaining("thing 1");
+		final String id3 = mockMediaTrackWithNameContaining("thing 3");
+
+		final DbSearch page1 = DbSearchParser.parseSearch("f~thing", null, SortColumn.FILE_PATH.asc());
+		final DbSearch page2 = DbSearchParser.parseSearch("f~thing", null, SortColumn.FILE_PATH.asc());
+		assertSame(page1.getSql(), page2.getSql());
+
+		assertThat(page1.execute(this.mediaDb, 2, 0), contains(id1, id2));
+		assertThat(page2.execute(this.mediaDb, 2, 2), contains(id3));
+	}
+
 	@Test
 	public void itSortsResultsByDuration() throws Exception {
 		final String id2 = mockMediaTrackWithDuration(21000, "thing");
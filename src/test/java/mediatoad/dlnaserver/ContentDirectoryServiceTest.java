@@ -1,10 +1,14 @@
 package mediatoad.dlnaserver;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -38,6 +42,7 @@ public class ContentDirectoryServiceTest {
 	private MockContent mockContent;
 	private DIDLParser didlParser;
 	private SearchEngine searchEngine;
+	private NodeConverter nodeConverter;
 	private ContentDirectoryService undertest;
 
 	@Before
@@ -47,7 +52,8 @@ public class ContentDirectoryServiceTest {
 		this.mockContent.setShuffle(false);  // FIXME make tests less brittle.
 		this.didlParser = mockDidlParser();
 		this.searchEngine = mock(SearchEngine.class);
-		this.undertest = new ContentDirectoryService(this.contentTree, new NodeConverter(new ExternalUrls("")), this.searchEngine, true, () -> this.didlParser);
+		this.nodeConverter = spy(new NodeConverter(new ExternalUrls("")));
+		this.undertest = new ContentDirectoryService(this.contentTree, this.nodeConverter, this.searchEngine, true, () -> this.didlParser);
 	}
 
 	/**
@@ -176,6 +182,36 @@ public class ContentDirectoryServiceTest {
 		assertParserMarshaled(null, items.subList(0, 10));
 	}
 
+	@Test
+	public void itOnlyConvertsTheRequestedWindow () throws Exception {
+		this.mockContent.givenMockDirs(10);
+		final List<ContentItem> items = this.mockContent.givenMockItems(1000);
+
+		final BrowseResult ret = this.undertest.browse(this.contentTree.getRootNode().getId(), BrowseFlag.DIRECT_CHILDREN, null, 510, 50, null);
+
+		assertCorrectResult(ret, 50, 1010);
+		assertParserMarshaled(null, items.subList(500, 550));
+		verify(this.nodeConverter, times(50)).makeItem(any(ContentItem.class));
+		verify(this.nodeConverter, never()).makeContainerWithoutSubContainers(any(ContentNode.class));
+	}
+
+	@Test
+	public void itCachesBrowseResultsUntilChildrenChange () throws Exception {
+		this.mockContent.givenMockItems(10);
+		final String rootId = this.contentTree.getRootNode().getId();
+
+		assertCorrectResult(this.undertest.browse(rootId, BrowseFlag.DIRECT_CHILDREN, null, 0, 5, null), 5, 10);
+		assertCorrectResult(this.undertest.browse(rootId, BrowseFlag.DIRECT_CHILDREN, null, 0, 5, null), 5, 10);
+		verify(this.didlParser, times(1)).generate(any(DIDLContent.class));
+
+		assertCorrectResult(this.undertest.browse(rootId, BrowseFlag.DIRECT_CHILDREN, null, 5, 5, null), 5, 10);
+		verify(this.didlParser, times(2)).generate(any(DIDLContent.class));
+
+		this.mockContent.givenMockItems(1);
+		assertCorrectResult(this.undertest.browse(rootId, BrowseFlag.DIRECT_CHILDREN, null, 0, 5, null), 5, 11);
+		verify(this.didlParser, times(3)).generate(any(DIDLContent.class));
+	}
+
 	@Test
 	public void itSearchesUsingSearchEngine () throws Exception {
 		final List<ContentItem> items = this.mockContent.givenMockItems(10);
@@ -3,11 +3,13 @@ package mediatoad.dlnaserver;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasToString;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Before;
@@ -20,6 +22,7 @@ import mediatoad.media.ContentItem;
 import mediatoad.media.ContentNode;
 import mediatoad.media.ContentTree;
 import mediatoad.media.MediaFormat;
+import mediatoad.media.MetadataReader.Metadata;
 import mediatoad.media.MockContent;
 
 public class SearchEngineTest {
@@ -32,13 +35,13 @@ public class SearchEngineTest {
 	public void before () throws Exception {
 		this.contentTree = new ContentTree();
 		this.mockContent = new MockContent(this.contentTree);
-		this.undertest = new SearchEngine();
+		this.undertest = new SearchEngine(this.contentTree);
 	}
 
 	@Test
 	public void itSearchesByTitle () throws Exception {
 		final List<ContentItem> items = this.mockContent.givenMockItems(MediaFormat.MP4, 10);
-		when(items.get(3).getTitle()).thenReturn("some file foo\"Bar song.mp4");
+		givenTitle(items.get(3), "some file foo\"Bar song.mp4");
 
 		final List<ContentItem> ret = this.undertest.search(this.contentTree.getRootNode(),
 				"(upnp:class derivedfrom \"object.item.videoItem\" and dc:title contains \"foo\\\"bar\")",
@@ -51,7 +54,7 @@ public class SearchEngineTest {
 	public void itLimitsResults () throws Exception {
 		final List<ContentItem> items = this.mockContent.givenMockItems(MediaFormat.MP4, 10);
 		for (final ContentItem cn : items) {
-			when(cn.getTitle()).thenReturn("some file foo\"Bar song.mp4");
+			givenTitle(cn, "some file foo\"Bar song.mp4");
 		}
 
 		final List<ContentItem> ret = this.undertest.search(this.contentTree.getRootNode(),
@@ -73,8 +76,8 @@ public class SearchEngineTest {
 		final ContentNode protecDir = this.mockContent.addMockDir("dir-protec", root, authlist);
 		final List<ContentItem> protecItems = this.mockContent.givenMockItems(10, protecDir);
 
-		when(openItems.get(3).getTitle()).thenReturn("some open file foobar song.mp4");
-		when(protecItems.get(4).getTitle()).thenReturn("some protec file foobar song.mp4");
+		givenTitle(openItems.get(3), "some open file foobar song.mp4");
+		givenTitle(protecItems.get(4), "some protec file foobar song.mp4");
 
 		final List<ContentItem> openRet = this.undertest.search(this.contentTree.getRootNode(),
 				"dc:title contains \"foobar\"",
@@ -88,6 +91,71 @@ public class SearchEngineTest {
 		assertEquals(Arrays.asList(openItems.get(3), protecItems.get(4)), protecRet);
 	}
 
+	@Test
+	public void itSearchesByArtistAndAlbum () throws Exception {
+		final List<ContentItem> items = this.mockContent.givenMockItems(MediaFormat.MP3, 10);
+		givenMetadata(items.get(2), "Some Artist", "Some Album");
+		givenMetadata(items.get(5), "Other Artist", "Other Album");
+
+		assertEquals(items.subList(2, 3), this.undertest.search(this.contentTree.getRootNode(),
+				"(upnp:class derivedfrom \"object.item.audioItem\" and upnp:artist contains \"some art\")", 10, null));
+		assertEquals(items.subList(5, 6), this.undertest.search(this.contentTree.getRootNode(),
+				"upnp:album = \"her alb\"", 10, null));
+		assertEquals(Collections.emptyList(), this.undertest.search(this.contentTree.getRootNode(),
+				"(upnp:class derivedfrom \"object.item.videoItem\" and upnp:artist contains \"artist\")", 10, null));
+	}
+
+	@Test
+	public void itOnlySearchesUnderTheGivenNode () throws Exception {
+		this.mockContent.setShuffle(false);
+		final List<ContentNode> dirs = this.mockContent.givenMockDirs(2);
+		final List<ContentItem> items0 = this.mockContent.givenMockItems(3, dirs.get(0));
+		final List<ContentItem> items1 = this.mockContent.givenMockItems(3, dirs.get(1));
+		for (final ContentItem i : items0) givenTitle(i, "foobar " + i.getId());
+		for (final ContentItem i : items1) givenTitle(i, "foobar " + i.getId());
+
+		assertEquals(items1, this.undertest.search(dirs.get(1), "dc:title contains \"foobar\"", 10, null));
+	}
+
+	@Test
+	public void itReturnsIndexMatchesInTitleOrder () throws Exception {
+		this.mockContent.setShuffle(false);
+		final List<ContentItem> items = this.mockContent.givenMockItems(MediaFormat.MP4, 3);
+		givenTitle(items.get(0), "foobar c");
+		givenTitle(items.get(1), "foobar a");
+		givenTitle(items.get(2), "foobar b");
+
+		assertEquals(Arrays.asList(items.get(1), items.get(2)),
+				this.undertest.search(this.contentTree.getRootNode(), "dc:title contains \"foobar\"", 2, null));
+	}
+
+	@Test
+	public void itWalksContainerInTreeOrderWhenIndexCanNotNarrowSearch () throws Exception {
+		this.mockContent.setShuffle(false);
+		final List<ContentNode> dirs = this.mockContent.givenMockDirs(2);
+		final ContentNode subDir = this.mockContent.addMockDir("sub", dirs.get(0));
+		final List<ContentItem> items0 = this.mockContent.givenMockItems(2, dirs.get(0));
+		final List<ContentItem> subItems = this.mockContent.givenMockItems(2, subDir);
+		this.mockContent.givenMockItems(2, dirs.get(1));
+
+		assertEquals(Arrays.asList(items0.get(0), items0.get(1), subItems.get(0)),
+				this.undertest.search(dirs.get(0), "upnp:class derivedfrom \"object.item\"", 3, null));
+	}
+
+	@Test
+	public void itCachesResultsUntilItemsChange () throws Exception {
+		this.mockContent.setShuffle(false);
+		final List<ContentItem> items = this.mockContent.givenMockItems(MediaFormat.MP4, 10);
+		givenTitle(items.get(3), "foobar");
+
+		final List<ContentItem> first = this.undertest.search(this.contentTree.getRootNode(), "dc:title contains \"foobar\"", 10, null);
+		assertEquals(items.subList(3, 4), first);
+		assertSame(first, this.undertest.search(this.contentTree.getRootNode(), "dc:title contains \"foobar\"", 10, null));
+
+		givenTitle(items.get(4), "foobar");
+		assertEquals(items.subList(3, 5), this.undertest.search(this.contentTree.getRootNode(), "dc:title contains \"foobar\"", 10, null));
+	}
+
 	@Test
 	public void itParsesVideoWithTitle () throws Exception {
 		final Predicate<ContentItem> p = SearchEngine.criteriaToPredicate("(upnp:class derivedfrom \"object.item.videoItem\" and dc:title contains \"daa\")");
@@ -182,6 +250,19 @@ public class SearchEngineTest {
 		assertWhere(p, "TRUE");
 	}
 
+	/**
+	 * Items are indexed when added to the tree, so add them again once mocked.
+	 */
+	private void givenTitle(final ContentItem item, final String title) {
+		when(item.getTitle()).thenReturn(title);
+		this.contentTree.addItem(item);
+	}
+
+	private void givenMetadata(final ContentItem item, final String artist, final String album) {
+		item.setMetadata(new Metadata(artist, album));
+		this.contentTree.addItem(item);
+	}
+
 	private static void assertWhere(final Predicate<ContentItem> p, final String clause, final String... params) {
 		final Where w = p.getWhere();
 		assertEquals(clause, w.clause);
@@ -0,0 +1,90 @@
+package mediatoad.media;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentChildrenTest {
+
+	private ContentChildren<ContentItem> undertest;
+
+	@Before
+	public void before() throws Exception {
+		this.undertest = new ContentChildren<>(ContentItem.Order.TITLE_CASE_INSENSITIVE);
+	}
+
+	@Test
+	public void itKeepsChildrenSortedAndIndexed() throws Exception {
+		final ContentItem b = item("1", "b");
+		final ContentItem a = item("2", "a");
+		assertTrue(this.undertest.addIfAbsent(b));
+		assertTrue(this.undertest.addIfAbsent(a));
+		assertFalse(this.undertest.addIfAbsent(item("1", "c")));
+
+		assertThat(this.undertest.snapshot(), contains(a, b));
+		assertEquals(2, this.undertest.size());
+		assertTrue(this.undertest.hasId("1"));
+		assertFalse(this.undertest.hasId("3"));
+
+		assertTrue(this.undertest.removeById("1"));
+		assertFalse(this.undertest.removeById("1"));
+		assertThat(this.undertest.snapshot(), contains(a));
+		assertFalse(this.undertest.hasId("1"));
+	}
+
+	@Test
+	public void itReusesSnapshotUntilChanged() throws Exception {
+		this.undertest.addIfAbsent(item("1", "a"));
+		final List<ContentItem> first = this.undertest.snapshot();
+		assertSame(first, this.undertest.snapshot());
+
+		this.undertest.addIfAbsent(item("2", "b"));
+		final List<ContentItem> second = this.undertest.snapshot();
+		assertEquals(1, first.size());
+		assertEquals(2, second.size());
+	}
+
+	@Test
+	public void itChangesVersionOnlyWhenChildrenChange() throws Exception {
+		final long v0 = this.undertest.version();
+		this.undertest.addIfAbsent(item("1", "a"));
+		final long v1 = this.undertest.version();
+		assertNotEquals(v0, v1);
+
+		this.undertest.addIfAbsent(item("1", "a"));
+		this.undertest.removeById("2");
+		assertEquals(v1, this.undertest.version());
+
+		this.undertest.removeById("1");
+		assertNotEquals(v1, this.undertest.version());
+	}
+
+	@Test
+	public void itPollsLast() throws Exception {
+		assertNull(this.undertest.pollLast());
+		final ContentItem a = item("1", "a");
+		final ContentItem b = item("2", "b");
+		this.undertest.addIfAbsent(a);
+		this.undertest.addIfAbsent(b);
+
+		assertSame(b, this.undertest.last());
+		assertSame(b, this.undertest.pollLast());
+		assertFalse(this.undertest.hasId("2"));
+		assertThat(this.undertest.snapshot(), contains(a));
+	}
+
+	private static ContentItem item(final String id, final String title) {
+		return new ContentItem(id, "parent", title, null, null);
+	}
+
+}
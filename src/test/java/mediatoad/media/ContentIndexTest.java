@@ -0,0 +1,90 @@
+package mediatoad.media;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import mediatoad.media.ContentIndex.Field;
+import mediatoad.media.MetadataReader.Metadata;
+
+public class ContentIndexTest {
+
+	private ContentIndex undertest;
+
+	@Before
+	public void before() throws Exception {
+		this.undertest = new ContentIndex();
+	}
+
+	@Test
+	public void itFindsItemsByWordsInTitle() throws Exception {
+		final ContentItem a = item("a", "Some Foobar Song.mp4", MediaFormat.MP4);
+		final ContentItem b = item("b", "other bar thing.mp4", MediaFormat.MP4);
+		this.undertest.add(a);
+		this.undertest.add(b);
+
+		assertThat(lookup(Field.TITLE, "bar"), contains(a, b));
+		assertThat(lookup(Field.TITLE, "BAR SON"), contains(a));
+		assertThat(lookup(Field.TITLE, " bar "), contains(b));
+		assertThat(lookup(Field.TITLE, "foo bar"), empty());
+		assertThat(lookup(Field.TITLE, "nothing"), empty());
+		assertNull(this.undertest.idsContaining(Field.TITLE, " - "));
+	}
+
+	@Test
+	public void itFindsItemsByMetadataAndGroup() throws Exception {
+		final ContentItem a = item("a", "a.mp3", MediaFormat.MP3);
+		a.setMetadata(new Metadata("The Artist", "An Album"));
+		final ContentItem b = item("b", "b.mp4", MediaFormat.MP4);
+		this.undertest.add(a);
+		this.undertest.add(b);
+
+		assertThat(lookup(Field.ARTIST, "artist"), contains(a));
+		assertThat(lookup(Field.ALBUM, "album"), contains(a));
+		assertThat(lookup(Field.TITLE, "artist"), empty());
+		assertThat(this.undertest.itemsForIds(this.undertest.idsInGroup(ContentGroup.VIDEO)), contains(b));
+		assertThat(this.undertest.itemsForIds(this.undertest.idsInGroup(ContentGroup.IMAGE)), empty());
+	}
+
+	@Test
+	public void itReplacesAndRemovesItems() throws Exception {
+		final ContentItem a1 = item("a", "first.mp4", MediaFormat.MP4);
+		final ContentItem b = item("b", "first.mp4", MediaFormat.MP4);
+		this.undertest.add(a1);
+		this.undertest.add(b);
+		final long v = this.undertest.getVersion();
+
+		final ContentItem a2 = item("a", "second.mp4", MediaFormat.MP4);
+		this.undertest.add(a2);
+		assertNotEquals(v, this.undertest.getVersion());
+		assertThat(lookup(Field.TITLE, "first"), contains(b));
+		assertThat(this.undertest.allItems(), contains(a2, b));
+
+		this.undertest.remove(a1);
+		assertEquals(2, this.undertest.size());
+
+		this.undertest.remove(a2);
+		assertThat(lookup(Field.TITLE, "second"), empty());
+		assertThat(this.undertest.allItems(), contains(b));
+	}
+
+	private List<ContentItem> lookup(final Field field, final String subString) {
+		final Set<Integer> ids = this.undertest.idsContaining(field, subString);
+		return this.undertest.itemsForIds(ids);
+	}
+
+	private static ContentItem item(final String id, final String title, final MediaFormat format) {
+		return new ContentItem(id, "0", title, new File("/media/" + title), format);
+	}
+
+}
@@ -3,6 +3,9 @@ package mediatoad.media;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -52,11 +55,57 @@ public class ContentNodeTest {
 		assertThat(actual, contains("1", "2", "a", "B", "c"));
 	}
 
-	@Ignore("Micro benchmark for checking performance of sort on insert.")
+	@Test
+	public void itChangesContentVersionWhenChildrenOrTheirDetailsChange() throws Exception {
+		final ContentNode n = new ContentNode("id", ContentGroup.AUDIO.getId(), "title", new File(""), null, null, null);
+		final ContentItem item = new ContentItem("1", n.getId(), "1", null, null);
+		final ContentNode child = new ContentNode("2", n.getId(), "2", "2");
+
+		final long v0 = n.getContentVersion();
+		n.addItemIfAbsent(item);
+		final long v1 = n.getContentVersion();
+		assertNotEquals(v0, v1);
+		assertEquals(v1, n.getContentVersion());
+
+		item.setDurationMillis(1234L);
+		final long v2 = n.getContentVersion();
+		assertNotEquals(v1, v2);
+
+		n.addNodeIfAbsent(child);
+		final long v3 = n.getContentVersion();
+		assertNotEquals(v2, v3);
+
+		child.setArt(item);
+		final long v4 = n.getContentVersion();
+		assertNotEquals(v3, v4);
+
+		n.removeItem(item);
+		assertNotEquals(v4, n.getContentVersion());
+	}
+
+	@Test
+	public void itRemovesNodesAndItems() throws Exception {
+		final ContentNode n = new ContentNode("id", ContentGroup.AUDIO.getId(), "title", new File(""), null, null, null);
+		final ContentNode child = new ContentNode("1", n.getId(), "1", "1");
+		final ContentItem item = new ContentItem("2", n.getId(), "2", null, null);
+		n.addNodeIfAbsent(child);
+		n.addItemIfAbsent(item);
+		assertTrue(n.hasNodeWithId("1"));
+		assertTrue(n.hasItemWithId("2"));
+
+		assertTrue(n.removeNode(child));
+		assertTrue(n.removeItem(item));
+		assertFalse(n.removeItem(item));
+		assertFalse(n.hasNodeWithId("1"));
+		assertFalse(n.hasItemWithId("2"));
+		assertEquals(0, n.getNodeAndItemCount());
+	}
+
+	@Ignore("Micro benchmark for checking performance of large directories.")
 	@Test
 	public void itAddsManyRandomItems() throws Exception {
 		final ContentNode n = new ContentNode("id", ContentGroup.AUDIO.getId(), "title", new File(""), null, null, null);
-		final int count = 5000;
+		final int count = 50000;
 		final List<String> titles = new ArrayList<>(count);
 		for (int i = 0; i < count; i++) {
 			titles.add(RandomStringUtils.randomPrint(10, 50));
@@ -70,6 +119,20 @@ public class ContentNodeTest {
 		}
 		final long end = System.nanoTime();
 		System.out.println("Adding and sorting took: " + TimeUnit.NANOSECONDS.toMillis(end - start) + "ms");
+
+		final long readStart = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			n.itemsUserHasAuth(null);
+		}
+		final long readEnd = System.nanoTime();
+		System.out.println("1000 reads took: " + TimeUnit.NANOSECONDS.toMillis(readEnd - readStart) + "ms");
+
+		final long removeStart = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			n.removeItem(new ContentItem(String.valueOf(i), n.getId(), "", null, null));
+		}
+		final long removeEnd = System.nanoTime();
+		System.out.println("Removing took: " + TimeUnit.NANOSECONDS.toMillis(removeEnd - removeStart) + "ms");
 	}
 
 }
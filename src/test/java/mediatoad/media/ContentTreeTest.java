@@ -84,6 +84,30 @@ public class ContentTreeTest {
 		assertThat(this.undertest.getItems(), not(hasItem(b)));
 	}
 
+	@Test
+	public void itRemovesSubtreeIncludingFlattenedDirs() throws Exception {
+		final ContentNode aa = this.mockContent.addMockDir("aa");
+		final ContentNode aa2 = this.mockContent.addMockDir("aa2");
+		final ContentItem aa2Item = this.mockContent.addMockItem("aa2item", aa2);
+
+		final File bbDir = new File(aa.getFile(), "bb");
+		final ContentNode bb = new ContentNode("bb", this.undertest.getRootNode().getId(), "bb", bbDir, null, null, null);
+		this.undertest.addNode(bb);
+		this.undertest.getRootNode().addNodeIfAbsent(bb);
+		final ContentItem bbItem = this.mockContent.addMockItem("bbitem", bb);
+
+		assertEquals(1, this.undertest.removeFile(aa.getFile()));
+		assertThat(this.undertest.getNodes(), hasItem(bb));
+
+		assertEquals(1, this.undertest.removeSubtree(aa.getFile()));
+		assertThat(this.undertest.getNodes(), not(hasItem(bb)));
+		assertThat(this.undertest.getItems(), not(hasItem(bbItem)));
+		assertThat(this.undertest.getRecent().getCopyOfItems(), not(hasItem(bbItem)));
+
+		assertThat(this.undertest.getNodes(), hasItem(aa2));
+		assertThat(this.undertest.getItems(), hasItem(aa2Item));
+	}
+
 	@Test
 	public void itGetsNodeByPath() throws Exception {
 		final ContentNode a = this.mockContent.addMockDir("aa");
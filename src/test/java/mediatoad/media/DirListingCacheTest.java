@@ -0,0 +1,70 @@
+package mediatoad.media;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import mediatoad.media.DirListingCache.Listing;
+
+public class DirListingCacheTest {
+
+	@Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+	private DirListingCache undertest;
+
+	@Before
+	public void before() throws Exception {
+		this.undertest = new DirListingCache();
+	}
+
+	@Test
+	public void itListsDirOnce() throws Exception {
+		final File dir = this.tmp.newFolder("dir");
+		new File(dir, "video.mkv").createNewFile();
+		new File(dir, "video.en.srt").createNewFile();
+
+		final Listing listing = this.undertest.get(dir);
+		assertThat(listing.subtitlesStartingWith("video"), contains("video.en.srt"));
+
+		new File(dir, "video.srt").createNewFile();
+		assertSame(listing, this.undertest.get(dir));
+
+		this.undertest.invalidate(dir);
+		assertThat(this.undertest.get(dir).subtitlesStartingWith("video"), contains("video.en.srt", "video.srt"));
+	}
+
+	@Test
+	public void itUsesListingItIsGiven() throws Exception {
+		final File dir = this.tmp.newFolder("dir");
+		this.undertest.put(dir, Arrays.asList(
+				new File(dir, "a.mkv"),
+				new File(dir, "b.mkv"),
+				new File(dir, "b.srt"),
+				new File(dir, "b.jpg"),
+				new File(dir, "folder.png")));
+
+		final Listing listing = this.undertest.get(dir);
+		assertThat(listing.subtitlesStartingWith("a"), empty());
+		assertThat(listing.subtitlesStartingWith("b"), contains("b.srt"));
+		assertEquals(new File(dir, "b.jpg"), CoverArtHelper.findCoverArt(dir, listing.getImages(), "b"));
+		assertEquals(new File(dir, "folder.png"), CoverArtHelper.findCoverArt(dir, listing.getImages(), "a"));
+		assertEquals(new File(dir, "folder.png"), CoverArtHelper.findCoverArt(dir, listing.getImages(), null));
+	}
+
+	@Test
+	public void itReturnsNullForMissingDir() throws Exception {
+		assertNull(this.undertest.get(new File(this.tmp.getRoot(), "missing")));
+	}
+
+}
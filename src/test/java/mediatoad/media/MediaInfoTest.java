@@ -0,0 +1,89 @@
+package mediatoad.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+import mediatoad.db.FileInfo;
+import mediatoad.db.MediaMetadataStore;
+import mediatoad.db.PreloadedFileInfos;
+
+public class MediaInfoTest {
+
+	@Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+	private MediaMetadataStore mediaMetadataStore;
+	private PreloadedFileInfos preloaded;
+	private ExecutorService exSvc;
+	private MediaInfo undertest;
+
+	@Before
+	public void before() throws Exception {
+		this.mediaMetadataStore = mock(MediaMetadataStore.class);
+		this.preloaded = mock(PreloadedFileInfos.class);
+		when(this.mediaMetadataStore.readAllFileInfos()).thenReturn(this.preloaded);
+		this.exSvc = mock(ExecutorService.class);
+		this.undertest = new MediaInfo(this.mediaMetadataStore, null, this.exSvc);
+	}
+
+	@Test
+	public void itUsesPreloadedInfoWithoutQueuingJob() throws Exception {
+		final File file = this.tmp.newFile("video.mp4");
+		final ContentItem item = new ContentItem("id1", "0", "video", file, MediaFormat.MP4);
+		when(this.preloaded.get("id1", file)).thenReturn(new FileInfo(123456, 640, 480));
+
+		this.undertest.preloadStoredInfo();
+		this.undertest.readInfoAsync(file, item);
+
+		assertEquals(123456, item.getDurationMillis());
+		assertEquals(640, item.getWidth());
+		verifyNoInteractions(this.exSvc);
+	}
+
+	@Test
+	public void itSkipsDbForFilesNotPreloaded() throws Exception {
+		final File file = this.tmp.newFile("video.mp4");
+		final ContentItem item = new ContentItem("id1", "0", "video", file, MediaFormat.MP4);
+
+		this.undertest.preloadStoredInfo();
+		this.undertest.readInfoAsync(file, item);
+		runQueuedJob();
+
+		verify(this.mediaMetadataStore, never()).readFileInfo(anyString(), any(File.class));
+	}
+
+	@Test
+	public void itChecksDbOncePreloadedInfoIsDropped() throws Exception {
+		final File file = this.tmp.newFile("video.mp4");
+		final ContentItem item = new ContentItem("id1", "0", "video", file, MediaFormat.MP4);
+		when(this.mediaMetadataStore.readFileInfo("id1", file)).thenReturn(new FileInfo(123456, 640, 480));
+
+		this.undertest.preloadStoredInfo();
+		this.undertest.dropPreloadedInfo();
+		this.undertest.readInfoAsync(file, item);
+		runQueuedJob();
+
+		assertEquals(123456, item.getDurationMillis());
+	}
+
+	private void runQueuedJob() {
+		final ArgumentCaptor<Runnable> cap = ArgumentCaptor.forClass(Runnable.class);
+		verify(this.exSvc).submit(cap.capture());
+		cap.getValue().run();
+	}
+
+}
@@ -43,4 +43,16 @@ public class RecentContentNodeTest {
 		assertThat(actualNoAuth, hasSize(0));
 	}
 
+	@Test
+	public void itReplacesPreviousVersionOfSameItem() throws Exception {
+		final ContentNode node = this.mockContent.addMockDir("node");
+		final ContentItem first = this.mockContent.addMockItem("item", node);
+		final ContentItem second = new ContentItem(first.getId(), node.getId(), first.getTitle(), null, null);
+
+		this.undertest.maybeAddToRecent(first, node);
+		this.undertest.maybeAddToRecent(second, node);
+
+		assertThat(this.undertest.itemsUserHasAuth(null), contains(second));
+	}
+
 }
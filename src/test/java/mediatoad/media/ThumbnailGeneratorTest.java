@@ -0,0 +1,127 @@
+package mediatoad.media;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import mediatoad.util.ExecutorHelper;
+
+public class ThumbnailGeneratorTest {
+
+	@Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+	private final List<String> generated = Collections.synchronizedList(new ArrayList<>());
+	private CountDownLatch blockGenerate;
+	private CountDownLatch generateStarted;
+	private ExecutorService requestEx;
+	private ThreadPoolExecutor thumbEx;
+	private ThumbnailGenerator undertest;
+
+	@Before
+	public void before() throws Exception {
+		this.blockGenerate = new CountDownLatch(1);
+		this.generateStarted = new CountDownLatch(1);
+		this.requestEx = Executors.newCachedThreadPool();
+		this.thumbEx = (ThreadPoolExecutor) ExecutorHelper.newPriorityExecutor(1, "test-thumbs");
+		this.undertest = new ThumbnailGenerator(this.tmp.newFolder("thumbs"), this.thumbEx) {
+			@Override
+			void doGenerate(final ContentItem item, final File inF, final File outF) throws IOException {
+				ThumbnailGeneratorTest.this.generateStarted.countDown();
+				try {
+					ThumbnailGeneratorTest.this.blockGenerate.await(5, TimeUnit.SECONDS);
+				}
+				catch (final InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				ThumbnailGeneratorTest.this.generated.add(item.getId());
+				FileUtils.touch(outF);
+			}
+		};
+	}
+
+	@After
+	public void after() throws Exception {
+		this.blockGenerate.countDown();
+		this.requestEx.shutdownNow();
+		this.thumbEx.shutdownNow();
+	}
+
+	@Test
+	public void itGeneratesEachThumbnailOnce() throws Exception {
+		final ContentItem item = mockItem("a");
+		final CompletableFuture<File> background = this.undertest.generateInBackground(item);
+		assertTrue(this.generateStarted.await(5, TimeUnit.SECONDS));
+		final Future<File> request1 = this.requestEx.submit(() -> this.undertest.generate(item));
+		final Future<File> request2 = this.requestEx.submit(() -> this.undertest.generate(item));
+
+		this.blockGenerate.countDown();
+		final File thumb = background.get(5, TimeUnit.SECONDS);
+		assertEquals(thumb, request1.get(5, TimeUnit.SECONDS));
+		assertEquals(thumb, request2.get(5, TimeUnit.SECONDS));
+		assertThat(this.generated, contains("a"));
+
+		assertEquals(thumb, this.undertest.generate(item));
+		assertThat(this.generated, contains("a"));
+	}
+
+	@Test
+	public void itGeneratesRequestedThumbnailsBeforeBackgroundOnes() throws Exception {
+		final CompletableFuture<File> a = this.undertest.generateInBackground(mockItem("a"));
+		assertTrue(this.generateStarted.await(5, TimeUnit.SECONDS));
+		final CompletableFuture<File> b = this.undertest.generateInBackground(mockItem("b"));
+		final ContentItem c = mockItem("c");
+		final CompletableFuture<File> cBackground = this.undertest.generateInBackground(c);
+		final CompletableFuture<File> d = this.undertest.generateInBackground(mockItem("d"));
+		final Future<File> cRequest = this.requestEx.submit(() -> this.undertest.generate(c));
+		waitForQueueToContain(4);  // Includes c queued a second time at request priority.
+		final ContentItem eItem = mockItem("e");
+		final Future<File> e = this.requestEx.submit(() -> this.undertest.generate(eItem));
+		waitForQueueToContain(5);
+
+		this.blockGenerate.countDown();
+		CompletableFuture.allOf(a, b, cBackground, d).get(5, TimeUnit.SECONDS);
+		cRequest.get(5, TimeUnit.SECONDS);
+		e.get(5, TimeUnit.SECONDS);
+
+		assertThat(this.generated, contains("a", "c", "e", "b", "d"));
+	}
+
+	/**
+	 * Requests are made from another thread, so wait for them to be queued.
+	 */
+	private void waitForQueueToContain(final int count) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (this.thumbEx.getQueue().size() < count) {
+			if (System.nanoTime() > deadline) throw new IllegalStateException("Timed out waiting for queue.");
+			Thread.sleep(10);
+		}
+	}
+
+	private ContentItem mockItem(final String id) throws IOException {
+		final File file = this.tmp.newFile(id + ".jpg");
+		file.setLastModified(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1));
+		return new ContentItem(id, "parent", id, file, MediaFormat.JPEG);
+	}
+
+}
@@ -0,0 +1,40 @@
+package mediatoad.rpc.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+	@Test
+	public void itParsesSingleRanges() throws Exception {
+		assertEquals("0-99", ByteRange.parse("bytes=0-99").toString());
+		assertEquals("100-", ByteRange.parse("bytes=100-").toString());
+		assertEquals("-500", ByteRange.parse("bytes=-500").toString());
+		assertEquals("5-6", ByteRange.parse("bytes= 5 - 6").toString());
+	}
+
+	@Test
+	public void itIgnoresRangesItCanNotServe() throws Exception {
+		assertNull(ByteRange.parse(null));
+		assertNull(ByteRange.parse("items=0-1"));
+		assertNull(ByteRange.parse("bytes=0-1,5-6"));
+		assertNull(ByteRange.parse("bytes=5-4"));
+		assertNull(ByteRange.parse("bytes=-0"));
+		assertNull(ByteRange.parse("bytes=a-b"));
+		assertNull(ByteRange.parse("bytes=-"));
+		assertNull(ByteRange.parse("bytes=99999999999999999999-"));
+	}
+
+	@Test
+	public void itResolvesAgainstFileLength() throws Exception {
+		assertEquals("0-99", ByteRange.parse("bytes=0-99").resolve(1000).toString());
+		assertEquals("900-999", ByteRange.parse("bytes=900-2000").resolve(1000).toString());
+		assertEquals("100-999", ByteRange.parse("bytes=100-").resolve(1000).toString());
+		assertEquals("500-999", ByteRange.parse("bytes=-500").resolve(1000).toString());
+		assertEquals("0-999", ByteRange.parse("bytes=-5000").resolve(1000).toString());
+		assertNull(ByteRange.parse("bytes=1000-").resolve(1000));
+	}
+
+}
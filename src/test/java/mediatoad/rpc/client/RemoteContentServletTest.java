@@ -1,16 +1,20 @@
 package mediatoad.rpc.client;
 
 import static org.junit.Assert.assertEquals;
-import static org.mockito.ArgumentMatchers.anyLong;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
-import java.util.Iterator;
-import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -18,48 +22,244 @@ import org.junit.Test;
 import com.google.protobuf.ByteString;
 import com.vaguehope.common.servlet.MockHttpServletRequest;
 import com.vaguehope.common.servlet.MockHttpServletResponse;
+import com.vaguehope.common.servlet.MockServletOutputStream;
 
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import mediatoad.FakeServletCommon;
-import mediatoad.rpc.MediaGrpc.MediaBlockingStub;
+import mediatoad.rpc.MediaGrpc.MediaStub;
+import mediatoad.rpc.MediaToadProto.Range;
 import mediatoad.rpc.MediaToadProto.ReadMediaReply;
 import mediatoad.rpc.MediaToadProto.ReadMediaRequest;
 
 public class RemoteContentServletTest {
 
 	private RpcClient rpcClient;
+	private RemoteChunkCache chunkCache;
 	private RemoteContentServlet undertest;
 
+	private MediaStub stub;
+	private ClientCallStreamObserver<ReadMediaRequest> call;
+	private ClientResponseObserver<ReadMediaRequest, ReadMediaReply> remote;
+
 	private MockHttpServletRequest req;
 	private MockHttpServletResponse resp;
 
+	@SuppressWarnings("unchecked")
 	@Before
 	public void before() throws Exception {
 		this.rpcClient = mock(RpcClient.class);
-		this.undertest = new RemoteContentServlet(this.rpcClient, FakeServletCommon.make());
+		this.chunkCache = new RemoteChunkCache(1024 * 1024);
+		this.undertest = new RemoteContentServlet(this.rpcClient, FakeServletCommon.make(), this.chunkCache);
+
+		this.stub = mock(MediaStub.class);
+		when(this.rpcClient.getMediaStub("1")).thenReturn(this.stub);
+		this.call = mock(ClientCallStreamObserver.class);
+		doAnswer((inv) -> {
+			this.remote = inv.getArgument(1);
+			this.remote.beforeStart(this.call);
+			return null;
+		}).when(this.stub).readMedia(isA(ReadMediaRequest.class), any());
 
 		this.req = new MockHttpServletRequest();
 		this.resp = new MockHttpServletResponse();
 	}
 
 	@Test
-	public void itDoesSomething() throws Exception {
-		final MediaBlockingStub stub = mock(MediaBlockingStub.class);
-		when(this.rpcClient.getMediaBlockingStub("1")).thenReturn(stub);
-
-		final Iterator<ReadMediaReply> replies = Arrays.asList(
-				ReadMediaReply.newBuilder().setTotalFileLength(9).setMimeType("image/jpeg").setContent(ByteString.copyFrom("123", StandardCharsets.UTF_8)).build(),
-				ReadMediaReply.newBuilder().setContent(ByteString.copyFrom("456", StandardCharsets.UTF_8)).build(),
-				ReadMediaReply.newBuilder().setContent(ByteString.copyFrom("789", StandardCharsets.UTF_8)).build()).iterator();
-		when(stub.readMedia(isA(ReadMediaRequest.class))).thenReturn(replies);
-		when(stub.withDeadlineAfter(anyLong(), isA(TimeUnit.class))).thenReturn(stub);
-
+	public void itStreamsWholeFile() throws Exception {
 		this.req.setPathInfo("/1/someid.jpeg");
 		this.undertest.doGet(this.req, this.resp);
 
-		verify(stub).readMedia(ReadMediaRequest.newBuilder().setId("someid").build());
+		verify(this.stub).readMedia(isA(ReadMediaRequest.class), any());
+		verify(this.call).disableAutoRequestWithInitial(2);
+		sendRemoteReplies(null);
+		this.remote.onCompleted();
+
 		assertEquals("123456789", this.resp.getOutputAsString());
+		assertEquals(200, this.resp.getStatus());
 		assertEquals(9, this.resp.getContentLength());
 		assertEquals("image/jpeg", this.resp.getContentType());
+		assertEquals("bytes", this.resp.getHeader("Accept-Ranges"));
+		assertEquals("\"someid-9\"", this.resp.getHeader("ETag"));
+		verify(this.call, times(3)).request(1);
+		assertTrue(this.req.getAsyncContext().isCompleted());
+	}
+
+	@Test
+	public void itRequestsRangeFromRemote() throws Exception {
+		this.req.setPathInfo("/1/someid.jpeg");
+		this.req.addHeader("Range", "bytes=4-6");
+		this.undertest.doGet(this.req, this.resp);
+
+		// aligned to whole chunks so they can be cached.
+		verify(this.stub).readMedia(ReadMediaRequest.newBuilder()
+				.setId("someid")
+				.addRange(Range.newBuilder().setFirst(0).setLast(RemoteChunkCache.CHUNK_SIZE - 1).build())
+				.build(), this.remote);
+		this.remote.onNext(reply(9, 0, "123456789"));
+
+		assertEquals("567", this.resp.getOutputAsString());
+		assertEquals(206, this.resp.getStatus());
+		assertEquals(3, this.resp.getContentLength());
+		assertEquals("bytes 4-6/9", this.resp.getHeader("Content-Range"));
+		assertTrue(this.req.getAsyncContext().isCompleted());
+		verify(this.call).cancel(any(String.class), any());
+	}
+
+	@Test
+	public void itServesRangeFromChunkCache() throws Exception {
+		this.req.setPathInfo("/1/someid.jpeg");
+		this.undertest.doGet(this.req, this.resp);
+		this.remote.onNext(reply(9, null, "123456789"));
+		this.remote.onCompleted();
+		assertEquals("123456789", this.resp.getOutputAsString());
+
+		final MockHttpServletRequest req2 = new MockHttpServletRequest();
+		final MockHttpServletResponse resp2 = new MockHttpServletResponse();
+		req2.setPathInfo("/1/someid.jpeg");
+		req2.addHeader("Range", "bytes=-3");
+		req2.addHeader("If-Range", "\"someid-9\"");
+		this.undertest.doGet(req2, resp2);
+
+		verify(this.stub, times(1)).readMedia(isA(ReadMediaRequest.class), any());
+		assertEquals("789", resp2.getOutputAsString());
+		assertEquals(206, resp2.getStatus());
+		assertEquals("bytes 6-8/9", resp2.getHeader("Content-Range"));
+		assertTrue(req2.getAsyncContext().isCompleted());
+	}
+
+	@Test
+	public void itIgnoresRangeIfValidatorDoesNotMatch() throws Exception {
+		this.req.setPathInfo("/1/someid.jpeg");
+		this.req.addHeader("Range", "bytes=4-6");
+		this.req.addHeader("If-Range", "\"someid-10\"");
+		this.undertest.doGet(this.req, this.resp);
+
+		verify(this.stub).readMedia(ReadMediaRequest.newBuilder().setId("someid").build(), this.remote);
+		sendRemoteReplies(null);
+		this.remote.onCompleted();
+
+		assertEquals("123456789", this.resp.getOutputAsString());
+		assertEquals(200, this.resp.getStatus());
+		assertNull(this.resp.getHeader("Content-Range"));
+	}
+
+	@Test
+	public void itRejectsRangeAfterEndOfKnownFile() throws Exception {
+		this.chunkCache.putFileInfo("1", "someid", new RemoteChunkCache.FileInfo(9, "image/jpeg"));
+		this.req.setPathInfo("/1/someid.jpeg");
+		this.req.addHeader("Range", "bytes=9-");
+		this.undertest.doGet(this.req, this.resp);
+
+		verify(this.stub, never()).readMedia(isA(ReadMediaRequest.class), any());
+		assertEquals(416, this.resp.getStatus());
+		assertEquals("bytes */9", this.resp.getHeader("Content-Range"));
+	}
+
+	@Test
+	public void itRejectsRangeAfterEndOfFileOnceRemoteSaysHowLongItIs() throws Exception {
+		this.req.setPathInfo("/1/someid.jpeg");
+		this.req.addHeader("Range", "bytes=20-");
+		this.undertest.doGet(this.req, this.resp);
+		this.remote.onNext(reply(9, 0, "123456789"));
+
+		assertEquals(416, this.resp.getStatus());
+		assertEquals("bytes */9", this.resp.getHeader("Content-Range"));
+		assertTrue(this.req.getAsyncContext().isCompleted());
+	}
+
+	@Test
+	public void itRejectsRangeAfterEndOfFileWithLengthFromRemoteError() throws Exception {
+		this.req.setPathInfo("/1/someid.jpeg");
+		this.req.addHeader("Range", "bytes=" + RemoteChunkCache.CHUNK_SIZE + "-");
+		this.undertest.doGet(this.req, this.resp);
+
+		final Metadata trailers = new Metadata();
+		trailers.put(Metadata.Key.of("total-file-length", Metadata.ASCII_STRING_MARSHALLER), "9");
+		this.remote.onError(Status.OUT_OF_RANGE.asRuntimeException(trailers));
+
+		assertEquals(416, this.resp.getStatus());
+		assertEquals("bytes */9", this.resp.getHeader("Content-Range"));
+		assertTrue(this.req.getAsyncContext().isCompleted());
+	}
+
+	@Test
+	public void itReplacesCachedFileWhenRemoteLengthChanges() throws Exception {
+		this.req.setPathInfo("/1/someid.jpeg");
+		this.undertest.doGet(this.req, this.resp);
+		this.remote.onNext(reply(9, null, "123456789"));
+		this.remote.onCompleted();
+		assertEquals(9, this.chunkCache.getFileInfo("1", "someid").totalLength);
+
+		final MockHttpServletRequest req2 = new MockHttpServletRequest();
+		final MockHttpServletResponse resp2 = new MockHttpServletResponse();
+		req2.setPathInfo("/1/someid.jpeg");
+		req2.addHeader("Range", "bytes=" + RemoteChunkCache.CHUNK_SIZE + "-");
+		this.chunkCache.putFileInfo("1", "someid", new RemoteChunkCache.FileInfo(RemoteChunkCache.CHUNK_SIZE + 9, "image/jpeg"));
+		this.undertest.doGet(req2, resp2);
+		this.remote.onNext(reply(RemoteChunkCache.CHUNK_SIZE + 12, 0, "abcdefghijkl"));
+
+		assertTrue(req2.getAsyncContext().isCompleted());
+		assertEquals("", resp2.getOutputAsString());
+		assertEquals(RemoteChunkCache.CHUNK_SIZE + 12, this.chunkCache.getFileInfo("1", "someid").totalLength);
+		assertNull(this.chunkCache.getChunk("1", "someid", 9, 0));
+	}
+
+	@Test
+	public void itOnlyRequestsMoreOnceResponseCanBeWritten() throws Exception {
+		final MockServletOutputStream out = (MockServletOutputStream) this.resp.getOutputStream();
+		out.setReady(false);
+
+		this.req.setPathInfo("/1/someid.jpeg");
+		this.undertest.doGet(this.req, this.resp);
+		sendRemoteReplies(null);
+		this.remote.onCompleted();
+
+		assertEquals("", this.resp.getOutputAsString());
+		verify(this.call, never()).request(anyInt());
+		assertFalse(this.req.getAsyncContext().isCompleted());
+
+		out.setReady(true);
+		assertEquals("123456789", this.resp.getOutputAsString());
+		assertTrue(this.req.getAsyncContext().isCompleted());
+	}
+
+	@Test
+	public void itReturnsNotFoundFromRemote() throws Exception {
+		this.req.setPathInfo("/1/someid.jpeg");
+		this.undertest.doGet(this.req, this.resp);
+		this.remote.onError(Status.NOT_FOUND.asRuntimeException());
+
+		assertEquals(404, this.resp.getStatus());
+		assertTrue(this.req.getAsyncContext().isCompleted());
+	}
+
+	@Test
+	public void itCancelsRemoteWhenClientGoesAway() throws Exception {
+		this.req.setPathInfo("/1/someid.jpeg");
+		this.undertest.doGet(this.req, this.resp);
+		this.remote.onNext(reply(9, null, "123"));
+
+		this.req.getAsyncContext().complete();
+		verify(this.call).cancel(any(String.class), any());
+	}
+
+	private void sendRemoteReplies(final Integer rangeIndex) {
+		this.remote.onNext(reply(9, rangeIndex, "123"));
+		this.remote.onNext(reply(0, rangeIndex, "456"));
+		this.remote.onNext(reply(0, rangeIndex, "789"));
+	}
+
+	private static ReadMediaReply reply(final long totalLength, final Integer rangeIndex, final String content) {
+		final ReadMediaReply.Builder b = ReadMediaReply.newBuilder().setContent(ByteString.copyFrom(content, StandardCharsets.UTF_8));
+		if (totalLength > 0) {
+			b.setTotalFileLength(totalLength);
+			b.setMimeType("image/jpeg");
+		}
+		if (rangeIndex != null) b.setRangeIndex(rangeIndex);
+		return b.build();
 	}
 
 }
@@ -20,6 +20,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -39,6 +41,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 import io.grpc.Context;
+import io.grpc.Metadata;
 import io.grpc.Status.Code;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.ServerCallStreamObserver;
@@ -115,7 +118,8 @@ public class MediaImplTest {
 	@Test
 	public void itListsNode() throws Exception {
 		final ContentItem item = mockItem("itemid", "parent");
-		when(this.mediaDb.getTags("itemid", false, false)).thenReturn(asList(new Tag("foo", "cls", 1234567890L, false)));
+		when(this.mediaDb.getTags(Collections.singletonList("itemid"), false, false)).thenReturn(
+				ImmutableMap.<String, Collection<Tag>> of("itemid", asList(new Tag("foo", "cls", 1234567890L, false))));
 		when(this.mediaDb.getPlayback(Collections.singletonList("itemid"))).thenReturn(ImmutableMap.of("itemid", new Playback(0, 0, 0, true)));
 
 		final ContentNode node = mockNode("nodeid");
@@ -181,6 +185,77 @@ public class MediaImplTest {
 		verify(respObs).onCompleted();
 	}
 
+	@Test
+	public void itStreamsSearchResultsInPages() throws Exception {
+		final MockMediaMetadataStore mockMediaMetadataStore = setupFakeDb();
+		this.undertest = new MediaImpl(this.contentTree, this.mediaDb, 2);
+		final List<String> expectedIds = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			final String id = mockMediaMetadataStore.addFileWithNameAndTags("thing " + i, "foo");
+			this.contentTree.addItem(new ContentItem(id, "0", "thing " + i, new File(this.mediaDb.getFilePathForId(id)), MediaFormat.MP3));
+			expectedIds.add(id);
+		}
+
+		final ServerCallStreamObserver<SearchReply> respObs = mock(ServerCallStreamObserver.class);
+		when(respObs.isReady()).thenReturn(true);
+		this.undertest.searchStream(SearchRequest.newBuilder().setQuery("t=foo").build(), respObs);
+
+		verify(respObs, Mockito.never()).onError(any(Throwable.class));
+		final ArgumentCaptor<SearchReply> cap = ArgumentCaptor.forClass(SearchReply.class);
+		verify(respObs, times(2)).onNext(cap.capture());
+		assertThat(cap.getAllValues().get(0).getResultList(), hasSize(2));
+		assertThat(cap.getAllValues().get(1).getResultList(), hasSize(1));
+
+		final List<String> actualIds = new ArrayList<>();
+		for (final SearchReply r : cap.getAllValues()) {
+			for (final MediaItem i : r.getResultList()) {
+				actualIds.add(i.getId());
+				assertEquals("foo", i.getTag(0).getTag());
+			}
+		}
+		assertEquals(expectedIds, actualIds);
+		verify(respObs).onCompleted();
+	}
+
+	@Test
+	public void itStreamsNodeInPagesOnlyWhenReady() throws Exception {
+		this.undertest = new MediaImpl(this.contentTree, this.mediaDb, 2);
+		final ContentNode node = mockNode("nodeid");
+		final ContentNode child = mockNode("childid");
+		when(node.nodesUserHasAuth(nullable(String.class))).thenReturn(Collections.singletonList(child));
+		final List<ContentItem> items = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			items.add(mockItem("item" + i, "nodeid"));
+		}
+		when(node.itemsUserHasAuth(nullable(String.class))).thenReturn(items);
+		when(this.mediaDb.getPlayback(any(Collection.class))).thenReturn(Collections.emptyMap());
+		when(this.mediaDb.getTags(any(Collection.class), any(Boolean.class), any(Boolean.class))).thenReturn(Collections.emptyMap());
+
+		final ServerCallStreamObserver<ListNodeReply> respObs = mock(ServerCallStreamObserver.class);
+		when(respObs.isReady()).thenReturn(false);
+		this.undertest.listNodeStream(ListNodeRequest.newBuilder().setNodeId("nodeid").build(), respObs);
+
+		final ArgumentCaptor<Runnable> onReady = ArgumentCaptor.forClass(Runnable.class);
+		verify(respObs).setOnReadyHandler(onReady.capture());
+		verify(respObs, Mockito.never()).onNext(any(ListNodeReply.class));
+
+		when(respObs.isReady()).thenReturn(true);
+		onReady.getValue().run();
+
+		verify(respObs, Mockito.never()).onError(any(Throwable.class));
+		final ArgumentCaptor<ListNodeReply> cap = ArgumentCaptor.forClass(ListNodeReply.class);
+		verify(respObs, times(2)).onNext(cap.capture());
+		final ListNodeReply first = cap.getAllValues().get(0);
+		final ListNodeReply second = cap.getAllValues().get(1);
+		assertEquals("nodeid", first.getNode().getId());
+		assertEquals("childid", first.getChild(0).getId());
+		assertThat(first.getItemList(), hasSize(2));
+		assertFalse(second.hasNode());
+		assertThat(second.getChildList(), hasSize(0));
+		assertEquals("item2", second.getItem(0).getId());
+		verify(respObs).onCompleted();
+	}
+
 	@Test
 	public void itServesContent() throws Exception {
 		final ReadMediaRequest req = ReadMediaRequest.newBuilder().setId("someid").build();
@@ -251,6 +326,75 @@ public class MediaImplTest {
 		assertArrayEquals(expected, joinContent(msgs).toByteArray());
 	}
 
+	@Test
+	public void itHandlesMultipleRanges() throws Exception {
+		final ReadMediaRequest req = ReadMediaRequest.newBuilder()
+				.setId("someid")
+				.addRange(Range.newBuilder().setFirst(100).setLast(199).build())
+				.addRange(Range.newBuilder().setFirst(300 * 1024).setLast(2000 * 1024).build())
+				.build();
+		final byte[] data = mockItemFileData("someid", "parentid", 1000 * 1024);
+
+		final ServerCallStreamObserver<ReadMediaReply> respObs = mock(ServerCallStreamObserver.class);
+		when(respObs.isReady()).thenReturn(true);
+		this.undertest.readMedia(req, respObs);
+
+		verify(respObs, Mockito.never()).onError(any(Throwable.class));
+		final List<ReadMediaReply> msgs = getRespMsgs(4, respObs);
+		assertEquals(0, msgs.get(0).getRangeIndex());
+		assertArrayEquals(Arrays.copyOfRange(data, 100, 200), msgs.get(0).getContent().toByteArray());
+
+		final List<ReadMediaReply> second = msgs.subList(1, msgs.size());
+		for (final ReadMediaReply r : second) {
+			assertEquals(1, r.getRangeIndex());
+		}
+		assertArrayEquals(Arrays.copyOfRange(data, 300 * 1024, data.length), joinContent(second).toByteArray());
+		verify(respObs).onCompleted();
+	}
+
+	@Test
+	public void itRejectsRangeAfterEndOfFile() throws Exception {
+		final ReadMediaRequest req = ReadMediaRequest.newBuilder()
+				.setId("someid")
+				.addRange(Range.newBuilder().setFirst(1000).setLast(1999).build())
+				.build();
+		mockItemFileData("someid", "parentid", 1000);
+
+		final ServerCallStreamObserver<ReadMediaReply> respObs = mock(ServerCallStreamObserver.class);
+		when(respObs.isReady()).thenReturn(true);
+		this.undertest.readMedia(req, respObs);
+
+		final StatusRuntimeException e = verifyErrorStatus(respObs, Code.OUT_OF_RANGE);
+		verify(respObs, Mockito.never()).onNext(any(ReadMediaReply.class));
+		assertEquals("1000", e.getTrailers().get(Metadata.Key.of("total-file-length", Metadata.ASCII_STRING_MARSHALLER)));
+	}
+
+	@Test
+	public void itOnlySendsWhenReady() throws Exception {
+		final ReadMediaRequest req = ReadMediaRequest.newBuilder().setId("someid").build();
+		final byte[] data = mockItemFileData("someid", "parentid", 1000 * 1024);
+
+		final ServerCallStreamObserver<ReadMediaReply> respObs = mock(ServerCallStreamObserver.class);
+		when(respObs.isReady()).thenReturn(false);
+		this.undertest.readMedia(req, respObs);
+
+		final ArgumentCaptor<Runnable> onReady = ArgumentCaptor.forClass(Runnable.class);
+		verify(respObs).setOnReadyHandler(onReady.capture());
+		verify(respObs, Mockito.never()).onNext(any(ReadMediaReply.class));
+
+		when(respObs.isReady()).thenReturn(true, false);
+		onReady.getValue().run();
+		verify(respObs, times(1)).onNext(any(ReadMediaReply.class));
+		verify(respObs, Mockito.never()).onCompleted();
+
+		when(respObs.isReady()).thenReturn(true);
+		onReady.getValue().run();
+		final List<ReadMediaReply> msgs = getRespMsgs(4, respObs);
+		assertArrayEquals(data, joinContent(msgs).toByteArray());
+		verify(respObs).onCompleted();
+		verify(respObs, Mockito.never()).onError(any(Throwable.class));
+	}
+
 	@SuppressWarnings("resource")
 	@Test
 	public void itRecordsPlayback() throws Exception {
@@ -388,12 +532,13 @@ public class MediaImplTest {
 		assertEquals(false, this.mediaDb.getPlayback(id2).isExcluded());
 	}
 
-	private static void verifyErrorStatus(final StreamObserver<?> observer, final Code code) {
+	private static StatusRuntimeException verifyErrorStatus(final StreamObserver<?> observer, final Code code) {
 		final ArgumentCaptor<StatusRuntimeException> cap = ArgumentCaptor.forClass(StatusRuntimeException.class);
 		final InOrder ord = inOrder(observer);
 		ord.verify(observer).onError(cap.capture());
 		assertEquals(code, cap.getValue().getStatus().getCode());
 		ord.verifyNoMoreInteractions();
+		return cap.getValue();
 	}
 
 	private byte[] mockItemFileData(final String id, final String parentId, final int length) throws IOException {
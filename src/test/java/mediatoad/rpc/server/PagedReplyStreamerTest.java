@@ -0,0 +1,63 @@
+package mediatoad.rpc.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.grpc.Status.Code;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
+
+public class PagedReplyStreamerTest {
+
+	private ServerCallStreamObserver<String> observer;
+
+	@SuppressWarnings("unchecked")
+	@Before
+	public void before() throws Exception {
+		this.observer = mock(ServerCallStreamObserver.class);
+		when(this.observer.isReady()).thenReturn(true);
+	}
+
+	@Test
+	public void itSendsEveryPage() throws Exception {
+		new PagedReplyStreamer<>(2, (i) -> "page" + i, this.observer).start();
+		verify(this.observer).onNext("page0");
+		verify(this.observer).onNext("page1");
+		verify(this.observer).onCompleted();
+	}
+
+	@Test
+	public void itReturnsInternalErrorWhenMakingPageThrowsRuntimeException() throws Exception {
+		final PagedReplyStreamer<String> undertest = new PagedReplyStreamer<>(2, (i) -> {
+			throw new IllegalStateException("page failed");
+		}, this.observer);
+		undertest.start();
+
+		final ArgumentCaptor<StatusRuntimeException> cap = ArgumentCaptor.forClass(StatusRuntimeException.class);
+		verify(this.observer).onError(cap.capture());
+		assertEquals(Code.INTERNAL, cap.getValue().getStatus().getCode());
+		assertEquals("page failed", cap.getValue().getStatus().getDescription());
+
+		undertest.run();
+		verify(this.observer, never()).onNext(any());
+		verify(this.observer, never()).onCompleted();
+	}
+
+	@Test
+	public void itDoesNotSendErrorOnceCancelled() throws Exception {
+		when(this.observer.isCancelled()).thenReturn(true);
+		new PagedReplyStreamer<>(2, (i) -> {
+			throw new IllegalStateException("call already cancelled");
+		}, this.observer).start();
+		verify(this.observer, never()).onError(any());
+	}
+
+}
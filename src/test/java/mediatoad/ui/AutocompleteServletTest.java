@@ -20,6 +20,7 @@ import com.vaguehope.common.servlet.MockHttpServletResponse;
 import mediatoad.auth.DefaultAccess;
 import mediatoad.db.TagAutocompleter;
 import mediatoad.db.TagFrequency;
+import mediatoad.media.ContentTree;
 
 public class AutocompleteServletTest {
 
@@ -32,16 +33,16 @@ public class AutocompleteServletTest {
 	@Before
 	public void before() throws Exception {
 		this.tagAutocompleter = mock(TagAutocompleter.class);
-		this.undertest = new AutocompleteServlet(this.tagAutocompleter, DefaultAccess.ALLOW);
+		this.undertest = new AutocompleteServlet(this.tagAutocompleter, new ContentTree(), DefaultAccess.ALLOW);
 		this.req = new MockHttpServletRequest();
 		this.resp = new MockHttpServletResponse();
 	}
 
 	@Test
 	public void itDeniesIfDefaultClosed() throws Exception {
-		this.undertest = new AutocompleteServlet(this.tagAutocompleter, DefaultAccess.DENY);
+		this.undertest = new AutocompleteServlet(this.tagAutocompleter, new ContentTree(), DefaultAccess.DENY);
 		setSearchParams("t=bar");
-		when(this.tagAutocompleter.suggestTags("bar")).thenReturn(listOfTagFrequency("barfoo", 3));
+		when(this.tagAutocompleter.suggestTags("bar", null)).thenReturn(listOfTagFrequency("barfoo", 3));
 
 		this.undertest.doGet(this.req, this.resp);
 		assertEquals("[]", this.resp.getOutputAsString());
@@ -54,8 +55,8 @@ public class AutocompleteServletTest {
 
 		final List<TagFrequency> res1 = listOfTagFrequency("foo", 2);
 		final List<TagFrequency> res2 = listOfTagFrequency("barfoo", 3);
-		when(this.tagAutocompleter.suggestTags("foo")).thenReturn(res1);
-		when(this.tagAutocompleter.suggestFragments("foo")).thenReturn(res2);
+		when(this.tagAutocompleter.suggestTags("foo", null)).thenReturn(res1);
+		when(this.tagAutocompleter.suggestFragments("foo", null)).thenReturn(res2);
 
 		this.undertest.doGet(this.req, this.resp);
 
@@ -72,14 +73,14 @@ public class AutocompleteServletTest {
 	@Test
 	public void itSuggestsForSearchEquals() throws Exception {
 		setSearchParams("t=bar");
-		when(this.tagAutocompleter.suggestTags("bar")).thenReturn(listOfTagFrequency("barfoo", 3));
+		when(this.tagAutocompleter.suggestTags("bar", null)).thenReturn(listOfTagFrequency("barfoo", 3));
 		assertEqualSearchResult("");
 	}
 
 	@Test
 	public void itSuggestsForSearchEqualsNegative() throws Exception {
 		setSearchParams("-t=bar");
-		when(this.tagAutocompleter.suggestTags("bar")).thenReturn(listOfTagFrequency("barfoo", 3));
+		when(this.tagAutocompleter.suggestTags("bar", null)).thenReturn(listOfTagFrequency("barfoo", 3));
 		assertEqualSearchResult("-");
 	}
 
@@ -97,12 +98,12 @@ public class AutocompleteServletTest {
 	public void itSuggestsForSearchEqualsWithSpacesAndBrackets() throws Exception {
 		setSearchParams("t=bar");
 
-		when(this.tagAutocompleter.suggestTags("bar")).thenReturn(Arrays.asList(new TagFrequency("bar foo", 3)));
+		when(this.tagAutocompleter.suggestTags("bar", null)).thenReturn(Arrays.asList(new TagFrequency("bar foo", 3)));
 		this.undertest.doGet(this.req, this.resp);
 		assertEquals("[{\"tag\":\"t\\u003d\\\"bar foo\\\"\",\"count\":3}]", this.resp.getOutputAsString());
 
 		this.resp = new MockHttpServletResponse();
-		when(this.tagAutocompleter.suggestTags("bar")).thenReturn(Arrays.asList(new TagFrequency("bar(foo)", 3)));
+		when(this.tagAutocompleter.suggestTags("bar", null)).thenReturn(Arrays.asList(new TagFrequency("bar(foo)", 3)));
 		this.undertest.doGet(this.req, this.resp);
 		assertEquals("[{\"tag\":\"t\\u003d\\\"bar(foo)\\\"\",\"count\":3}]", this.resp.getOutputAsString());
 	}
@@ -110,16 +111,16 @@ public class AutocompleteServletTest {
 	@Test
 	public void itSuggestsForSearchPartial() throws Exception {
 		setSearchParams("t~foo");
-		when(this.tagAutocompleter.suggestTags("foo")).thenReturn(listOfTagFrequency("foobar", 1));
-		when(this.tagAutocompleter.suggestFragments("foo")).thenReturn(listOfTagFrequency("barfoo", 3));
+		when(this.tagAutocompleter.suggestTags("foo", null)).thenReturn(listOfTagFrequency("foobar", 1));
+		when(this.tagAutocompleter.suggestFragments("foo", null)).thenReturn(listOfTagFrequency("barfoo", 3));
 		assertPartialSearchResult("");
 	}
 
 	@Test
 	public void itSuggestsForSearchPartialNegative() throws Exception {
 		setSearchParams("-t~foo");
-		when(this.tagAutocompleter.suggestTags("foo")).thenReturn(listOfTagFrequency("foobar", 1));
-		when(this.tagAutocompleter.suggestFragments("foo")).thenReturn(listOfTagFrequency("barfoo", 3));
+		when(this.tagAutocompleter.suggestTags("foo", null)).thenReturn(listOfTagFrequency("foobar", 1));
+		when(this.tagAutocompleter.suggestFragments("foo", null)).thenReturn(listOfTagFrequency("barfoo", 3));
 		assertPartialSearchResult("-");
 	}
 
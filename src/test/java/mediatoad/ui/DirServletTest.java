@@ -3,7 +3,9 @@ package mediatoad.ui;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -123,6 +125,32 @@ public class DirServletTest {
 		}
 	}
 
+	@Test
+	public void itReturnsNotModifiedUntilDirChanges() throws Exception {
+		final ContentNode mockDir = this.mockContent.givenMockDirs(1).get(0);
+		final List<ContentItem> items = this.mockContent.givenMockItems(MediaFormat.MP3, 3, mockDir);
+
+		this.req.setMethod("GET");
+		this.req.setPathInfo("/" + mockDir.getId());
+		this.undertest.doGet(this.req, this.resp);
+		assertEquals(200, this.resp.getStatus());
+		final String etag = this.resp.getHeader("ETag");
+		assertThat(etag, startsWith("W/\""));
+
+		this.req.addHeader("If-None-Match", etag);
+		this.resp = new MockHttpServletResponse();
+		this.undertest.doGet(this.req, this.resp);
+		assertEquals(304, this.resp.getStatus());
+		assertEquals("", this.resp.getOutputAsString());
+
+		items.get(1).setDurationMillis(123456);
+		this.resp = new MockHttpServletResponse();
+		this.undertest.doGet(this.req, this.resp);
+		assertEquals(200, this.resp.getStatus());
+		assertThat(this.resp.getOutputAsString(), containsString("(00:02:03)"));
+		assertNotEquals(etag, this.resp.getHeader("ETag"));
+	}
+
 	@Test
 	public void itSortsItems() throws Exception {
 		final List<ContentNode> mockDirs = this.mockContent.givenMockDirs(1);
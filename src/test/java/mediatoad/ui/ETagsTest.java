@@ -0,0 +1,73 @@
+package mediatoad.ui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaguehope.common.servlet.MockHttpServletRequest;
+import com.vaguehope.common.servlet.MockHttpServletResponse;
+
+public class ETagsTest {
+
+	private MockHttpServletRequest req;
+	private MockHttpServletResponse resp;
+
+	@Before
+	public void before() throws Exception {
+		this.req = new MockHttpServletRequest();
+		this.resp = new MockHttpServletResponse();
+	}
+
+	@Test
+	public void itMakesSameTagForSameParts() throws Exception {
+		assertEquals(ETags.make("a", 1L, null), ETags.make("a", 1L, null));
+		assertNotEquals(ETags.make("a", 1L), ETags.make("a", 2L));
+		assertNotEquals(ETags.make("ab", "c"), ETags.make("a", "bc"));
+	}
+
+	@Test
+	public void itMatchesIfNoneMatch() throws Exception {
+		final String etag = ETags.make("a");
+		assertFalse(ETags.matches(null, etag));
+		assertFalse(ETags.matches(ETags.make("b"), etag));
+		assertTrue(ETags.matches(etag, etag));
+		assertTrue(ETags.matches(etag.substring(2), etag));
+		assertTrue(ETags.matches(ETags.make("b") + ", " + etag, etag));
+		assertTrue(ETags.matches("*", etag));
+	}
+
+	@Test
+	public void itSetsHeadersWhenClientDoesNotHaveTag() throws Exception {
+		this.req.setMethod("GET");
+		final String etag = ETags.make("a");
+		assertFalse(ETags.respondIfNotModified(this.req, this.resp, etag));
+		assertEquals(etag, this.resp.getHeader("ETag"));
+		assertEquals("private, no-cache", this.resp.getHeader("Cache-Control"));
+		assertEquals(200, this.resp.getStatus());
+	}
+
+	@Test
+	public void itRespondsNotModifiedForGet() throws Exception {
+		final String etag = ETags.make("a");
+		this.req.setMethod("GET");
+		this.req.addHeader("If-None-Match", etag);
+		assertTrue(ETags.respondIfNotModified(this.req, this.resp, etag));
+		assertEquals(304, this.resp.getStatus());
+	}
+
+	@Test
+	public void itLeavesOtherMethodsAlone() throws Exception {
+		final String etag = ETags.make("a");
+		this.req.setMethod("POST");
+		this.req.addHeader("If-None-Match", etag);
+		assertFalse(ETags.respondIfNotModified(this.req, this.resp, etag));
+		assertEquals(200, this.resp.getStatus());
+		assertNull(this.resp.getHeader("ETag"));
+	}
+
+}
@@ -7,7 +7,6 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
-import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
@@ -28,7 +27,6 @@ import mediatoad.auth.Permission;
 import mediatoad.auth.ReqAttr;
 import mediatoad.db.InMemoryMediaDb;
 import mediatoad.db.MediaDb;
-import mediatoad.db.TagAutocompleter;
 import mediatoad.db.WritableMediaDb;
 import mediatoad.media.ContentItem;
 import mediatoad.media.ContentNode;
@@ -44,7 +42,6 @@ public class ItemServletTest {
 	private MockContent mockContent;
 	private ItemServlet undertest;
 	private MediaDb mediaDb;
-	private TagAutocompleter tagAutocompleter;
 
 	private MockHttpServletRequest req;
 	private MockHttpServletResponse resp;
@@ -54,8 +51,7 @@ public class ItemServletTest {
 		this.contentTree = new ContentTree();
 		this.mockContent = new MockContent(this.contentTree, this.tmp);
 		this.mediaDb = spy(new InMemoryMediaDb());
-		this.tagAutocompleter = mock(TagAutocompleter.class);
-		this.undertest = new ItemServlet(FakeServletCommon.makeWithDbEnabled(this.contentTree), this.contentTree, this.mediaDb, this.tagAutocompleter);
+		this.undertest = new ItemServlet(FakeServletCommon.makeWithDbEnabled(this.contentTree), this.contentTree, this.mediaDb);
 
 		this.req = new MockHttpServletRequest();
 		this.resp = new MockHttpServletResponse();
@@ -158,7 +154,6 @@ public class ItemServletTest {
 		assertEquals("Forbidden\n", this.resp.getOutputAsString());
 		assertEquals(403, this.resp.getStatus());
 		verifyNoInteractions(this.mediaDb);
-		verifyNoInteractions(this.tagAutocompleter);
 	}
 
 	@Test
@@ -185,7 +180,6 @@ public class ItemServletTest {
 		assertEquals("Forbidden\n", this.resp.getOutputAsString());
 		assertEquals(403, this.resp.getStatus());
 		verifyNoInteractions(this.mediaDb);
-		verifyNoInteractions(this.tagAutocompleter);
 	}
 
 	@Test
@@ -199,8 +193,6 @@ public class ItemServletTest {
 		assertEquals("Tag added.\n", this.resp.getOutputAsString());
 		assertEquals(303, this.resp.getStatus());
 		assertEquals(tagToAdded, this.mediaDb.getTags(item.getId(), true, false).iterator().next().getTag());
-
-		verify(this.tagAutocompleter).addOrIncrementTag(tagToAdded);
 	}
 
 	@Test
@@ -215,8 +207,6 @@ public class ItemServletTest {
 		assertEquals("Tag added.\n", this.resp.getOutputAsString());
 		assertEquals(303, this.resp.getStatus());
 		assertEquals(tagToAdded, this.mediaDb.getTags(item.getId(), true, false).iterator().next().getTag());
-
-		verify(this.tagAutocompleter).addOrIncrementTag(tagToAdded);
 	}
 
 	@Test
@@ -234,8 +224,6 @@ public class ItemServletTest {
 		assertEquals("Tags removed.\n", this.resp.getOutputAsString());
 		assertEquals(303, this.resp.getStatus());
 		assertFalse(this.mediaDb.getTags(item.getId(), true, false).iterator().hasNext());
-
-		verify(this.tagAutocompleter).decrementTag(tagToRm);
 	}
 
 	private static AuthList makeAuthList() {
@@ -0,0 +1,139 @@
+package mediatoad.ui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.Flushable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.vaguehope.common.rpc.RpcTarget;
+
+import io.grpc.Status;
+import mediatoad.rpc.MediaGrpc.MediaFutureStub;
+import mediatoad.rpc.MediaToadProto.MediaItem;
+import mediatoad.rpc.MediaToadProto.SearchReply;
+import mediatoad.rpc.MediaToadProto.SearchRequest;
+import mediatoad.rpc.client.RemoteInstance;
+import mediatoad.rpc.client.RpcClient;
+import mediatoad.ui.templates.PageScope;
+import mediatoad.ui.templates.ResultGroupScope;
+
+public class RemoteSearchTest {
+
+	private RpcClient rpcClient;
+	private SettableFuture<SearchReply> reply0;
+	private SettableFuture<SearchReply> reply1;
+
+	@Before
+	public void before() throws Exception {
+		this.rpcClient = mock(RpcClient.class);
+		when(this.rpcClient.getRemoteInstances()).thenReturn(Arrays.asList(
+				new RemoteInstance("0", new RpcTarget("dns:///zero.example.com:80/", true)),
+				new RemoteInstance("1", new RpcTarget("dns:///one.example.com:80/", true))));
+		this.reply0 = SettableFuture.create();
+		this.reply1 = SettableFuture.create();
+		mockStub("0", this.reply0);
+		mockStub("1", this.reply1);
+	}
+
+	private void mockStub(final String id, final SettableFuture<SearchReply> reply) {
+		final MediaFutureStub stub = mock(MediaFutureStub.class);
+		when(stub.withDeadlineAfter(anyLong(), eq(TimeUnit.MILLISECONDS))).thenReturn(stub);
+		when(stub.search(SearchRequest.newBuilder().setQuery("foo").build())).thenReturn(reply);
+		when(this.rpcClient.getMediaFutureStub(id)).thenReturn(stub);
+	}
+
+	@Test
+	public void itReturnsGroupsInStartOrder() throws Exception {
+		final RemoteSearch undertest = new RemoteSearch(mock(PageScope.class));
+		undertest.searchInstances(this.rpcClient, "foo");
+
+		this.reply1.set(reply("b"));
+		this.reply0.set(reply("a"));
+
+		final List<ResultGroupScope> groups = undertest.awaitAll();
+		assertEquals(2, groups.size());
+		assertEquals("a", groups.get(0).list_items.get(0).title);
+		assertEquals("b", groups.get(1).list_items.get(0).title);
+	}
+
+	@Test
+	public void itReturnsErrorGroupForFailedRemote() throws Exception {
+		final RemoteSearch undertest = new RemoteSearch(mock(PageScope.class));
+		undertest.searchInstances(this.rpcClient, "foo");
+
+		this.reply0.setException(Status.UNAVAILABLE.asRuntimeException());
+		this.reply1.set(reply("b"));
+
+		final List<ResultGroupScope> groups = undertest.awaitAll();
+		assertEquals("Failed to search: Status{code=UNAVAILABLE, description=null, cause=null}", groups.get(0).msg);
+		assertEquals("b", groups.get(1).list_items.get(0).title);
+	}
+
+	@Test
+	public void itDoesNotWaitPastDeadline() throws Exception {
+		final RemoteSearch undertest = new RemoteSearch(mock(PageScope.class), 100L);
+		undertest.searchInstances(this.rpcClient, "foo");
+		this.reply1.set(reply("b"));
+
+		final long start = System.nanoTime();
+		final List<ResultGroupScope> groups = undertest.awaitAll();
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+		assertEquals("No answer within 100ms.", groups.get(0).msg);
+		assertEquals("b", groups.get(1).list_items.get(0).title);
+		assertTrue(this.reply0.isCancelled());
+	}
+
+	@Test
+	public void itReturnsGroupsAsTheyArrive() throws Exception {
+		final Flushable flushable = mock(Flushable.class);
+		final RemoteSearch undertest = new RemoteSearch(mock(PageScope.class));
+		undertest.searchInstances(this.rpcClient, "foo");
+
+		doAnswer((inv) -> {
+			this.reply0.set(reply("a"));
+			return null;
+		}).when(flushable).flush();
+
+		this.reply1.set(reply("b"));
+		final Iterator<ResultGroupScope> groups = undertest.asTheyArrive(flushable);
+		assertEquals("b", groups.next().list_items.get(0).title);
+		verify(flushable, never()).flush();
+
+		assertEquals("a", groups.next().list_items.get(0).title);
+		verify(flushable).flush();
+		assertFalse(groups.hasNext());
+	}
+
+	@Test
+	public void itHandlesNoRemotes() throws Exception {
+		when(this.rpcClient.getRemoteInstances()).thenReturn(Arrays.asList());
+		final RemoteSearch undertest = new RemoteSearch(mock(PageScope.class));
+		undertest.searchInstances(this.rpcClient, "foo");
+		assertTrue(undertest.awaitAll().isEmpty());
+		assertFalse(undertest.asTheyArrive(mock(Flushable.class)).hasNext());
+	}
+
+	private static SearchReply reply(final String title) {
+		return SearchReply.newBuilder()
+				.addResult(MediaItem.newBuilder().setId(title + "-id").setTitle(title).build())
+				.build();
+	}
+
+}
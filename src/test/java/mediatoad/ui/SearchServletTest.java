@@ -3,6 +3,9 @@ package mediatoad.ui;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anySet;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
@@ -11,18 +14,24 @@ import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.jupnp.UpnpService;
+import org.jupnp.registry.Registry;
 
+import com.google.common.util.concurrent.Futures;
+import com.vaguehope.common.rpc.RpcTarget;
 import com.vaguehope.common.servlet.MockHttpServletRequest;
 import com.vaguehope.common.servlet.MockHttpServletResponse;
 
 import mediatoad.FakeServletCommon;
+import mediatoad.auth.ReqAttr;
 import mediatoad.db.DbCache;
 import mediatoad.db.MediaDb;
 import mediatoad.db.MockMediaMetadataStore;
@@ -32,6 +41,11 @@ import mediatoad.media.ContentServlet;
 import mediatoad.media.ContentTree;
 import mediatoad.media.MediaFormat;
 import mediatoad.media.ThumbnailGenerator;
+import mediatoad.rpc.MediaGrpc.MediaFutureStub;
+import mediatoad.rpc.MediaToadProto.MediaItem;
+import mediatoad.rpc.MediaToadProto.SearchReply;
+import mediatoad.rpc.MediaToadProto.SearchRequest;
+import mediatoad.rpc.client.RemoteInstance;
 import mediatoad.rpc.client.RpcClient;
 
 public class SearchServletTest {
@@ -66,6 +80,12 @@ public class SearchServletTest {
 		this.dbCache = mock(DbCache.class);
 		when(this.dbCache.searchTopTags(anySet(), anyString())).thenReturn(Collections.emptyList());
 
+		this.upnpService = mock(UpnpService.class);
+		final Registry registry = mock(Registry.class);
+		when(this.upnpService.getRegistry()).thenReturn(registry);
+		when(registry.getRemoteDevices()).thenReturn(Collections.emptyList());
+		this.rpcClient = mock(RpcClient.class);
+
 		this.undertest = new SearchServlet(this.servletCommon, this.contentTree, this.contentServlet, this.db, this.dbCache, this.upnpService, this.rpcClient, this.thumbnailGenerator, this.searchEngine);
 
 		this.req = new MockHttpServletRequest();
@@ -123,6 +143,47 @@ public class SearchServletTest {
 		verify(this.contentServlet).service(this.req, this.resp);
 	}
 
+	@Test
+	public void itIncludesRemoteResults() throws Exception {
+		mockRemoteInstance();
+
+		this.req.setParameter("query", "t=foo");
+		this.req.setParameter("remote", "Search Remote");
+		ReqAttr.ALLOW_REMOTE_SEARCH.set(this.req, Boolean.TRUE);
+		this.undertest.doGet(this.req, this.resp);
+
+		assertEquals(200, this.resp.getStatus());
+		assertThat(this.resp.getOutputAsString(), containsString("<h3>RpcTarget{dns:///example.com:80/, true} items: 1</h3>"));
+		assertThat(this.resp.getOutputAsString(), containsString("<li><a href=\"rc/0/remote-id\" autofocus>remote thing</a></li>"));
+	}
+
+	@Test
+	public void itAppendsRemoteResultsAfterLocalResults() throws Exception {
+		mockItem("thing 0", "foo");
+		mockRemoteInstance();
+
+		this.req.setParameter("query", "t=foo");
+		this.req.setParameter("remote", SearchServlet.REMOTE_PROGRESSIVE);
+		ReqAttr.ALLOW_REMOTE_SEARCH.set(this.req, Boolean.TRUE);
+		this.undertest.doGet(this.req, this.resp);
+
+		assertEquals(200, this.resp.getStatus());
+		final String page = this.resp.getOutputAsString();
+		assertThat(page, containsString("<h3>Local items: 1</h3>"));
+		assertThat(page, containsString("<h3>RpcTarget{dns:///example.com:80/, true} items: 1</h3>"));
+		assertTrue(page.indexOf("Local items") < page.indexOf("example.com"));
+	}
+
+	private void mockRemoteInstance() {
+		when(this.rpcClient.getRemoteInstances()).thenReturn(Arrays.asList(new RemoteInstance("0", new RpcTarget("dns:///example.com:80/", true))));
+		final MediaFutureStub stub = mock(MediaFutureStub.class);
+		when(stub.withDeadlineAfter(anyLong(), any(TimeUnit.class))).thenReturn(stub);
+		when(stub.search(any(SearchRequest.class))).thenReturn(Futures.immediateFuture(SearchReply.newBuilder()
+				.addResult(MediaItem.newBuilder().setId("remote-id").setTitle("remote thing").build())
+				.build()));
+		when(this.rpcClient.getMediaFutureStub("0")).thenReturn(stub);
+	}
+
 	private void assertPageContainsItem(final ContentItem i, final String pathPrefix, final String itemQueryString) throws IOException {
 		assertThat(this.resp.getOutputAsString(), containsString(
 				"<li><a href=\"" + pathPrefix + "i/" + i.getId() + itemQueryString + "\" autofocus>"
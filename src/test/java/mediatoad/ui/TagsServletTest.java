@@ -3,7 +3,6 @@ package mediatoad.ui;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
-import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
@@ -21,7 +20,6 @@ import mediatoad.auth.Permission;
 import mediatoad.auth.ReqAttr;
 import mediatoad.db.InMemoryMediaDb;
 import mediatoad.db.MediaDb;
-import mediatoad.db.TagAutocompleter;
 import mediatoad.db.WritableMediaDb;
 import mediatoad.media.ContentItem;
 import mediatoad.media.ContentNode;
@@ -34,7 +32,6 @@ public class TagsServletTest {
 	private ContentTree contentTree;
 	private MockContent mockContent;
 	private MediaDb mediaDb;
-	private TagAutocompleter tagAutocompleter;
 
 	private TagsServlet undertest;
 
@@ -47,9 +44,8 @@ public class TagsServletTest {
 		this.mockContent = new MockContent(this.contentTree);
 
 		this.mediaDb = spy(new InMemoryMediaDb());
-		this.tagAutocompleter = mock(TagAutocompleter.class);
 
-		this.undertest = new TagsServlet(this.contentTree, this.mediaDb, this.tagAutocompleter);
+		this.undertest = new TagsServlet(this.contentTree, this.mediaDb);
 
 		this.req = new MockHttpServletRequest();
 		this.resp = new MockHttpServletResponse();
@@ -102,7 +98,6 @@ public class TagsServletTest {
 
 		assertEquals(200, this.resp.getStatus());
 		assertEquals("[{\"search\":\"t\\u003dmytag\",\"tag\":\"mytag\",\"cls\":\"\",\"count\":2}]", this.resp.getOutputAsString());
-		verify(this.tagAutocompleter).changeTagCount("mytag", 2);
 	}
 
 	@Test
@@ -129,7 +124,6 @@ public class TagsServletTest {
 
 		assertEquals(200, this.resp.getStatus());
 		assertEquals("[{\"search\":\"t\\u003dothertag\",\"tag\":\"othertag\",\"cls\":\"\",\"count\":2}]", this.resp.getOutputAsString());
-		verify(this.tagAutocompleter).changeTagCount("mytag", -2);
 	}
 
 	@Test
@@ -150,7 +144,6 @@ public class TagsServletTest {
 
 		assertEquals(200, this.resp.getStatus());
 		assertEquals("[{\"search\":\"t\\u003dmytag\",\"tag\":\"mytag\",\"cls\":\"\",\"count\":2}]", this.resp.getOutputAsString());
-		verify(this.tagAutocompleter).changeTagCount("mytag", 2);
 	}
 
 	@Test
@@ -3,6 +3,7 @@ package mediatoad.ui;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -147,6 +148,22 @@ public class WebdavServletTest {
 		assertThat(this.resp.getOutputAsString(), containsString("<D:href>/dir0/i</D:href>"));
 	}
 
+	@Test
+	public void itAlwaysAnswersPropfindInFullWithoutETag() throws Exception {
+		final ContentNode dir = this.mockContent.givenMockDirs(1).get(0);
+		this.mockContent.addMockItem("i", dir);
+
+		this.req.setMethod("PROPFIND");
+		this.req.setPathInfo("/" + dir.getId() + "/");
+		this.req.addHeader("Depth", "1");
+		this.req.addHeader("If-None-Match", "*");
+		this.undertest.service(this.req, this.resp);
+
+		assertThat(this.resp.getStatus(), equalTo(207));
+		assertThat(this.resp.getHeader("ETag"), nullValue());
+		assertThat(this.resp.getOutputAsString(), containsString("<D:href>/dir0/i</D:href>"));
+	}
+
 	@Test
 	public void itHandlesWebdavPropfindSubdirItem() throws Exception {
 		final List<ContentNode> mockDirs = this.mockContent.givenMockDirs(1);
@@ -2,10 +2,18 @@ package mediatoad.util;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.Before;
@@ -37,6 +45,55 @@ public class ImageResizerTest {
 		assertThat(f.length(), greaterThan(1L));
 	}
 
+	@Test
+	public void itScalesLargeImageFromSubsampledDecode() throws Exception {
+		final File in = writeImage(4000, 3000, BufferedImage.TYPE_INT_RGB, Color.RED, "jpg");
+		final File f = this.tmp.newFile();
+		this.undertest.scaleImageToFile(in, 200, 0.8f, f);
+
+		final BufferedImage out = ImageIO.read(f);
+		assertEquals(200, out.getWidth());
+		assertEquals(150, out.getHeight());
+		assertRoughly(Color.RED, new Color(out.getRGB(100, 75)));
+	}
+
+	@Test
+	public void itDrawsCheckerboardBehindTransparency() throws Exception {
+		final File in = writeImage(64, 64, BufferedImage.TYPE_INT_ARGB, new Color(0, 0, 0, 0), "png");
+		final File f = this.tmp.newFile();
+		this.undertest.scaleImageToFile(in, 32, 0.8f, f);
+
+		final BufferedImage out = ImageIO.read(f);
+		assertThat(new Color(out.getRGB(24, 8)).getRed(), greaterThan(150));
+	}
+
+	@Test
+	public void itChoosesSubsampling() throws Exception {
+		assertEquals(1, ImageResizer.chooseSubsampling(200, 100, 200));
+		assertEquals(1, ImageResizer.chooseSubsampling(799, 100, 200));
+		assertEquals(2, ImageResizer.chooseSubsampling(800, 100, 200));
+		assertEquals(2, ImageResizer.chooseSubsampling(100, 800, 200));
+		assertEquals(18, ImageResizer.chooseSubsampling(7360, 4912, 200));
+	}
+
+	@Ignore("Micro benchmark: set -Dbenchmark.images to a directory of sample images.")
+	@Test
+	public void itScalesSampleImagesQuickly() throws Exception {
+		final File[] files = new File(System.getProperty("benchmark.images", System.getProperty("user.home") + "/Art")).listFiles();
+		final File f = this.tmp.newFile();
+		for (int round = 0; round < 3; round++) {
+			final long start = System.nanoTime();
+			int count = 0;
+			for (final File in : files) {
+				if (!in.isFile()) continue;
+				this.undertest.scaleImageToFile(in, 200, 0.8f, f);
+				count += 1;
+			}
+			final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			System.out.println("Scaled " + count + " images in " + millis + "ms (" + (count > 0 ? millis / count : 0) + "ms each).");
+		}
+	}
+
 	@Ignore
 	@Test
 	public void itDecodesLocalFile() throws Exception {
@@ -46,4 +103,25 @@ public class ImageResizerTest {
 		assertThat(f.length(), greaterThan(1L));
 	}
 
+	private File writeImage(final int width, final int height, final int type, final Color colour, final String format) throws Exception {
+		final BufferedImage img = new BufferedImage(width, height, type);
+		final Graphics2D g = img.createGraphics();
+		try {
+			g.setBackground(colour);
+			g.clearRect(0, 0, width, height);
+		}
+		finally {
+			g.dispose();
+		}
+		final File f = this.tmp.newFile("in." + format);
+		assertTrue(ImageIO.write(img, format, f));
+		return f;
+	}
+
+	private static void assertRoughly(final Color expected, final Color actual) {
+		assertThat(Math.abs(expected.getRed() - actual.getRed()), lessThan(10));
+		assertThat(Math.abs(expected.getGreen() - actual.getGreen()), lessThan(10));
+		assertThat(Math.abs(expected.getBlue() - actual.getBlue()), lessThan(10));
+	}
+
 }
@@ -0,0 +1,88 @@
+package mediatoad.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PerDeviceExecutorTest {
+
+	@Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+	private ExecutorService ex;
+
+	@Before
+	public void before() throws Exception {
+		this.ex = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void after() throws Exception {
+		this.ex.shutdownNow();
+	}
+
+	@Test
+	public void itRunsOneTaskAtATimeForSameDevice() throws Exception {
+		assertEquals(1, runTasksAndCountMaxConcurrent(1, 5));
+	}
+
+	@Test
+	public void itRunsUpToLimitForSameDevice() throws Exception {
+		assertEquals(2, runTasksAndCountMaxConcurrent(2, 5));
+	}
+
+	@Test
+	public void itRunsTasksInOrderForSameDevice() throws Exception {
+		final PerDeviceExecutor undertest = new PerDeviceExecutor(this.ex, 1, "test");
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch done = new CountDownLatch(10);
+		for (int i = 0; i < 10; i++) {
+			final int n = i;
+			undertest.execute(this.tmp.newFile(), () -> {
+				order.add(n);
+				done.countDown();
+			});
+		}
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), order);
+	}
+
+	private int runTasksAndCountMaxConcurrent(final int perDeviceLimit, final int taskCount) throws Exception {
+		final PerDeviceExecutor undertest = new PerDeviceExecutor(this.ex, perDeviceLimit, "test");
+		final AtomicInteger running = new AtomicInteger(0);
+		final AtomicInteger maxRunning = new AtomicInteger(0);
+		final CountDownLatch done = new CountDownLatch(taskCount);
+		for (int i = 0; i < taskCount; i++) {
+			final File f = this.tmp.newFile();
+			undertest.execute(f, () -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(50);
+				}
+				catch (final InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				running.decrementAndGet();
+				done.countDown();
+			});
+		}
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		return maxRunning.get();
+	}
+
+}
@@ -0,0 +1,41 @@
+package mediatoad.util;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import mediatoad.util.Watcher.FileListener;
+
+public class ProgressLogFileListenerTest {
+
+	private FileListener deligate;
+	private ProgressLogFileListener undertest;
+
+	@Before
+	public void before() throws Exception {
+		this.deligate = mock(FileListener.class);
+		this.undertest = new ProgressLogFileListener(this.deligate, false);
+	}
+
+	@Test
+	public void itPassesOnDirListings() throws Exception {
+		final File dir = new File("/media/a");
+		final List<File> files = Arrays.asList(new File(dir, "1.mp4"), new File(dir, "2.mp4"));
+		this.undertest.dirListed(dir, files);
+		verify(this.deligate).dirListed(dir, files);
+	}
+
+	@Test
+	public void itPassesOnFileGone() throws Exception {
+		final File file = new File("/media/a/1.mp4");
+		this.undertest.fileGone(file, false);
+		verify(this.deligate).fileGone(file, false);
+	}
+
+}
@@ -1,15 +1,22 @@
 package mediatoad.util;
 
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -46,4 +53,96 @@ public class TreeWalkerTest {
 		o.verifyNoMoreInteractions();
 	}
 
+	@Test
+	public void itWalksTreeInParallel () throws Exception {
+		File file1 = this.tmp.newFile("file_1");
+		File dir1 = this.tmp.newFolder("dir_1");
+		File dir2 = this.tmp.newFolder("dir_2");
+		File dir3 = new File(dir1, "dir_3");
+		dir3.mkdir();
+		File file2 = new File(dir1, "file_2");
+		file2.createNewFile();
+		File file3 = new File(dir2, "file_3");
+		file3.createNewFile();
+		File file4 = new File(dir3, "file_4");
+		file4.createNewFile();
+
+		FileFilter fileFilter = mock(FileFilter.class);
+		when(fileFilter.accept(isA(File.class))).thenReturn(true);
+
+		Hiker hiker = mock(Hiker.class);
+		List<File> roots = new ArrayList<>();
+		roots.add(this.tmp.getRoot());
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			new TreeWalker(roots, fileFilter, hiker, pool).walk();
+		}
+		finally {
+			pool.shutdown();
+		}
+
+		verify(hiker).onDir(this.tmp.getRoot());
+		verify(hiker).onDir(dir1);
+		verify(hiker).onDir(dir2);
+		verify(hiker).onDir(dir3);
+
+		InOrder o = inOrder(hiker);
+		o.verify(hiker).onDirWithFiles(this.tmp.getRoot(), Arrays.asList(file1));
+		o.verify(hiker).onDirWithFiles(dir1, Arrays.asList(file2));
+		o.verify(hiker).onDirWithFiles(dir2, Arrays.asList(file3));
+		o.verify(hiker).onDirWithFiles(dir3, Arrays.asList(file4));
+		o.verifyNoMoreInteractions();
+	}
+
+	@Test
+	public void itUsesSnapshotForUnmodifiedDirs () throws Exception {
+		File file1 = this.tmp.newFile("file_1");
+		File dir1 = this.tmp.newFolder("dir_1");
+		File file2 = new File(dir1, "file_2");
+		file2.createNewFile();
+		File notOnDisk = new File(dir1, "file_3");
+
+		FileFilter fileFilter = mock(FileFilter.class);
+		when(fileFilter.accept(isA(File.class))).thenReturn(true);
+
+		DirSnapshot snapshot = mock(DirSnapshot.class);
+		when(snapshot.get(dir1, dir1.lastModified())).thenReturn(new DirSnapshot.Listing(Collections.emptyList(), Arrays.asList(file2, notOnDisk)));
+
+		Hiker hiker = mock(Hiker.class);
+		new TreeWalker(Arrays.asList(this.tmp.getRoot()), fileFilter, hiker, null, snapshot).walk();
+
+		verify(snapshot).put(this.tmp.getRoot(), this.tmp.getRoot().lastModified(), Arrays.asList(dir1), Arrays.asList(file1));
+		verify(snapshot, never()).put(eq(dir1), anyLong(), anyList(), anyList());
+
+		InOrder o = inOrder(hiker);
+		o.verify(hiker).onDirWithFiles(this.tmp.getRoot(), Arrays.asList(file1));
+		o.verify(hiker).onDirWithFiles(dir1, Arrays.asList(file2, notOnDisk));
+		o.verifyNoMoreInteractions();
+	}
+
+	@Test
+	public void itStoresAllFilesInSnapshotAndFiltersOnRead () throws Exception {
+		File media = this.tmp.newFile("a.mkv");
+		File other = this.tmp.newFile("b.txt");
+		File dir1 = this.tmp.newFolder("dir_1");
+		File newFormat = new File(dir1, "c.new");
+		File oldFormat = new File(dir1, "d.mkv");
+
+		FileFilter fileFilter = mock(FileFilter.class);
+		when(fileFilter.accept(isA(File.class))).thenAnswer((inv) -> !inv.getArgument(0, File.class).getName().endsWith(".txt"));
+
+		DirSnapshot snapshot = mock(DirSnapshot.class);
+		when(snapshot.get(dir1, dir1.lastModified())).thenReturn(new DirSnapshot.Listing(Collections.emptyList(), Arrays.asList(newFormat, oldFormat, new File(dir1, "e.txt"))));
+
+		Hiker hiker = mock(Hiker.class);
+		new TreeWalker(Arrays.asList(this.tmp.getRoot()), fileFilter, hiker, null, snapshot).walk();
+
+		verify(snapshot).put(this.tmp.getRoot(), this.tmp.getRoot().lastModified(), Arrays.asList(dir1), Arrays.asList(media, other));
+
+		InOrder o = inOrder(hiker);
+		o.verify(hiker).onDirWithFiles(this.tmp.getRoot(), Arrays.asList(media));
+		o.verify(hiker).onDirWithFiles(dir1, Arrays.asList(newFormat, oldFormat));
+		o.verifyNoMoreInteractions();
+	}
+
 }
@@ -193,6 +193,7 @@ public class WatcherTest {
 	public void itDetectsModify() throws Exception {
 		final File f1 = this.tmp.newFile("file1.mp4");
 		startWatcher(2, 10);  // Overall, wait for 2 file callbacks.
+		verify(this.listener).dirListed(this.tmpRoot, Arrays.asList(f1));
 		verify(this.listener).fileFound(this.tmpRoot, f1, EventType.SCAN, null);
 
 		FileUtils.write(f1, "data", "UTF-8");
@@ -228,6 +229,7 @@ public class WatcherTest {
 		FileUtils.touch(f1);
 
 		startWatcher(3, 10);
+		verify(this.listener).dirListed(d2, Arrays.asList(f1));
 		verify(this.listener).fileFound(this.tmpRoot, f1, EventType.SCAN, null);
 
 		final File d2NewName = new File(d1, "dir2NewName");
@@ -237,6 +239,7 @@ public class WatcherTest {
 		verify(this.listener, timeout(10000)).fileGone(d2, true);
 
 		File f1NewName = new File(d2NewName, f1.getName());
+		verify(this.listener).dirListed(d2NewName, Arrays.asList(f1NewName));
 		verify(this.listener).fileFound(this.tmpRoot, f1NewName, EventType.SCAN, null);
 
 		// Note: no delete event for f1 :(